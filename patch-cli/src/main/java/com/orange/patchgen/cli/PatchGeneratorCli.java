@@ -5,6 +5,8 @@ import com.orange.patchgen.callback.GeneratorCallback;
 import com.orange.patchgen.config.EngineType;
 import com.orange.patchgen.config.PatchMode;
 import com.orange.patchgen.config.SigningConfig;
+import com.orange.patchgen.differ.PatchDeltaDiffer;
+import com.orange.patchgen.model.ChunkManifest;
 import com.orange.patchgen.model.DiffSummary;
 import com.orange.patchgen.model.PatchInfo;
 import com.orange.patchgen.model.PatchResult;
@@ -18,8 +20,13 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * 补丁生成器命令行工具
@@ -75,6 +82,13 @@ public class PatchGeneratorCli {
             // Parse patch mode
             PatchMode patchMode = parsePatchMode(cmd.getOptionValue("mode", "full_dex"));
             
+            // Parse chunk manifest size (0 = no manifest)
+            int chunkSize = cmd.hasOption("chunk-manifest")
+                    ? parseChunkSize(cmd.getOptionValue("chunk-manifest")) : 0;
+            
+            // Previous patches to build deltas from
+            List<File> deltaBases = parseDeltaBases(cmd.getOptionValues("delta-from"));
+            
             // Print start message
             printStartMessage(baseApk, newApk, output, engineType, patchMode);
             
@@ -95,6 +109,16 @@ public class PatchGeneratorCli {
             // Print result
             printResult(result);
             
+            // Write chunk hash manifest for ranged downloads
+            if (result.isSuccess() && result.getPatchFile() != null && chunkSize > 0) {
+                writeChunkManifest(result.getPatchFile(), chunkSize);
+            }
+            
+            // Write deltas against previous patches
+            if (result.isSuccess() && result.getPatchFile() != null && !deltaBases.isEmpty()) {
+                writeDeltas(result.getPatchFile(), deltaBases);
+            }
+            
             // Exit with appropriate code
             System.exit(result.isSuccess() ? 0 : 1);
             
@@ -190,6 +214,23 @@ public class PatchGeneratorCli {
                 .argName("MODE")
                 .build());
         
+        options.addOption(Option.builder()
+                .longOpt("chunk-manifest")
+                .desc("Write <output>.chunks.json with per-chunk SHA-256 for ranged downloads; "
+                        + "optional chunk size in KB (default: 1024)")
+                .hasArg()
+                .optionalArg(true)
+                .argName("KB")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("delta-from")
+                .desc("Also write a delta from a previously released patch "
+                        + "(<output>.<base-sha256-prefix>.delta); may be repeated")
+                .hasArg()
+                .argName("PATCH")
+                .build());
+        
         // Other options
         options.addOption(Option.builder("v")
                 .longOpt("verbose")
@@ -209,6 +250,76 @@ public class PatchGeneratorCli {
         return options;
     }
 
+    /**
+     * Parse chunk size in KB for the chunk manifest
+     */
+    private static int parseChunkSize(String value) throws ParseException {
+        if (value == null || value.isEmpty()) {
+            return ChunkManifest.DEFAULT_CHUNK_SIZE;
+        }
+        try {
+            int kb = Integer.parseInt(value.trim());
+            if (kb <= 0 || kb > 64 * 1024) {
+                throw new ParseException("Invalid chunk size: " + value);
+            }
+            return kb * 1024;
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid chunk size: " + value);
+        }
+    }
+    
+    /**
+     * Write chunk hash manifest next to the patch file
+     */
+    private static void writeChunkManifest(File patchFile, int chunkSize) throws IOException {
+        ChunkManifest manifest = ChunkManifest.create(patchFile, chunkSize);
+        File manifestFile = ChunkManifest.manifestFileFor(patchFile);
+        manifest.writeTo(manifestFile);
+        System.out.println("Chunk Manifest:");
+        System.out.println("  Path:        " + manifestFile.getAbsolutePath());
+        System.out.println("  Chunks:      " + manifest.getChunks().size() + " x " + formatSize(chunkSize));
+        System.out.println();
+    }
+
+    /**
+     * Parse and validate previous patches given with --delta-from
+     */
+    private static List<File> parseDeltaBases(String[] values) throws ParseException {
+        List<File> bases = new ArrayList<>();
+        if (values == null) {
+            return bases;
+        }
+        for (String value : values) {
+            File base = new File(value);
+            if (!base.isFile()) {
+                throw new ParseException("Delta base patch not found: " + value);
+            }
+            bases.add(base);
+        }
+        return bases;
+    }
+    
+    /**
+     * Write a delta from each previous patch next to the patch file
+     */
+    private static void writeDeltas(File patchFile, List<File> deltaBases) throws IOException {
+        PatchDeltaDiffer differ = new PatchDeltaDiffer();
+        System.out.println("Deltas:");
+        for (File base : deltaBases) {
+            File tempFile = new File(patchFile.getPath() + ".delta.tmp");
+            PatchDeltaDiffer.Result delta = differ.diff(base, patchFile, tempFile);
+            File deltaFile = PatchDeltaDiffer.deltaFileFor(patchFile, delta.getBaseSha256());
+            Files.move(tempFile.toPath(), deltaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("  From:        " + base.getName());
+            System.out.println("  Base SHA256: " + delta.getBaseSha256());
+            System.out.println("  Path:        " + deltaFile.getAbsolutePath());
+            System.out.println("  Size:        " + formatSize(delta.getDeltaSize())
+                    + " (full patch " + formatSize(patchFile.length()) + ")");
+            System.out.println("  MD5:         " + delta.getDeltaMd5());
+        }
+        System.out.println();
+    }
+
     /**
      * Validate required parameters
      */
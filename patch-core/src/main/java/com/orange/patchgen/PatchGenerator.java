@@ -10,7 +10,12 @@ import com.orange.patchgen.config.SigningConfig;
 import com.orange.patchgen.differ.DexDiffException;
 import com.orange.patchgen.differ.DexDiffResult;
 import com.orange.patchgen.differ.DexDiffer;
+import com.orange.patchgen.differ.DexPacker;
 import com.orange.patchgen.differ.FileChange;
+import com.orange.patchgen.differ.MappingRewriter;
+import com.orange.patchgen.differ.OverlayTableBuilder;
+import com.orange.patchgen.differ.ProguardMapping;
+import com.orange.patchgen.differ.ResourceIdTable;
 import com.orange.patchgen.differ.ResourceDiffException;
 import com.orange.patchgen.differ.ResourceDiffResult;
 import com.orange.patchgen.differ.ResourceDiffer;
@@ -24,14 +29,22 @@ import com.orange.patchgen.packer.PatchPackException;
 import com.orange.patchgen.packer.PatchPacker;
 import com.orange.patchgen.parser.ApkParser;
 import com.orange.patchgen.parser.ParseException;
-import com.orange.patchgen.signer.PatchSigner;
+import com.orange.patchgen.signer.JarSigner;
 
 import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,12 +55,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 补丁生成器主类
  * 
  * 统一的补丁生成入口，支持链式配置。
- * 集成 ApkParser、DexDiffer、ResourceDiffer、PatchPacker、PatchSigner。
+ * 集成 ApkParser、DexDiffer、ResourceDiffer、PatchPacker、JarSigner。
  * 
  * Requirements: 1.1-1.6
  */
 public class PatchGenerator {
 
+    /** dex 文件按 ART 加载顺序排列：classes.dex、classes2.dex、classes3.dex ... */
+    private static final java.util.Comparator<String> DEX_ORDER =
+            java.util.Comparator.comparingInt(PatchGenerator::dexIndex).thenComparing(name -> name);
+
     private final File baseApk;
     private final File newApk;
     private final File outputFile;
@@ -56,6 +73,8 @@ public class PatchGenerator {
     private final PatchMode patchMode;
     private final GeneratorCallback callback;
     private final GeneratorConfig config;
+    private final File baseMappingFile;
+    private final File newMappingFile;
     
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
     private ExecutorService executor;
@@ -70,6 +89,8 @@ public class PatchGenerator {
         this.patchMode = builder.patchMode;
         this.callback = builder.callback != null ? builder.callback : new SimpleGeneratorCallback();
         this.config = builder.config != null ? builder.config : GeneratorConfig.builder().build();
+        this.baseMappingFile = builder.baseMappingFile;
+        this.newMappingFile = builder.newMappingFile;
     }
 
     /**
@@ -151,7 +172,8 @@ public class PatchGenerator {
             // 生成补丁 Dex 文件
             File patchDexDir = new File(tempDir, "patch_dex");
             patchDexDir.mkdirs();
-            List<File> patchDexFiles = generatePatchDexFiles(dexDiffs, newExtractDir, patchDexDir);
+            boolean shipResourcesArsc = resDiff != null && resDiff.hasChanges();
+            List<File> patchDexFiles = generatePatchDexFiles(dexDiffs, newExtractDir, patchDexDir, shipResourcesArsc);
             
             // 复制修改的资源文件
             File patchResDir = new File(tempDir, "patch_res");
@@ -163,7 +185,7 @@ public class PatchGenerator {
             
             // 复制 resources.arsc（资源热更新必需）
             File resourcesArsc = null;
-            if (resDiff != null && resDiff.hasChanges()) {
+            if (shipResourcesArsc) {
                 File newResourcesArsc = new File(newExtractDir, "resources.arsc");
                 if (newResourcesArsc.exists()) {
                     System.out.println("[PatchGenerator] 复制 resources.arsc");
@@ -181,6 +203,13 @@ public class PatchGenerator {
             } else {
                 System.out.println("[PatchGenerator] ⚠️ 没有资源变化，跳过 resources.arsc");
             }
+
+            // 生成覆盖资源表（只包含变化条目，客户端叠加在原始 APK 之上加载，不需要合并完整资源包）
+            File overlayTable = null;
+            if (resourcesArsc != null) {
+                overlayTable = buildOverlayTable(new File(baseExtractDir, "resources.arsc"), resourcesArsc,
+                        resDiff, new File(tempDir, "resources_overlay.arsc"));
+            }
             
             // 5. 创建 PatchInfo
             PatchInfo patchInfo = createPatchInfo(baseApkInfo, newApkInfo, dexDiffs, resDiff, assetsDiff);
@@ -191,23 +220,25 @@ public class PatchGenerator {
                     .dexFiles(patchDexFiles)
                     .resDir(patchResDir.exists() && patchResDir.listFiles() != null ? patchResDir : null)
                     .resourcesArsc(resourcesArsc)
+                    .overlayTable(overlayTable)
                     .assetsDir(patchAssetsDir.exists() && patchAssetsDir.listFiles() != null ? patchAssetsDir : null)
                     .build();
             
-            PatchPacker packer = new PatchPacker();
+            PatchPacker packer = new PatchPacker(config.getCompressionPolicy());
+            
+            // 7. 签名补丁（与打包在同一次写入中完成）
+            if (signingConfig != null && signingConfig.isValid()) {
+                callback.onSignStart();
+                JarSigner jarSigner = new JarSigner(signingConfig);
+                packer.setSigner(jarSigner);
+                packer.setSigningBlockSigner(jarSigner);
+            }
             File patchFile = packer.pack(packContent, outputFile);
             
             if (cancelled.get()) {
                 return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
             }
             
-            // 7. 签名补丁
-            if (signingConfig != null && signingConfig.isValid()) {
-                callback.onSignStart();
-                PatchSigner signer = new PatchSigner(signingConfig);
-                signer.sign(patchFile);
-            }
-            
             // 8. 构建结果
             PatchResult result = PatchResult.success(patchFile, patchInfo, diffSummary);
             result.setGenerateTime(System.currentTimeMillis() - startTime);
@@ -215,6 +246,7 @@ public class PatchGenerator {
             result.setNewApkSize(newApk.length());
             result.setPatchSize(patchFile.length());
             result.calculateCompressionRatio();
+            result.setCompressionPolicy(packer.getCompressionPolicy().getName());
             
             callback.onComplete(result);
             return result;
@@ -238,14 +270,10 @@ public class PatchGenerator {
             throw new PatchGeneratorException(message, errorCode, e);
             
         } catch (PatchPackException e) {
-            int errorCode = GeneratorErrorCode.ERROR_FILE_WRITE_FAILED;
-            String message = "Patch packing failed: " + e.getMessage();
-            callback.onError(errorCode, message);
-            throw new PatchGeneratorException(message, errorCode, e);
-            
-        } catch (PatchSigner.SigningException e) {
-            int errorCode = GeneratorErrorCode.ERROR_SIGNING_FAILED;
-            String message = "Patch signing failed: " + e.getMessage();
+            boolean signingFailed = e.getCause() instanceof GeneralSecurityException;
+            int errorCode = signingFailed
+                    ? GeneratorErrorCode.ERROR_SIGNING_FAILED : GeneratorErrorCode.ERROR_FILE_WRITE_FAILED;
+            String message = (signingFailed ? "Patch signing failed: " : "Patch packing failed: ") + e.getMessage();
             callback.onError(errorCode, message);
             throw new PatchGeneratorException(message, errorCode, e);
             
@@ -352,6 +380,15 @@ public class PatchGenerator {
                     GeneratorErrorCode.ERROR_FILE_READ_FAILED);
         }
         
+        if (baseMappingFile != null && !baseMappingFile.isFile()) {
+            throw new PatchGeneratorException("Base mapping file not found: " + baseMappingFile.getAbsolutePath(),
+                    GeneratorErrorCode.ERROR_FILE_NOT_FOUND);
+        }
+        if (newMappingFile != null && !newMappingFile.isFile()) {
+            throw new PatchGeneratorException("New mapping file not found: " + newMappingFile.getAbsolutePath(),
+                    GeneratorErrorCode.ERROR_FILE_NOT_FOUND);
+        }
+        
         if (outputFile == null) {
             throw new PatchGeneratorException("Output file is null",
                     GeneratorErrorCode.ERROR_FILE_WRITE_FAILED);
@@ -400,7 +437,18 @@ public class PatchGenerator {
      */
     private List<DexDiffResult> compareDex(File baseExtractDir, File newExtractDir) 
             throws DexDiffException {
-        DexDiffer dexDiffer = new DexDiffer();
+        ProguardMapping baseMapping;
+        ProguardMapping newMapping;
+        try {
+            baseMapping = ProguardMapping.load(baseMappingFile);
+            newMapping = ProguardMapping.load(newMappingFile);
+        } catch (IOException e) {
+            throw new DexDiffException("Failed to load mapping file: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_FILE_READ_FAILED, e);
+        }
+        ResourceIdTable baseResources = loadResourceIdTable(new File(baseExtractDir, "resources.arsc"));
+        ResourceIdTable newResources = loadResourceIdTable(new File(newExtractDir, "resources.arsc"));
+        DexDiffer dexDiffer = new DexDiffer(baseMapping, newMapping, baseResources, newResources);
         List<DexDiffResult> results = new ArrayList<>();
         
         // 获取所有 dex 文件
@@ -409,8 +457,8 @@ public class PatchGenerator {
         File[] newDexFiles = newExtractDir.listFiles((dir, name) -> 
                 name.matches("classes\\d*\\.dex"));
         
-        // 收集所有 dex 文件名
-        java.util.Set<String> allDexNames = new java.util.HashSet<>();
+        // 收集所有 dex 文件名，按 ART 加载顺序（classes.dex、classes2.dex ...）排列
+        java.util.Set<String> allDexNames = new java.util.TreeSet<>(DEX_ORDER);
         if (baseDexFiles != null) {
             for (File f : baseDexFiles) {
                 allDexNames.add(f.getName());
@@ -445,7 +493,11 @@ public class PatchGenerator {
             } else if (baseDex.exists() && newDex.exists()) {
                 // 两个都存在，进行详细比较
                 DexDiffResult result = dexDiffer.compare(baseDex, newDex);
-                if (result.hasChanges()) {
+                if (result.hasResourceIdOnlyClasses()) {
+                    System.out.println("[PatchGenerator] " + dexName + ": " + result.getResourceIdOnlyClasses().size()
+                            + " 个类仅资源 ID 变化");
+                }
+                if (result.hasChanges() || result.hasResourceIdOnlyClasses()) {
                     results.add(result);
                 }
             }
@@ -458,6 +510,18 @@ public class PatchGenerator {
         return results;
     }
 
+    /**
+     * 加载资源 ID 表，解析失败时不做资源 ID 规范化（资源 ID 常量按数值比较）
+     */
+    private ResourceIdTable loadResourceIdTable(File arscFile) {
+        try {
+            return ResourceIdTable.load(arscFile);
+        } catch (IOException e) {
+            System.out.println("[PatchGenerator] ⚠️ 解析 resources.arsc 失败，跳过资源 ID 规范化: " + e.getMessage());
+            return ResourceIdTable.EMPTY;
+        }
+    }
+
     /**
      * 比较资源差异
      */
@@ -540,52 +604,116 @@ public class PatchGenerator {
     }
 
 
+    /**
+     * dex 文件的加载序号：classes.dex 为 1，classesN.dex 为 N
+     */
+    private static int dexIndex(String dexName) {
+        String number = dexName.substring("classes".length(), dexName.length() - ".dex".length());
+        try {
+            return number.isEmpty() ? 1 : Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
     /**
      * 生成补丁 Dex 文件
+     * 
+     * 所有基准 dex 的补丁类（包括整个新增 dex 中的类）交给 {@link DexPacker} 合并，
+     * 在 64K 限制内写入尽量少的 dex，按 classes.dex、classes2.dex ... 连续命名，
+     * 运行期一个补丁对应一个 dex element，打包出的每个 dex 都会被加载。
+     * 
+     * 仅资源 ID 变化的类只在补丁携带新 resources.arsc 时打包：此时运行期使用新资源表，
+     * 旧代码中内联的 ID 会指向其它资源；不携带时基准资源表不变，这些类无需替换。
+     * 新版本用基准资源 ID 构建（aapt2 --stable-ids，见 {@link ResourceIdTable#writeStableIds}）时
+     * 只改资源不会让 ID 移位，不会出现这类类。
+     * 
+     * 配置了混淆映射时，补丁类由 {@link MappingRewriter} 改写为基准版本的混淆名，
+     * 基准代码对被替换类的调用和补丁类对其它类的引用都指向基准 APK 中的同一个类和成员。
      */
     private List<File> generatePatchDexFiles(List<DexDiffResult> dexDiffs, 
                                               File newExtractDir, 
-                                              File outputDir) throws DexDiffException {
-        List<File> patchDexFiles = new ArrayList<>();
-        DexDiffer dexDiffer = new DexDiffer();
+                                              File outputDir,
+                                              boolean includeResourceIdOnly) throws DexDiffException {
+        DexPacker packer = null;
+        int sourceDexCount = 0;
         
-        for (DexDiffResult diff : dexDiffs) {
-            if (!diff.hasChanges()) {
-                continue;
-            }
-            
-            // 如果是整个 dex 新增，直接复制
-            if (diff.getAddedClasses() != null && diff.getAddedClasses().contains("*")) {
-                File newDex = new File(newExtractDir, diff.getDexName());
-                if (newDex.exists()) {
-                    File patchDex = new File(outputDir, diff.getDexName());
-                    try {
-                        FileUtils.copyFile(newDex, patchDex);
-                        patchDexFiles.add(patchDex);
-                    } catch (IOException e) {
-                        throw new DexDiffException("Failed to copy dex file: " + e.getMessage(),
-                                GeneratorErrorCode.ERROR_FILE_WRITE_FAILED, e);
+        try {
+            ProguardMapping baseMapping = ProguardMapping.load(baseMappingFile);
+            ProguardMapping newMapping = ProguardMapping.load(newMappingFile);
+            DexDiffer dexDiffer = new DexDiffer(baseMapping, newMapping);
+            MappingRewriter rewriter = new MappingRewriter(baseMapping, newMapping);
+            if (!rewriter.isIdentity()) {
+                // 成员可能声明在其它 dex 的父类或接口中，继承链取自全部新版本 dex
+                File[] newDexFiles = newExtractDir.listFiles((dir, name) -> name.matches("classes\\d*\\.dex"));
+                if (newDexFiles != null) {
+                    java.util.Arrays.sort(newDexFiles, (a, b) -> DEX_ORDER.compare(a.getName(), b.getName()));
+                    for (File file : newDexFiles) {
+                        rewriter.addHierarchy(DexFileFactory.loadDexFile(file, Opcodes.getDefault()));
                     }
                 }
-                continue;
             }
             
-            // 如果是整个 dex 删除，跳过（删除信息记录在 metadata 中）
-            if (diff.getDeletedClasses() != null && diff.getDeletedClasses().contains("*")) {
-                continue;
+            int resourceIdOnlyCount = 0;
+            for (DexDiffResult diff : dexDiffs) {
+                if (includeResourceIdOnly && diff.hasResourceIdOnlyClasses()) {
+                    resourceIdOnlyCount += diff.getResourceIdOnlyClasses().size();
+                }
+            }
+            if (resourceIdOnlyCount > 0) {
+                System.out.println("[PatchGenerator] ⚠️ " + resourceIdOnlyCount + " 个类仅因资源 ID 移位而打包，"
+                        + "新版本使用基准资源 ID 构建（aapt2 --stable-ids）可避免");
             }
             
-            // 生成包含修改和新增类的补丁 dex
-            File newDex = new File(newExtractDir, diff.getDexName());
-            if (newDex.exists()) {
-                File patchDex = dexDiffer.generatePatchDex(diff, newDex, outputDir);
-                if (patchDex != null && patchDex.exists()) {
-                    patchDexFiles.add(patchDex);
+            for (DexDiffResult diff : dexDiffs) {
+                if (!diff.hasChanges() && !(includeResourceIdOnly && diff.hasResourceIdOnlyClasses())) {
+                    continue;
+                }
+                
+                // 如果是整个 dex 删除，跳过（删除信息记录在 metadata 中）
+                boolean wholeDexAdded = diff.getAddedClasses() != null && diff.getAddedClasses().contains("*");
+                if (!wholeDexAdded && diff.getDeletedClasses() != null && diff.getDeletedClasses().contains("*")) {
+                    continue;
+                }
+                
+                File newDexFile = new File(newExtractDir, diff.getDexName());
+                if (!newDexFile.exists()) {
+                    continue;
+                }
+                
+                DexFile newDex = DexFileFactory.loadDexFile(newDexFile, Opcodes.getDefault());
+                if (packer == null) {
+                    packer = new DexPacker(newDex.getOpcodes());
+                    packer.setHotClasses(config.getHotClasses());
+                    packer.setRewriter(rewriter);
+                }
+                
+                // 整个 dex 新增时打包其全部类，否则只打包修改和新增的类
+                List<ClassDef> classes = wholeDexAdded
+                        ? new ArrayList<>(newDex.getClasses())
+                        : dexDiffer.collectPatchClasses(diff, newDex, includeResourceIdOnly);
+                if (!classes.isEmpty()) {
+                    packer.addClasses(classes, wholeDexAdded ? null : diff);
+                    sourceDexCount++;
                 }
             }
+            
+            if (packer == null || packer.getClassCount() == 0) {
+                return new ArrayList<>();
+            }
+            
+            List<File> patchDexFiles = packer.pack(outputDir);
+            System.out.println("[PatchGenerator] Packed " + packer.getClassCount() + " classes from "
+                    + sourceDexCount + " dex into " + patchDexFiles.size() + " patch dex");
+            return patchDexFiles;
+            
+        } catch (IOException e) {
+            throw new DexDiffException("Failed to generate patch dex: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_DEX_PARSE_FAILED, e);
+        } catch (UncheckedIOException e) {
+            throw new DexDiffException("Failed to rewrite patch dex: " + e.getCause().getMessage(),
+                    GeneratorErrorCode.ERROR_FILE_READ_FAILED, e.getCause());
         }
-        
-        return patchDexFiles;
     }
 
     /**
@@ -619,6 +747,40 @@ public class PatchGenerator {
         }
     }
 
+    /**
+     * 生成覆盖资源表
+     * 
+     * 失败时只打印警告并返回 null，补丁仍包含完整的 resources.arsc，客户端回退到合并资源包。
+     * 
+     * @return 覆盖资源表文件，没有变化条目或生成失败时返回 null
+     */
+    private File buildOverlayTable(File baseArsc, File newArsc, ResourceDiffResult resDiff, File outputFile) {
+        if (!baseArsc.isFile()) {
+            System.out.println("[PatchGenerator] ⚠️ 基准 APK 没有 resources.arsc，跳过覆盖资源表");
+            return null;
+        }
+        Set<String> changedFiles = new HashSet<>();
+        for (String path : resDiff.getModifiedFilePaths()) {
+            changedFiles.add("res/" + path.replace('\\', '/'));
+        }
+        for (String path : resDiff.getAddedFilePaths()) {
+            changedFiles.add("res/" + path.replace('\\', '/'));
+        }
+        try {
+            int entries = OverlayTableBuilder.build(baseArsc, newArsc, changedFiles, outputFile);
+            if (entries == 0) {
+                System.out.println("[PatchGenerator] 资源表没有变化条目，跳过覆盖资源表");
+                return null;
+            }
+            System.out.println("[PatchGenerator] 覆盖资源表: " + entries + " 个条目, "
+                    + outputFile.length() + " bytes (完整资源表 " + newArsc.length() + " bytes)");
+            return outputFile;
+        } catch (IOException e) {
+            System.out.println("[PatchGenerator] ⚠️ 生成覆盖资源表失败，客户端将使用合并资源包: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 复制单个资源文件
      */
@@ -668,6 +830,11 @@ public class PatchGenerator {
                     changes.getDex().addModified(className);
                 }
             }
+            if (resDiff != null && resDiff.hasChanges() && dexDiff.getResourceIdOnlyClasses() != null) {
+                for (String className : dexDiff.getResourceIdOnlyClasses()) {
+                    changes.getDex().addModified(className);
+                }
+            }
             if (dexDiff.getAddedClasses() != null) {
                 for (String className : dexDiff.getAddedClasses()) {
                     changes.getDex().addAdded(className);
@@ -741,6 +908,8 @@ public class PatchGenerator {
         private PatchMode patchMode = PatchMode.FULL_DEX;
         private GeneratorCallback callback;
         private GeneratorConfig config;
+        private File baseMappingFile;
+        private File newMappingFile;
 
         public Builder() {
         }
@@ -809,6 +978,22 @@ public class PatchGenerator {
             return this;
         }
 
+        /**
+         * 设置基准版本的 ProGuard/R8 mapping.txt（可选）
+         */
+        public Builder baseMapping(File mapping) {
+            this.baseMappingFile = mapping;
+            return this;
+        }
+
+        /**
+         * 设置新版本的 ProGuard/R8 mapping.txt（可选）
+         */
+        public Builder newMapping(File mapping) {
+            this.newMappingFile = mapping;
+            return this;
+        }
+
         /**
          * 构建 PatchGenerator
          */
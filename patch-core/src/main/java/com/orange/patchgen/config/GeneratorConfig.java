@@ -1,6 +1,13 @@
 package com.orange.patchgen.config;
 
+import com.orange.patchgen.packer.AdaptiveCompressionPolicy;
+import com.orange.patchgen.packer.CompressionPolicy;
+
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * 生成器配置
@@ -14,6 +21,8 @@ public class GeneratorConfig {
     private long maxMemory;
     private boolean verbose;
     private File tempDir;
+    private CompressionPolicy compressionPolicy;
+    private Set<String> hotClasses;
 
     private GeneratorConfig(Builder builder) {
         this.engineType = builder.engineType;
@@ -22,6 +31,8 @@ public class GeneratorConfig {
         this.maxMemory = builder.maxMemory;
         this.verbose = builder.verbose;
         this.tempDir = builder.tempDir;
+        this.compressionPolicy = builder.compressionPolicy;
+        this.hotClasses = Collections.unmodifiableSet(new LinkedHashSet<>(builder.hotClasses));
     }
 
     public EngineType getEngineType() {
@@ -48,6 +59,17 @@ public class GeneratorConfig {
         return tempDir;
     }
 
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * 热点类（com.example.Foo 格式），打包补丁 dex 时与其内部类一起排在最前面
+     */
+    public Set<String> getHotClasses() {
+        return hotClasses;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -59,6 +81,8 @@ public class GeneratorConfig {
         private long maxMemory = Runtime.getRuntime().maxMemory();
         private boolean verbose = false;
         private File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        private CompressionPolicy compressionPolicy = new AdaptiveCompressionPolicy();
+        private Set<String> hotClasses = new LinkedHashSet<>();
 
         public Builder engineType(EngineType type) {
             this.engineType = type;
@@ -90,6 +114,19 @@ public class GeneratorConfig {
             return this;
         }
 
+        public Builder compressionPolicy(CompressionPolicy policy) {
+            this.compressionPolicy = policy;
+            return this;
+        }
+
+        public Builder hotClasses(Collection<String> classNames) {
+            this.hotClasses = new LinkedHashSet<>();
+            if (classNames != null) {
+                this.hotClasses.addAll(classNames);
+            }
+            return this;
+        }
+
         public GeneratorConfig build() {
             return new GeneratorConfig(this);
         }
@@ -7,6 +7,7 @@ import java.util.List;
  * Dex 差异比较结果
  * 
  * 包含两个 dex 文件之间的差异信息：修改、新增、删除的类。
+ * 仅资源 ID 发生偏移的类单独记录，不计入 {@link #hasChanges()}。
  * 
  * Requirements: 2.2, 2.3, 2.4
  */
@@ -15,12 +16,14 @@ public class DexDiffResult {
     private List<String> modifiedClasses;
     private List<String> addedClasses;
     private List<String> deletedClasses;
+    private List<String> resourceIdOnlyClasses;
     private boolean hasChanges;
 
     public DexDiffResult() {
         this.modifiedClasses = new ArrayList<>();
         this.addedClasses = new ArrayList<>();
         this.deletedClasses = new ArrayList<>();
+        this.resourceIdOnlyClasses = new ArrayList<>();
         this.hasChanges = false;
     }
 
@@ -88,6 +91,30 @@ public class DexDiffResult {
         this.hasChanges = true;
     }
 
+    /**
+     * 仅资源 ID 变化的类（引用的资源名相同，内联的资源 ID 因资源表变化而偏移）
+     * 
+     * 补丁携带新的 resources.arsc 时这些类整体打入补丁，内联的 ID 随新版本的类一起替换。
+     */
+    public List<String> getResourceIdOnlyClasses() {
+        return resourceIdOnlyClasses;
+    }
+
+    public void setResourceIdOnlyClasses(List<String> resourceIdOnlyClasses) {
+        this.resourceIdOnlyClasses = resourceIdOnlyClasses;
+    }
+
+    public void addResourceIdOnlyClass(String className) {
+        if (this.resourceIdOnlyClasses == null) {
+            this.resourceIdOnlyClasses = new ArrayList<>();
+        }
+        this.resourceIdOnlyClasses.add(className);
+    }
+
+    public boolean hasResourceIdOnlyClasses() {
+        return resourceIdOnlyClasses != null && !resourceIdOnlyClasses.isEmpty();
+    }
+
     public boolean hasChanges() {
         return hasChanges;
     }
@@ -120,6 +147,7 @@ public class DexDiffResult {
                 ", modifiedClasses=" + (modifiedClasses != null ? modifiedClasses.size() : 0) +
                 ", addedClasses=" + (addedClasses != null ? addedClasses.size() : 0) +
                 ", deletedClasses=" + (deletedClasses != null ? deletedClasses.size() : 0) +
+                ", resourceIdOnlyClasses=" + (resourceIdOnlyClasses != null ? resourceIdOnlyClasses.size() : 0) +
                 ", hasChanges=" + hasChanges +
                 '}';
     }
@@ -11,6 +11,13 @@ import org.jf.dexlib2.iface.Field;
 import org.jf.dexlib2.iface.Method;
 import org.jf.dexlib2.iface.MethodImplementation;
 import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.NarrowLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.iface.value.IntEncodedValue;
+import org.jf.dexlib2.iface.value.LongEncodedValue;
+import org.jf.dexlib2.iface.value.StringEncodedValue;
 
 import java.io.File;
 import java.io.IOException;
@@ -24,10 +31,48 @@ import java.util.*;
  * 负责比较两个 dex 文件的差异，识别修改、新增、删除的类。
  * 使用 dexlib2 库解析 dex 文件。
  * 
+ * 提供 ProGuard/R8 mapping 时，类名、父类、接口、字段和方法签名在计算哈希前先还原为原始名，
+ * 并按原始类名配对比较；差异结果中的类名仍为 dex 中的（混淆后）名称，便于生成补丁 dex。
+ * 
+ * 方法实现中的整数常量参与哈希。提供 resources.arsc 的 ID 表时，能解析为资源的常量按资源名（type/name）
+ * 参与哈希，新增资源导致的 R ID 整体偏移不会把引用资源的类都判为修改；这类仅资源 ID 变化的类
+ * 单独记录在 {@link DexDiffResult#getResourceIdOnlyClasses()}，并附带 旧 ID -> 新 ID 的映射。
+ * 
  * Requirements: 2.1, 2.2, 2.3, 2.4, 2.5, 2.6
  */
 public class DexDiffer {
 
+    private final ProguardMapping baseMapping;
+    private final ProguardMapping newMapping;
+    private final ResourceIdTable baseResources;
+    private final ResourceIdTable newResources;
+
+    public DexDiffer() {
+        this(ProguardMapping.IDENTITY, ProguardMapping.IDENTITY);
+    }
+
+    /**
+     * @param baseMapping 基准版本的混淆映射，可为 null
+     * @param newMapping 新版本的混淆映射，可为 null
+     */
+    public DexDiffer(ProguardMapping baseMapping, ProguardMapping newMapping) {
+        this(baseMapping, newMapping, ResourceIdTable.EMPTY, ResourceIdTable.EMPTY);
+    }
+
+    /**
+     * @param baseMapping 基准版本的混淆映射，可为 null
+     * @param newMapping 新版本的混淆映射，可为 null
+     * @param baseResources 基准版本 resources.arsc 的资源 ID 表，可为 null
+     * @param newResources 新版本 resources.arsc 的资源 ID 表，可为 null
+     */
+    public DexDiffer(ProguardMapping baseMapping, ProguardMapping newMapping,
+                     ResourceIdTable baseResources, ResourceIdTable newResources) {
+        this.baseMapping = baseMapping != null ? baseMapping : ProguardMapping.IDENTITY;
+        this.newMapping = newMapping != null ? newMapping : ProguardMapping.IDENTITY;
+        this.baseResources = baseResources != null ? baseResources : ResourceIdTable.EMPTY;
+        this.newResources = newResources != null ? newResources : ResourceIdTable.EMPTY;
+    }
+
     /**
      * 比较两个 Dex 文件
      * 
@@ -44,12 +89,29 @@ public class DexDiffer {
         DexDiffResult result = new DexDiffResult(dexName);
 
         try {
-            // 解析两个 dex 文件
-            Map<String, String> baseClassHashes = parseDexClasses(baseDex);
-            Map<String, String> newClassHashes = parseDexClasses(newDex);
+            // 解析两个 dex 文件（以原始类名为键）
+            Map<String, String> baseDexNames = new HashMap<>();
+            Map<String, String> newDexNames = new HashMap<>();
+            Map<String, ClassSignature> baseClasses = parseDexClasses(baseDex, baseMapping, baseResources, baseDexNames);
+            Map<String, ClassSignature> newClasses = parseDexClasses(newDex, newMapping, newResources, newDexNames);
 
             // 比较类差异
-            compareClasses(baseClassHashes, newClassHashes, result);
+            DexDiffResult originalResult = new DexDiffResult(dexName);
+            compareClasses(baseClasses, newClasses, originalResult);
+
+            // 原始类名换回 dex 中的类名
+            for (String className : originalResult.getModifiedClasses()) {
+                result.addModifiedClass(newDexNames.get(className));
+            }
+            for (String className : originalResult.getAddedClasses()) {
+                result.addAddedClass(newDexNames.get(className));
+            }
+            for (String className : originalResult.getDeletedClasses()) {
+                result.addDeletedClass(baseDexNames.get(className));
+            }
+            for (String className : originalResult.getResourceIdOnlyClasses()) {
+                result.addResourceIdOnlyClass(newDexNames.get(className));
+            }
 
         } catch (IOException e) {
             throw new DexDiffException("Failed to compare dex files: " + e.getMessage(),
@@ -146,20 +208,23 @@ public class DexDiffer {
      * @throws DexDiffException 生成失败时抛出
      */
     public File generatePatchDex(DexDiffResult diff, File newDexFile, File outputDir) throws DexDiffException {
-        if (diff == null || !diff.hasChanges()) {
-            return null;
-        }
-
-        // 收集需要包含在补丁中的类（修改的 + 新增的）
-        Set<String> classesToInclude = new HashSet<>();
-        if (diff.getModifiedClasses() != null) {
-            classesToInclude.addAll(diff.getModifiedClasses());
-        }
-        if (diff.getAddedClasses() != null) {
-            classesToInclude.addAll(diff.getAddedClasses());
-        }
+        return generatePatchDex(diff, newDexFile, outputDir, false);
+    }
 
-        if (classesToInclude.isEmpty()) {
+    /**
+     * 生成补丁 Dex
+     * 
+     * @param diff 差异比较结果
+     * @param newDexFile 新版本 dex 文件
+     * @param outputDir 输出目录
+     * @param includeResourceIdOnly 是否包含仅资源 ID 变化的类。补丁携带新的 resources.arsc 时必须包含，
+     *                              否则这些类中内联的旧 ID 会指向新资源表中的其它资源
+     * @return 生成的补丁 dex 文件，如果没有需要打包的类则返回 null
+     * @throws DexDiffException 生成失败时抛出
+     */
+    public File generatePatchDex(DexDiffResult diff, File newDexFile, File outputDir,
+                                 boolean includeResourceIdOnly) throws DexDiffException {
+        if (diff == null || (!diff.hasChanges() && !(includeResourceIdOnly && diff.hasResourceIdOnlyClasses()))) {
             return null;
         }
 
@@ -169,18 +234,7 @@ public class DexDiffer {
             // 解析新版本 dex 文件
             DexFile newDex = DexFileFactory.loadDexFile(newDexFile, Opcodes.getDefault());
 
-            // 扩展类列表，包含内部类和 Lambda 类
-            Set<String> expandedClasses = expandClassesWithInnerAndLambda(classesToInclude, newDex);
-
-            // 筛选需要的类
-            List<ClassDef> patchClasses = new ArrayList<>();
-            for (ClassDef classDef : newDex.getClasses()) {
-                String className = convertDexTypeToClassName(classDef.getType());
-                if (expandedClasses.contains(className)) {
-                    patchClasses.add(classDef);
-                }
-            }
-
+            List<ClassDef> patchClasses = collectPatchClasses(diff, newDex, includeResourceIdOnly);
             if (patchClasses.isEmpty()) {
                 return null;
             }
@@ -204,11 +258,55 @@ public class DexDiffer {
         }
     }
     
+    /**
+     * 收集需要打入补丁的类（修改的、新增的及其内部类和 Lambda 类，按需包含仅资源 ID 变化的类）
+     * 
+     * @param diff 差异比较结果
+     * @param newDex 已解析的新版本 dex
+     * @param includeResourceIdOnly 是否包含仅资源 ID 变化的类
+     * @return 按新版本 dex 中顺序排列的类，没有需要打包的类时返回空列表
+     */
+    public List<ClassDef> collectPatchClasses(DexDiffResult diff, DexFile newDex, boolean includeResourceIdOnly) {
+        // 收集需要包含在补丁中的类（修改的 + 新增的）
+        Set<String> classesToInclude = new HashSet<>();
+        if (diff.getModifiedClasses() != null) {
+            classesToInclude.addAll(diff.getModifiedClasses());
+        }
+        if (diff.getAddedClasses() != null) {
+            classesToInclude.addAll(diff.getAddedClasses());
+        }
+
+        // 仅资源 ID 变化的类签名不变，不需要连带内部类和 Lambda 类
+        Set<String> resourceIdOnlyClasses = new HashSet<>();
+        if (includeResourceIdOnly && diff.getResourceIdOnlyClasses() != null) {
+            resourceIdOnlyClasses.addAll(diff.getResourceIdOnlyClasses());
+        }
+
+        List<ClassDef> patchClasses = new ArrayList<>();
+        if (classesToInclude.isEmpty() && resourceIdOnlyClasses.isEmpty()) {
+            return patchClasses;
+        }
+
+        // 扩展类列表，包含内部类和 Lambda 类
+        Set<String> expandedClasses = expandClassesWithInnerAndLambda(classesToInclude, newDex);
+        expandedClasses.addAll(resourceIdOnlyClasses);
+
+        // 筛选需要的类
+        for (ClassDef classDef : newDex.getClasses()) {
+            String className = convertDexTypeToClassName(classDef.getType());
+            if (expandedClasses.contains(className)) {
+                patchClasses.add(classDef);
+            }
+        }
+        return patchClasses;
+    }
+
     /**
      * 扩展类列表，包含内部类、匿名类和 Lambda 类
      * 
      * 当一个类被修改时，它的内部类、匿名类和 Lambda 类也需要包含在补丁中，
      * 因为它们可能被主类引用，且它们的字节码可能也发生了变化。
+     * 混淆后内部类的名称与外部类无关，按还原后的原始类名匹配。
      * 
      * @param baseClasses 基础类列表
      * @param dexFile DEX 文件
@@ -217,22 +315,22 @@ public class DexDiffer {
     private Set<String> expandClassesWithInnerAndLambda(Set<String> baseClasses, DexFile dexFile) {
         Set<String> expandedClasses = new HashSet<>(baseClasses);
         
-        // 收集所有 DEX 中的类名
-        Set<String> allClassNames = new HashSet<>();
+        // 收集所有 DEX 中的类名（原始类名 -> dex 中的类名）
+        Map<String, String> allClassNames = new HashMap<>();
         for (ClassDef classDef : dexFile.getClasses()) {
-            allClassNames.add(convertDexTypeToClassName(classDef.getType()));
+            String className = convertDexTypeToClassName(classDef.getType());
+            allClassNames.put(newMapping.originalClassName(className), className);
         }
         
         // 对于每个基础类，查找其内部类、匿名类和 Lambda 类
         for (String baseClass : baseClasses) {
             // 内部类和匿名类的命名模式: OuterClass$InnerClass, OuterClass$1, OuterClass$2
             // Lambda 类的命名模式: OuterClass$$ExternalSyntheticLambda0
-            String prefix = baseClass + "$";
-            String lambdaPrefix = baseClass + "$$";
+            String prefix = newMapping.originalClassName(baseClass) + "$";
             
-            for (String className : allClassNames) {
-                if (className.startsWith(prefix) || className.startsWith(lambdaPrefix)) {
-                    expandedClasses.add(className);
+            for (Map.Entry<String, String> entry : allClassNames.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    expandedClasses.add(entry.getValue());
                 }
             }
         }
@@ -266,17 +364,25 @@ public class DexDiffer {
      * 解析 dex 文件，提取所有类及其签名哈希
      * 
      * @param dexFile dex 文件
-     * @return 类名到签名哈希的映射
+     * @param mapping 混淆映射
+     * @param resources 资源 ID 表
+     * @param dexNames 输出：原始类名 -> dex 中的类名
+     * @return 原始类名到类签名的映射
      */
-    private Map<String, String> parseDexClasses(File dexFile) throws IOException {
-        Map<String, String> classHashes = new HashMap<>();
+    private Map<String, ClassSignature> parseDexClasses(File dexFile, ProguardMapping mapping,
+                                                        ResourceIdTable resources,
+                                                        Map<String, String> dexNames) throws IOException {
+        Map<String, ClassSignature> classHashes = new HashMap<>();
 
         DexFile dex = DexFileFactory.loadDexFile(dexFile, Opcodes.getDefault());
 
         for (ClassDef classDef : dex.getClasses()) {
             String className = convertDexTypeToClassName(classDef.getType());
-            String classHash = calculateClassHash(classDef);
-            classHashes.put(className, classHash);
+            String originalName = mapping.originalClassName(className);
+            List<Integer> resourceIds = new ArrayList<>();
+            String classHash = calculateClassHash(classDef, mapping, resources, resourceIds);
+            classHashes.put(originalName, new ClassSignature(classHash, resourceIds));
+            dexNames.put(originalName, className);
         }
 
         return classHashes;
@@ -289,25 +395,30 @@ public class DexDiffer {
      * 用于判断类是否被修改。
      * 
      * @param classDef 类定义
+     * @param mapping 混淆映射，类型和成员名先还原再参与哈希
+     * @param resources 资源 ID 表，能解析的整数常量按资源名参与哈希
+     * @param resourceIds 输出：按出现顺序记录已解析的资源 ID
      * @return 类签名哈希（MD5）
      */
-    String calculateClassHash(ClassDef classDef) {
+    String calculateClassHash(ClassDef classDef, ProguardMapping mapping, ResourceIdTable resources,
+                              List<Integer> resourceIds) throws IOException {
+        String className = convertDexTypeToClassName(classDef.getType());
         StringBuilder sb = new StringBuilder();
 
         // 类基本信息
-        sb.append(classDef.getType());
+        sb.append(mapping.originalType(classDef.getType()));
         sb.append("|");
         sb.append(classDef.getAccessFlags());
         sb.append("|");
         if (classDef.getSuperclass() != null) {
-            sb.append(classDef.getSuperclass());
+            sb.append(mapping.originalType(classDef.getSuperclass()));
         }
         sb.append("|");
 
         // 接口
         List<String> interfaces = new ArrayList<>();
         for (String iface : classDef.getInterfaces()) {
-            interfaces.add(iface);
+            interfaces.add(mapping.originalType(iface));
         }
         Collections.sort(interfaces);
         sb.append(String.join(",", interfaces));
@@ -315,19 +426,36 @@ public class DexDiffer {
 
         // 字段（按名称排序）
         List<String> fieldSignatures = new ArrayList<>();
+        TreeMap<String, Integer> fieldResourceIds = new TreeMap<>();
         for (Field field : classDef.getFields()) {
-            fieldSignatures.add(getFieldSignature(field));
+            String fieldSignature = getFieldSignature(className, field, mapping, resources);
+            fieldSignatures.add(fieldSignature);
+            EncodedValue value = field.getInitialValue();
+            if (value instanceof IntEncodedValue && resources.getName(((IntEncodedValue) value).getValue()) != null) {
+                fieldResourceIds.put(fieldSignature, ((IntEncodedValue) value).getValue());
+            }
         }
         Collections.sort(fieldSignatures);
+        // 按规范化后的字段签名排序，两个版本中顺序一致
+        resourceIds.addAll(fieldResourceIds.values());
         sb.append(String.join(",", fieldSignatures));
         sb.append("|");
 
         // 方法（按名称排序）
         List<String> methodSignatures = new ArrayList<>();
+        TreeMap<String, List<Integer>> methodResourceIds = new TreeMap<>();
         for (Method method : classDef.getMethods()) {
-            methodSignatures.add(getMethodSignature(method));
+            List<Integer> ids = new ArrayList<>();
+            String methodSignature = getMethodSignature(className, method, mapping, resources, ids);
+            methodSignatures.add(methodSignature);
+            if (!ids.isEmpty()) {
+                methodResourceIds.put(methodSignature, ids);
+            }
         }
         Collections.sort(methodSignatures);
+        for (List<Integer> ids : methodResourceIds.values()) {
+            resourceIds.addAll(ids);
+        }
         sb.append(String.join(",", methodSignatures));
 
         return md5(sb.toString());
@@ -337,26 +465,69 @@ public class DexDiffer {
     /**
      * 获取字段签名
      */
-    private String getFieldSignature(Field field) {
-        return field.getName() + ":" + field.getType() + ":" + field.getAccessFlags();
+    private String getFieldSignature(String className, Field field, ProguardMapping mapping,
+                                     ResourceIdTable resources) throws IOException {
+        String signature = mapping.originalFieldName(className, field.getName()) + ":"
+                + mapping.originalType(field.getType()) + ":" + field.getAccessFlags();
+        String initialValue = getInitialValueToken(field.getInitialValue(), resources);
+        return initialValue != null ? signature + "=" + initialValue : signature;
+    }
+
+    /**
+     * 字段初始值（常量）
+     */
+    private String getInitialValueToken(EncodedValue value, ResourceIdTable resources) {
+        if (value instanceof IntEncodedValue) {
+            return getLiteralToken(((IntEncodedValue) value).getValue(), resources);
+        }
+        if (value instanceof LongEncodedValue) {
+            return String.valueOf(((LongEncodedValue) value).getValue());
+        }
+        if (value instanceof StringEncodedValue) {
+            return "\"" + ((StringEncodedValue) value).getValue() + "\"";
+        }
+        return null;
+    }
+
+    /**
+     * 整数常量：能解析为资源时使用资源名，否则使用数值
+     */
+    private String getLiteralToken(long literal, ResourceIdTable resources) {
+        if (literal == (int) literal) {
+            String name = resources.getName((int) literal);
+            if (name != null) {
+                return "@" + name;
+            }
+        }
+        return String.valueOf(literal);
     }
 
     /**
      * 获取方法签名（包含方法实现的哈希）
      */
-    private String getMethodSignature(Method method) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(method.getName());
-        sb.append("(");
-        
+    private String getMethodSignature(String className, Method method, ProguardMapping mapping,
+                                      ResourceIdTable resources, List<Integer> resourceIds) throws IOException {
         // 参数类型
         List<String> params = new ArrayList<>();
         for (CharSequence param : method.getParameterTypes()) {
-            params.add(param.toString());
+            params.add(mapping.originalType(param.toString()));
+        }
+
+        String methodName = method.getName();
+        if (!mapping.isEmpty()) {
+            List<String> javaParams = new ArrayList<>(params.size());
+            for (String param : params) {
+                javaParams.add(ProguardMapping.toJavaType(param));
+            }
+            methodName = mapping.originalMethodName(className, methodName, javaParams);
         }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(methodName);
+        sb.append("(");
         sb.append(String.join(",", params));
         sb.append(")");
-        sb.append(method.getReturnType());
+        sb.append(mapping.originalType(method.getReturnType()));
         sb.append(":");
         sb.append(method.getAccessFlags());
 
@@ -364,7 +535,7 @@ public class DexDiffer {
         MethodImplementation impl = method.getImplementation();
         if (impl != null) {
             sb.append(":");
-            sb.append(getImplementationHash(impl));
+            sb.append(getImplementationHash(impl, resources, resourceIds));
         }
 
         return sb.toString();
@@ -373,9 +544,11 @@ public class DexDiffer {
     /**
      * 获取方法实现的哈希
      * 
-     * 包含指令序列和字符串常量，确保字符串修改也能被检测到
+     * 包含指令序列、字符串常量和整数常量，确保常量修改也能被检测到；
+     * 资源 ID 常量按资源名参与哈希，原始 ID 记录到 resourceIds
      */
-    private String getImplementationHash(MethodImplementation impl) {
+    private String getImplementationHash(MethodImplementation impl, ResourceIdTable resources,
+                                         List<Integer> resourceIds) {
         StringBuilder sb = new StringBuilder();
         sb.append(impl.getRegisterCount());
         sb.append("|");
@@ -384,6 +557,34 @@ public class DexDiffer {
         for (Instruction instruction : impl.getInstructions()) {
             sb.append(instruction.getOpcode().name);
             
+            // 整数常量（const、const/high16、add-int/lit 等）
+            if (instruction instanceof NarrowLiteralInstruction) {
+                int literal = ((NarrowLiteralInstruction) instruction).getNarrowLiteral();
+                sb.append("[LIT:").append(getLiteralToken(literal, resources)).append("]");
+                if (resources.getName(literal) != null) {
+                    resourceIds.add(literal);
+                }
+            } else if (instruction instanceof WideLiteralInstruction) {
+                sb.append("[LIT:").append(((WideLiteralInstruction) instruction).getWideLiteral()).append("]");
+            } else if (instruction instanceof ArrayPayload) {
+                // fill-array-data，如 R.styleable 数组
+                ArrayPayload payload = (ArrayPayload) instruction;
+                sb.append("[ARR:");
+                for (Number element : payload.getArrayElements()) {
+                    if (payload.getElementWidth() == 4) {
+                        int literal = element.intValue();
+                        sb.append(getLiteralToken(literal, resources));
+                        if (resources.getName(literal) != null) {
+                            resourceIds.add(literal);
+                        }
+                    } else {
+                        sb.append(element.longValue());
+                    }
+                    sb.append(",");
+                }
+                sb.append("]");
+            }
+            
             // 提取字符串常量
             // const-string 和 const-string/jumbo 指令包含字符串引用
             if (instruction instanceof org.jf.dexlib2.iface.instruction.ReferenceInstruction) {
@@ -410,19 +611,22 @@ public class DexDiffer {
     /**
      * 比较两个类哈希映射，生成差异结果
      */
-    private void compareClasses(Map<String, String> baseClassHashes, 
-                                Map<String, String> newClassHashes,
+    private void compareClasses(Map<String, ClassSignature> baseClassHashes, 
+                                Map<String, ClassSignature> newClassHashes,
                                 DexDiffResult result) {
         // 查找修改和删除的类
-        for (Map.Entry<String, String> entry : baseClassHashes.entrySet()) {
+        for (Map.Entry<String, ClassSignature> entry : baseClassHashes.entrySet()) {
             String className = entry.getKey();
-            String baseHash = entry.getValue();
+            ClassSignature baseSignature = entry.getValue();
 
             if (newClassHashes.containsKey(className)) {
-                String newHash = newClassHashes.get(className);
-                if (!baseHash.equals(newHash)) {
+                ClassSignature newSignature = newClassHashes.get(className);
+                if (!baseSignature.hash.equals(newSignature.hash)) {
                     // 类被修改
                     result.addModifiedClass(className);
+                } else if (!baseSignature.resourceIds.equals(newSignature.resourceIds)) {
+                    // 引用的资源相同，仅资源 ID 发生偏移
+                    result.addResourceIdOnlyClass(className);
                 }
             } else {
                 // 类被删除
@@ -522,6 +726,19 @@ public class DexDiffer {
         org.jf.dexlib2.writer.pool.DexPool.writeTo(dataStore, patchDex);
     }
 
+    /**
+     * 类签名：规范化后的哈希，以及按出现顺序记录的资源 ID
+     */
+    private static final class ClassSignature {
+        final String hash;
+        final List<Integer> resourceIds;
+
+        ClassSignature(String hash, List<Integer> resourceIds) {
+            this.hash = hash;
+            this.resourceIds = resourceIds;
+        }
+    }
+
     /**
      * 计算字符串的 MD5 哈希
      */
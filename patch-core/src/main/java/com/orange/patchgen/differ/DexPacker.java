@@ -0,0 +1,268 @@
+package com.orange.patchgen.differ;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 补丁 Dex 打包器
+ *
+ * 把所有基准 dex 的补丁类合并写入尽量少的 dex 文件，每个 dex 在方法、字段、类型引用不超过 64K 的前提下装满再开下一个。
+ * 输出文件按 classes.dex、classes2.dex ... 连续命名：运行期一个补丁文件对应一个 dex element，
+ * ART 从 classes.dex 起依次加载，遇到缺失的序号即停止，连续命名保证打包出的每个 dex 都被加载。
+ *
+ * 排列顺序：
+ * - 外部类与其内部类、匿名类、Lambda 类作为一组，同组的类写入同一个 dex（单组超过一个 dex 的容量时才拆开）
+ * - 组按 热点类 -> 修改的类 -> 仅资源 ID 变化的类 -> 新增的类 排序，同级按类名排序，
+ *   热点类和修改的类集中在前面的 dex 中
+ *
+ * 同一个类出现在多个基准 dex 的差异中时只保留先添加的一份（与 ART 按 dex 顺序查找类的结果一致）。
+ * 同组的类保持添加顺序，相同输入总是生成相同的 dex。
+ *
+ * 设置 {@link MappingRewriter} 后，添加的类先改写为基准版本的混淆名，分组和热点类按原始类名匹配。
+ */
+public class DexPacker {
+
+    /** 通过 {@link #setHotClasses(Collection)} 指定的热点类 */
+    public static final int RANK_HOT = 0;
+    /** 修改的类 */
+    public static final int RANK_MODIFIED = 1;
+    /** 仅资源 ID 变化的类 */
+    public static final int RANK_RESOURCE_ID_ONLY = 2;
+    /** 新增的类 */
+    public static final int RANK_ADDED = 3;
+
+    private final Opcodes opcodes;
+    private final Set<String> hotClasses = new LinkedHashSet<>();
+    private final Map<String, ClassGroup> groups = new LinkedHashMap<>();
+    private final Set<String> addedTypes = new LinkedHashSet<>();
+    private MappingRewriter rewriter;
+
+    /**
+     * @param opcodes 写入 dex 使用的指令集，通常取自新版本 dex
+     */
+    public DexPacker(Opcodes opcodes) {
+        this.opcodes = opcodes != null ? opcodes : Opcodes.getDefault();
+    }
+
+    /**
+     * 设置热点类（如启动路径上的类），它们所在的组排在最前面
+     *
+     * @param classNames 原始类名（com.example.Foo 格式），可以是外部类或内部类
+     */
+    public void setHotClasses(Collection<String> classNames) {
+        hotClasses.clear();
+        if (classNames != null) {
+            hotClasses.addAll(classNames);
+        }
+    }
+
+    /**
+     * 设置混淆名改写器，之后添加的类改写为基准版本的混淆名
+     */
+    public void setRewriter(MappingRewriter rewriter) {
+        this.rewriter = rewriter;
+    }
+
+    /**
+     * 添加一个基准 dex 的补丁类，按差异结果确定排序级别
+     *
+     * @param classes 补丁类（见 {@link DexDiffer#collectPatchClasses}）
+     * @param diff 对应的差异结果，为 null 时全部按新增类处理
+     */
+    public void addClasses(List<ClassDef> classes, DexDiffResult diff) {
+        for (ClassDef classDef : classes) {
+            addClass(classDef, rankOf(toClassName(classDef.getType()), diff));
+        }
+    }
+
+    /**
+     * 添加一个补丁类
+     *
+     * @param classDef 新版本 dex 中的类
+     * @param rank 排序级别，见 RANK_* 常量
+     * @return 是否添加（同名类已添加过时返回 false）
+     */
+    public boolean addClass(ClassDef classDef, int rank) {
+        if (rewriter != null) {
+            classDef = rewriter.rewrite(classDef);
+        }
+        String type = classDef.getType();
+        if (!addedTypes.add(type)) {
+            return false;
+        }
+        String className = rewriter != null
+                ? rewriter.originalClassName(toClassName(type)) : toClassName(type);
+        String outerClass = outerClassOf(className);
+        if (hotClasses.contains(className) || hotClasses.contains(outerClass)) {
+            rank = RANK_HOT;
+        }
+        ClassGroup group = groups.get(outerClass);
+        if (group == null) {
+            group = new ClassGroup(outerClass);
+            groups.put(outerClass, group);
+        }
+        group.add(classDef, rank);
+        return true;
+    }
+
+    /**
+     * 已添加的类数量
+     */
+    public int getClassCount() {
+        return addedTypes.size();
+    }
+
+    /**
+     * 写入补丁 dex 文件
+     *
+     * @param outputDir 输出目录
+     * @return 按加载顺序排列的 dex 文件（classes.dex、classes2.dex ...），没有类时返回空列表
+     * @throws IOException 写入失败时抛出
+     */
+    public List<File> pack(File outputDir) throws IOException {
+        List<File> dexFiles = new ArrayList<>();
+        if (groups.isEmpty()) {
+            return dexFiles;
+        }
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+
+        List<ClassGroup> ordered = new ArrayList<>(groups.values());
+        Collections.sort(ordered);
+
+        DexPool pool = new DexPool(opcodes);
+        int poolClasses = 0;
+        for (ClassGroup group : ordered) {
+            if (tryIntern(pool, group.classes)) {
+                poolClasses += group.classes.size();
+                continue;
+            }
+            // 当前 dex 放不下整组，写出后用新的 dex 容纳
+            if (poolClasses > 0) {
+                dexFiles.add(write(pool, outputDir, dexFiles.size()));
+                pool = new DexPool(opcodes);
+                poolClasses = 0;
+                if (tryIntern(pool, group.classes)) {
+                    poolClasses += group.classes.size();
+                    continue;
+                }
+            }
+            // 单组超过一个 dex 的容量，逐个类填充
+            for (ClassDef classDef : group.classes) {
+                if (tryIntern(pool, Collections.singletonList(classDef))) {
+                    poolClasses++;
+                    continue;
+                }
+                if (poolClasses == 0) {
+                    throw new IOException("Class exceeds dex limits on its own: " + classDef.getType());
+                }
+                dexFiles.add(write(pool, outputDir, dexFiles.size()));
+                pool = new DexPool(opcodes);
+                poolClasses = 0;
+                if (!tryIntern(pool, Collections.singletonList(classDef))) {
+                    throw new IOException("Class exceeds dex limits on its own: " + classDef.getType());
+                }
+                poolClasses++;
+            }
+        }
+        if (poolClasses > 0) {
+            dexFiles.add(write(pool, outputDir, dexFiles.size()));
+        }
+        return dexFiles;
+    }
+
+    /**
+     * 第 index 个（从 0 开始）补丁 dex 的文件名：classes.dex、classes2.dex ...
+     */
+    public static String dexName(int index) {
+        return index == 0 ? "classes.dex" : "classes" + (index + 1) + ".dex";
+    }
+
+    /**
+     * 尝试把一组类加入 pool，超出 64K 限制时撤销本组并返回 false
+     */
+    private boolean tryIntern(DexPool pool, List<ClassDef> classes) {
+        pool.mark();
+        for (ClassDef classDef : classes) {
+            pool.internClass(classDef);
+        }
+        if (pool.hasOverflowed()) {
+            pool.reset();
+            return false;
+        }
+        return true;
+    }
+
+    private File write(DexPool pool, File outputDir, int index) throws IOException {
+        File dexFile = new File(outputDir, dexName(index));
+        pool.writeTo(new FileDataStore(dexFile));
+        return dexFile;
+    }
+
+    private int rankOf(String className, DexDiffResult diff) {
+        if (diff == null) {
+            return RANK_ADDED;
+        }
+        String outerClass = outerClassOf(className);
+        if (contains(diff.getModifiedClasses(), className) || contains(diff.getModifiedClasses(), outerClass)) {
+            return RANK_MODIFIED;
+        }
+        if (contains(diff.getResourceIdOnlyClasses(), className)) {
+            return RANK_RESOURCE_ID_ONLY;
+        }
+        return RANK_ADDED;
+    }
+
+    private static boolean contains(List<String> list, String value) {
+        return list != null && list.contains(value);
+    }
+
+    /**
+     * 外部类名：com.example.Foo$Bar$1 -> com.example.Foo
+     */
+    private static String outerClassOf(String className) {
+        int simpleStart = className.lastIndexOf('.') + 1;
+        int index = className.indexOf('$', simpleStart);
+        return index > simpleStart ? className.substring(0, index) : className;
+    }
+
+    private static String toClassName(String dexType) {
+        if (dexType.startsWith("L") && dexType.endsWith(";")) {
+            return dexType.substring(1, dexType.length() - 1).replace('/', '.');
+        }
+        return dexType;
+    }
+
+    /**
+     * 外部类及其内部类、匿名类、Lambda 类
+     */
+    private static final class ClassGroup implements Comparable<ClassGroup> {
+        final String outerClass;
+        final List<ClassDef> classes = new ArrayList<>();
+        int rank = Integer.MAX_VALUE;
+
+        ClassGroup(String outerClass) {
+            this.outerClass = outerClass;
+        }
+
+        void add(ClassDef classDef, int classRank) {
+            classes.add(classDef);
+            rank = Math.min(rank, classRank);
+        }
+
+        @Override
+        public int compareTo(ClassGroup other) {
+            if (rank != other.rank) {
+                return Integer.compare(rank, other.rank);
+            }
+            return outerClass.compareTo(other.outerClass);
+        }
+    }
+}
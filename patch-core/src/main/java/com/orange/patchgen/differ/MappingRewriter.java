@@ -0,0 +1,282 @@
+package com.orange.patchgen.differ;
+
+import org.jf.dexlib2.base.reference.BaseFieldReference;
+import org.jf.dexlib2.base.reference.BaseMethodReference;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.rewriter.DexRewriter;
+import org.jf.dexlib2.rewriter.FieldReferenceRewriter;
+import org.jf.dexlib2.rewriter.MethodReferenceRewriter;
+import org.jf.dexlib2.rewriter.Rewriter;
+import org.jf.dexlib2.rewriter.RewriterModule;
+import org.jf.dexlib2.rewriter.Rewriters;
+import org.jf.dexlib2.rewriter.TypeRewriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * 把补丁类从新版本的混淆名改写为基准版本的混淆名（applymapping）
+ *
+ * 补丁类运行在基准 APK 的代码中间：基准代码按基准版本的混淆名调用被修改的类，补丁类引用的其它类和成员
+ * 也必须使用基准版本中的名称。两次构建的混淆名可能互换（新版本的 a.b 在基准中是另一个类），
+ * 因此补丁类中的类型、字段和方法（包括定义和引用）都按 新混淆名 -> 原始名 -> 基准混淆名 改写：
+ * - 类型：原始类在基准映射中时使用基准混淆名，否则（新增类、未混淆的类）使用原始名
+ * - 字段、方法：沿新版本的继承链找到声明该成员的类，还原为原始名后查找基准混淆名；
+ *   基准中没有该成员（新增的成员）时使用原始名，补丁内的定义和引用保持一致
+ * - 新版本未重命名的成员按原名查找基准混淆名，构造方法、静态初始化方法和框架类的成员保持不变
+ *
+ * 继承链通过 {@link #addHierarchy(DexFile)} 提供的新版本 dex 查找，未提供时只查找引用中的类。
+ */
+public class MappingRewriter {
+
+    private final ProguardMapping baseMapping;
+    private final ProguardMapping newMapping;
+    private final Map<String, ClassDef> newClasses = new HashMap<>();
+    private final Map<String, String> typeCache = new HashMap<>();
+    private final Map<String, String> memberCache = new HashMap<>();
+    private final DexRewriter rewriter;
+
+    /**
+     * @param baseMapping 基准版本的混淆映射，可为 null
+     * @param newMapping 新版本的混淆映射，可为 null
+     */
+    public MappingRewriter(ProguardMapping baseMapping, ProguardMapping newMapping) {
+        this.baseMapping = baseMapping != null ? baseMapping : ProguardMapping.IDENTITY;
+        this.newMapping = newMapping != null ? newMapping : ProguardMapping.IDENTITY;
+        this.rewriter = new DexRewriter(new RewriterModule() {
+            @Override
+            public Rewriter<String> getTypeRewriter(Rewriters rewriters) {
+                return new TypeRewriter() {
+                    @Override
+                    public String rewrite(String value) {
+                        return rewriteType(value);
+                    }
+                };
+            }
+
+            @Override
+            public Rewriter<FieldReference> getFieldReferenceRewriter(Rewriters rewriters) {
+                return new FieldReferenceRewriter(rewriters) {
+                    @Override
+                    public FieldReference rewrite(FieldReference fieldReference) {
+                        return new MappedFieldReference(fieldReference, super.rewrite(fieldReference));
+                    }
+                };
+            }
+
+            @Override
+            public Rewriter<MethodReference> getMethodReferenceRewriter(Rewriters rewriters) {
+                return new MethodReferenceRewriter(rewriters) {
+                    @Override
+                    public MethodReference rewrite(MethodReference methodReference) {
+                        return new MappedMethodReference(methodReference, super.rewrite(methodReference));
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * 两个版本都没有混淆映射时无需改写
+     */
+    public boolean isIdentity() {
+        return baseMapping.isEmpty() && newMapping.isEmpty();
+    }
+
+    /**
+     * 添加新版本 dex 中的类，用于沿继承链查找成员的声明类
+     */
+    public void addHierarchy(DexFile newDex) {
+        for (ClassDef classDef : newDex.getClasses()) {
+            newClasses.putIfAbsent(classDef.getType(), classDef);
+        }
+    }
+
+    /**
+     * 改写一个补丁类
+     *
+     * 返回的类在读取时按需改写；映射文件读取失败时抛出 {@link UncheckedIOException}。
+     */
+    public ClassDef rewrite(ClassDef classDef) {
+        return isIdentity() ? classDef : rewriter.getClassDefRewriter().rewrite(classDef);
+    }
+
+    /**
+     * 改写后的类名还原为原始类名（点分格式）
+     */
+    public String originalClassName(String rewrittenClassName) {
+        return baseMapping.originalClassName(rewrittenClassName);
+    }
+
+    /**
+     * 改写 dex 类型描述符（支持数组），非类类型原样返回
+     */
+    public String rewriteType(String dexType) {
+        if (dexType == null) {
+            return null;
+        }
+        int dimensions = 0;
+        while (dimensions < dexType.length() && dexType.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dexType.length() - dimensions < 3 || dexType.charAt(dimensions) != 'L' || !dexType.endsWith(";")) {
+            return dexType;
+        }
+        String classType = dexType.substring(dimensions);
+        String mapped = typeCache.get(classType);
+        if (mapped == null) {
+            String original = newMapping.originalClassName(toClassName(classType));
+            mapped = toDexType(baseMapping.obfuscatedClassName(original));
+            typeCache.put(classType, mapped);
+        }
+        return dimensions == 0 ? mapped : dexType.substring(0, dimensions) + mapped;
+    }
+
+    private String rewriteFieldName(FieldReference field) {
+        String key = field.getDefiningClass() + "->" + field.getName() + ":" + field.getType();
+        String mapped = memberCache.get(key);
+        if (mapped == null) {
+            mapped = resolveMemberName(field.getDefiningClass(), field.getName(), null);
+            memberCache.put(key, mapped);
+        }
+        return mapped;
+    }
+
+    private String rewriteMethodName(MethodReference method) {
+        String name = method.getName();
+        if (name.startsWith("<")) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(method.getDefiningClass()).append("->").append(name).append('(');
+        List<String> originalParameters = new ArrayList<>();
+        for (CharSequence parameter : method.getParameterTypes()) {
+            key.append(parameter);
+            originalParameters.add(ProguardMapping.toJavaType(newMapping.originalType(parameter.toString())));
+        }
+        String cacheKey = key.append(')').toString();
+        String mapped = memberCache.get(cacheKey);
+        if (mapped == null) {
+            mapped = resolveMemberName(method.getDefiningClass(), name, originalParameters);
+            memberCache.put(cacheKey, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * 沿新版本的继承链找到声明成员的类，返回成员在基准版本中的名称
+     *
+     * @param originalParameters 方法的原始参数类型，字段为 null
+     */
+    private String resolveMemberName(String definingClass, String name, List<String> originalParameters) {
+        try {
+            Deque<String> pending = new ArrayDeque<>();
+            Set<String> visited = new HashSet<>();
+            pending.add(definingClass);
+            while (!pending.isEmpty()) {
+                String type = pending.poll();
+                if (!visited.add(type)) {
+                    continue;
+                }
+                String className = toClassName(type);
+                String originalName = originalParameters == null
+                        ? newMapping.findOriginalFieldName(className, name)
+                        : newMapping.findOriginalMethodName(className, name, originalParameters);
+                if (originalName != null) {
+                    String originalClass = newMapping.originalClassName(className);
+                    String baseName = originalParameters == null
+                            ? baseMapping.findObfuscatedFieldName(originalClass, originalName)
+                            : baseMapping.findObfuscatedMethodName(originalClass, originalName, originalParameters);
+                    return baseName != null ? baseName : originalName;
+                }
+                ClassDef classDef = newClasses.get(type);
+                if (classDef != null) {
+                    if (classDef.getSuperclass() != null) {
+                        pending.add(classDef.getSuperclass());
+                    }
+                    pending.addAll(classDef.getInterfaces());
+                }
+            }
+            // 新版本映射中没有该成员：新版本未重命名该成员，名称即原始名，按原始名查找基准混淆名
+            String originalClass = newMapping.originalClassName(toClassName(definingClass));
+            String baseName = originalParameters == null
+                    ? baseMapping.findObfuscatedFieldName(originalClass, name)
+                    : baseMapping.findObfuscatedMethodName(originalClass, name, originalParameters);
+            return baseName != null ? baseName : name;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read mapping: " + e.getMessage(), e);
+        }
+    }
+
+    private static String toClassName(String dexType) {
+        return dexType.substring(1, dexType.length() - 1).replace('/', '.');
+    }
+
+    private static String toDexType(String className) {
+        return "L" + className.replace('.', '/') + ";";
+    }
+
+    /**
+     * 类型已改写、名称按映射改写的字段引用
+     */
+    private final class MappedFieldReference extends BaseFieldReference {
+        private final FieldReference source;
+        private final FieldReference typesRewritten;
+
+        MappedFieldReference(FieldReference source, FieldReference typesRewritten) {
+            this.source = source;
+            this.typesRewritten = typesRewritten;
+        }
+
+        @Override
+        public String getDefiningClass() {
+            return typesRewritten.getDefiningClass();
+        }
+
+        @Override
+        public String getName() {
+            return rewriteFieldName(source);
+        }
+
+        @Override
+        public String getType() {
+            return typesRewritten.getType();
+        }
+    }
+
+    /**
+     * 类型已改写、名称按映射改写的方法引用
+     */
+    private final class MappedMethodReference extends BaseMethodReference {
+        private final MethodReference source;
+        private final MethodReference typesRewritten;
+
+        MappedMethodReference(MethodReference source, MethodReference typesRewritten) {
+            this.source = source;
+            this.typesRewritten = typesRewritten;
+        }
+
+        @Override
+        public String getDefiningClass() {
+            return typesRewritten.getDefiningClass();
+        }
+
+        @Override
+        public String getName() {
+            return rewriteMethodName(source);
+        }
+
+        @Override
+        public List<? extends CharSequence> getParameterTypes() {
+            return typesRewritten.getParameterTypes();
+        }
+
+        @Override
+        public String getReturnType() {
+            return typesRewritten.getReturnType();
+        }
+    }
+}
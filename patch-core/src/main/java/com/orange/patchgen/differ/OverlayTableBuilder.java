@@ -0,0 +1,686 @@
+package com.orange.patchgen.differ;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 覆盖资源表生成器
+ *
+ * 对比基准和新版本的 resources.arsc，生成只包含变化条目的资源表：全局字符串池、类型名池和键名池
+ * 原样复制（条目中的索引保持有效），ResTable_type 中未变化的条目写为 NO_ENTRY，没有变化条目的类型整个省略。
+ * 客户端把它与变化的 res/、assets/ 文件打成覆盖资源包，叠加在原始 APK 之上加载，不再合并完整资源包。
+ *
+ * 条目按 (包, 类型, 配置, 索引) 对比：键名、父项和值都相同即视为未变化，字符串值按内容比较
+ * （字符串池重排不算变化，样式 span 不参与比较）。值为文件路径且该文件有变化时（如 res/layout/main.xml
+ * 内容修改而资源表条目不变）也写入，使文件从覆盖资源包中读取。
+ */
+public class OverlayTableBuilder {
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_TABLE_TYPE = 0x0002;
+    private static final int RES_TABLE_PACKAGE_TYPE = 0x0200;
+    private static final int RES_TABLE_TYPE_TYPE = 0x0201;
+    private static final int RES_TABLE_TYPE_SPEC_TYPE = 0x0202;
+    private static final int RES_TABLE_LIBRARY_TYPE = 0x0203;
+
+    private static final int TYPE_FLAG_SPARSE = 0x01;
+    private static final int TYPE_FLAG_OFFSET16 = 0x02;
+    private static final int ENTRY_FLAG_COMPLEX = 0x0001;
+    private static final int ENTRY_FLAG_COMPACT = 0x0008;
+    private static final int NO_ENTRY = 0xFFFFFFFF;
+    private static final int NO_ENTRY_16 = 0xFFFF;
+    private static final int TYPE_STRING = 0x03;
+
+    private static final int TABLE_HEADER_SIZE = 12;
+
+    private OverlayTableBuilder() {
+    }
+
+    /**
+     * 生成覆盖资源表
+     *
+     * @param baseArsc 基准版本 resources.arsc
+     * @param newArsc 新版本 resources.arsc
+     * @param changedFiles 变化（修改或新增）的资源文件路径，如 res/layout/main.xml
+     * @param outputFile 输出文件，没有变化条目时不写入
+     * @return 写入的条目数
+     * @throws IOException 读取、解析或写入失败时抛出
+     */
+    public static int build(File baseArsc, File newArsc, Set<String> changedFiles, File outputFile)
+            throws IOException {
+        ByteBuffer base = map(baseArsc);
+        ByteBuffer target = map(newArsc);
+        try {
+            Map<String, String> baseEntries = new HashMap<>();
+            collectEntries(base, baseEntries);
+
+            List<PackagePlan> plans = new ArrayList<>();
+            int globalPoolStart = forEachPackage(target, (start, pool) -> {
+                PackagePlan plan = planPackage(target, start, pool, baseEntries, changedFiles);
+                if (plan != null) {
+                    plans.add(plan);
+                }
+            });
+            if (plans.isEmpty()) {
+                return 0;
+            }
+
+            // 全局字符串池只保留保留条目引用的字符串
+            BitSet usedStrings = new BitSet();
+            for (PackagePlan plan : plans) {
+                plan.collectStrings(target, usedStrings);
+            }
+            PoolSubset globalPool = new PoolSubset(target, globalPoolStart, usedStrings);
+
+            ByteArrayOutputStream packages = new ByteArrayOutputStream();
+            int entries = 0;
+            for (PackagePlan plan : plans) {
+                packages.write(plan.encode(target, globalPool.remap));
+                entries += plan.entryCount;
+            }
+
+            int tableSize = TABLE_HEADER_SIZE + globalPool.bytes.length + packages.size();
+            try (OutputStream out = new FileOutputStream(outputFile)) {
+                ByteBuffer header = ByteBuffer.allocate(TABLE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putShort((short) RES_TABLE_TYPE).putShort((short) TABLE_HEADER_SIZE)
+                        .putInt(tableSize).putInt(plans.size());
+                out.write(header.array());
+                out.write(globalPool.bytes);
+                packages.writeTo(out);
+            }
+            return entries;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid resources.arsc: " + e.getMessage(), e);
+        }
+    }
+
+    private static ByteBuffer map(File arscFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(arscFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private interface PackageVisitor {
+        void visit(int start, ResourceIdTable.StringPool globalPool) throws IOException;
+    }
+
+    /**
+     * 遍历资源表中的 ResTable_package
+     *
+     * @return 全局字符串池的位置
+     */
+    private static int forEachPackage(ByteBuffer buffer, PackageVisitor visitor) throws IOException {
+        if (buffer.getShort(0) != RES_TABLE_TYPE) {
+            throw new IllegalArgumentException("Not a resource table");
+        }
+        int headerSize = buffer.getShort(2) & 0xFFFF;
+        int tableSize = buffer.getInt(4);
+
+        int globalPoolStart = -1;
+        ResourceIdTable.StringPool globalPool = null;
+        int offset = headerSize;
+        while (offset + 8 <= tableSize) {
+            int type = buffer.getShort(offset) & 0xFFFF;
+            int chunkSize = buffer.getInt(offset + 4);
+            if (chunkSize <= 0) {
+                break;
+            }
+            if (type == RES_STRING_POOL_TYPE && globalPool == null) {
+                globalPoolStart = offset;
+                globalPool = new ResourceIdTable.StringPool(buffer, offset);
+            } else if (type == RES_TABLE_PACKAGE_TYPE) {
+                if (globalPool == null) {
+                    throw new IllegalArgumentException("Package before global string pool");
+                }
+                visitor.visit(offset, globalPool);
+            }
+            offset += chunkSize;
+        }
+        if (globalPool == null) {
+            throw new IllegalArgumentException("Missing global string pool");
+        }
+        return globalPoolStart;
+    }
+
+    /**
+     * 收集基准资源表中所有条目的签名
+     */
+    private static void collectEntries(ByteBuffer buffer, Map<String, String> entries) throws IOException {
+        forEachPackage(buffer, (start, globalPool) -> {
+            PackageInfo info = new PackageInfo(buffer, start);
+            for (int chunk : info.typeChunks) {
+                TypeChunk type = new TypeChunk(buffer, chunk, info.specEntryCount(buffer, chunk));
+                for (int i = 0; i < type.indices.length; i++) {
+                    int entry = type.entriesStart + type.offsets[i];
+                    entries.put(type.entryKey(info.packageId, type.indices[i]),
+                            signature(buffer, entry, info.keyPool, globalPool, null));
+                }
+            }
+        });
+    }
+
+    /**
+     * 找出包中变化的条目，没有变化条目时返回 null
+     */
+    private static PackagePlan planPackage(ByteBuffer buffer, int start, ResourceIdTable.StringPool globalPool,
+                                           Map<String, String> baseEntries, Set<String> changedFiles) {
+        PackagePlan plan = new PackagePlan(new PackageInfo(buffer, start), start);
+        for (int chunk : plan.info.typeChunks) {
+            TypeChunk type = new TypeChunk(buffer, chunk, plan.info.specEntryCount(buffer, chunk));
+            List<Integer> keep = new ArrayList<>();
+            for (int i = 0; i < type.indices.length; i++) {
+                int entry = type.entriesStart + type.offsets[i];
+                String signature = signature(buffer, entry, plan.info.keyPool, globalPool, changedFiles);
+                String baseSignature = baseEntries.get(type.entryKey(plan.info.packageId, type.indices[i]));
+                if (signature == null || !signature.equals(baseSignature)) {
+                    keep.add(i);
+                }
+            }
+            if (!keep.isEmpty()) {
+                type.keep = keep;
+                plan.keptTypes.computeIfAbsent(type.typeId, k -> new ArrayList<>()).add(type);
+                plan.entryCount += keep.size();
+            }
+        }
+        return plan.entryCount > 0 ? plan : null;
+    }
+
+    /**
+     * 一个 ResTable_package 中要写出的类型块和条目
+     */
+    private static final class PackagePlan {
+        final PackageInfo info;
+        final int start;
+        /** typeId -> 有保留条目的类型块 */
+        final Map<Integer, List<TypeChunk>> keptTypes = new LinkedHashMap<>();
+        int entryCount;
+
+        PackagePlan(PackageInfo info, int start) {
+            this.info = info;
+            this.start = start;
+        }
+
+        void collectStrings(ByteBuffer buffer, BitSet usedStrings) {
+            for (List<TypeChunk> types : keptTypes.values()) {
+                for (TypeChunk type : types) {
+                    for (int i : type.keep) {
+                        int entry = type.entriesStart + type.offsets[i];
+                        for (int position : stringValuePositions(buffer, entry)) {
+                            usedStrings.set(buffer.getInt(entry + position));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 按新的全局字符串池编码 ResTable_package，键名池同样只保留用到的键
+         */
+        byte[] encode(ByteBuffer buffer, int[] globalRemap) throws IOException {
+            BitSet usedKeys = new BitSet();
+            for (List<TypeChunk> types : keptTypes.values()) {
+                for (TypeChunk type : types) {
+                    for (int i : type.keep) {
+                        usedKeys.set(keyIndex(buffer, type.entriesStart + type.offsets[i]));
+                    }
+                }
+            }
+            PoolSubset keyPool = new PoolSubset(buffer, info.keyStrings, usedKeys);
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] typeStrings = slice(buffer, info.typeStrings, buffer.getInt(info.typeStrings + 4));
+            body.write(typeStrings);
+            body.write(keyPool.bytes);
+            for (int library : info.libraryChunks) {
+                body.write(slice(buffer, library, buffer.getInt(library + 4)));
+            }
+            for (Map.Entry<Integer, List<TypeChunk>> entry : keptTypes.entrySet()) {
+                int spec = info.specChunks.get(entry.getKey());
+                body.write(slice(buffer, spec, buffer.getInt(spec + 4)));
+                for (TypeChunk type : entry.getValue()) {
+                    body.write(type.encode(buffer, globalRemap, keyPool.remap));
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.wrap(slice(buffer, start, info.headerSize)).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(4, info.headerSize + body.size());
+            header.putInt(268, info.headerSize);
+            header.putInt(276, info.headerSize + typeStrings.length);
+            // lastPublicKey 指向键名池末尾
+            header.putInt(280, keyPool.count);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(info.headerSize + body.size());
+            out.write(header.array());
+            body.writeTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * 条目中字符串值（TYPE_STRING）的数据相对条目起始的偏移
+     */
+    private static List<Integer> stringValuePositions(ByteBuffer buffer, int entry) {
+        List<Integer> positions = new ArrayList<>(1);
+        int flags = buffer.getShort(entry + 2) & 0xFFFF;
+        if ((flags & ENTRY_FLAG_COMPACT) != 0) {
+            if (((flags >> 8) & 0xFF) == TYPE_STRING) {
+                positions.add(4);
+            }
+            return positions;
+        }
+        int headerSize = buffer.getShort(entry) & 0xFFFF;
+        if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
+            if ((buffer.get(entry + headerSize + 3) & 0xFF) == TYPE_STRING) {
+                positions.add(headerSize + 4);
+            }
+            return positions;
+        }
+        int count = buffer.getInt(entry + 12);
+        for (int i = 0; i < count; i++) {
+            int item = headerSize + i * 12;
+            if ((buffer.get(entry + item + 7) & 0xFF) == TYPE_STRING) {
+                positions.add(item + 8);
+            }
+        }
+        return positions;
+    }
+
+    private static int keyIndex(ByteBuffer buffer, int entry) {
+        int flags = buffer.getShort(entry + 2) & 0xFFFF;
+        return (flags & ENTRY_FLAG_COMPACT) != 0 ? buffer.getShort(entry) & 0xFFFF : buffer.getInt(entry + 4);
+    }
+
+    /**
+     * 条目签名：键名 + 父项 + 值，字符串值按内容展开
+     *
+     * @param changedFiles 不为 null 时，值为其中的文件路径则返回 null（强制视为变化）
+     */
+    private static String signature(ByteBuffer buffer, int entry, ResourceIdTable.StringPool keyPool,
+                                    ResourceIdTable.StringPool globalPool, Set<String> changedFiles) {
+        int flags = buffer.getShort(entry + 2) & 0xFFFF;
+        StringBuilder sb = new StringBuilder();
+        if ((flags & ENTRY_FLAG_COMPACT) != 0) {
+            sb.append(keyPool.get(buffer.getShort(entry) & 0xFFFF)).append('=');
+            return appendValue(sb, (flags >> 8) & 0xFF, buffer.getInt(entry + 4), globalPool, changedFiles)
+                    ? sb.toString() : null;
+        }
+
+        int headerSize = buffer.getShort(entry) & 0xFFFF;
+        sb.append(keyPool.get(buffer.getInt(entry + 4))).append('=');
+        if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
+            int value = entry + headerSize;
+            return appendValue(sb, buffer.get(value + 3) & 0xFF, buffer.getInt(value + 4), globalPool, changedFiles)
+                    ? sb.toString() : null;
+        }
+
+        int parent = buffer.getInt(entry + 8);
+        int count = buffer.getInt(entry + 12);
+        sb.append('^').append(Integer.toHexString(parent));
+        int item = entry + headerSize;
+        for (int i = 0; i < count; i++, item += 12) {
+            sb.append(';').append(Integer.toHexString(buffer.getInt(item))).append(':');
+            if (!appendValue(sb, buffer.get(item + 7) & 0xFF, buffer.getInt(item + 8), globalPool, changedFiles)) {
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean appendValue(StringBuilder sb, int dataType, int data,
+                                       ResourceIdTable.StringPool globalPool, Set<String> changedFiles) {
+        sb.append(dataType).append('/');
+        if (dataType == TYPE_STRING) {
+            String value = globalPool.get(data);
+            if (changedFiles != null && changedFiles.contains(value)) {
+                return false;
+            }
+            sb.append(value);
+        } else {
+            sb.append(data);
+        }
+        return true;
+    }
+
+    private static byte[] slice(ByteBuffer buffer, int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * ResTable_package 的头部和子块位置
+     */
+    private static final class PackageInfo {
+        final int packageId;
+        final int headerSize;
+        final int typeStrings;
+        final int keyStrings;
+        final ResourceIdTable.StringPool keyPool;
+        final List<Integer> typeChunks = new ArrayList<>();
+        final List<Integer> libraryChunks = new ArrayList<>();
+        final Map<Integer, Integer> specChunks = new HashMap<>();
+
+        PackageInfo(ByteBuffer buffer, int start) {
+            headerSize = buffer.getShort(start + 2) & 0xFFFF;
+            int chunkSize = buffer.getInt(start + 4);
+            packageId = buffer.getInt(start + 8);
+            // id(4) + name(256) 之后是 typeStrings、lastPublicType、keyStrings
+            typeStrings = start + buffer.getInt(start + 268);
+            keyStrings = start + buffer.getInt(start + 276);
+            keyPool = new ResourceIdTable.StringPool(buffer, keyStrings);
+
+            int offset = start + headerSize;
+            int end = start + chunkSize;
+            while (offset + 8 <= end) {
+                int type = buffer.getShort(offset) & 0xFFFF;
+                int size = buffer.getInt(offset + 4);
+                if (size <= 0) {
+                    break;
+                }
+                if (type == RES_TABLE_TYPE_TYPE) {
+                    typeChunks.add(offset);
+                } else if (type == RES_TABLE_TYPE_SPEC_TYPE) {
+                    specChunks.put(buffer.get(offset + 8) & 0xFF, offset);
+                } else if (type == RES_TABLE_LIBRARY_TYPE) {
+                    libraryChunks.add(offset);
+                }
+                offset += size;
+            }
+        }
+
+        /**
+         * ResTable_typeSpec 中的条目数（稀疏类型块的 entryCount 只是实际条目数）
+         */
+        int specEntryCount(ByteBuffer buffer, int typeChunk) {
+            Integer spec = specChunks.get(buffer.get(typeChunk + 8) & 0xFF);
+            if (spec == null) {
+                throw new IllegalArgumentException("Missing type spec for type chunk at " + typeChunk);
+            }
+            return buffer.getInt(spec + 12);
+        }
+    }
+
+    /**
+     * 解码后的 ResTable_type：实际存在的条目索引和偏移
+     */
+    private static final class TypeChunk {
+        final int start;
+        final int headerSize;
+        final int typeId;
+        final int entryCount;
+        final int entriesStart;
+        final String configKey;
+        final int[] indices;
+        final int[] offsets;
+        /** 要写出的条目（indices/offsets 的下标） */
+        List<Integer> keep;
+
+        TypeChunk(ByteBuffer buffer, int start, int specEntryCount) {
+            this.start = start;
+            this.headerSize = buffer.getShort(start + 2) & 0xFFFF;
+            this.typeId = buffer.get(start + 8) & 0xFF;
+            int flags = buffer.get(start + 9) & 0xFF;
+            int count = buffer.getInt(start + 12);
+            this.entriesStart = start + buffer.getInt(start + 16);
+            int configSize = buffer.getInt(start + 20);
+            this.configKey = toHex(slice(buffer, start + 20, configSize));
+
+            boolean sparse = (flags & TYPE_FLAG_SPARSE) != 0;
+            this.entryCount = sparse ? specEntryCount : count;
+            int[] idx = new int[count];
+            int[] off = new int[count];
+            int n = 0;
+            int table = start + headerSize;
+            for (int i = 0; i < count; i++) {
+                if (sparse) {
+                    idx[n] = buffer.getShort(table + i * 4) & 0xFFFF;
+                    off[n++] = (buffer.getShort(table + i * 4 + 2) & 0xFFFF) * 4;
+                } else if ((flags & TYPE_FLAG_OFFSET16) != 0) {
+                    int value = buffer.getShort(table + i * 2) & 0xFFFF;
+                    if (value != NO_ENTRY_16) {
+                        idx[n] = i;
+                        off[n++] = value * 4;
+                    }
+                } else {
+                    int value = buffer.getInt(table + i * 4);
+                    if (value != NO_ENTRY) {
+                        idx[n] = i;
+                        off[n++] = value;
+                    }
+                }
+            }
+            this.indices = Arrays.copyOf(idx, n);
+            this.offsets = Arrays.copyOf(off, n);
+        }
+
+        String entryKey(int packageId, int entryIndex) {
+            return packageId + "/" + typeId + "/" + configKey + "/" + entryIndex;
+        }
+
+        /**
+         * 只保留 {@link #keep} 中的条目，按 32 位偏移的稠密格式重新编码，字符串和键名索引按新的池重映射
+         */
+        byte[] encode(ByteBuffer buffer, int[] globalRemap, int[] keyRemap) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int[] table = new int[entryCount];
+            Arrays.fill(table, NO_ENTRY);
+            for (int i : keep) {
+                int entry = entriesStart + offsets[i];
+                table[indices[i]] = data.size();
+                ByteBuffer bytes = ByteBuffer.wrap(slice(buffer, entry, entrySize(buffer, entry)))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                int key = keyRemap[keyIndex(buffer, entry)];
+                if (((buffer.getShort(entry + 2) & 0xFFFF) & ENTRY_FLAG_COMPACT) != 0) {
+                    bytes.putShort(0, (short) key);
+                } else {
+                    bytes.putInt(4, key);
+                }
+                for (int position : stringValuePositions(buffer, entry)) {
+                    bytes.putInt(position, globalRemap[bytes.getInt(position)]);
+                }
+                data.write(bytes.array(), 0, bytes.capacity());
+            }
+
+            int newEntriesStart = headerSize + entryCount * 4;
+            ByteBuffer out = ByteBuffer.allocate(newEntriesStart + data.size()).order(ByteOrder.LITTLE_ENDIAN);
+            out.put(slice(buffer, start, headerSize));
+            out.putInt(4, out.capacity());
+            out.put(9, (byte) ((buffer.get(start + 9) & 0xFF) & ~(TYPE_FLAG_SPARSE | TYPE_FLAG_OFFSET16)));
+            out.putInt(12, entryCount);
+            out.putInt(16, newEntriesStart);
+            out.position(headerSize);
+            for (int offset : table) {
+                out.putInt(offset);
+            }
+            out.put(data.toByteArray());
+            return out.array();
+        }
+
+        private static int entrySize(ByteBuffer buffer, int entry) {
+            int flags = buffer.getShort(entry + 2) & 0xFFFF;
+            if ((flags & ENTRY_FLAG_COMPACT) != 0) {
+                return 8;
+            }
+            int headerSize = buffer.getShort(entry) & 0xFFFF;
+            if ((flags & ENTRY_FLAG_COMPLEX) != 0) {
+                return headerSize + buffer.getInt(entry + 12) * 12;
+            }
+            return headerSize + (buffer.getShort(entry + headerSize) & 0xFFFF);
+        }
+    }
+
+    /**
+     * 只保留部分字符串的 ResStringPool
+     *
+     * 字符串按编码后的原始字节复制（UTF-8/UTF-16 与原池一致）。带样式的字符串必须排在最前面，
+     * 因此先写保留下来的带样式字符串，再写其它字符串；样式 span 的标签名也一并保留并重映射。
+     */
+    private static final class PoolSubset {
+        private static final int HEADER_SIZE = 28;
+        private static final int SORTED_FLAG = 1;
+        private static final int UTF8_FLAG = 1 << 8;
+        private static final int SPAN_END = 0xFFFFFFFF;
+
+        /** 旧索引 -> 新索引，未保留的为 -1 */
+        final int[] remap;
+        final int count;
+        final byte[] bytes;
+
+        PoolSubset(ByteBuffer buffer, int start, BitSet used) {
+            int headerSize = buffer.getShort(start + 2) & 0xFFFF;
+            int stringCount = buffer.getInt(start + 8);
+            int styleCount = buffer.getInt(start + 12);
+            int flags = buffer.getInt(start + 16);
+            boolean utf8 = (flags & UTF8_FLAG) != 0;
+            int stringsStart = start + buffer.getInt(start + 20);
+            int stylesStart = start + buffer.getInt(start + 24);
+            int stringOffsets = start + headerSize;
+            int styleOffsets = stringOffsets + stringCount * 4;
+
+            // 带样式的字符串引用的标签名也要保留（标签名本身也可能带样式，迭代到不再增加）
+            BitSet keep = (BitSet) used.clone();
+            BitSet styled = new BitSet();
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                for (int i = keep.nextSetBit(0); i >= 0 && i < styleCount; i = keep.nextSetBit(i + 1)) {
+                    if (styled.get(i)) {
+                        continue;
+                    }
+                    styled.set(i);
+                    for (int span = stylesStart + buffer.getInt(styleOffsets + i * 4);
+                         buffer.getInt(span) != SPAN_END; span += 12) {
+                        int name = buffer.getInt(span);
+                        if (!keep.get(name)) {
+                            keep.set(name);
+                            grown = true;
+                        }
+                    }
+                }
+            }
+
+            remap = new int[stringCount];
+            Arrays.fill(remap, -1);
+            int next = 0;
+            for (int i = styled.nextSetBit(0); i >= 0; i = styled.nextSetBit(i + 1)) {
+                remap[i] = next++;
+            }
+            for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+                if (remap[i] < 0) {
+                    remap[i] = next++;
+                }
+            }
+            count = next;
+            int newStyleCount = styled.cardinality();
+
+            int[] order = new int[count];
+            for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+                order[remap[i]] = i;
+            }
+
+            ByteArrayOutputStream strings = new ByteArrayOutputStream();
+            int[] newStringOffsets = new int[count];
+            for (int n = 0; n < count; n++) {
+                int position = stringsStart + buffer.getInt(stringOffsets + order[n] * 4);
+                newStringOffsets[n] = strings.size();
+                byte[] encoded = slice(buffer, position, encodedLength(buffer, position, utf8));
+                strings.write(encoded, 0, encoded.length);
+            }
+            while (strings.size() % 4 != 0) {
+                strings.write(0);
+            }
+
+            ByteArrayOutputStream styles = new ByteArrayOutputStream();
+            int[] newStyleOffsets = new int[newStyleCount];
+            ByteBuffer word = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int n = 0; n < newStyleCount; n++) {
+                newStyleOffsets[n] = styles.size();
+                int span = stylesStart + buffer.getInt(styleOffsets + order[n] * 4);
+                for (; buffer.getInt(span) != SPAN_END; span += 12) {
+                    writeInt(styles, word, remap[buffer.getInt(span)]);
+                    writeInt(styles, word, buffer.getInt(span + 4));
+                    writeInt(styles, word, buffer.getInt(span + 8));
+                }
+                writeInt(styles, word, SPAN_END);
+            }
+            if (newStyleCount > 0) {
+                writeInt(styles, word, SPAN_END);
+                writeInt(styles, word, SPAN_END);
+            }
+
+            int newStringsStart = HEADER_SIZE + count * 4 + newStyleCount * 4;
+            int size = newStringsStart + strings.size() + styles.size();
+            ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            out.putShort((short) RES_STRING_POOL_TYPE).putShort((short) HEADER_SIZE).putInt(size)
+                    .putInt(count).putInt(newStyleCount).putInt(flags & ~SORTED_FLAG)
+                    .putInt(newStringsStart)
+                    .putInt(newStyleCount > 0 ? newStringsStart + strings.size() : 0);
+            for (int offset : newStringOffsets) {
+                out.putInt(offset);
+            }
+            for (int offset : newStyleOffsets) {
+                out.putInt(offset);
+            }
+            out.put(strings.toByteArray());
+            out.put(styles.toByteArray());
+            bytes = out.array();
+        }
+
+        /**
+         * 编码后字符串的字节数（长度前缀 + 内容 + 结尾的 0）
+         */
+        private static int encodedLength(ByteBuffer buffer, int position, boolean utf8) {
+            if (utf8) {
+                int pos = position;
+                pos += (buffer.get(pos) & 0x80) != 0 ? 2 : 1;
+                int length = buffer.get(pos) & 0xFF;
+                if ((length & 0x80) != 0) {
+                    length = ((length & 0x7F) << 8) | (buffer.get(pos + 1) & 0xFF);
+                    pos += 2;
+                } else {
+                    pos += 1;
+                }
+                return pos - position + length + 1;
+            }
+            int length = buffer.getShort(position) & 0xFFFF;
+            int prefix = 2;
+            if ((length & 0x8000) != 0) {
+                length = ((length & 0x7FFF) << 16) | (buffer.getShort(position + 2) & 0xFFFF);
+                prefix = 4;
+            }
+            return prefix + length * 2 + 2;
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, ByteBuffer word, int value) {
+            word.putInt(0, value);
+            out.write(word.array(), 0, 4);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
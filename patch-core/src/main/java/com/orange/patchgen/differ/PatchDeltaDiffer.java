@@ -0,0 +1,311 @@
+package com.orange.patchgen.differ;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 补丁间差分生成器
+ *
+ * 同一基准 APK 的新补丁与旧补丁大部分内容相同（未变化的 dex、资源、so 在 zip 中字节一致），
+ * 对已应用旧补丁的设备只需下载差分文件，由客户端用本地的旧补丁重建出与新补丁逐字节相同的文件，
+ * 再走正常的签名 / MD5 校验。
+ *
+ * 算法：旧补丁按 {@link #BLOCK_SIZE} 分块建立弱哈希（rsync 滚动校验和）索引，
+ * 在新补丁上逐字节滚动查找匹配块，命中后向前后扩展为最长匹配，输出 COPY 指令，其余字节输出 INSERT。
+ *
+ * 差分文件格式（与客户端 com.orange.update.PatchDelta 一致）：
+ * <pre>
+ * 头部（不压缩）: "HUDLT001" | 旧补丁长度(8) | 旧补丁 SHA-256(32) | 新补丁长度(8) | 新补丁 SHA-256(32)
+ * 指令（Deflate 压缩）:
+ *   'C' | 旧补丁偏移(8) | 长度(4)   从旧补丁复制
+ *   'I' | 长度(4) | 数据            插入新数据
+ *   'E'                              结束
+ * </pre>
+ */
+public class PatchDeltaDiffer {
+
+    public static final String MAGIC = "HUDLT001";
+    public static final String FILE_SUFFIX = ".delta";
+
+    static final byte OP_COPY = 'C';
+    static final byte OP_INSERT = 'I';
+    static final byte OP_END = 'E';
+
+    /** 匹配块大小 */
+    static final int BLOCK_SIZE = 256;
+    /** 单个哈希桶最多比较的候选块数，避免重复数据导致退化 */
+    private static final int MAX_CANDIDATES = 32;
+    /** 单条 COPY / INSERT 指令的最大长度 */
+    private static final int MAX_OP_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * 差分结果
+     */
+    public static class Result {
+        private final File deltaFile;
+        private final String baseSha256;
+        private final String targetSha256;
+        private final String deltaMd5;
+        private final long deltaSize;
+        private final long copiedBytes;
+
+        Result(File deltaFile, String baseSha256, String targetSha256, String deltaMd5,
+               long deltaSize, long copiedBytes) {
+            this.deltaFile = deltaFile;
+            this.baseSha256 = baseSha256;
+            this.targetSha256 = targetSha256;
+            this.deltaMd5 = deltaMd5;
+            this.deltaSize = deltaSize;
+            this.copiedBytes = copiedBytes;
+        }
+
+        public File getDeltaFile() {
+            return deltaFile;
+        }
+
+        /** 旧补丁的 SHA-256，客户端上报的已应用补丁哈希与之相同时可以使用该差分 */
+        public String getBaseSha256() {
+            return baseSha256;
+        }
+
+        public String getTargetSha256() {
+            return targetSha256;
+        }
+
+        public String getDeltaMd5() {
+            return deltaMd5;
+        }
+
+        public long getDeltaSize() {
+            return deltaSize;
+        }
+
+        /** 从旧补丁复用的字节数 */
+        public long getCopiedBytes() {
+            return copiedBytes;
+        }
+    }
+
+    /**
+     * 差分文件路径：&lt;新补丁&gt;.&lt;旧补丁 SHA-256 前 16 位&gt;.delta
+     */
+    public static File deltaFileFor(File targetPatch, String baseSha256) {
+        return new File(targetPatch.getPath() + "." + baseSha256.substring(0, 16) + FILE_SUFFIX);
+    }
+
+    /**
+     * 生成从旧补丁到新补丁的差分文件
+     *
+     * @param basePatch 旧补丁（客户端当前已应用的补丁）
+     * @param targetPatch 新补丁
+     * @param deltaFile 输出的差分文件
+     */
+    public Result diff(File basePatch, File targetPatch, File deltaFile) throws IOException {
+        byte[] base = Files.readAllBytes(basePatch.toPath());
+        byte[] target = Files.readAllBytes(targetPatch.toPath());
+        String baseSha256 = toHex(digest("SHA-256").digest(base));
+        String targetSha256 = toHex(digest("SHA-256").digest(target));
+
+        MessageDigest md5 = digest("MD5");
+        long copied;
+        try (OutputStream fileOut = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(deltaFile)), md5)) {
+            DataOutputStream header = new DataOutputStream(fileOut);
+            header.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            header.writeLong(base.length);
+            header.write(fromHex(baseSha256));
+            header.writeLong(target.length);
+            header.write(fromHex(targetSha256));
+            header.flush();
+
+            DeflaterOutputStream deflater = new DeflaterOutputStream(fileOut,
+                    new Deflater(Deflater.BEST_COMPRESSION), 64 * 1024);
+            DataOutputStream ops = new DataOutputStream(deflater);
+            copied = writeOps(base, target, ops);
+            ops.writeByte(OP_END);
+            ops.flush();
+            deflater.finish();
+        }
+
+        long deltaSize = deltaFile.length();
+        System.out.println("[PatchGenerator] Delta from " + basePatch.getName() + ": "
+                + deltaSize + " bytes, reused " + copied + "/" + target.length + " bytes");
+        return new Result(deltaFile, baseSha256, targetSha256, toHex(md5.digest()), deltaSize, copied);
+    }
+
+    /**
+     * 扫描新补丁，输出 COPY / INSERT 指令
+     *
+     * @return COPY 的总字节数
+     */
+    private long writeOps(byte[] base, byte[] target, DataOutputStream out) throws IOException {
+        int blockCount = base.length / BLOCK_SIZE;
+        // 弱哈希 -> 块链表（head / next 数组实现的开放链表）
+        int tableSize = Integer.highestOneBit(Math.max(1, blockCount) * 2);
+        int[] head = new int[tableSize];
+        int[] next = new int[Math.max(1, blockCount)];
+        Arrays.fill(head, -1);
+        for (int block = blockCount - 1; block >= 0; block--) {
+            int bucket = mix(weakHash(base, block * BLOCK_SIZE)) & (tableSize - 1);
+            next[block] = head[bucket];
+            head[bucket] = block;
+        }
+
+        long copied = 0;
+        int literalStart = 0;
+        int pos = 0;
+        int a = 0;
+        int b = 0;
+        boolean hashValid = false;
+
+        while (pos + BLOCK_SIZE <= target.length && blockCount > 0) {
+            if (!hashValid) {
+                a = 0;
+                b = 0;
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    int v = target[pos + i] & 0xff;
+                    a += v;
+                    b += (BLOCK_SIZE - i) * v;
+                }
+                hashValid = true;
+            }
+
+            int weak = (a & 0xffff) | (b << 16);
+            int bestBase = -1;
+            int bestTarget = -1;
+            int bestLength = 0;
+            int candidates = 0;
+            for (int block = head[mix(weak) & (tableSize - 1)];
+                 block >= 0 && candidates < MAX_CANDIDATES; block = next[block], candidates++) {
+                int baseOff = block * BLOCK_SIZE;
+                if (!regionEquals(base, baseOff, target, pos, BLOCK_SIZE)) {
+                    continue;
+                }
+                // 向后扩展
+                int end = BLOCK_SIZE;
+                while (pos + end < target.length && baseOff + end < base.length
+                        && base[baseOff + end] == target[pos + end]) {
+                    end++;
+                }
+                // 向前扩展到未输出的字面量中
+                int start = 0;
+                while (pos - start > literalStart && baseOff - start > 0
+                        && base[baseOff - start - 1] == target[pos - start - 1]) {
+                    start++;
+                }
+                if (start + end > bestLength) {
+                    bestLength = start + end;
+                    bestBase = baseOff - start;
+                    bestTarget = pos - start;
+                }
+            }
+
+            if (bestLength > 0) {
+                writeInsert(out, target, literalStart, bestTarget - literalStart);
+                writeCopy(out, bestBase, bestLength);
+                copied += bestLength;
+                pos = bestTarget + bestLength;
+                literalStart = pos;
+                hashValid = false;
+                continue;
+            }
+
+            // 滚动一个字节
+            if (pos + BLOCK_SIZE < target.length) {
+                int out1 = target[pos] & 0xff;
+                int in1 = target[pos + BLOCK_SIZE] & 0xff;
+                a += in1 - out1;
+                b += a - BLOCK_SIZE * out1;
+            }
+            pos++;
+        }
+
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        return copied;
+    }
+
+    private static void writeCopy(DataOutputStream out, long offset, int length) throws IOException {
+        while (length > 0) {
+            int len = Math.min(length, MAX_OP_LENGTH);
+            out.writeByte(OP_COPY);
+            out.writeLong(offset);
+            out.writeInt(len);
+            offset += len;
+            length -= len;
+        }
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int len = Math.min(length, MAX_OP_LENGTH);
+            out.writeByte(OP_INSERT);
+            out.writeInt(len);
+            out.write(data, offset, len);
+            offset += len;
+            length -= len;
+        }
+    }
+
+    private static int weakHash(byte[] data, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            int v = data[offset + i] & 0xff;
+            a += v;
+            b += (BLOCK_SIZE - i) * v;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static boolean regionEquals(byte[] x, int xOff, byte[] y, int yOff, int length) {
+        for (int i = 0; i < length; i++) {
+            if (x[xOff + i] != y[yOff + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte v : bytes) {
+            sb.append(String.format("%02x", v));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
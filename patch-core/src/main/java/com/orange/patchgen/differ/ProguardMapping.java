@@ -0,0 +1,523 @@
+package com.orange.patchgen.differ;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ProGuard / R8 混淆映射（mapping.txt）
+ *
+ * 用于在比较 dex 前把混淆名还原为原始名，避免混淆名在两次构建间漂移导致的误判。
+ *
+ * 大型 mapping 文件的处理：
+ * - 首次加载只扫描类声明行，建立 混淆类名 -> (原始类名, 成员段文件偏移) 的索引，
+ *   成员行不解码不建对象
+ * - 某个类的字段/方法映射在第一次查询时才按偏移读取并解析，之后缓存在内存中
+ * - 同一文件（路径 + 大小 + 修改时间）的解析结果在进程内缓存（软引用），
+ *   Gradle daemon 中重复构建无需再次扫描
+ *
+ * 未出现在映射中的名称原样返回。
+ *
+ * 除 混淆名 -> 原始名 外也支持反向查询（原始名 -> 混淆名），用于把补丁类改写为基准版本的混淆名，
+ * 见 {@link MappingRewriter}。
+ *
+ * R8 内联帧：同一混淆方法、同一行号区间的连续多行中，前面是被内联的方法，最后一行是外层（真正的）方法；
+ * 解析时每组只取最后一行，不带行号区间的条目优先于带行号区间的条目。
+ */
+public class ProguardMapping {
+
+    /** 不做任何映射 */
+    public static final ProguardMapping IDENTITY = new ProguardMapping(null,
+            Collections.<String, ClassEntry>emptyMap());
+
+    private static final Map<String, SoftReference<ProguardMapping>> CACHE = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final Map<String, ClassEntry> classes;
+    private volatile Map<String, ClassEntry> classesByOriginalName;
+
+    private ProguardMapping(File file, Map<String, ClassEntry> classes) {
+        this.file = file;
+        this.classes = classes;
+    }
+
+    /**
+     * 加载 mapping 文件（带进程内缓存）
+     *
+     * @param mappingFile mapping.txt，为 null 时返回 {@link #IDENTITY}
+     * @throws IOException 读取失败时抛出
+     */
+    public static ProguardMapping load(File mappingFile) throws IOException {
+        if (mappingFile == null) {
+            return IDENTITY;
+        }
+        if (!mappingFile.isFile()) {
+            throw new IOException("Mapping file not found: " + mappingFile.getAbsolutePath());
+        }
+
+        String key = mappingFile.getCanonicalPath() + "|" + mappingFile.length() + "|" + mappingFile.lastModified();
+        SoftReference<ProguardMapping> ref = CACHE.get(key);
+        ProguardMapping cached = ref != null ? ref.get() : null;
+        if (cached != null) {
+            return cached;
+        }
+
+        ProguardMapping mapping = new ProguardMapping(mappingFile, buildIndex(mappingFile));
+        CACHE.put(key, new SoftReference<>(mapping));
+        return mapping;
+    }
+
+    /**
+     * 是否为空映射
+     */
+    public boolean isEmpty() {
+        return classes.isEmpty();
+    }
+
+    /**
+     * 还原类名（点分格式，如 a.b -> com.example.Foo）
+     */
+    public String originalClassName(String obfuscatedName) {
+        ClassEntry entry = classes.get(obfuscatedName);
+        return entry != null ? entry.originalName : obfuscatedName;
+    }
+
+    /**
+     * 是否包含该混淆类名的映射
+     */
+    public boolean hasClass(String obfuscatedName) {
+        return classes.containsKey(obfuscatedName);
+    }
+
+    /**
+     * 原始类名对应的混淆类名（点分格式），不在映射中时原样返回
+     */
+    public String obfuscatedClassName(String originalName) {
+        ClassEntry entry = byOriginalName().get(originalName);
+        return entry != null ? entry.obfuscatedName : originalName;
+    }
+
+    /**
+     * 还原 dex 类型描述符，支持数组和基本类型（如 [La/b; -> [Lcom/example/Foo;）
+     */
+    public String originalType(String dexType) {
+        if (dexType == null || classes.isEmpty()) {
+            return dexType;
+        }
+        int dimensions = 0;
+        while (dimensions < dexType.length() && dexType.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dexType.length() - dimensions < 3 || dexType.charAt(dimensions) != 'L' || !dexType.endsWith(";")) {
+            return dexType;
+        }
+        String className = dexType.substring(dimensions + 1, dexType.length() - 1).replace('/', '.');
+        ClassEntry entry = classes.get(className);
+        if (entry == null) {
+            return dexType;
+        }
+        return dexType.substring(0, dimensions) + "L" + entry.originalName.replace('.', '/') + ";";
+    }
+
+    /**
+     * 还原字段名
+     *
+     * @param obfuscatedClass 混淆后的类名（点分格式）
+     * @param obfuscatedField 混淆后的字段名
+     */
+    public String originalFieldName(String obfuscatedClass, String obfuscatedField) throws IOException {
+        ClassEntry entry = classes.get(obfuscatedClass);
+        if (entry == null) {
+            return obfuscatedField;
+        }
+        String original = members(entry).fields.get(obfuscatedField);
+        return original != null ? original : obfuscatedField;
+    }
+
+    /**
+     * 还原方法名
+     *
+     * @param obfuscatedClass 混淆后的类名（点分格式）
+     * @param obfuscatedMethod 混淆后的方法名
+     * @param originalParameterTypes 已还原的参数类型（Java 源码格式，如 java.lang.String、int[]）
+     */
+    public String originalMethodName(String obfuscatedClass, String obfuscatedMethod,
+                                     List<String> originalParameterTypes) throws IOException {
+        ClassEntry entry = classes.get(obfuscatedClass);
+        if (entry == null) {
+            return obfuscatedMethod;
+        }
+        String original = members(entry).methods.get(methodKey(obfuscatedMethod, originalParameterTypes));
+        return original != null ? original : obfuscatedMethod;
+    }
+
+    /**
+     * 查找字段的原始名
+     *
+     * @return 该类的映射中没有此字段时返回 null
+     */
+    public String findOriginalFieldName(String obfuscatedClass, String obfuscatedField) throws IOException {
+        ClassEntry entry = classes.get(obfuscatedClass);
+        return entry != null ? members(entry).fields.get(obfuscatedField) : null;
+    }
+
+    /**
+     * 查找方法的原始名
+     *
+     * @param originalParameterTypes 已还原的参数类型（Java 源码格式）
+     * @return 该类的映射中没有此方法时返回 null
+     */
+    public String findOriginalMethodName(String obfuscatedClass, String obfuscatedMethod,
+                                         List<String> originalParameterTypes) throws IOException {
+        ClassEntry entry = classes.get(obfuscatedClass);
+        return entry != null
+                ? members(entry).methods.get(methodKey(obfuscatedMethod, originalParameterTypes)) : null;
+    }
+
+    /**
+     * 查找字段的混淆名
+     *
+     * @param originalClass 原始类名（点分格式）
+     * @param originalField 原始字段名
+     * @return 该类的映射中没有此字段时返回 null
+     */
+    public String findObfuscatedFieldName(String originalClass, String originalField) throws IOException {
+        ClassEntry entry = byOriginalName().get(originalClass);
+        return entry != null ? members(entry).obfuscatedFields.get(originalField) : null;
+    }
+
+    /**
+     * 查找方法的混淆名
+     *
+     * @param originalClass 原始类名（点分格式）
+     * @param originalMethod 原始方法名
+     * @param originalParameterTypes 原始参数类型（Java 源码格式）
+     * @return 该类的映射中没有此方法时返回 null
+     */
+    public String findObfuscatedMethodName(String originalClass, String originalMethod,
+                                           List<String> originalParameterTypes) throws IOException {
+        ClassEntry entry = byOriginalName().get(originalClass);
+        return entry != null
+                ? members(entry).obfuscatedMethods.get(methodKey(originalMethod, originalParameterTypes)) : null;
+    }
+
+    /**
+     * dex 类型描述符转 Java 源码格式（mapping.txt 中使用的格式）
+     */
+    public static String toJavaType(String dexType) {
+        int dimensions = 0;
+        while (dimensions < dexType.length() && dexType.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String base = dexType.substring(dimensions);
+        String javaType;
+        switch (base) {
+            case "Z": javaType = "boolean"; break;
+            case "B": javaType = "byte"; break;
+            case "C": javaType = "char"; break;
+            case "S": javaType = "short"; break;
+            case "I": javaType = "int"; break;
+            case "J": javaType = "long"; break;
+            case "F": javaType = "float"; break;
+            case "D": javaType = "double"; break;
+            case "V": javaType = "void"; break;
+            default:
+                javaType = base.startsWith("L") && base.endsWith(";")
+                        ? base.substring(1, base.length() - 1).replace('/', '.') : base;
+        }
+        StringBuilder sb = new StringBuilder(javaType);
+        for (int i = 0; i < dimensions; i++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 原始类名 -> 类映射，首次反向查询时建立
+     */
+    private Map<String, ClassEntry> byOriginalName() {
+        Map<String, ClassEntry> index = classesByOriginalName;
+        if (index == null) {
+            index = new HashMap<>();
+            for (ClassEntry entry : classes.values()) {
+                index.put(entry.originalName, entry);
+            }
+            classesByOriginalName = index;
+        }
+        return index;
+    }
+
+    private static String methodKey(String name, List<String> parameterTypes) {
+        return name + "(" + String.join(",", parameterTypes) + ")";
+    }
+
+    /**
+     * 按需解析类的成员映射
+     */
+    private Members members(ClassEntry entry) throws IOException {
+        Members members = entry.members;
+        if (members != null) {
+            return members;
+        }
+        synchronized (entry) {
+            if (entry.members == null) {
+                entry.members = parseMembers(entry);
+            }
+            return entry.members;
+        }
+    }
+
+    private Members parseMembers(ClassEntry entry) throws IOException {
+        Members members = new Members();
+        if (entry.memberLength <= 0) {
+            return members;
+        }
+        byte[] data = new byte[entry.memberLength];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(entry.memberOffset);
+            raf.readFully(data);
+        }
+
+        String section = new String(data, StandardCharsets.UTF_8);
+        // 带行号区间的方法先按内联组收集，组内最后一行（外层方法）生效；不带行号区间的条目优先
+        Map<String, String> rangedMethods = new HashMap<>();
+        Map<String, String> rangedObfuscated = new HashMap<>();
+        MethodLine pending = null;
+        for (String rawLine : section.split("\n")) {
+            String line = rawLine.trim();
+            int arrow = line.indexOf(" -> ");
+            if (line.isEmpty() || line.startsWith("#") || arrow < 0) {
+                continue;
+            }
+            String obfuscatedName = line.substring(arrow + 4).trim();
+            String left = line.substring(0, arrow);
+
+            int paren = left.indexOf('(');
+            if (paren < 0) {
+                // 字段：type name -> obf
+                pending = flushInlineGroup(pending, rangedMethods, rangedObfuscated);
+                int space = left.lastIndexOf(' ');
+                if (space > 0) {
+                    String originalName = left.substring(space + 1);
+                    members.fields.putIfAbsent(obfuscatedName, originalName);
+                    members.obfuscatedFields.putIfAbsent(originalName, obfuscatedName);
+                }
+                continue;
+            }
+
+            // 方法：[a:b:]returnType name(params)[:c[:d]] -> obf
+            int close = left.indexOf(')', paren);
+            int nameStart = left.lastIndexOf(' ', paren) + 1;
+            if (close < 0 || nameStart <= 0) {
+                pending = flushInlineGroup(pending, rangedMethods, rangedObfuscated);
+                continue;
+            }
+            MethodLine method = new MethodLine(lineRange(left), obfuscatedName,
+                    left.substring(nameStart, paren), left.substring(paren + 1, close));
+            if (method.range == null) {
+                pending = flushInlineGroup(pending, rangedMethods, rangedObfuscated);
+                if (!method.isInlinedFromOtherClass()) {
+                    members.methods.putIfAbsent(method.key(), method.originalName);
+                    members.obfuscatedMethods.putIfAbsent(method.originalKey(), obfuscatedName);
+                }
+                continue;
+            }
+            if (pending != null && !pending.sameGroup(method)) {
+                flushInlineGroup(pending, rangedMethods, rangedObfuscated);
+            }
+            // 同组的后一行是外层帧，替换前一行
+            pending = method;
+        }
+        flushInlineGroup(pending, rangedMethods, rangedObfuscated);
+
+        for (Map.Entry<String, String> ranged : rangedMethods.entrySet()) {
+            members.methods.putIfAbsent(ranged.getKey(), ranged.getValue());
+        }
+        for (Map.Entry<String, String> ranged : rangedObfuscated.entrySet()) {
+            members.obfuscatedMethods.putIfAbsent(ranged.getKey(), ranged.getValue());
+        }
+        return members;
+    }
+
+    /**
+     * 结束一个内联组：记录组内外层方法（最后一行），其它类内联进来的帧不属于当前类
+     *
+     * @return null，便于调用方清空当前组
+     */
+    private static MethodLine flushInlineGroup(MethodLine outermost, Map<String, String> methods,
+                                               Map<String, String> obfuscatedMethods) {
+        if (outermost != null && !outermost.isInlinedFromOtherClass()) {
+            methods.putIfAbsent(outermost.key(), outermost.originalName);
+            obfuscatedMethods.putIfAbsent(outermost.originalKey(), outermost.obfuscatedName);
+        }
+        return null;
+    }
+
+    /**
+     * 方法行开头的行号区间（如 "1:1:void foo():10:10" 中的 "1:1"），没有时返回 null
+     */
+    private static String lineRange(String left) {
+        int first = left.indexOf(':');
+        if (first <= 0) {
+            return null;
+        }
+        int second = left.indexOf(':', first + 1);
+        if (second < 0 || !isDigits(left, 0, first) || !isDigits(left, first + 1, second)) {
+            return null;
+        }
+        return left.substring(0, second);
+    }
+
+    private static boolean isDigits(String value, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 扫描类声明行建立索引
+     *
+     * 按字节读取，只对不以空白或 # 开头的行解码为字符串，记录每个类成员段的文件偏移和长度。
+     */
+    private static Map<String, ClassEntry> buildIndex(File mappingFile) throws IOException {
+        Map<String, ClassEntry> index = new HashMap<>();
+        ClassEntry current = null;
+        long offset = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        boolean memberLine = false;
+        boolean lineStart = true;
+
+        try (InputStream in = new FileInputStream(mappingFile)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (lineStart) {
+                        memberLine = b == ' ' || b == '\t' || b == '#';
+                        lineStart = false;
+                        if (!memberLine) {
+                            // 新的类声明行：结束上一个类的成员段
+                            if (current != null) {
+                                current.memberLength = (int) (offset - current.memberOffset);
+                            }
+                            current = null;
+                            line.reset();
+                        }
+                    }
+                    offset++;
+                    if (b == '\n') {
+                        if (!memberLine) {
+                            current = parseClassLine(line.toString("UTF-8"), offset);
+                            if (current != null) {
+                                index.put(current.obfuscatedName, current);
+                            }
+                        }
+                        lineStart = true;
+                    } else if (!memberLine) {
+                        line.write(b);
+                    }
+                }
+            }
+        }
+        if (!lineStart && !memberLine) {
+            current = parseClassLine(line.toString("UTF-8"), offset);
+            if (current != null) {
+                index.put(current.obfuscatedName, current);
+            }
+        }
+        if (current != null) {
+            current.memberLength = (int) (offset - current.memberOffset);
+        }
+        return index;
+    }
+
+    /**
+     * 解析类声明行：com.example.Foo -> a.b:
+     */
+    private static ClassEntry parseClassLine(String line, long memberOffset) {
+        String trimmed = line.trim();
+        int arrow = trimmed.indexOf(" -> ");
+        if (arrow < 0 || !trimmed.endsWith(":")) {
+            return null;
+        }
+        String originalName = trimmed.substring(0, arrow).trim();
+        String obfuscatedName = trimmed.substring(arrow + 4, trimmed.length() - 1).trim();
+        return new ClassEntry(originalName, obfuscatedName, memberOffset);
+    }
+
+    private static final class ClassEntry {
+        final String originalName;
+        final String obfuscatedName;
+        final long memberOffset;
+        int memberLength;
+        volatile Members members;
+
+        ClassEntry(String originalName, String obfuscatedName, long memberOffset) {
+            this.originalName = originalName;
+            this.obfuscatedName = obfuscatedName;
+            this.memberOffset = memberOffset;
+        }
+    }
+
+    private static final class Members {
+        /** 混淆名 -> 原始名 */
+        final Map<String, String> fields = new HashMap<>();
+        /** 混淆名(原始参数) -> 原始名 */
+        final Map<String, String> methods = new HashMap<>();
+        /** 原始名 -> 混淆名 */
+        final Map<String, String> obfuscatedFields = new HashMap<>();
+        /** 原始名(原始参数) -> 混淆名 */
+        final Map<String, String> obfuscatedMethods = new HashMap<>();
+    }
+
+    /**
+     * mapping 中的一行方法映射
+     */
+    private static final class MethodLine {
+        final String range;
+        final String obfuscatedName;
+        final String originalName;
+        final String params;
+
+        MethodLine(String range, String obfuscatedName, String originalName, String params) {
+            this.range = range;
+            this.obfuscatedName = obfuscatedName;
+            this.originalName = originalName;
+            this.params = params;
+        }
+
+        /** R8 内联帧（其它类的方法，名称带类名前缀） */
+        boolean isInlinedFromOtherClass() {
+            return originalName.indexOf('.') >= 0;
+        }
+
+        boolean sameGroup(MethodLine other) {
+            return range.equals(other.range) && obfuscatedName.equals(other.obfuscatedName);
+        }
+
+        String key() {
+            return obfuscatedName + "(" + params + ")";
+        }
+
+        String originalKey() {
+            return originalName + "(" + params + ")";
+        }
+    }
+}
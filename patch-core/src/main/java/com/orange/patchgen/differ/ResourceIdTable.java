@@ -0,0 +1,298 @@
+package com.orange.patchgen.differ;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * resources.arsc 中的资源 ID -> 资源名 映射表
+ *
+ * 只解析 ID 和名称（type/name），不解析资源值和配置，用于在比较 dex 时
+ * 把代码中内联的资源 ID 常量还原为资源名；也可以导出为 aapt2 的 --stable-ids 文件，
+ * 让新版本构建沿用基准版本的资源 ID。
+ */
+public class ResourceIdTable {
+
+    /** 空表，不解析任何资源 ID */
+    public static final ResourceIdTable EMPTY = new ResourceIdTable(Collections.<Integer, String>emptyMap(),
+            Collections.<Integer, String>emptyMap());
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_TABLE_TYPE = 0x0002;
+    private static final int RES_TABLE_PACKAGE_TYPE = 0x0200;
+    private static final int RES_TABLE_TYPE_TYPE = 0x0201;
+
+    private static final int STRING_POOL_UTF8_FLAG = 1 << 8;
+
+    private static final int TYPE_FLAG_SPARSE = 0x01;
+    private static final int TYPE_FLAG_OFFSET16 = 0x02;
+    private static final int ENTRY_FLAG_COMPACT = 0x0008;
+    private static final int NO_ENTRY = 0xFFFFFFFF;
+    private static final int NO_ENTRY_16 = 0xFFFF;
+
+    private final Map<Integer, String> names;
+    /** 包 ID -> 包名 */
+    private final Map<Integer, String> packages;
+
+    private ResourceIdTable(Map<Integer, String> names, Map<Integer, String> packages) {
+        this.names = names;
+        this.packages = packages;
+    }
+
+    /**
+     * 解析 resources.arsc
+     *
+     * @param arscFile resources.arsc 文件，为 null 或不存在时返回 {@link #EMPTY}
+     * @throws IOException 读取或解析失败时抛出
+     */
+    public static ResourceIdTable load(File arscFile) throws IOException {
+        if (arscFile == null || !arscFile.isFile()) {
+            return EMPTY;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(arscFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            Map<Integer, String> packages = new HashMap<>();
+            Map<Integer, String> names = parseTable(buffer, packages);
+            return new ResourceIdTable(names, packages);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid resources.arsc: " + arscFile.getName(), e);
+        }
+    }
+
+    /**
+     * 获取资源名
+     *
+     * @param id 资源 ID
+     * @return type/name 格式的资源名，不是已知资源 ID 时返回 null
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * 写出 aapt2 --stable-ids 文件：每行 package:type/name = 0xPPTTEEEE，按 ID 排序
+     *
+     * 新版本构建传入该文件后，基准版本中已有的资源保持原 ID，新增资源分配到未使用的 ID，
+     * 只改资源时代码中内联的资源 ID 不会整体移位。
+     */
+    public void writeStableIds(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String> entry : new TreeMap<>(names).entrySet()) {
+                int id = entry.getKey();
+                String packageName = packages.get(id >>> 24);
+                if (packageName == null || packageName.isEmpty()) {
+                    continue;
+                }
+                writer.write(packageName + ":" + entry.getValue() + " = 0x" + String.format("%08x", id) + "\n");
+            }
+        }
+    }
+
+    private static Map<Integer, String> parseTable(ByteBuffer buffer, Map<Integer, String> packages) {
+        Map<Integer, String> names = new HashMap<>();
+        if (buffer.getShort(0) != RES_TABLE_TYPE) {
+            throw new IllegalArgumentException("Not a resource table");
+        }
+        int headerSize = buffer.getShort(2) & 0xFFFF;
+        int tableSize = buffer.getInt(4);
+
+        int offset = headerSize;
+        while (offset + 8 <= tableSize) {
+            int type = buffer.getShort(offset) & 0xFFFF;
+            int chunkSize = buffer.getInt(offset + 4);
+            if (chunkSize <= 0) {
+                break;
+            }
+            if (type == RES_TABLE_PACKAGE_TYPE) {
+                packages.put(buffer.getInt(offset + 8), readPackageName(buffer, offset + 12));
+                parsePackage(buffer, offset, names);
+            }
+            offset += chunkSize;
+        }
+        return names;
+    }
+
+    /**
+     * 解析 ResTable_package：类型名池、键名池和各 ResTable_type 中的条目
+     */
+    private static void parsePackage(ByteBuffer buffer, int start, Map<Integer, String> names) {
+        int headerSize = buffer.getShort(start + 2) & 0xFFFF;
+        int chunkSize = buffer.getInt(start + 4);
+        int packageId = buffer.getInt(start + 8);
+        // id(4) + name(256) 之后是 typeStrings、lastPublicType、keyStrings
+        int typeStringsOffset = buffer.getInt(start + 268);
+        int keyStringsOffset = buffer.getInt(start + 276);
+
+        String[] typeNames = readStringPool(buffer, start + typeStringsOffset);
+        StringPool keyPool = new StringPool(buffer, start + keyStringsOffset);
+
+        int offset = start + headerSize;
+        int end = start + chunkSize;
+        while (offset + 8 <= end) {
+            int type = buffer.getShort(offset) & 0xFFFF;
+            int size = buffer.getInt(offset + 4);
+            if (size <= 0) {
+                break;
+            }
+            if (type == RES_TABLE_TYPE_TYPE) {
+                parseType(buffer, offset, packageId, typeNames, keyPool, names);
+            }
+            offset += size;
+        }
+    }
+
+    private static void parseType(ByteBuffer buffer, int start, int packageId, String[] typeNames,
+                                  StringPool keyPool, Map<Integer, String> names) {
+        int headerSize = buffer.getShort(start + 2) & 0xFFFF;
+        int typeId = buffer.get(start + 8) & 0xFF;
+        int flags = buffer.get(start + 9) & 0xFF;
+        int entryCount = buffer.getInt(start + 12);
+        int entriesStart = start + buffer.getInt(start + 16);
+        if (typeId == 0 || typeId > typeNames.length) {
+            return;
+        }
+        String typeName = typeNames[typeId - 1];
+        int idPrefix = (packageId << 24) | (typeId << 16);
+
+        int offsets = start + headerSize;
+        for (int i = 0; i < entryCount; i++) {
+            int entryIndex;
+            int entryOffset;
+            if ((flags & TYPE_FLAG_SPARSE) != 0) {
+                entryIndex = buffer.getShort(offsets + i * 4) & 0xFFFF;
+                entryOffset = (buffer.getShort(offsets + i * 4 + 2) & 0xFFFF) * 4;
+            } else if ((flags & TYPE_FLAG_OFFSET16) != 0) {
+                entryIndex = i;
+                int value = buffer.getShort(offsets + i * 2) & 0xFFFF;
+                if (value == NO_ENTRY_16) {
+                    continue;
+                }
+                entryOffset = value * 4;
+            } else {
+                entryIndex = i;
+                entryOffset = buffer.getInt(offsets + i * 4);
+                if (entryOffset == NO_ENTRY) {
+                    continue;
+                }
+            }
+
+            int id = idPrefix | entryIndex;
+            if (names.containsKey(id)) {
+                // 同一资源的其它配置，名称相同
+                continue;
+            }
+            int entry = entriesStart + entryOffset;
+            int entryFlags = buffer.getShort(entry + 2) & 0xFFFF;
+            int keyIndex = (entryFlags & ENTRY_FLAG_COMPACT) != 0
+                    ? buffer.getShort(entry) & 0xFFFF
+                    : buffer.getInt(entry + 4);
+            names.put(id, typeName + "/" + keyPool.get(keyIndex));
+        }
+    }
+
+    /**
+     * ResTable_package.name：char16[128]，以 0 结尾
+     */
+    private static String readPackageName(ByteBuffer buffer, int start) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 128; i++) {
+            char c = buffer.getChar(start + i * 2);
+            if (c == 0) {
+                break;
+            }
+            name.append(c);
+        }
+        return name.toString();
+    }
+
+    private static String[] readStringPool(ByteBuffer buffer, int start) {
+        StringPool pool = new StringPool(buffer, start);
+        String[] strings = new String[pool.count];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = pool.get(i);
+        }
+        return strings;
+    }
+
+    /**
+     * ResStringPool，按索引解码字符串（键名池很大，只解码用到的）
+     */
+    static final class StringPool {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final boolean utf8;
+        private final int offsetsStart;
+        private final int stringsStart;
+
+        StringPool(ByteBuffer buffer, int start) {
+            if ((buffer.getShort(start) & 0xFFFF) != RES_STRING_POOL_TYPE) {
+                throw new IllegalArgumentException("Not a string pool at " + start);
+            }
+            int headerSize = buffer.getShort(start + 2) & 0xFFFF;
+            this.buffer = buffer;
+            this.count = buffer.getInt(start + 8);
+            this.utf8 = (buffer.getInt(start + 16) & STRING_POOL_UTF8_FLAG) != 0;
+            this.offsetsStart = start + headerSize;
+            this.stringsStart = start + buffer.getInt(start + 20);
+        }
+
+        String get(int index) {
+            if (index < 0 || index >= count) {
+                return "#" + index;
+            }
+            int pos = stringsStart + buffer.getInt(offsetsStart + index * 4);
+            if (utf8) {
+                // UTF-16 长度（跳过），再是 UTF-8 字节长度
+                pos += (buffer.get(pos) & 0x80) != 0 ? 2 : 1;
+                int length = buffer.get(pos) & 0xFF;
+                if ((length & 0x80) != 0) {
+                    length = ((length & 0x7F) << 8) | (buffer.get(pos + 1) & 0xFF);
+                    pos += 2;
+                } else {
+                    pos += 1;
+                }
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(pos + i);
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            int length = buffer.getShort(pos) & 0xFFFF;
+            if ((length & 0x8000) != 0) {
+                length = ((length & 0x7FFF) << 16) | (buffer.getShort(pos + 2) & 0xFFFF);
+                pos += 4;
+            } else {
+                pos += 2;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = buffer.getChar(pos + i * 2);
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.orange.patchgen.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 补丁分块哈希清单（&lt;补丁文件名&gt;.chunks.json）
+ *
+ * 与补丁一起发布，客户端按字节范围并行下载时逐块校验，只重新下载损坏的分块，
+ * 断点续传时也用它校验已下载的数据。
+ *
+ * <pre>
+ * {
+ *   "version": 1,
+ *   "algorithm": "SHA-256",
+ *   "chunkSize": 1048576,
+ *   "totalSize": 5242880,
+ *   "chunks": ["&lt;第 0 块的 SHA-256&gt;", ...]
+ * }
+ * </pre>
+ */
+public class ChunkManifest {
+
+    public static final String FILE_SUFFIX = ".chunks.json";
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int VERSION = 1;
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final Gson GSON = new GsonBuilder()
+            .setPrettyPrinting()
+            .create();
+
+    private int version;
+    private String algorithm;
+    private int chunkSize;
+    private long totalSize;
+    private List<String> chunks;
+
+    public ChunkManifest() {
+        this.version = VERSION;
+        this.algorithm = ALGORITHM;
+        this.chunks = new ArrayList<>();
+    }
+
+    /**
+     * 为补丁文件计算分块哈希清单
+     *
+     * @param patchFile 补丁文件
+     * @param chunkSize 分块大小（字节）
+     */
+    public static ChunkManifest create(File patchFile, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        ChunkManifest manifest = new ChunkManifest();
+        manifest.chunkSize = chunkSize;
+        manifest.totalSize = patchFile.length();
+
+        byte[] buffer = new byte[64 * 1024];
+        long chunkRemaining = chunkSize;
+        try (InputStream in = new FileInputStream(patchFile)) {
+            int read;
+            while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, chunkRemaining))) != -1) {
+                digest.update(buffer, 0, read);
+                chunkRemaining -= read;
+                if (chunkRemaining == 0) {
+                    manifest.chunks.add(toHex(digest.digest()));
+                    chunkRemaining = chunkSize;
+                }
+            }
+        }
+        if (chunkRemaining != chunkSize || manifest.chunks.isEmpty()) {
+            manifest.chunks.add(toHex(digest.digest()));
+        }
+        return manifest;
+    }
+
+    /**
+     * 清单文件路径：与补丁同目录，文件名加 .chunks.json 后缀
+     */
+    public static File manifestFileFor(File patchFile) {
+        return new File(patchFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * 写入清单文件
+     */
+    public void writeTo(File manifestFile) throws IOException {
+        Files.write(manifestFile.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    public static ChunkManifest fromJson(String json) {
+        return GSON.fromJson(json, ChunkManifest.class);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public List<String> getChunks() {
+        return chunks;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -14,6 +14,7 @@ public class PatchResult {
     private long newApkSize;
     private long patchSize;
     private float compressionRatio; // 压缩比
+    private String compressionPolicy; // 打包使用的压缩策略
     private DiffSummary diffSummary;
     private String errorMessage;
     private int errorCode;
@@ -112,6 +113,14 @@ public class PatchResult {
         this.compressionRatio = compressionRatio;
     }
 
+    public String getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public void setCompressionPolicy(String compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
     public DiffSummary getDiffSummary() {
         return diffSummary;
     }
@@ -0,0 +1,153 @@
+package com.orange.patchgen.packer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * 自适应压缩策略（默认）
+ *
+ * 按条目类型和试压缩比例选择压缩方式：
+ * - resources.arsc、.so：STORE + 页对齐，运行时可直接 mmap
+ * - 已压缩的媒体文件（png/webp/ogg/mp4 等，与 aapt 的 no-compress 列表一致）：STORE + 4 字节对齐
+ * - .dex：DEFLATE 最高级别，dex 是补丁体积的主要来源
+ * - 其它文件：对文件头部做一次快速试压缩，压缩比不足阈值则 STORE，否则 DEFLATE 默认级别
+ */
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+
+    public static final String NAME = "adaptive";
+
+    private static final String RESOURCES_ARSC = "resources.arsc";
+
+    /** aapt 默认不压缩的扩展名 */
+    private static final Set<String> NO_COMPRESS_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heif", "heic",
+            "wav", "mp2", "mp3", "ogg", "aac", "m4a", "amr", "awb", "wma", "mid", "midi",
+            "smf", "jet", "rtttl", "imy", "xmf",
+            "mpg", "mpeg", "mp4", "m4v", "3gp", "3gpp", "3g2", "3gpp2", "wmv", "webm", "mkv",
+            "zip", "jar", "apk", "gz", "xz", "br"
+    ));
+
+    private final int sampleSize;
+    private final float storeThreshold;
+    private final int dexLevel;
+
+    public AdaptiveCompressionPolicy() {
+        this(new Builder());
+    }
+
+    private AdaptiveCompressionPolicy(Builder builder) {
+        this.sampleSize = builder.sampleSize;
+        this.storeThreshold = builder.storeThreshold;
+        this.dexLevel = builder.dexLevel;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public EntryCompression select(String entryName, File source) throws IOException {
+        String name = entryName.toLowerCase(Locale.ROOT);
+        String extension = getExtension(name);
+
+        if (name.equals(RESOURCES_ARSC) || name.endsWith("/" + RESOURCES_ARSC) || extension.equals("so")) {
+            return EntryCompression.stored(EntryCompression.PAGE_ALIGNMENT);
+        }
+        if (NO_COMPRESS_EXTENSIONS.contains(extension)) {
+            return EntryCompression.stored(EntryCompression.DEFAULT_ALIGNMENT);
+        }
+        if (extension.equals("dex")) {
+            return EntryCompression.deflated(dexLevel);
+        }
+        if (source != null && trialRatio(source) >= storeThreshold) {
+            return EntryCompression.stored(EntryCompression.DEFAULT_ALIGNMENT);
+        }
+        return EntryCompression.deflated(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * 对文件头部 sampleSize 字节做 BEST_SPEED 试压缩，返回 压缩后/压缩前 的比例
+     */
+    private float trialRatio(File source) throws IOException {
+        byte[] sample = new byte[(int) Math.min(sampleSize, source.length())];
+        int length = 0;
+        try (InputStream in = new FileInputStream(source)) {
+            int read;
+            while (length < sample.length && (read = in.read(sample, length, sample.length - length)) != -1) {
+                length += read;
+            }
+        }
+        if (length == 0) {
+            return 0f;
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return (float) compressed / length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String getExtension(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        return dot > slash ? name.substring(dot + 1) : "";
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int sampleSize = 64 * 1024;
+        private float storeThreshold = 0.9f;
+        private int dexLevel = Deflater.BEST_COMPRESSION;
+
+        /**
+         * 试压缩的采样字节数
+         */
+        public Builder sampleSize(int bytes) {
+            this.sampleSize = bytes;
+            return this;
+        }
+
+        /**
+         * 试压缩比例达到该值（压缩收益不足）时改为 STORE
+         */
+        public Builder storeThreshold(float ratio) {
+            this.storeThreshold = ratio;
+            return this;
+        }
+
+        /**
+         * dex 文件的 DEFLATE 级别
+         */
+        public Builder dexLevel(int level) {
+            this.dexLevel = level;
+            return this;
+        }
+
+        public AdaptiveCompressionPolicy build() {
+            if (sampleSize <= 0) {
+                throw new IllegalArgumentException("sampleSize must be positive");
+            }
+            return new AdaptiveCompressionPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.orange.patchgen.packer;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+/**
+ * 归档签名器
+ *
+ * PatchZipWriter 在写入条目时同步计算每个条目的 SHA-256 摘要，
+ * 所有数据条目写完后调用 {@link #createSignatureEntries(Map)} 生成签名条目（如
+ * META-INF/MANIFEST.MF、.SF、签名块），再追加到同一个 zip 中，整个过程只写一遍文件。
+ */
+public interface ArchiveSigner {
+
+    /**
+     * 根据条目摘要生成签名条目
+     *
+     * @param entryDigests 条目名 -> 未压缩数据的 SHA-256 摘要，按写入顺序排列
+     * @return 需要追加的条目名 -> 内容，按写入顺序排列
+     * @throws IOException 生成失败时抛出
+     * @throws GeneralSecurityException 密钥加载或签名失败时抛出
+     */
+    Map<String, byte[]> createSignatureEntries(Map<String, byte[]> entryDigests)
+            throws IOException, GeneralSecurityException;
+}
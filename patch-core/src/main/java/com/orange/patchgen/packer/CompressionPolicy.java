@@ -0,0 +1,31 @@
+package com.orange.patchgen.packer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 压缩策略
+ *
+ * PatchPacker 在写入每个条目前调用 {@link #select(String, File)}，
+ * 由策略决定该条目的压缩方式、级别以及 STORE 条目的对齐。
+ *
+ * 可通过 {@link PatchPacker#PatchPacker(CompressionPolicy)} 或
+ * {@code GeneratorConfig.Builder#compressionPolicy} 替换默认的 {@link AdaptiveCompressionPolicy}。
+ */
+public interface CompressionPolicy {
+
+    /**
+     * 策略名称，会记录到 PatchResult 中
+     */
+    String getName();
+
+    /**
+     * 为条目选择压缩方式
+     *
+     * @param entryName zip 中的条目路径
+     * @param source 条目源文件；内存中生成的条目（如 patch.json）为 null
+     * @return 压缩决策，不能为 null
+     * @throws IOException 读取源文件失败时抛出
+     */
+    EntryCompression select(String entryName, File source) throws IOException;
+}
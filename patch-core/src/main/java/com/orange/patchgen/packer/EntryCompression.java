@@ -0,0 +1,69 @@
+package com.orange.patchgen.packer;
+
+import java.util.zip.Deflater;
+
+/**
+ * 单个 zip 条目的压缩决策
+ *
+ * 由 {@link CompressionPolicy} 针对每个条目给出：
+ * - STORE：不压缩，数据起始偏移按 alignment 对齐，便于运行时直接 mmap
+ * - DEFLATE：按 level 压缩，alignment 无意义
+ */
+public final class EntryCompression {
+
+    /** 默认对齐（与 zipalign 一致） */
+    public static final int DEFAULT_ALIGNMENT = 4;
+
+    /** 页对齐，用于 .so、resources.arsc 等需要 mmap 的条目 */
+    public static final int PAGE_ALIGNMENT = 4096;
+
+    private final boolean stored;
+    private final int level;
+    private final int alignment;
+
+    private EntryCompression(boolean stored, int level, int alignment) {
+        this.stored = stored;
+        this.level = level;
+        this.alignment = alignment;
+    }
+
+    /**
+     * 不压缩，按指定字节数对齐
+     */
+    public static EntryCompression stored(int alignment) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("alignment must be a power of two: " + alignment);
+        }
+        return new EntryCompression(true, Deflater.NO_COMPRESSION, alignment);
+    }
+
+    /**
+     * DEFLATE 压缩
+     *
+     * @param level 压缩级别，取值 1-9 或 {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static EntryCompression deflated(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("invalid deflate level: " + level);
+        }
+        return new EntryCompression(false, level, 1);
+    }
+
+    public boolean isStored() {
+        return stored;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    @Override
+    public String toString() {
+        return stored ? "STORE(align=" + alignment + ")" : "DEFLATE(level=" + level + ")";
+    }
+}
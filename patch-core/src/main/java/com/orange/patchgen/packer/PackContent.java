@@ -19,6 +19,7 @@ public class PackContent {
     private File resDir;
     private File assetsDir;
     private File resourcesArsc;  // resources.arsc 文件
+    private File overlayTable;  // 只包含变化条目的覆盖资源表
     private List<File> bsdiffFiles;  // BsDiff 模式下的差异文件
 
     public PackContent() {
@@ -73,6 +74,14 @@ public class PackContent {
         this.resourcesArsc = resourcesArsc;
     }
 
+    public File getOverlayTable() {
+        return overlayTable;
+    }
+
+    public void setOverlayTable(File overlayTable) {
+        this.overlayTable = overlayTable;
+    }
+
     public List<File> getBsdiffFiles() {
         return bsdiffFiles;
     }
@@ -109,6 +118,13 @@ public class PackContent {
         return resourcesArsc != null && resourcesArsc.exists();
     }
 
+    /**
+     * 检查是否有覆盖资源表
+     */
+    public boolean hasOverlayTable() {
+        return overlayTable != null && overlayTable.exists();
+    }
+
     /**
      * 检查是否有 assets 变更
      */
@@ -167,6 +183,11 @@ public class PackContent {
             return this;
         }
 
+        public Builder overlayTable(File overlayTable) {
+            content.setOverlayTable(overlayTable);
+            return this;
+        }
+
         public Builder bsdiffFiles(List<File> bsdiffFiles) {
             content.setBsdiffFiles(bsdiffFiles);
             return this;
@@ -1,17 +1,11 @@
 package com.orange.patchgen.packer;
 
 import com.orange.patchgen.model.PatchInfo;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.model.enums.CompressionLevel;
-import net.lingala.zip4j.model.enums.CompressionMethod;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.util.List;
 
 /**
@@ -22,8 +16,13 @@ import java.util.List;
  * - classes.dex / classes[N].dex: 修改的 dex 文件
  * - res/: 修改的资源文件
  * - assets/: 修改的 assets 文件
+ * - resources_overlay.arsc: 只包含变化条目的覆盖资源表（客户端叠加在原始 APK 之上加载）
  * - *.bsdiff: BsDiff 模式下的差异文件
  * 
+ * 每个条目的压缩方式由 {@link CompressionPolicy} 决定，默认使用 {@link AdaptiveCompressionPolicy}。
+ * 设置 {@link ArchiveSigner} 后，签名条目在同一次写入中追加到末尾，
+ * 文件大小、MD5、SHA-256 也在写入时同步计算，整个打包+签名只写一遍文件。
+ * 
  * Requirements: 4.1-4.6
  */
 public class PatchPacker {
@@ -31,6 +30,38 @@ public class PatchPacker {
     private static final String PATCH_JSON = "patch.json";
     private static final String RES_DIR = "res";
     private static final String ASSETS_DIR = "assets";
+    private static final String RESOURCES_ARSC = "resources.arsc";
+    private static final String RESOURCES_OVERLAY_ARSC = "resources_overlay.arsc";
+
+    private final CompressionPolicy compressionPolicy;
+    private ArchiveSigner signer;
+    private SigningBlockSigner blockSigner;
+
+    public PatchPacker() {
+        this(new AdaptiveCompressionPolicy());
+    }
+
+    public PatchPacker(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy != null ? compressionPolicy : new AdaptiveCompressionPolicy();
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * 设置签名器，为 null 时不签名
+     */
+    public void setSigner(ArchiveSigner signer) {
+        this.signer = signer;
+    }
+
+    /**
+     * 设置签名块签名器，为 null 时不生成 {@link PatchSigningBlock}
+     */
+    public void setSigningBlockSigner(SigningBlockSigner blockSigner) {
+        this.blockSigner = blockSigner;
+    }
 
     /**
      * 打包补丁
@@ -74,7 +105,10 @@ public class PatchPacker {
             }
 
             // 创建 zip 文件
-            try (ZipFile zipFile = new ZipFile(outputFile)) {
+            PatchZipWriter zipFile = new PatchZipWriter(outputFile);
+            try {
+                zipFile.setSigningBlockSigner(blockSigner);
+
                 // 1. 添加 patch.json
                 addPatchJson(zipFile, content.getPatchInfo());
 
@@ -93,6 +127,11 @@ public class PatchPacker {
                     addResourcesArsc(zipFile, content.getResourcesArsc());
                 }
 
+                // 4.1 添加覆盖资源表（客户端解压后写入覆盖资源包，不需要 mmap，按策略压缩）
+                if (content.hasOverlayTable()) {
+                    addFile(zipFile, RESOURCES_OVERLAY_ARSC, content.getOverlayTable());
+                }
+
                 // 5. 添加 assets 目录
                 if (content.hasAssetChanges()) {
                     addAssetsDir(zipFile, content.getAssetsDir());
@@ -102,16 +141,31 @@ public class PatchPacker {
                 if (content.hasBsdiffFiles()) {
                     addBsdiffFiles(zipFile, content.getBsdiffFiles());
                 }
+
+                // 7. 追加签名条目（MANIFEST.MF / .SF / 签名块）
+                if (signer != null) {
+                    zipFile.sign(signer);
+                }
+
+                // 8. 写出中央目录（设置了签名块签名器时先插入签名块）
+                zipFile.finish();
+            } finally {
+                zipFile.close();
             }
 
-            // 更新 PatchInfo 中的文件大小和 MD5
-            updatePatchInfoWithFileInfo(content.getPatchInfo(), outputFile);
+            // 更新 PatchInfo 中的文件大小和哈希（写入时已同步计算）
+            PatchInfo patchInfo = content.getPatchInfo();
+            patchInfo.setFileSize(zipFile.getFileSize());
+            patchInfo.setMd5(bytesToHex(zipFile.getFileMd5()));
+            patchInfo.setSha256(bytesToHex(zipFile.getFileSha256()));
 
             return outputFile;
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new PatchPackException("Failed to pack patch: " + e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            throw new PatchPackException("Failed to sign patch: " + e.getMessage(), e);
         } catch (IOException e) {
             throw new PatchPackException("Failed to pack patch: " + e.getMessage(), e);
         }
@@ -120,22 +174,20 @@ public class PatchPacker {
     /**
      * 添加 patch.json 到 zip
      */
-    private void addPatchJson(ZipFile zipFile, PatchInfo patchInfo) throws IOException {
+    private void addPatchJson(PatchZipWriter zipFile, PatchInfo patchInfo) throws IOException {
         String json = patchInfo.toJson();
         byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
         
-        ZipParameters params = createZipParameters(PATCH_JSON);
-        zipFile.addStream(new java.io.ByteArrayInputStream(jsonBytes), params);
+        zipFile.putBytes(PATCH_JSON, jsonBytes, compressionPolicy.select(PATCH_JSON, null));
     }
 
     /**
      * 添加 dex 文件到 zip
      */
-    private void addDexFiles(ZipFile zipFile, List<File> dexFiles) throws IOException {
+    private void addDexFiles(PatchZipWriter zipFile, List<File> dexFiles) throws IOException {
         for (File dexFile : dexFiles) {
             if (dexFile != null && dexFile.exists()) {
-                ZipParameters params = createZipParameters(dexFile.getName());
-                zipFile.addFile(dexFile, params);
+                addFile(zipFile, dexFile.getName(), dexFile);
             }
         }
     }
@@ -143,7 +195,7 @@ public class PatchPacker {
     /**
      * 添加资源目录到 zip
      */
-    private void addResourceDir(ZipFile zipFile, File resDir) throws IOException {
+    private void addResourceDir(PatchZipWriter zipFile, File resDir) throws IOException {
         if (resDir != null && resDir.exists() && resDir.isDirectory()) {
             addDirectoryToZip(zipFile, resDir, RES_DIR);
         }
@@ -152,7 +204,7 @@ public class PatchPacker {
     /**
      * 添加 assets 目录到 zip
      */
-    private void addAssetsDir(ZipFile zipFile, File assetsDir) throws IOException {
+    private void addAssetsDir(PatchZipWriter zipFile, File assetsDir) throws IOException {
         if (assetsDir != null && assetsDir.exists() && assetsDir.isDirectory()) {
             addDirectoryToZip(zipFile, assetsDir, ASSETS_DIR);
         }
@@ -162,29 +214,25 @@ public class PatchPacker {
      * 添加 resources.arsc 到 zip
      * 注意：resources.arsc 必须使用 STORE 模式（不压缩），否则 Android 无法加载
      */
-    private void addResourcesArsc(ZipFile zipFile, File resourcesArsc) throws IOException {
+    private void addResourcesArsc(PatchZipWriter zipFile, File resourcesArsc) throws IOException {
         if (resourcesArsc != null && resourcesArsc.exists()) {
-            // 读取文件内容
-            byte[] content = java.nio.file.Files.readAllBytes(resourcesArsc.toPath());
-            
-            ZipParameters params = new ZipParameters();
-            params.setFileNameInZip("resources.arsc");
-            // 关键：resources.arsc 必须不压缩，否则 AssetManager.addAssetPath() 无法加载
-            params.setCompressionMethod(CompressionMethod.STORE);
-            
-            // 使用流添加，确保不压缩
-            zipFile.addStream(new java.io.ByteArrayInputStream(content), params);
+            EntryCompression compression = compressionPolicy.select(RESOURCES_ARSC, resourcesArsc);
+            // 关键：resources.arsc 必须不压缩，否则 AssetManager.addAssetPath() 无法加载，
+            // 自定义策略返回 DEFLATE 时也强制改为页对齐的 STORE
+            if (!compression.isStored()) {
+                compression = EntryCompression.stored(EntryCompression.PAGE_ALIGNMENT);
+            }
+            zipFile.putFile(RESOURCES_ARSC, resourcesArsc, compression);
         }
     }
 
     /**
      * 添加 bsdiff 文件到 zip
      */
-    private void addBsdiffFiles(ZipFile zipFile, List<File> bsdiffFiles) throws IOException {
+    private void addBsdiffFiles(PatchZipWriter zipFile, List<File> bsdiffFiles) throws IOException {
         for (File bsdiffFile : bsdiffFiles) {
             if (bsdiffFile != null && bsdiffFile.exists()) {
-                ZipParameters params = createZipParameters(bsdiffFile.getName());
-                zipFile.addFile(bsdiffFile, params);
+                addFile(zipFile, bsdiffFile.getName(), bsdiffFile);
             }
         }
     }
@@ -192,7 +240,7 @@ public class PatchPacker {
     /**
      * 递归添加目录到 zip
      */
-    private void addDirectoryToZip(ZipFile zipFile, File sourceDir, String targetDirName) throws IOException {
+    private void addDirectoryToZip(PatchZipWriter zipFile, File sourceDir, String targetDirName) throws IOException {
         File[] files = sourceDir.listFiles();
         if (files == null) return;
 
@@ -202,8 +250,7 @@ public class PatchPacker {
                 // 递归添加子目录
                 addDirectoryRecursive(zipFile, file, entryPath);
             } else {
-                ZipParameters params = createZipParameters(entryPath);
-                zipFile.addFile(file, params);
+                addFile(zipFile, entryPath, file);
             }
         }
     }
@@ -211,7 +258,7 @@ public class PatchPacker {
     /**
      * 递归添加目录内容
      */
-    private void addDirectoryRecursive(ZipFile zipFile, File dir, String basePath) throws IOException {
+    private void addDirectoryRecursive(PatchZipWriter zipFile, File dir, String basePath) throws IOException {
         File[] files = dir.listFiles();
         if (files == null) return;
 
@@ -220,73 +267,26 @@ public class PatchPacker {
             if (file.isDirectory()) {
                 addDirectoryRecursive(zipFile, file, entryPath);
             } else {
-                ZipParameters params = createZipParameters(entryPath);
-                zipFile.addFile(file, params);
+                addFile(zipFile, entryPath, file);
             }
         }
     }
 
     /**
-     * 创建 zip 参数
-     */
-    private ZipParameters createZipParameters(String fileName) {
-        ZipParameters params = new ZipParameters();
-        params.setFileNameInZip(fileName);
-        params.setCompressionMethod(CompressionMethod.DEFLATE);
-        params.setCompressionLevel(CompressionLevel.NORMAL);
-        return params;
-    }
-
-    /**
-     * 更新 PatchInfo 中的文件信息
-     */
-    private void updatePatchInfoWithFileInfo(PatchInfo patchInfo, File patchFile) throws PatchPackException {
-        try {
-            patchInfo.setFileSize(patchFile.length());
-            patchInfo.setMd5(calculateMd5(patchFile));
-            patchInfo.setSha256(calculateSha256(patchFile));
-        } catch (Exception e) {
-            throw new PatchPackException("Failed to calculate file hash: " + e.getMessage(), e);
-        }
-    }
-
-    /**
-     * 计算文件 MD5
+     * 按压缩策略添加单个文件
      */
-    private String calculateMd5(File file) throws IOException, NoSuchAlgorithmException {
-        return calculateHash(file, "MD5");
-    }
-
-    /**
-     * 计算文件 SHA256
-     */
-    private String calculateSha256(File file) throws IOException, NoSuchAlgorithmException {
-        return calculateHash(file, "SHA-256");
-    }
-
-    /**
-     * 计算文件哈希
-     */
-    private String calculateHash(File file, String algorithm) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(algorithm);
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
-        }
-        byte[] hashBytes = digest.digest();
-        return bytesToHex(hashBytes);
+    private void addFile(PatchZipWriter zipFile, String entryName, File file) throws IOException {
+        zipFile.putFile(entryName, file, compressionPolicy.select(entryName, file));
     }
 
     /**
      * 字节数组转十六进制字符串
      */
     private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
+        char[] hexChars = "0123456789abcdef".toCharArray();
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
         for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+            sb.append(hexChars[(b >> 4) & 0xF]).append(hexChars[b & 0xF]);
         }
         return sb.toString();
     }
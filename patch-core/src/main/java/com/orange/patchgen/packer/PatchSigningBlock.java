@@ -0,0 +1,179 @@
+package com.orange.patchgen.packer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 补丁签名块（APK Signature Scheme v2 风格）
+ *
+ * 签名块插入在最后一个条目数据与中央目录之间，容器格式与 APK Signing Block 相同：
+ * <pre>
+ * uint64  块大小（不含本字段）
+ * uint64  键值对长度 | uint32 ID(0x48555031) | 值
+ * uint64  块大小（同上）
+ * byte[16] "APK Sig Block 42"
+ * </pre>
+ *
+ * 值（小端序）：
+ * <pre>
+ * uint32 版本 | uint32 分块大小 | uint32 分块数 | 分块数 x 32 字节 SHA-256 分块摘要
+ * 长度前缀的签名算法名 | 长度前缀的签名 | 长度前缀的 X.509 证书
+ * </pre>
+ *
+ * 被摘要的内容与 v2 一致：条目区 [0, 签名块偏移)、中央目录、EOCD（其中央目录偏移字段按签名块偏移计算），
+ * 每段独立按 1MB 分块，分块摘要 = SHA-256(0xa5 | uint32 长度 | 数据)，
+ * 顶层摘要 = SHA-256(0x5a | uint32 分块数 | 各分块摘要)。
+ * 签名覆盖 分块大小 | 分块数 | 顶层摘要，验证端可以并行校验各分块并定位损坏的分块。
+ */
+public final class PatchSigningBlock {
+
+    public static final int BLOCK_ID = 0x48555031;
+    public static final int VERSION = 1;
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    public static final byte[] MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int DIGEST_LENGTH = 32;
+
+    private PatchSigningBlock() {
+    }
+
+    /**
+     * 生成签名块
+     *
+     * @param chunkDigests 按顺序排列的分块摘要
+     * @param signer 签名器
+     * @return 完整的签名块字节
+     */
+    public static byte[] build(List<byte[]> chunkDigests, SigningBlockSigner signer) throws GeneralSecurityException {
+        byte[] signedData = signedData(CHUNK_SIZE, chunkDigests.size(), topLevelDigest(chunkDigests));
+        String algorithm = signer.getSignatureAlgorithm();
+        byte[] signature = signer.sign(signedData);
+        byte[] certificate = signer.getEncodedCertificate();
+        byte[] algorithmBytes = algorithm.getBytes(StandardCharsets.UTF_8);
+
+        int valueLength = 12 + chunkDigests.size() * DIGEST_LENGTH
+                + 4 + algorithmBytes.length + 4 + signature.length + 4 + certificate.length;
+        ByteBuffer value = ByteBuffer.allocate(valueLength).order(ByteOrder.LITTLE_ENDIAN);
+        value.putInt(VERSION);
+        value.putInt(CHUNK_SIZE);
+        value.putInt(chunkDigests.size());
+        for (byte[] digest : chunkDigests) {
+            value.put(digest);
+        }
+        putLengthPrefixed(value, algorithmBytes);
+        putLengthPrefixed(value, signature);
+        putLengthPrefixed(value, certificate);
+
+        long pairLength = 4 + valueLength;
+        long blockSize = 8 + pairLength + 8 + MAGIC.length;
+        ByteBuffer block = ByteBuffer.allocate((int) (8 + blockSize)).order(ByteOrder.LITTLE_ENDIAN);
+        block.putLong(blockSize);
+        block.putLong(pairLength);
+        block.putInt(BLOCK_ID);
+        block.put(value.array());
+        block.putLong(blockSize);
+        block.put(MAGIC);
+        return block.array();
+    }
+
+    /**
+     * 被签名的数据：分块大小 | 分块数 | 顶层摘要
+     */
+    public static byte[] signedData(int chunkSize, int chunkCount, byte[] topLevelDigest) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + topLevelDigest.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(chunkSize);
+        buffer.putInt(chunkCount);
+        buffer.put(topLevelDigest);
+        return buffer.array();
+    }
+
+    /**
+     * 顶层摘要 = SHA-256(0x5a | uint32 分块数 | 各分块摘要)
+     */
+    public static byte[] topLevelDigest(List<byte[]> chunkDigests) {
+        MessageDigest digest = sha256();
+        digest.update((byte) 0x5a);
+        digest.update(intToBytes(chunkDigests.size()));
+        for (byte[] chunkDigest : chunkDigests) {
+            digest.update(chunkDigest);
+        }
+        return digest.digest();
+    }
+
+    private static void putLengthPrefixed(ByteBuffer buffer, byte[] data) {
+        buffer.putInt(data.length);
+        buffer.put(data);
+    }
+
+    private static byte[] intToBytes(int value) {
+        return new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 分块摘要计算器
+     *
+     * 流式输入一段内容，每满 1MB 计算一个分块摘要；一段内容结束时调用 {@link #endSection()}，
+     * 保证分块不跨段。只保留一个分块大小的缓冲区。
+     */
+    public static final class ChunkDigester {
+        private final MessageDigest digest = sha256();
+        private final List<byte[]> chunkDigests = new ArrayList<>();
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int chunkLength;
+
+        public void update(int b) {
+            chunk[chunkLength++] = (byte) b;
+            if (chunkLength == CHUNK_SIZE) {
+                flushChunk();
+            }
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int count = Math.min(length, CHUNK_SIZE - chunkLength);
+                System.arraycopy(data, offset, chunk, chunkLength, count);
+                chunkLength += count;
+                offset += count;
+                length -= count;
+                if (chunkLength == CHUNK_SIZE) {
+                    flushChunk();
+                }
+            }
+        }
+
+        /**
+         * 结束当前段，剩余不足 1MB 的数据单独成块
+         */
+        public void endSection() {
+            if (chunkLength > 0) {
+                flushChunk();
+            }
+        }
+
+        public List<byte[]> getChunkDigests() {
+            return chunkDigests;
+        }
+
+        private void flushChunk() {
+            digest.update((byte) 0xa5);
+            digest.update(intToBytes(chunkLength));
+            digest.update(chunk, 0, chunkLength);
+            chunkDigests.add(digest.digest());
+            chunkLength = 0;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.orange.patchgen.packer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 补丁 zip 写入器
+ *
+ * 基于 ZipOutputStream，支持逐条目指定压缩方式，并对 STORE 条目做 zipalign 式对齐：
+ * 在本地文件头的 extra 字段中填充 0xD935 对齐记录，使条目数据起始偏移满足 alignment。
+ *
+ * 写入过程中同步计算：
+ * - 每个数据条目（未压缩内容）的 SHA-256，供 {@link ArchiveSigner} 生成签名条目
+ * - 整个输出文件的 MD5 / SHA-256，close() 后可直接获取，无需再读一遍文件
+ * - 设置 {@link SigningBlockSigner} 时，条目区的 1MB 分块摘要；结束时在中央目录前插入
+ *   {@link PatchSigningBlock}（中央目录和 EOCD 先缓存在内存中，大小只与条目数有关）
+ *
+ * 内存占用与条目大小无关，只保留固定大小的缓冲区和摘要。
+ */
+public class PatchZipWriter implements Closeable {
+
+    private static final String META_INF = "META-INF/";
+
+    /** Android zipalign 使用的对齐 extra 字段 ID */
+    private static final int ALIGNMENT_EXTRA_ID = 0xD935;
+    /** 本地文件头固定部分长度 */
+    private static final int LOCAL_HEADER_SIZE = 30;
+    /** 对齐 extra 的最小长度：ID(2) + 长度(2) + 对齐值(2) */
+    private static final int ALIGNMENT_EXTRA_MIN_SIZE = 6;
+    /** EOCD 签名及长度（不含注释） */
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_CD_SIZE_OFFSET = 12;
+    private static final int EOCD_CD_OFFSET_OFFSET = 16;
+
+    private final CountingOutputStream counter;
+    private final ZipOutputStream zos;
+    private final Map<String, byte[]> entryDigests = new LinkedHashMap<>();
+    private final byte[] buffer = new byte[8192];
+    private SigningBlockSigner blockSigner;
+    private boolean finished;
+    private boolean closed;
+
+    public PatchZipWriter(File outputFile) throws IOException {
+        this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
+        this.zos = new ZipOutputStream(counter);
+    }
+
+    /**
+     * 设置签名块签名器，必须在写入第一个条目前调用
+     */
+    public void setSigningBlockSigner(SigningBlockSigner signer) {
+        if (counter.getCount() > 0) {
+            throw new IllegalStateException("Signing block signer must be set before writing entries");
+        }
+        this.blockSigner = signer;
+        counter.chunkDigester = signer != null ? new PatchSigningBlock.ChunkDigester() : null;
+    }
+
+    /**
+     * 写入文件条目
+     */
+    public void putFile(String entryName, File source, EntryCompression compression) throws IOException {
+        long crc = compression.isStored() ? crc32(source) : -1;
+        try (InputStream in = new FileInputStream(source)) {
+            putEntry(entryName, in, source.length(), crc, source.lastModified(), compression);
+        }
+    }
+
+    /**
+     * 写入内存数据条目
+     */
+    public void putBytes(String entryName, byte[] data, EntryCompression compression) throws IOException {
+        long crc = -1;
+        if (compression.isStored()) {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            crc = crc32.getValue();
+        }
+        putEntry(entryName, new ByteArrayInputStream(data), data.length, crc,
+                System.currentTimeMillis(), compression);
+    }
+
+    /**
+     * 写入流条目
+     *
+     * @param size 未压缩大小，STORE 时必须准确
+     * @param crc 未压缩数据的 CRC32，STORE 时必须准确，DEFLATE 时传 -1
+     */
+    public void putEntry(String entryName, InputStream in, long size, long crc, long time,
+                         EntryCompression compression) throws IOException {
+        if (compression.isStored() && (size < 0 || crc < 0)) {
+            throw new IOException("Stored entry requires size and crc: " + entryName);
+        }
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setTime(time);
+        if (compression.isStored()) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+            int nameLength = entryName.getBytes(StandardCharsets.UTF_8).length;
+            entry.setExtra(alignmentExtra(counter.getCount(), nameLength, compression.getAlignment()));
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+            zos.setLevel(compression.getLevel());
+        }
+
+        zos.putNextEntry(entry);
+        if (compression.isStored() && counter.getCount() % compression.getAlignment() != 0) {
+            // 本地文件头中出现了额外字段（如超出 DOS 范围的时间戳），对齐失效
+            throw new IOException("Failed to align stored entry: " + entryName);
+        }
+
+        MessageDigest digest = entryName.startsWith(META_INF) ? null : newDigest("SHA-256");
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            zos.write(buffer, 0, read);
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        zos.closeEntry();
+        if (digest != null) {
+            entryDigests.put(entryName, digest.digest());
+        }
+    }
+
+    /**
+     * 已写入数据条目的 SHA-256 摘要（不含 META-INF/ 下的条目）
+     */
+    public Map<String, byte[]> getEntryDigests() {
+        return Collections.unmodifiableMap(entryDigests);
+    }
+
+    /**
+     * 由签名器根据已写入条目的摘要生成签名条目并追加到 zip 末尾
+     */
+    public void sign(ArchiveSigner signer) throws IOException, GeneralSecurityException {
+        Map<String, byte[]> signatureEntries = signer.createSignatureEntries(getEntryDigests());
+        EntryCompression compression = EntryCompression.deflated(Deflater.DEFAULT_COMPRESSION);
+        for (Map.Entry<String, byte[]> entry : signatureEntries.entrySet()) {
+            putBytes(entry.getKey(), entry.getValue(), compression);
+        }
+    }
+
+    /**
+     * 输出文件总大小，close() 后有效
+     */
+    public long getFileSize() {
+        return counter.getCount();
+    }
+
+    /**
+     * 输出文件的 MD5，close() 后有效
+     */
+    public byte[] getFileMd5() {
+        checkClosed();
+        return counter.md5.digest();
+    }
+
+    /**
+     * 输出文件的 SHA-256，close() 后有效
+     */
+    public byte[] getFileSha256() {
+        checkClosed();
+        return counter.sha256.digest();
+    }
+
+    private void checkClosed() {
+        if (!closed) {
+            throw new IllegalStateException("PatchZipWriter is not closed");
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        }
+    }
+
+    /**
+     * 生成对齐 extra 字段，使 数据起始偏移 % alignment == 0
+     */
+    private static byte[] alignmentExtra(long headerOffset, int nameLength, int alignment) {
+        if (alignment <= 1) {
+            return null;
+        }
+        long dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameLength + ALIGNMENT_EXTRA_MIN_SIZE;
+        int padding = (int) ((alignment - dataOffset % alignment) % alignment);
+        int dataSize = ALIGNMENT_EXTRA_MIN_SIZE - 4 + padding;
+
+        byte[] extra = new byte[ALIGNMENT_EXTRA_MIN_SIZE + padding];
+        extra[0] = (byte) (ALIGNMENT_EXTRA_ID & 0xFF);
+        extra[1] = (byte) ((ALIGNMENT_EXTRA_ID >> 8) & 0xFF);
+        extra[2] = (byte) (dataSize & 0xFF);
+        extra[3] = (byte) ((dataSize >> 8) & 0xFF);
+        extra[4] = (byte) (alignment & 0xFF);
+        extra[5] = (byte) ((alignment >> 8) & 0xFF);
+        return extra;
+    }
+
+    private long crc32(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc32.update(buffer, 0, read);
+            }
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * 写出中央目录；设置了签名块签名器时，在中央目录前插入签名块
+     */
+    public void finish() throws IOException, GeneralSecurityException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (blockSigner == null) {
+            zos.finish();
+            return;
+        }
+
+        // 中央目录和 EOCD 先写入内存
+        ByteArrayOutputStream tailBuffer = new ByteArrayOutputStream();
+        counter.capture = tailBuffer;
+        zos.finish();
+        counter.capture = null;
+        byte[] tail = tailBuffer.toByteArray();
+
+        long blockOffset = counter.getCount();
+        int eocdOffset = tail.length - EOCD_SIZE;
+        ByteBuffer eocd = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        if (eocdOffset < 0 || eocd.getInt(eocdOffset) != EOCD_SIGNATURE
+                || eocd.getInt(eocdOffset + EOCD_CD_SIZE_OFFSET) != eocdOffset
+                || (eocd.getInt(eocdOffset + EOCD_CD_OFFSET_OFFSET) & 0xFFFFFFFFL) != blockOffset) {
+            throw new IOException("Unsupported zip layout for signing block (zip64 or comment)");
+        }
+
+        // 条目区、中央目录、EOCD 分段计算分块摘要
+        PatchSigningBlock.ChunkDigester digester = counter.chunkDigester;
+        counter.chunkDigester = null;
+        digester.endSection();
+        digester.update(tail, 0, eocdOffset);
+        digester.endSection();
+        digester.update(tail, eocdOffset, EOCD_SIZE);
+        digester.endSection();
+
+        byte[] block = PatchSigningBlock.build(digester.getChunkDigests(), blockSigner);
+        eocd.putInt(eocdOffset + EOCD_CD_OFFSET_OFFSET, (int) (blockOffset + block.length));
+        counter.write(block, 0, block.length);
+        counter.write(tail, 0, tail.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            try {
+                finish();
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to create signing block: " + e.getMessage(), e);
+            } finally {
+                closed = true;
+                zos.close();
+            }
+        }
+    }
+
+    /**
+     * 统计已写出字节数（用于计算条目偏移），并同步计算整个文件的摘要
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final MessageDigest md5 = newDigest("MD5");
+        private final MessageDigest sha256 = newDigest("SHA-256");
+        private long count;
+        /** 非空时同步计算条目区分块摘要 */
+        private PatchSigningBlock.ChunkDigester chunkDigester;
+        /** 非空时写入内容暂存到内存，不落盘也不计入摘要 */
+        private ByteArrayOutputStream capture;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (capture != null) {
+                capture.write(b);
+                return;
+            }
+            out.write(b);
+            md5.update((byte) b);
+            sha256.update((byte) b);
+            if (chunkDigester != null) {
+                chunkDigester.update(b);
+            }
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (capture != null) {
+                capture.write(b, off, len);
+                return;
+            }
+            out.write(b, off, len);
+            md5.update(b, off, len);
+            sha256.update(b, off, len);
+            if (chunkDigester != null) {
+                chunkDigester.update(b, off, len);
+            }
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.orange.patchgen.packer;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * 签名块签名器
+ *
+ * 为 {@link PatchSigningBlock} 提供签名能力：对分块摘要汇总后的数据签名，并提供签名证书。
+ */
+public interface SigningBlockSigner {
+
+    /**
+     * 签名算法，如 SHA256withRSA
+     */
+    String getSignatureAlgorithm() throws GeneralSecurityException;
+
+    /**
+     * 对数据签名
+     */
+    byte[] sign(byte[] data) throws GeneralSecurityException;
+
+    /**
+     * 签名证书（X.509 DER 编码）
+     */
+    byte[] getEncodedCertificate() throws GeneralSecurityException;
+}
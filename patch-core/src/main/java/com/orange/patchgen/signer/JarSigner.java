@@ -1,6 +1,13 @@
 package com.orange.patchgen.signer;
 
 import com.orange.patchgen.config.SigningConfig;
+import com.orange.patchgen.packer.AdaptiveCompressionPolicy;
+import com.orange.patchgen.packer.ArchiveSigner;
+import com.orange.patchgen.packer.CompressionPolicy;
+import com.orange.patchgen.packer.EntryCompression;
+import com.orange.patchgen.packer.PatchSigningBlock;
+import com.orange.patchgen.packer.PatchZipWriter;
+import com.orange.patchgen.packer.SigningBlockSigner;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -24,8 +31,15 @@ import java.util.zip.*;
  * 1. 生成 MANIFEST.MF - 包含所有文件的 SHA-256 摘要
  * 2. 生成 .SF 文件 - 包含 MANIFEST.MF 各部分的摘要
  * 3. 生成 .RSA/.DSA/.EC 文件 - 包含 .SF 的签名和证书链
+ *
+ * 条目摘要由 {@link PatchZipWriter} 在写入时流式计算，签名条目追加在 zip 末尾，
+ * 不需要把条目内容读入内存。打包时通过 PatchPacker.setSigner() 一次写完；
+ * 对已有文件签名时 {@link #sign(File)} 流式复制一遍并追加签名。
+ *
+ * 同时作为 {@link SigningBlockSigner}，在中央目录前写入 {@link PatchSigningBlock}，
+ * 客户端可按 1MB 分块并行校验，不必逐条目解压验证 JAR 签名。
  */
-public class JarSigner {
+public class JarSigner implements ArchiveSigner, SigningBlockSigner {
     
     private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
     private static final String DIGEST_ALGORITHM = "SHA-256";
@@ -43,14 +57,28 @@ public class JarSigner {
     }
     
     private final SigningConfig config;
+    private PrivateKey privateKey;
+    private Certificate[] certChain;
+    private CompressionPolicy compressionPolicy = new AdaptiveCompressionPolicy();
     
     public JarSigner(SigningConfig config) {
         this.config = config;
     }
     
+    /**
+     * 设置 {@link #sign(File)} 重新压缩 DEFLATE 条目时使用的压缩策略，应与打包时的策略一致
+     * （默认 {@link AdaptiveCompressionPolicy}，与 PatchPacker 相同）
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy != null ? compressionPolicy : new AdaptiveCompressionPolicy();
+    }
+    
     /**
      * 对 JAR/ZIP 文件签名
      * 
+     * 流式复制所有非 META-INF 条目（STORE 条目保持不压缩并重新对齐，resources.arsc 强制 STORE；
+     * DEFLATE 条目按压缩策略重新压缩，如 dex 保持最高级别），复制过程中计算摘要，最后追加签名条目并替换原文件。
+     * 
      * @param jarFile 要签名的文件
      * @throws SigningException 签名失败时抛出
      */
@@ -59,228 +87,193 @@ public class JarSigner {
             throw new SigningException("JAR file does not exist");
         }
         
-        // 优先尝试使用 ZipSigner（支持 JKS 原生签名）
-        if (tryZipSigner(jarFile)) {
-            return;  // ZipSigner 签名成功，直接返回
-        }
-        
-        // ZipSigner 失败或不可用，使用标准 JAR 签名流程
+        File tempFile = new File(jarFile.getParentFile(), jarFile.getName() + ".signed.tmp");
         try {
             System.out.println("[JarSigner] 开始签名: " + jarFile.getAbsolutePath());
             
-            // 1. 加载密钥和证书
-            System.out.println("[JarSigner] 步骤 1: 加载密钥库");
-            if (config.getKeystoreFile() == null) {
-                throw new SigningException("Keystore file is null");
-            }
-            System.out.println("[JarSigner] 密钥库文件: " + config.getKeystoreFile().getAbsolutePath());
-            System.out.println("[JarSigner] 密钥库文件存在: " + config.getKeystoreFile().exists());
-            
-            if (!config.getKeystoreFile().exists()) {
-                throw new SigningException("Keystore file does not exist: " + config.getKeystoreFile().getAbsolutePath());
+            try (java.util.zip.ZipFile source = new java.util.zip.ZipFile(jarFile);
+                 PatchZipWriter writer = new PatchZipWriter(tempFile)) {
+                writer.setSigningBlockSigner(this);
+                Enumeration<? extends ZipEntry> zipEntries = source.entries();
+                int count = 0;
+                while (zipEntries.hasMoreElements()) {
+                    ZipEntry entry = zipEntries.nextElement();
+                    
+                    // 跳过目录和旧的签名文件
+                    if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) {
+                        continue;
+                    }
+                    
+                    try (InputStream is = source.getInputStream(entry)) {
+                        writer.putEntry(entry.getName(), is, entry.getSize(), entry.getCrc(),
+                                entry.getTime(), compressionFor(entry));
+                    }
+                    count++;
+                }
+                System.out.println("[JarSigner] ✓ 复制了 " + count + " 个文件");
+                
+                writer.sign(this);
+                writer.finish();
             }
             
-            KeyStore keyStore = loadKeyStore();
-            System.out.println("[JarSigner] ✓ 密钥库加载成功");
-            
-            PrivateKey privateKey = (PrivateKey) keyStore.getKey(
-                config.getKeyAlias(),
-                config.getKeyPassword().toCharArray()
-            );
-            Certificate[] certChain = keyStore.getCertificateChain(config.getKeyAlias());
-            
-            if (privateKey == null) {
-                throw new SigningException("Private key not found: " + config.getKeyAlias());
+            // 替换原文件
+            if (!jarFile.delete()) {
+                throw new IOException("Failed to delete original JAR file");
             }
-            if (certChain == null || certChain.length == 0) {
-                throw new SigningException("Certificate chain not found: " + config.getKeyAlias());
+            if (!tempFile.renameTo(jarFile)) {
+                throw new IOException("Failed to rename temporary file");
             }
-            System.out.println("[JarSigner] ✓ 私钥和证书链加载成功");
-            
-            // 2. 读取现有 JAR 文件
-            System.out.println("[JarSigner] 步骤 2: 读取 JAR 文件内容");
-            Map<String, byte[]> entries = readJarEntries(jarFile);
-            System.out.println("[JarSigner] ✓ 读取了 " + entries.size() + " 个文件");
+            System.out.println("[JarSigner] ✓ JAR 签名完成");
             
-            // 3. 生成 MANIFEST.MF
-            System.out.println("[JarSigner] 步骤 3: 生成 MANIFEST.MF");
-            Manifest manifest = generateManifest(entries);
-            System.out.println("[JarSigner] ✓ MANIFEST.MF 生成成功");
+        } catch (Exception e) {
+            tempFile.delete();
+            System.err.println("[JarSigner] 签名失败: " + e.getMessage());
+            throw new SigningException("Failed to sign JAR: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 根据条目摘要生成 MANIFEST.MF、.SF 和签名块
+     */
+    @Override
+    public Map<String, byte[]> createSignatureEntries(Map<String, byte[]> entryDigests)
+            throws IOException, GeneralSecurityException {
+        try {
+            loadSigningKey();
             
-            // 4. 生成 .SF 文件
-            System.out.println("[JarSigner] 步骤 4: 生成 .SF 文件");
+            Manifest manifest = generateManifest(entryDigests);
             byte[] sfBytes = generateSignatureFile(manifest);
-            System.out.println("[JarSigner] ✓ .SF 文件生成成功，大小: " + sfBytes.length + " 字节");
-            
-            // 5. 生成签名块文件（.RSA/.DSA/.EC）
-            System.out.println("[JarSigner] 步骤 5: 生成签名块文件");
             byte[] signatureBlock = generateSignatureBlock(sfBytes, privateKey, certChain);
-            System.out.println("[JarSigner] ✓ 签名块生成成功，大小: " + signatureBlock.length + " 字节");
-            
-            // 6. 确定签名文件扩展名
             String signatureExt = getSignatureExtension(privateKey.getAlgorithm());
-            System.out.println("[JarSigner] 签名文件扩展名: " + signatureExt);
-            
-            // 7. 重新打包 JAR 文件
-            System.out.println("[JarSigner] 步骤 6: 重新打包 JAR 文件");
-            repackJar(jarFile, entries, manifest, sfBytes, signatureBlock, signatureExt);
-            System.out.println("[JarSigner] ✓ JAR 签名完成");
-            
+            System.out.println("[JarSigner] ✓ 签名块生成成功，条目数: " + entryDigests.size()
+                    + "，签名文件扩展名: " + signatureExt);
+            
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
+            
+            Map<String, byte[]> signatureEntries = new LinkedHashMap<>();
+            signatureEntries.put(MANIFEST_NAME, manifestBytes.toByteArray());
+            signatureEntries.put("META-INF/CERT.SF", sfBytes);
+            signatureEntries.put("META-INF/CERT." + signatureExt, signatureBlock);
+            return signatureEntries;
+        } catch (IOException | GeneralSecurityException e) {
+            throw e;
         } catch (Exception e) {
-            System.err.println("[JarSigner] 签名失败: " + e.getMessage());
-            e.printStackTrace();
-            throw new SigningException("Failed to sign JAR: " + e.getMessage(), e);
+            throw new GeneralSecurityException(e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public String getSignatureAlgorithm() throws GeneralSecurityException {
+        ensureSigningKey();
+        return getSignatureAlgorithm(privateKey.getAlgorithm());
+    }
+    
+    @Override
+    public byte[] sign(byte[] data) throws GeneralSecurityException {
+        ensureSigningKey();
+        Signature signature = Signature.getInstance(getSignatureAlgorithm(privateKey.getAlgorithm()));
+        signature.initSign(privateKey);
+        signature.update(data);
+        return signature.sign();
+    }
+    
+    @Override
+    public byte[] getEncodedCertificate() throws GeneralSecurityException {
+        ensureSigningKey();
+        return certChain[0].getEncoded();
+    }
+    
+    private void ensureSigningKey() throws GeneralSecurityException {
+        try {
+            loadSigningKey();
+        } catch (GeneralSecurityException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GeneralSecurityException(e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 加载私钥和证书链（只加载一次）
+     */
+    private void loadSigningKey() throws Exception {
+        if (privateKey != null) {
+            return;
+        }
+        if (config.getKeystoreFile() == null) {
+            throw new SigningException("Keystore file is null");
+        }
+        if (!config.getKeystoreFile().exists()) {
+            throw new SigningException("Keystore file does not exist: " + config.getKeystoreFile().getAbsolutePath());
+        }
+        
+        KeyStore keyStore = loadKeyStore();
+        PrivateKey key = (PrivateKey) keyStore.getKey(
+            config.getKeyAlias(),
+            config.getKeyPassword().toCharArray()
+        );
+        Certificate[] chain = keyStore.getCertificateChain(config.getKeyAlias());
+        if (chain == null || chain.length == 0) {
+            Certificate certificate = keyStore.getCertificate(config.getKeyAlias());
+            chain = certificate != null ? new Certificate[]{certificate} : null;
+        }
+        
+        if (key == null) {
+            throw new SigningException("Private key not found: " + config.getKeyAlias());
+        }
+        if (chain == null) {
+            throw new SigningException("Certificate chain not found: " + config.getKeyAlias());
+        }
+        System.out.println("[JarSigner] ✓ 私钥和证书链加载成功");
+        
+        this.privateKey = key;
+        this.certChain = chain;
+    }
+    
+    /**
+     * 确定条目在签名后 zip 中的压缩方式
+     * 
+     * zip 中不记录 DEFLATE 级别，按压缩策略重新选择（没有源文件，不做试压缩）；
+     * 原本 STORE 的条目保持 STORE（打包时试压缩的结论），策略要求 STORE 时使用策略给出的对齐。
+     */
+    private EntryCompression compressionFor(ZipEntry entry) throws IOException {
+        String name = entry.getName();
+        EntryCompression compression = compressionPolicy.select(name, null);
+        if (compression.isStored()) {
+            return compression;
+        }
+        // resources.arsc 必须使用 STORE 模式（不压缩），自定义策略返回 DEFLATE 时同样强制
+        if ("resources.arsc".equals(name)) {
+            return EntryCompression.stored(EntryCompression.PAGE_ALIGNMENT);
         }
+        if (entry.getMethod() == ZipEntry.STORED) {
+            return EntryCompression.stored(EntryCompression.DEFAULT_ALIGNMENT);
+        }
+        return compression;
     }
     
     /**
-     * 尝试使用 ZipSigner 签名（支持 JKS）
+     * 使用 ZipSigner 的 KeyStoreFileManager 加载 JKS（Android 上没有 JKS Provider）
      * 
-     * @param jarFile 要签名的文件
-     * @return 是否成功
+     * @return 加载失败或 ZipSigner 不可用时返回 null
      */
-    private boolean tryZipSigner(File jarFile) {
+    private KeyStore loadKeyStoreZipSigner() {
         try {
-            // 检查是否是 JKS 文件
-            if (config.getKeystoreFile() == null) {
-                return false;
-            }
-            
-            String keystoreName = config.getKeystoreFile().getName().toLowerCase();
-            if (!keystoreName.endsWith(".jks")) {
-                System.out.println("[JarSigner] 不是 JKS 文件，跳过 ZipSigner");
-                return false;
-            }
-            
-            System.out.println("[JarSigner] 检测到 JKS 文件，尝试使用 ZipSigner 签名");
-            
-            // 方案：使用 XiaoMozi.签名 类的方式
-            // 1. 使用 KeyStoreFileManager.loadKeyStore() 加载 keystore
-            // 2. 使用 ZipSigner.setKeys() 设置密钥
-            // 3. 调用 ZipSigner.signZip() 签名
-            try {
-                // 加载 KeyStoreFileManager 类
-                Class<?> keyStoreManagerClass = Class.forName("kellinwood.security.zipsigner.optional.KeyStoreFileManager");
-                
-                // 调用 loadKeyStore(String keystorePath, char[] password)
-                java.lang.reflect.Method loadKeyStoreMethod = keyStoreManagerClass.getMethod("loadKeyStore",
-                    String.class, char[].class);
-                
-                java.security.KeyStore keyStore = (java.security.KeyStore) loadKeyStoreMethod.invoke(null,
-                    config.getKeystoreFile().getAbsolutePath(),
-                    config.getKeystorePassword().toCharArray());
-                
-                System.out.println("[JarSigner] ✓ KeyStore 加载成功（通过 KeyStoreFileManager）");
-                
-                // 获取私钥和证书
-                java.security.PrivateKey privateKey = (java.security.PrivateKey) keyStore.getKey(
-                    config.getKeyAlias(),
-                    config.getKeyPassword().toCharArray());
-                
-                java.security.cert.Certificate certificate = keyStore.getCertificate(config.getKeyAlias());
-                
-                System.out.println("[JarSigner] ✓ 私钥和证书获取成功");
-                
-                // 创建 ZipSigner 实例
-                Class<?> zipSignerClass = Class.forName("kellinwood.security.zipsigner.ZipSigner");
-                Object zipSigner = zipSignerClass.newInstance();
-                
-                // 调用 setKeys(String keyName, X509Certificate cert, PrivateKey privateKey, String signatureAlgorithm, byte[] publicKeyBytes)
-                java.lang.reflect.Method setKeysMethod = zipSignerClass.getMethod("setKeys",
-                    String.class,
-                    java.security.cert.X509Certificate.class,
-                    java.security.PrivateKey.class,
-                    String.class,
-                    byte[].class);
-                
-                setKeysMethod.invoke(zipSigner,
-                    "XiaoMozi",  // keyName
-                    certificate,  // certificate
-                    privateKey,  // privateKey
-                    "SHA1withRSA",  // signatureAlgorithm
-                    null);  // publicKeyBytes
-                
-                System.out.println("[JarSigner] ✓ ZipSigner.setKeys() 调用成功");
-                
-                // 创建临时输出文件
-                File tempOutput = new File(jarFile.getParent(), jarFile.getName() + ".signed.tmp");
-                
-                // 调用 signZip(String input, String output)
-                java.lang.reflect.Method signZipMethod = zipSignerClass.getMethod("signZip",
-                    String.class, String.class);
-                
-                signZipMethod.invoke(zipSigner,
-                    jarFile.getAbsolutePath(),
-                    tempOutput.getAbsolutePath());
-                
-                System.out.println("[JarSigner] ✓ ZipSigner.signZip() 调用成功");
-                
-                if (tempOutput.exists()) {
-                    System.out.println("[JarSigner] ZipSigner 签名完成，临时文件: " + tempOutput.getAbsolutePath());
-                    System.out.println("[JarSigner] 临时文件大小: " + tempOutput.length() + " bytes");
-                    
-                    // ⚠️ 关键修复：ZipSigner 会压缩 resources.arsc，需要重新处理
-                    System.out.println("[JarSigner] 检查并修复 resources.arsc 压缩问题...");
-                    boolean fixed = fixResourcesArscCompression(tempOutput);
-                    if (fixed) {
-                        System.out.println("[JarSigner] ✓ resources.arsc 已修复为 STORE 模式");
-                        System.out.println("[JarSigner] 修复后临时文件大小: " + tempOutput.length() + " bytes");
-                    } else {
-                        System.out.println("[JarSigner] ⚠️ resources.arsc 修复失败或不需要修复");
-                    }
-                    
-                    // 替换原文件
-                    System.out.println("[JarSigner] 准备替换原文件");
-                    System.out.println("[JarSigner] 原文件: " + jarFile.getAbsolutePath());
-                    if (jarFile.exists()) {
-                        System.out.println("[JarSigner] 原文件大小: " + jarFile.length() + " bytes");
-                        boolean deleted = jarFile.delete();
-                        System.out.println("[JarSigner] 删除原文件: " + deleted);
-                        if (!deleted) {
-                            System.err.println("[JarSigner] ✗ 无法删除原文件");
-                            tempOutput.delete();
-                            return false;
-                        }
-                    }
-                    
-                    boolean renamed = tempOutput.renameTo(jarFile);
-                    System.out.println("[JarSigner] 重命名临时文件: " + renamed);
-                    
-                    if (!renamed) {
-                        System.err.println("[JarSigner] ✗ 无法重命名临时文件");
-                        return false;
-                    }
-                    
-                    if (jarFile.exists()) {
-                        System.out.println("[JarSigner] ✓ 最终文件大小: " + jarFile.length() + " bytes");
-                    } else {
-                        System.err.println("[JarSigner] ✗ 最终文件不存在！");
-                        return false;
-                    }
-                    
-                    System.out.println("[JarSigner] ✓ ZipSigner 签名成功");
-                    return true;
-                } else {
-                    System.out.println("[JarSigner] ZipSigner 签名失败：输出文件不存在");
-                    return false;
-                }
-                
-            } catch (ClassNotFoundException e) {
-                System.out.println("[JarSigner] ZipSigner 类未找到，跳过");
-                return false;
-            } catch (java.lang.reflect.InvocationTargetException e) {
-                System.err.println("[JarSigner] ZipSigner 签名异常（InvocationTargetException）");
-                System.err.println("[JarSigner] 目标异常: " + e.getTargetException());
-                if (e.getTargetException() != null) {
-                    e.getTargetException().printStackTrace();
-                }
-                return false;
-            }
-            
+            Class<?> keyStoreManagerClass = Class.forName("kellinwood.security.zipsigner.optional.KeyStoreFileManager");
+            java.lang.reflect.Method loadKeyStoreMethod = keyStoreManagerClass.getMethod("loadKeyStore",
+                String.class, char[].class);
+            KeyStore keyStore = (KeyStore) loadKeyStoreMethod.invoke(null,
+                config.getKeystoreFile().getAbsolutePath(),
+                config.getKeystorePassword().toCharArray());
+            System.out.println("[JarSigner] ✓ KeyStore 加载成功（通过 KeyStoreFileManager）");
+            return keyStore;
+        } catch (ClassNotFoundException e) {
+            System.out.println("[JarSigner] ZipSigner 类未找到，跳过");
+            return null;
         } catch (Exception e) {
-            System.err.println("[JarSigner] ZipSigner 签名异常: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+            System.out.println("[JarSigner] KeyStoreFileManager 加载失败: " + e.getMessage());
+            return null;
         }
     }
     
@@ -405,7 +398,15 @@ public class JarSigner {
     private KeyStore loadKeyStore() throws Exception {
         System.out.println("[JarSigner] 尝试加载密钥库");
         
-        // 优先尝试使用 Native JKS 解析器
+        // JKS 文件优先使用 ZipSigner 的 KeyStoreFileManager
+        if (config.getKeystoreFile().getName().toLowerCase().endsWith(".jks")) {
+            KeyStore keyStore = loadKeyStoreZipSigner();
+            if (keyStore != null) {
+                return keyStore;
+            }
+        }
+        
+        // 尝试使用 Native JKS 解析器
         if (JKSNative.isAvailable()) {
             System.out.println("[JarSigner] 尝试使用 Native JKS 解析器");
             try {
@@ -569,59 +570,20 @@ public class JarSigner {
         throw new Exception("无法加载密钥库，尝试了所有支持的格式", lastException);
     }
     
-    /**
-     * 读取 JAR 文件中的所有条目
-     * 使用 ZipFile API 而不是 ZipInputStream 以支持所有 ZIP 格式
-     */
-    private Map<String, byte[]> readJarEntries(File jarFile) throws IOException {
-        Map<String, byte[]> entries = new LinkedHashMap<>();
-        
-        try (java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(jarFile)) {
-            java.util.Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-            
-            while (zipEntries.hasMoreElements()) {
-                ZipEntry entry = zipEntries.nextElement();
-                
-                // 跳过目录和旧的签名文件
-                if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) {
-                    continue;
-                }
-                
-                // 读取文件内容
-                try (java.io.InputStream is = zipFile.getInputStream(entry)) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[8192];
-                    int len;
-                    while ((len = is.read(buffer)) > 0) {
-                        baos.write(buffer, 0, len);
-                    }
-                    entries.put(entry.getName(), baos.toByteArray());
-                }
-            }
-        }
-        
-        return entries;
-    }
-    
     /**
      * 生成 MANIFEST.MF
      */
-    private Manifest generateManifest(Map<String, byte[]> entries) throws NoSuchAlgorithmException {
+    private Manifest generateManifest(Map<String, byte[]> entryDigests) {
         Manifest manifest = new Manifest();
         Attributes mainAttrs = manifest.getMainAttributes();
         mainAttrs.put(Attributes.Name.MANIFEST_VERSION, "1.0");
         mainAttrs.putValue("Created-By", "HotUpdate JarSigner");
         
-        MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-        
-        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        for (Map.Entry<String, byte[]> entry : entryDigests.entrySet()) {
             String name = entry.getKey();
-            byte[] data = entry.getValue();
             
-            // 计算文件的 SHA-256 摘要
-            digest.reset();
-            byte[] hash = digest.digest(data);
-            String hashBase64 = Base64.getEncoder().encodeToString(hash);
+            // 文件的 SHA-256 摘要已在写入时计算
+            String hashBase64 = Base64.getEncoder().encodeToString(entry.getValue());
             
             // 添加到 manifest
             Attributes attrs = new Attributes();
@@ -881,175 +843,6 @@ public class JarSigner {
         }
     }
     
-    /**
-     * 重新打包 JAR 文件，包含签名
-     */
-    private void repackJar(File jarFile, Map<String, byte[]> entries, Manifest manifest, 
-                          byte[] sfBytes, byte[] signatureBlock, String signatureExt) throws IOException {
-        File tempFile = new File(jarFile.getParentFile(), jarFile.getName() + ".tmp");
-        
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tempFile))) {
-            // 设置默认压缩级别（DEFLATED 模式）
-            zos.setLevel(java.util.zip.Deflater.DEFAULT_COMPRESSION);
-            
-            // 1. 写入 MANIFEST.MF
-            zos.putNextEntry(new ZipEntry(MANIFEST_NAME));
-            manifest.write(zos);
-            zos.closeEntry();
-            
-            // 2. 写入 .SF 文件
-            String sfName = "META-INF/CERT.SF";
-            zos.putNextEntry(new ZipEntry(sfName));
-            zos.write(sfBytes);
-            zos.closeEntry();
-            
-            // 3. 写入签名块文件
-            String sigName = "META-INF/CERT." + signatureExt;
-            zos.putNextEntry(new ZipEntry(sigName));
-            zos.write(signatureBlock);
-            zos.closeEntry();
-            
-            // 4. 写入所有原始文件
-            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
-                String name = entry.getKey();
-                byte[] data = entry.getValue();
-                
-                ZipEntry zipEntry = new ZipEntry(name);
-                
-                // resources.arsc 必须使用 STORE 模式（不压缩）
-                if ("resources.arsc".equals(name)) {
-                    System.out.println("[JarSigner] 处理 resources.arsc");
-                    System.out.println("  原始大小: " + data.length + " bytes (" + (data.length / 1024) + " KB)");
-                    zipEntry.setMethod(ZipEntry.STORED);
-                    zipEntry.setSize(data.length);
-                    zipEntry.setCompressedSize(data.length);
-                    zipEntry.setCrc(calculateCrc32(data));
-                    System.out.println("  压缩方式: STORED (不压缩)");
-                    System.out.println("  CRC32: " + Long.toHexString(zipEntry.getCrc()));
-                }
-                
-                zos.putNextEntry(zipEntry);
-                zos.write(data);
-                zos.closeEntry();
-            }
-        }
-        
-        // 替换原文件
-        if (!jarFile.delete()) {
-            throw new IOException("Failed to delete original JAR file");
-        }
-        if (!tempFile.renameTo(jarFile)) {
-            throw new IOException("Failed to rename temporary file");
-        }
-    }
-    
-    /**
-     * 计算 CRC32 校验和
-     */
-    private long calculateCrc32(byte[] data) {
-        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-        crc.update(data);
-        return crc.getValue();
-    }
-    
-    /**
-     * 修复 resources.arsc 的压缩问题
-     * ZipSigner 会压缩所有文件，包括 resources.arsc
-     * 这个方法会重新打包 ZIP，将 resources.arsc 改为 STORE 模式
-     */
-    private boolean fixResourcesArscCompression(File zipFile) {
-        try {
-            System.out.println("[JarSigner] 开始修复 resources.arsc 压缩问题");
-            System.out.println("[JarSigner] 原始文件: " + zipFile.getAbsolutePath());
-            System.out.println("[JarSigner] 原始文件大小: " + zipFile.length() + " bytes");
-            
-            // 1. 读取所有条目
-            Map<String, byte[]> entries = new LinkedHashMap<>();
-            try (java.util.zip.ZipInputStream zis = new java.util.zip.ZipInputStream(new FileInputStream(zipFile))) {
-                java.util.zip.ZipEntry entry;
-                while ((entry = zis.getNextEntry()) != null) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    while ((bytesRead = zis.read(buffer)) != -1) {
-                        baos.write(buffer, 0, bytesRead);
-                    }
-                    entries.put(entry.getName(), baos.toByteArray());
-                    System.out.println("[JarSigner] 读取条目: " + entry.getName() + " (" + baos.size() + " bytes)");
-                }
-            }
-            
-            System.out.println("[JarSigner] 共读取 " + entries.size() + " 个条目");
-            
-            // 2. 检查是否有 resources.arsc
-            if (!entries.containsKey("resources.arsc")) {
-                System.out.println("[JarSigner] 补丁中没有 resources.arsc，跳过修复");
-                return false;
-            }
-            
-            byte[] resourcesArscData = entries.get("resources.arsc");
-            System.out.println("[JarSigner] 发现 resources.arsc，大小: " + resourcesArscData.length + " bytes");
-            
-            // 3. 重新打包，resources.arsc 使用 STORE 模式
-            File tempFile = new File(zipFile.getParentFile(), zipFile.getName() + ".fixed.tmp");
-            System.out.println("[JarSigner] 创建临时文件: " + tempFile.getAbsolutePath());
-            
-            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tempFile))) {
-                zos.setLevel(java.util.zip.Deflater.DEFAULT_COMPRESSION);
-                
-                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
-                    String name = entry.getKey();
-                    byte[] data = entry.getValue();
-                    
-                    ZipEntry zipEntry = new ZipEntry(name);
-                    
-                    // resources.arsc 必须使用 STORE 模式（不压缩）
-                    if ("resources.arsc".equals(name)) {
-                        System.out.println("[JarSigner] 修复 resources.arsc 压缩模式");
-                        System.out.println("  原始大小: " + data.length + " bytes (" + (data.length / 1024) + " KB)");
-                        zipEntry.setMethod(ZipEntry.STORED);
-                        zipEntry.setSize(data.length);
-                        zipEntry.setCompressedSize(data.length);
-                        zipEntry.setCrc(calculateCrc32(data));
-                        System.out.println("  压缩方式: STORED (不压缩)");
-                        System.out.println("  CRC32: " + Long.toHexString(zipEntry.getCrc()));
-                    }
-                    
-                    zos.putNextEntry(zipEntry);
-                    zos.write(data);
-                    zos.closeEntry();
-                }
-            }
-            
-            System.out.println("[JarSigner] 临时文件创建完成，大小: " + tempFile.length() + " bytes");
-            
-            // 4. 替换原文件
-            if (!zipFile.delete()) {
-                System.err.println("[JarSigner] 无法删除原文件: " + zipFile.getAbsolutePath());
-                tempFile.delete();
-                return false;
-            }
-            System.out.println("[JarSigner] 原文件已删除");
-            
-            if (!tempFile.renameTo(zipFile)) {
-                System.err.println("[JarSigner] 无法重命名临时文件");
-                System.err.println("[JarSigner] 临时文件: " + tempFile.getAbsolutePath());
-                System.err.println("[JarSigner] 目标文件: " + zipFile.getAbsolutePath());
-                return false;
-            }
-            System.out.println("[JarSigner] 临时文件已重命名为原文件");
-            System.out.println("[JarSigner] 修复后文件大小: " + zipFile.length() + " bytes");
-            
-            System.out.println("[JarSigner] ✓ resources.arsc 压缩问题已修复");
-            return true;
-            
-        } catch (Exception e) {
-            System.err.println("[JarSigner] 修复 resources.arsc 失败: " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
-    }
-    
     /**
      * 签名异常
      */
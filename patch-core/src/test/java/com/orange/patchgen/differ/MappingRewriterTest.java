@@ -0,0 +1,174 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Example;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodParameter;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * MappingRewriter 改写测试：两次构建的混淆名互换
+ */
+class MappingRewriterTest {
+
+    private static final int PUBLIC_STATIC = AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue();
+
+    @Example
+    void patchClassUsesBaseObfuscatedNames() throws Exception {
+        File dir = Files.createTempDirectory("mapping-rewriter").toFile();
+        // 基准：Foo -> a.a，Bar -> a.b
+        File baseMappingFile = write(new File(dir, "base-mapping.txt"),
+                "com.x.Foo -> a.a:",
+                "    void run() -> a",
+                "com.x.Bar -> a.b:",
+                "    int count -> a",
+                "    void helper() -> b");
+        // 新版本：两个类的混淆名互换，成员名也不同；Foo 新增 added()
+        File newMappingFile = write(new File(dir, "new-mapping.txt"),
+                "com.x.Foo -> a.b:",
+                "    void run() -> c",
+                "    void added() -> f",
+                "com.x.Bar -> a.a:",
+                "    int count -> e",
+                "    void helper() -> d");
+
+        File baseDex = writeDex(new File(dir, "base.dex"),
+                foo("La/a;", "a", "La/b;", "b", "a", null),
+                bar("La/b;", "a", "b"));
+        File newDex = writeDex(new File(dir, "new.dex"),
+                foo("La/b;", "c", "La/a;", "d", "e", "f"),
+                bar("La/a;", "e", "d"));
+
+        ProguardMapping baseMapping = ProguardMapping.load(baseMappingFile);
+        ProguardMapping newMapping = ProguardMapping.load(newMappingFile);
+        DexDiffer differ = new DexDiffer(baseMapping, newMapping);
+        DexDiffResult diff = differ.compare(baseDex, newDex);
+
+        // 只有 Foo（新版本中的 a.b）被修改
+        assertThat(diff.getModifiedClasses()).containsExactly("a.b");
+        assertThat(diff.getAddedClasses()).isEmpty();
+
+        DexFile newDexFile = DexFileFactory.loadDexFile(newDex, Opcodes.getDefault());
+        MappingRewriter rewriter = new MappingRewriter(baseMapping, newMapping);
+        rewriter.addHierarchy(newDexFile);
+        DexPacker packer = new DexPacker(Opcodes.getDefault());
+        packer.setRewriter(rewriter);
+        packer.addClasses(differ.collectPatchClasses(diff, newDexFile, false), diff);
+        List<File> patchDex = packer.pack(new File(dir, "patch"));
+
+        assertThat(patchDex).hasSize(1);
+        List<ClassDef> classes = new ArrayList<>(
+                DexFileFactory.loadDexFile(patchDex.get(0), Opcodes.getDefault()).getClasses());
+        assertThat(classes).hasSize(1);
+        ClassDef patched = classes.get(0);
+        assertThat(patched.getType()).isEqualTo("La/a;");
+
+        Map<String, Method> methods = new HashMap<>();
+        for (Method method : patched.getMethods()) {
+            methods.put(method.getName(), method);
+        }
+        // 已有方法使用基准混淆名，新增方法使用原始名
+        assertThat(methods.keySet()).containsExactlyInAnyOrder("a", "added");
+
+        List<String> references = new ArrayList<>();
+        for (Instruction instruction : methods.get("a").getImplementation().getInstructions()) {
+            if (instruction instanceof ReferenceInstruction) {
+                Object reference = ((ReferenceInstruction) instruction).getReference();
+                if (reference instanceof MethodReference) {
+                    MethodReference method = (MethodReference) reference;
+                    references.add(method.getDefiningClass() + "->" + method.getName());
+                } else if (reference instanceof FieldReference) {
+                    FieldReference field = (FieldReference) reference;
+                    references.add(field.getDefiningClass() + "->" + field.getName());
+                }
+            }
+        }
+        // 对 Bar 的引用指向基准中的 a.b 及其成员
+        assertThat(references).containsExactly("La/b;->a", "La/b;->b");
+    }
+
+    @Example
+    void identityWithoutMappings() {
+        MappingRewriter rewriter = new MappingRewriter(null, null);
+
+        assertThat(rewriter.isIdentity()).isTrue();
+        assertThat(rewriter.rewriteType("[Lcom/x/Foo;")).isEqualTo("[Lcom/x/Foo;");
+        assertThat(rewriter.rewriteType("I")).isEqualTo("I");
+    }
+
+    /**
+     * Foo.run() 读取 Bar.count 后调用 Bar.helper()
+     */
+    private static ClassDef foo(String type, String run, String barType, String helper, String count,
+                                String added) {
+        List<ImmutableInstruction> instructions = Arrays.asList(
+                new ImmutableInstruction21c(Opcode.SGET, 0,
+                        new ImmutableFieldReference(barType, count, "I")),
+                new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+                        new ImmutableMethodReference(barType, helper, Collections.<CharSequence>emptyList(), "V")),
+                new ImmutableInstruction10x(Opcode.RETURN_VOID));
+        List<ImmutableMethod> methods = new ArrayList<>();
+        methods.add(method(type, run, instructions, 1));
+        if (added != null) {
+            methods.add(method(type, added,
+                    Collections.singletonList(new ImmutableInstruction10x(Opcode.RETURN_VOID)), 0));
+        }
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                null, null, null, null, methods);
+    }
+
+    private static ClassDef bar(String type, String count, String helper) {
+        List<ImmutableField> fields = Collections.singletonList(
+                new ImmutableField(type, count, "I", PUBLIC_STATIC, null, null, null));
+        List<ImmutableMethod> methods = Collections.singletonList(method(type, helper,
+                Collections.singletonList(new ImmutableInstruction10x(Opcode.RETURN_VOID)), 0));
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                null, null, null, fields, methods);
+    }
+
+    private static ImmutableMethod method(String type, String name, List<ImmutableInstruction> instructions,
+                                          int registers) {
+        return new ImmutableMethod(type, name, (Iterable<MethodParameter>) null, "V", PUBLIC_STATIC, null, null,
+                new ImmutableMethodImplementation(registers, instructions, null, null));
+    }
+
+    private static File writeDex(File file, ClassDef... classes) throws IOException {
+        DexPool.writeTo(new FileDataStore(file),
+                new ImmutableDexFile(Opcodes.getDefault(), Arrays.asList(classes)));
+        return file;
+    }
+
+    private static File write(File file, String... lines) throws IOException {
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+}
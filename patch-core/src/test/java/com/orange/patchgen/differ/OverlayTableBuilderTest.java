@@ -0,0 +1,99 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Example;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * OverlayTableBuilder 往返测试：由两个小资源表生成覆盖资源表，再重新解析
+ */
+class OverlayTableBuilderTest {
+
+    private static final int PACKAGE_ID = 0x7f;
+    private static final String PACKAGE_NAME = "com.orange.demo";
+
+    @Example
+    void overlayKeepsOnlyChangedEntries() throws Exception {
+        File dir = Files.createTempDirectory("overlay-table").toFile();
+        File base = new TestResourceTable(PACKAGE_ID, PACKAGE_NAME)
+                .string("string", "app_name", "Demo")
+                .string("string", "title", "Hello")
+                .integer("integer", "max_count", 3)
+                .integer("integer", "min_count", 1)
+                .string("layout", "main", "res/layout/main.xml")
+                .write(new File(dir, "base.arsc"));
+        // app_name 和 max_count 的值变化；layout/main 条目不变但文件内容有变化
+        File target = new TestResourceTable(PACKAGE_ID, PACKAGE_NAME)
+                .string("string", "app_name", "Demo 2")
+                .string("string", "title", "Hello")
+                .integer("integer", "max_count", 5)
+                .integer("integer", "min_count", 1)
+                .string("layout", "main", "res/layout/main.xml")
+                .write(new File(dir, "new.arsc"));
+        File overlay = new File(dir, "overlay.arsc");
+
+        int entries = OverlayTableBuilder.build(base, target,
+                Collections.singleton("res/layout/main.xml"), overlay);
+
+        assertThat(entries).isEqualTo(3);
+        ResourceIdTable table = ResourceIdTable.load(overlay);
+        assertThat(table.size()).isEqualTo(3);
+        // 条目保持新版本中的 ID
+        assertThat(table.getName(0x7f010000)).isEqualTo("string/app_name");
+        assertThat(table.getName(0x7f020000)).isEqualTo("integer/max_count");
+        assertThat(table.getName(0x7f030000)).isEqualTo("layout/main");
+        assertThat(table.getName(0x7f010001)).isNull();
+        assertThat(table.getName(0x7f020001)).isNull();
+
+        // 字符串池只保留写出条目引用的字符串，索引按新池重映射
+        Map<String, Object> values = TestResourceTable.readValues(overlay);
+        assertThat(values).containsOnly(
+                Map.entry("string/app_name", "Demo 2"),
+                Map.entry("integer/max_count", 5),
+                Map.entry("layout/main", "res/layout/main.xml"));
+        assertThat(new String(Files.readAllBytes(overlay.toPath()), StandardCharsets.UTF_8))
+                .doesNotContain("Hello").doesNotContain("min_count");
+    }
+
+    @Example
+    void reorderedStringPoolIsNotAChange() throws Exception {
+        File dir = Files.createTempDirectory("overlay-table").toFile();
+        File base = new TestResourceTable(PACKAGE_ID, PACKAGE_NAME)
+                .string("string", "app_name", "Demo")
+                .string("string", "title", "Hello")
+                .write(new File(dir, "base.arsc"));
+        // 全局字符串池中多了两个字符串且 Hello 排在 Demo 之前，条目引用的索引不同但内容相同；
+        // 只有 title 的值真正变化
+        File target = new TestResourceTable(PACKAGE_ID, PACKAGE_NAME)
+                .leadingStrings("Hello", "unused")
+                .string("string", "app_name", "Demo")
+                .string("string", "title", "Hello!")
+                .write(new File(dir, "new.arsc"));
+        File overlay = new File(dir, "overlay.arsc");
+
+        int entries = OverlayTableBuilder.build(base, target, Collections.emptySet(), overlay);
+
+        assertThat(entries).isEqualTo(1);
+        assertThat(TestResourceTable.readValues(overlay)).containsOnly(Map.entry("string/title", "Hello!"));
+    }
+
+    @Example
+    void unchangedTableWritesNothing() throws Exception {
+        File dir = Files.createTempDirectory("overlay-table").toFile();
+        TestResourceTable table = new TestResourceTable(PACKAGE_ID, PACKAGE_NAME)
+                .string("string", "app_name", "Demo")
+                .integer("integer", "max_count", 3);
+        File base = table.write(new File(dir, "base.arsc"));
+        File target = table.write(new File(dir, "new.arsc"));
+        File overlay = new File(dir, "overlay.arsc");
+
+        assertThat(OverlayTableBuilder.build(base, target, Collections.emptySet(), overlay)).isZero();
+        assertThat(overlay).doesNotExist();
+    }
+}
@@ -0,0 +1,75 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ProguardMapping 解析测试
+ */
+class ProguardMappingTest {
+
+    @Example
+    void sameClassInlineFrameResolvesToOuterMethod() throws IOException {
+        ProguardMapping mapping = load(
+                "com.example.Foo -> a.a:",
+                "    1:1:void helper():20:20 -> a",
+                "    1:1:void run():10 -> a",
+                "    2:3:void run():11:12 -> a");
+
+        assertThat(mapping.findOriginalMethodName("a.a", "a", Collections.<String>emptyList())).isEqualTo("run");
+        assertThat(mapping.findObfuscatedMethodName("com.example.Foo", "run", Collections.<String>emptyList()))
+                .isEqualTo("a");
+        // 只以内联帧出现的方法在基准中不存在
+        assertThat(mapping.findObfuscatedMethodName("com.example.Foo", "helper", Collections.<String>emptyList()))
+                .isNull();
+    }
+
+    @Example
+    void otherClassInlineFrameIsIgnored() throws IOException {
+        ProguardMapping mapping = load(
+                "com.example.Foo -> a.a:",
+                "    1:1:void com.example.Bar.log():5:5 -> b",
+                "    1:1:void start():30 -> b");
+
+        assertThat(mapping.findOriginalMethodName("a.a", "b", Collections.<String>emptyList())).isEqualTo("start");
+    }
+
+    @Example
+    void entryWithoutLineRangeWins() throws IOException {
+        ProguardMapping mapping = load(
+                "com.example.Foo -> a.a:",
+                "    1:1:void inlined(int):7:7 -> c",
+                "    1:1:void other(int):3 -> c",
+                "    void stop(int) -> c");
+
+        assertThat(mapping.findOriginalMethodName("a.a", "c", Arrays.asList("int"))).isEqualTo("stop");
+    }
+
+    @Example
+    void reverseLookupOfClassesAndFields() throws IOException {
+        ProguardMapping mapping = load(
+                "com.example.Foo -> a.a:",
+                "    int count -> a",
+                "com.example.Bar -> a.b:");
+
+        assertThat(mapping.obfuscatedClassName("com.example.Bar")).isEqualTo("a.b");
+        assertThat(mapping.obfuscatedClassName("com.example.Missing")).isEqualTo("com.example.Missing");
+        assertThat(mapping.findObfuscatedFieldName("com.example.Foo", "count")).isEqualTo("a");
+        assertThat(mapping.originalFieldName("a.a", "a")).isEqualTo("count");
+    }
+
+    static ProguardMapping load(String... lines) throws IOException {
+        File file = File.createTempFile("mapping", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+        return ProguardMapping.load(file);
+    }
+}
@@ -0,0 +1,47 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Example;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ResourceIdTable 解析和 --stable-ids 导出测试
+ */
+class ResourceIdTableTest {
+
+    @Example
+    void resolvesIdsAndWritesStableIds() throws Exception {
+        File dir = Files.createTempDirectory("resource-id-table").toFile();
+        File arsc = new TestResourceTable(0x7f, "com.orange.demo")
+                .string("string", "app_name", "Demo")
+                .string("string", "title", "Hello")
+                .integer("integer", "max_count", 3)
+                .write(new File(dir, "resources.arsc"));
+
+        ResourceIdTable table = ResourceIdTable.load(arsc);
+
+        assertThat(table.size()).isEqualTo(3);
+        assertThat(table.getName(0x7f010000)).isEqualTo("string/app_name");
+        assertThat(table.getName(0x7f010001)).isEqualTo("string/title");
+        assertThat(table.getName(0x7f020000)).isEqualTo("integer/max_count");
+        assertThat(table.getName(0x7f020001)).isNull();
+
+        File stableIds = new File(dir, "out/stable-ids.txt");
+        table.writeStableIds(stableIds);
+
+        assertThat(Files.readAllLines(stableIds.toPath(), StandardCharsets.UTF_8)).containsExactly(
+                "com.orange.demo:string/app_name = 0x7f010000",
+                "com.orange.demo:string/title = 0x7f010001",
+                "com.orange.demo:integer/max_count = 0x7f020000");
+    }
+
+    @Example
+    void missingTableIsEmpty() throws Exception {
+        assertThat(ResourceIdTable.load(null)).isSameAs(ResourceIdTable.EMPTY);
+        assertThat(ResourceIdTable.load(new File("missing-resources.arsc")).isEmpty()).isTrue();
+    }
+}
@@ -0,0 +1,202 @@
+package com.orange.patchgen.differ;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 测试用的最小 resources.arsc：单个包，每个类型一个默认配置的稠密 ResTable_type，条目都是简单值
+ *
+ * 类型 ID 按首次出现的顺序从 1 开始分配，条目索引按添加顺序分配；字符串值放在全局字符串池（UTF-8）。
+ */
+class TestResourceTable {
+
+    static final int TYPE_INT_DEC = 0x10;
+    static final int TYPE_STRING = 0x03;
+
+    private static final int CONFIG_SIZE = 64;
+    private static final int PACKAGE_HEADER_SIZE = 288;
+
+    private final int packageId;
+    private final String packageName;
+    /** 类型名 -> (键名 -> 值) */
+    private final Map<String, Map<String, Object>> types = new LinkedHashMap<>();
+    /** 排在全局字符串池最前面的字符串 */
+    private final List<String> leadingStrings = new ArrayList<>();
+
+    TestResourceTable(int packageId, String packageName) {
+        this.packageId = packageId;
+        this.packageName = packageName;
+    }
+
+    TestResourceTable string(String type, String name, String value) {
+        types.computeIfAbsent(type, k -> new LinkedHashMap<>()).put(name, value);
+        return this;
+    }
+
+    TestResourceTable integer(String type, String name, int value) {
+        types.computeIfAbsent(type, k -> new LinkedHashMap<>()).put(name, value);
+        return this;
+    }
+
+    /**
+     * 在全局字符串池最前面放入字符串，改变条目引用的字符串索引
+     */
+    TestResourceTable leadingStrings(String... strings) {
+        leadingStrings.addAll(Arrays.asList(strings));
+        return this;
+    }
+
+    File write(File file) throws IOException {
+        List<String> globalStrings = new ArrayList<>(leadingStrings);
+        List<String> keyStrings = new ArrayList<>();
+        for (Map<String, Object> entries : types.values()) {
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                if (!keyStrings.contains(entry.getKey())) {
+                    keyStrings.add(entry.getKey());
+                }
+                if (entry.getValue() instanceof String && !globalStrings.contains(entry.getValue())) {
+                    globalStrings.add((String) entry.getValue());
+                }
+            }
+        }
+
+        byte[] typePool = stringPool(new ArrayList<>(types.keySet()));
+        byte[] keyPool = stringPool(keyStrings);
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        int typeId = 1;
+        for (Map<String, Object> entries : types.values()) {
+            chunks.write(typeSpec(typeId, entries.size()));
+            chunks.write(type(typeId++, entries, keyStrings, globalStrings));
+        }
+
+        int packageSize = PACKAGE_HEADER_SIZE + typePool.length + keyPool.length + chunks.size();
+        ByteBuffer header = buffer(PACKAGE_HEADER_SIZE);
+        header.putShort((short) 0x0200).putShort((short) PACKAGE_HEADER_SIZE).putInt(packageSize).putInt(packageId);
+        for (int i = 0; i < 128; i++) {
+            header.putChar(i < packageName.length() ? packageName.charAt(i) : 0);
+        }
+        header.putInt(PACKAGE_HEADER_SIZE).putInt(types.size())
+                .putInt(PACKAGE_HEADER_SIZE + typePool.length).putInt(keyStrings.size()).putInt(0);
+
+        byte[] globalPool = stringPool(globalStrings);
+        ByteBuffer table = buffer(12);
+        table.putShort((short) 0x0002).putShort((short) 12).putInt(12 + globalPool.length + packageSize).putInt(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(table.array());
+        out.write(globalPool);
+        out.write(header.array());
+        out.write(typePool);
+        out.write(keyPool);
+        chunks.writeTo(out);
+        Files.write(file.toPath(), out.toByteArray());
+        return file;
+    }
+
+    /**
+     * 读出资源表中的条目值：type/name -> 字符串值或整数值，只支持本类写出的稠密类型块
+     */
+    static Map<String, Object> readValues(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = buffer.getShort(2) & 0xFFFF;
+        ResourceIdTable.StringPool globalPool = new ResourceIdTable.StringPool(buffer, offset);
+        offset += buffer.getInt(offset + 4);
+
+        Map<String, Object> values = new HashMap<>();
+        int packageEnd = offset + buffer.getInt(offset + 4);
+        ResourceIdTable.StringPool typePool = new ResourceIdTable.StringPool(buffer, offset + buffer.getInt(offset + 268));
+        ResourceIdTable.StringPool keyPool = new ResourceIdTable.StringPool(buffer, offset + buffer.getInt(offset + 276));
+        for (int chunk = offset + (buffer.getShort(offset + 2) & 0xFFFF); chunk < packageEnd;
+             chunk += buffer.getInt(chunk + 4)) {
+            if ((buffer.getShort(chunk) & 0xFFFF) != 0x0201) {
+                continue;
+            }
+            String typeName = typePool.get((buffer.get(chunk + 8) & 0xFF) - 1);
+            int entriesStart = chunk + buffer.getInt(chunk + 16);
+            int offsets = chunk + (buffer.getShort(chunk + 2) & 0xFFFF);
+            for (int i = 0; i < buffer.getInt(chunk + 12); i++) {
+                int entryOffset = buffer.getInt(offsets + i * 4);
+                if (entryOffset == 0xFFFFFFFF) {
+                    continue;
+                }
+                int entry = entriesStart + entryOffset;
+                int dataType = buffer.get(entry + 11) & 0xFF;
+                int data = buffer.getInt(entry + 12);
+                values.put(typeName + "/" + keyPool.get(buffer.getInt(entry + 4)),
+                        dataType == TYPE_STRING ? globalPool.get(data) : (Object) data);
+            }
+        }
+        return values;
+    }
+
+    private static byte[] typeSpec(int typeId, int entryCount) {
+        ByteBuffer spec = buffer(16 + entryCount * 4);
+        spec.putShort((short) 0x0202).putShort((short) 16).putInt(spec.capacity())
+                .put((byte) typeId).put((byte) 0).putShort((short) 0).putInt(entryCount);
+        return spec.array();
+    }
+
+    private static byte[] type(int typeId, Map<String, Object> entries, List<String> keyStrings,
+                                 List<String> globalStrings) {
+        int headerSize = 20 + CONFIG_SIZE;
+        int entriesStart = headerSize + entries.size() * 4;
+        ByteBuffer type = buffer(entriesStart + entries.size() * 16);
+        type.putShort((short) 0x0201).putShort((short) headerSize).putInt(type.capacity())
+                .put((byte) typeId).put((byte) 0).putShort((short) 0)
+                .putInt(entries.size()).putInt(entriesStart).putInt(CONFIG_SIZE);
+        type.position(headerSize);
+        for (int i = 0; i < entries.size(); i++) {
+            type.putInt(i * 16);
+        }
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            boolean string = entry.getValue() instanceof String;
+            type.putShort((short) 8).putShort((short) 0).putInt(keyStrings.indexOf(entry.getKey()))
+                    .putShort((short) 8).put((byte) 0).put((byte) (string ? TYPE_STRING : TYPE_INT_DEC))
+                    .putInt(string ? globalStrings.indexOf(entry.getValue()) : (Integer) entry.getValue());
+        }
+        return type.array();
+    }
+
+    /**
+     * UTF-8 ResStringPool（字符串都短于 128 字节）
+     */
+    private static byte[] stringPool(List<String> strings) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            offsets[i] = data.size();
+            data.write(strings.get(i).length());
+            data.write(bytes.length);
+            data.write(bytes, 0, bytes.length);
+            data.write(0);
+        }
+        while (data.size() % 4 != 0) {
+            data.write(0);
+        }
+        int stringsStart = 28 + strings.size() * 4;
+        ByteBuffer pool = buffer(stringsStart + data.size());
+        pool.putShort((short) 0x0001).putShort((short) 28).putInt(pool.capacity())
+                .putInt(strings.size()).putInt(0).putInt(1 << 8).putInt(stringsStart).putInt(0);
+        for (int offset : offsets) {
+            pool.putInt(offset);
+        }
+        pool.put(data.toByteArray());
+        return pool.array();
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -8,10 +8,17 @@ import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
@@ -56,6 +63,11 @@ public class PatchEncryptor {
     private static final int GCM_TAG_LENGTH = 128; // 128 bits for GCM auth tag
     private static final int AES_KEY_SIZE = 256;   // 256 bits for AES key
     
+    // 分段加密参数（与 update 模块的 SegmentedAead 保持一致）
+    private static final byte[] SEGMENT_MAGIC = {'H', 'U', 'S', 'E', 'G', '0', '0', '1'};
+    private static final int SEGMENT_HEADER_LENGTH = 24;
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    
     private final Context context;
     private KeyStore keyStore;
     
@@ -200,29 +212,11 @@ public class PatchEncryptor {
             // 从密码派生密钥
             SecretKey key = deriveKeyFromPassword(password);
             
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 读取原始文件
-            byte[] plainData = readFileBytes(patchFile);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(plainData);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 写入加密文件：IV + 加密数据（包含 auth tag）
-            try (FileOutputStream fos = new FileOutputStream(encryptedFile)) {
-                fos.write(iv);
-                fos.write(encryptedData);
-            }
-            
+            // 分段流式加密
+            encryptFileSegmented(patchFile, encryptedFile, key);
             return encryptedFile;
             
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Failed to encrypt patch file with password", e);
             // 清理失败的加密文件
             if (encryptedFile.exists()) {
@@ -266,7 +260,7 @@ public class PatchEncryptor {
     
     /**
      * 加密补丁文件（使用 KeyStore 密钥）
-     * 使用 AES-256-GCM 加密，输出格式：[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]
+     * 使用分段 AES-256-GCM 加密，格式见 {@link #encryptFileSegmented}
      * 
      * @param patchFile 原始补丁文件
      * @return 加密后的文件（.enc 扩展名）
@@ -284,29 +278,11 @@ public class PatchEncryptor {
             // 获取加密密钥
             SecretKey key = getOrCreateEncryptionKey();
             
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 读取原始文件
-            byte[] plainData = readFileBytes(patchFile);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(plainData);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 写入加密文件：IV + 加密数据（包含 auth tag）
-            try (FileOutputStream fos = new FileOutputStream(encryptedFile)) {
-                fos.write(iv);
-                fos.write(encryptedData);
-            }
-            
+            // 分段流式加密
+            encryptFileSegmented(patchFile, encryptedFile, key);
             return encryptedFile;
             
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Failed to encrypt patch file", e);
             // 清理失败的加密文件
             if (encryptedFile.exists()) {
@@ -358,28 +334,61 @@ public class PatchEncryptor {
     // ==================== 工具方法 ====================
     
     /**
-     * 读取文件内容为字节数组
+     * 分段流式加密文件，只占用一个分段大小的缓冲区
+     * 
+     * 格式与 update 模块的 SegmentedAead 一致（大端序）：
+     * <pre>
+     * 头部：byte[8] "HUSEG001" | uint32 分段大小 | uint32 分段数 | uint64 明文长度
+     * 分段：byte[12] IV | 密文 | byte[16] 认证标签
+     * </pre>
+     * 每段的附加认证数据为 头部 | uint32 段序号 | 是否最后一段(1 字节)。
      */
-    private byte[] readFileBytes(File file) throws IOException {
-        long fileLength = file.length();
-        if (fileLength > Integer.MAX_VALUE) {
-            throw new IOException("File too large: " + fileLength);
-        }
+    private void encryptFileSegmented(File patchFile, File encryptedFile, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        long plainLength = patchFile.length();
+        long count = Math.max(1, (plainLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        byte[] header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH)
+                .put(SEGMENT_MAGIC)
+                .putInt(SEGMENT_SIZE)
+                .putInt((int) count)
+                .putLong(plainLength)
+                .array();
         
-        byte[] data = new byte[(int) fileLength];
-        try (FileInputStream fis = new FileInputStream(file)) {
-            int offset = 0;
-            int remaining = data.length;
-            while (remaining > 0) {
-                int bytesRead = fis.read(data, offset, remaining);
-                if (bytesRead == -1) {
-                    throw new IOException("Unexpected end of file");
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+        byte[] plain = new byte[SEGMENT_SIZE];
+        byte[] sealed = new byte[SEGMENT_SIZE + GCM_TAG_LENGTH / 8];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(patchFile));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(encryptedFile))) {
+            out.write(header);
+            long remaining = plainLength;
+            for (int index = 0; index < count; index++) {
+                int length = (int) Math.min(SEGMENT_SIZE, remaining);
+                int offset = 0;
+                while (offset < length) {
+                    int read = in.read(plain, offset, length - offset);
+                    if (read == -1) {
+                        throw new EOFException("Unexpected end of file");
+                    }
+                    offset += read;
+                }
+                remaining -= length;
+                
+                // 不提供 IV，让 Cipher 为每段自动生成
+                cipher.init(Cipher.ENCRYPT_MODE, key);
+                cipher.updateAAD(ByteBuffer.allocate(SEGMENT_HEADER_LENGTH + 5)
+                        .put(header)
+                        .putInt(index)
+                        .put((byte) (index == count - 1 ? 1 : 0))
+                        .array());
+                int sealedLength = cipher.doFinal(plain, 0, length, sealed, 0);
+                byte[] iv = cipher.getIV();
+                if (iv == null || iv.length != GCM_IV_LENGTH) {
+                    throw new GeneralSecurityException("Unexpected GCM IV length");
                 }
-                offset += bytesRead;
-                remaining -= bytesRead;
+                out.write(iv);
+                out.write(sealed, 0, sealedLength);
             }
         }
-        return data;
     }
     
     /**
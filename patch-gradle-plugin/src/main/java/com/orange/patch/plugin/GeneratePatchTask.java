@@ -43,6 +43,20 @@ public abstract class GeneratePatchTask extends DefaultTask {
     @Optional
     public abstract RegularFileProperty getNewApk();
 
+    /**
+     * 基线版本 ProGuard/R8 mapping.txt
+     */
+    @InputFile
+    @Optional
+    public abstract RegularFileProperty getBaselineMapping();
+
+    /**
+     * 新版本 ProGuard/R8 mapping.txt
+     */
+    @InputFile
+    @Optional
+    public abstract RegularFileProperty getNewMapping();
+
     /**
      * 输出目录
      */
@@ -163,6 +177,12 @@ public abstract class GeneratePatchTask extends DefaultTask {
             if (signingConfig != null) {
                 builder.signingConfig(signingConfig);
             }
+            if (getBaselineMapping().isPresent()) {
+                builder.baseMapping(getBaselineMapping().getAsFile().get());
+            }
+            if (getNewMapping().isPresent()) {
+                builder.newMapping(getNewMapping().getAsFile().get());
+            }
             
             PatchGenerator generator = builder.build();
             
@@ -14,11 +14,14 @@ import java.io.File;
  * 定义 DSL 属性，支持以下配置：
  * - baselineApk: 基线 APK 路径
  * - newApk: 新版本 APK 路径（可选，Android 项目自动获取）
+ * - baselineMapping / newMapping: ProGuard/R8 mapping.txt（可选，开启混淆时建议配置）
  * - outputDir: 输出目录
  * - signing: 签名配置
  * - engine: 引擎类型 (auto, java, native)
  * - patchMode: 补丁模式 (full_dex, bsdiff)
  * - enabled: 是否启用
+ * - stableResourceIds: 新版本构建沿用基线 APK 的资源 ID（aapt2 --stable-ids），只改资源时
+ *   代码中内联的资源 ID 不移位，引用资源的类不会因此进入补丁（默认关闭）
  * 
  * Requirements: 7.3-7.6
  * 
@@ -50,6 +53,12 @@ public class PatchExtension {
     // 新版本 APK 路径（可选）
     private File newApk;
     
+    // 基线版本 mapping.txt（可选）
+    private File baselineMapping;
+    
+    // 新版本 mapping.txt（可选）
+    private File newMapping;
+    
     // 输出目录
     private File outputDir;
     
@@ -64,6 +73,9 @@ public class PatchExtension {
     
     // 是否启用
     private boolean enabled = true;
+    
+    // 是否沿用基线 APK 的资源 ID
+    private boolean stableResourceIds = false;
 
     public PatchExtension(Project project) {
         this.project = project;
@@ -103,6 +115,36 @@ public class PatchExtension {
         this.newApk = project.file(newApk);
     }
 
+    public File getBaselineMapping() {
+        return baselineMapping;
+    }
+
+    public void setBaselineMapping(File baselineMapping) {
+        this.baselineMapping = baselineMapping;
+    }
+
+    /**
+     * 支持 DSL 中使用 baselineMapping = file("path")
+     */
+    public void setBaselineMapping(Object baselineMapping) {
+        this.baselineMapping = project.file(baselineMapping);
+    }
+
+    public File getNewMapping() {
+        return newMapping;
+    }
+
+    public void setNewMapping(File newMapping) {
+        this.newMapping = newMapping;
+    }
+
+    /**
+     * 支持 DSL 中使用 newMapping = file("path")
+     */
+    public void setNewMapping(Object newMapping) {
+        this.newMapping = project.file(newMapping);
+    }
+
     public File getOutputDir() {
         return outputDir;
     }
@@ -160,6 +202,14 @@ public class PatchExtension {
         this.enabled = enabled;
     }
 
+    public boolean isStableResourceIds() {
+        return stableResourceIds;
+    }
+
+    public void setStableResourceIds(boolean stableResourceIds) {
+        this.stableResourceIds = stableResourceIds;
+    }
+
     // ==================== Validation ====================
 
     /**
@@ -176,6 +226,14 @@ public class PatchExtension {
             throw new IllegalStateException("baselineApk does not exist: " + baselineApk.getAbsolutePath());
         }
         
+        if (baselineMapping != null && !baselineMapping.exists()) {
+            throw new IllegalStateException("baselineMapping does not exist: " + baselineMapping.getAbsolutePath());
+        }
+        
+        if (newMapping != null && !newMapping.exists()) {
+            throw new IllegalStateException("newMapping does not exist: " + newMapping.getAbsolutePath());
+        }
+        
         if (outputDir == null) {
             throw new IllegalStateException("outputDir is not configured");
         }
@@ -1,9 +1,21 @@
 package com.orange.patch.plugin;
 
+import com.orange.patchgen.differ.ResourceIdTable;
+
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
 /**
  * Gradle 插件入口类
  * 
@@ -25,6 +37,10 @@ public class PatchPlugin implements Plugin<Project> {
         PatchExtension extension = project.getExtensions()
                 .create(EXTENSION_NAME, PatchExtension.class, project);
 
+        // 资源 ID 需要在 AGP 创建 variant 之前配置，不能放在 afterEvaluate 中
+        project.getPluginManager().withPlugin("com.android.application",
+                plugin -> configureStableResourceIds(project, extension));
+
         // 在项目评估完成后注册任务
         project.afterEvaluate(p -> {
             if (!extension.isEnabled()) {
@@ -118,6 +134,8 @@ public class PatchPlugin implements Plugin<Project> {
                 
                 // 设置任务属性
                 task.getBaselineApk().set(extension.getBaselineApk());
+                task.getBaselineMapping().set(extension.getBaselineMapping());
+                task.getNewMapping().set(extension.getNewMapping());
                 task.getOutputDir().set(extension.getOutputDir());
                 task.getEngine().set(extension.getEngine());
                 task.getPatchMode().set(extension.getPatchMode());
@@ -190,6 +208,8 @@ public class PatchPlugin implements Plugin<Project> {
             // 设置任务属性
             task.getBaselineApk().set(extension.getBaselineApk());
             task.getNewApk().set(extension.getNewApk());
+            task.getBaselineMapping().set(extension.getBaselineMapping());
+            task.getNewMapping().set(extension.getNewMapping());
             task.getOutputDir().set(extension.getOutputDir());
             task.getEngine().set(extension.getEngine());
             task.getPatchMode().set(extension.getPatchMode());
@@ -207,6 +227,105 @@ public class PatchPlugin implements Plugin<Project> {
         project.getLogger().info("Registered task: {}", taskName);
     }
 
+    /**
+     * 新版本构建沿用基线 APK 的资源 ID
+     * 
+     * 在 androidComponents.finalizeDsl 中（构建脚本已执行、variant 尚未创建）从基线 APK 的
+     * resources.arsc 导出 aapt2 --stable-ids 文件，并加入 androidResources.additionalParameters。
+     * AGP 7.0 以下没有 androidComponents，只打印警告。
+     */
+    private void configureStableResourceIds(Project project, PatchExtension extension) {
+        Logger logger = project.getLogger();
+        Object components = project.getExtensions().findByName("androidComponents");
+        java.lang.reflect.Method finalizeDsl = null;
+        if (components != null) {
+            for (java.lang.reflect.Method method : components.getClass().getMethods()) {
+                if ("finalizeDsl".equals(method.getName()) && method.getParameterCount() == 1
+                        && method.getParameterTypes()[0] == Action.class) {
+                    finalizeDsl = method;
+                    break;
+                }
+            }
+        }
+        if (finalizeDsl == null) {
+            project.afterEvaluate(p -> {
+                if (extension.isEnabled() && extension.isStableResourceIds()) {
+                    logger.warn("stableResourceIds requires AGP 7.0+, resource IDs are not pinned");
+                }
+            });
+            return;
+        }
+
+        Action<Object> action = dsl -> {
+            if (!extension.isEnabled() || !extension.isStableResourceIds()) {
+                return;
+            }
+            File baselineApk = extension.getBaselineApk();
+            if (baselineApk == null || !baselineApk.isFile()) {
+                logger.warn("stableResourceIds: baselineApk is not configured, resource IDs are not pinned");
+                return;
+            }
+            File stableIds = new File(project.getBuildDir(), "intermediates/patch/stable-ids.txt");
+            try {
+                if (!writeStableIds(baselineApk, stableIds)) {
+                    logger.warn("stableResourceIds: baseline APK has no resources.arsc");
+                    return;
+                }
+                Object resources = invokeFirst(dsl, "getAndroidResources", "getAaptOptions");
+                @SuppressWarnings("unchecked")
+                Collection<String> parameters = (Collection<String>) invokeFirst(resources, "getAdditionalParameters");
+                parameters.add("--stable-ids");
+                parameters.add(stableIds.getAbsolutePath());
+                logger.info("Pinned resource IDs to baseline APK: {}", stableIds);
+            } catch (Exception e) {
+                logger.warn("stableResourceIds: failed to pin resource IDs: {}", e.getMessage());
+            }
+        };
+        try {
+            finalizeDsl.invoke(components, action);
+        } catch (Exception e) {
+            logger.warn("Failed to register stableResourceIds: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从 APK 的 resources.arsc 导出 aapt2 --stable-ids 文件
+     * 
+     * @return APK 中没有 resources.arsc 时返回 false
+     */
+    private static boolean writeStableIds(File apk, File output) throws IOException {
+        File arsc = File.createTempFile("baseline", ".arsc");
+        try {
+            try (ZipFile zip = new ZipFile(apk)) {
+                ZipEntry entry = zip.getEntry("resources.arsc");
+                if (entry == null) {
+                    return false;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    Files.copy(in, arsc.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            ResourceIdTable.load(arsc).writeStableIds(output);
+            return true;
+        } finally {
+            arsc.delete();
+        }
+    }
+
+    /**
+     * 依次尝试调用无参方法，返回第一个存在的方法的结果
+     */
+    private static Object invokeFirst(Object target, String... methodNames) throws Exception {
+        for (String name : methodNames) {
+            try {
+                return target.getClass().getMethod(name).invoke(target);
+            } catch (NoSuchMethodException e) {
+                // 尝试下一个
+            }
+        }
+        throw new NoSuchMethodException(target.getClass().getName() + "." + methodNames[0]);
+    }
+
     /**
      * 首字母大写
      */
@@ -0,0 +1,214 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 检查更新结果缓存
+ *
+ * 大部分启动得到的都是"没有更新"，缓存最近一次响应以减少对服务器的请求：
+ * - 新鲜期由服务器的 Cache-Control: max-age 决定，期内直接返回缓存，不发请求
+ * - 过期后带 If-None-Match（ETag）条件请求，服务器返回 304 时复用缓存的响应体
+ * - 请求失败（网络错误、5xx、429）后按指数退避 + 随机抖动推迟下次请求，
+ *   退避期内有缓存时返回旧结果，避免大量客户端同时重试形成请求风暴；服务器的 Retry-After 优先
+ *
+ * 缓存和退避状态持久化在 SharedPreferences 中，跨进程冷启动有效。
+ * 只保存一条记录，请求参数（如当前补丁版本）变化时自动失效。
+ */
+public class CheckResultCache {
+
+    private static final String TAG = "CheckResultCache";
+
+    private static final String PREFS_NAME = "update_check_cache";
+    private static final String KEY_REQUEST = "request_key";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+    private static final String KEY_STORED_AT = "stored_at";
+    private static final String KEY_FAILURE_COUNT = "failure_count";
+    private static final String KEY_RETRY_AT = "retry_at";
+
+    /** 服务器给出的新鲜期上限，防止错误配置导致长时间不检查 */
+    static final long MAX_TTL_MS = 24L * 60 * 60 * 1000;
+    /** 首次失败后的退避时间 */
+    static final long BASE_BACKOFF_MS = 30 * 1000;
+    /** 退避时间上限 */
+    static final long MAX_BACKOFF_MS = 6L * 60 * 60 * 1000;
+
+    /** 响应不可缓存（Cache-Control: no-store） */
+    static final long NO_STORE = -1;
+
+    private final SharedPreferences prefs;
+    private final Random random = new Random();
+
+    /**
+     * 缓存的检查结果
+     */
+    static final class Entry {
+        final String body;
+        final String etag;
+        final long expiresAt;
+        final long storedAt;
+
+        Entry(String body, String etag, long expiresAt, long storedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.storedAt = storedAt;
+        }
+
+        /**
+         * 是否在新鲜期内（系统时间被回拨到保存时间之前时视为过期）
+         */
+        boolean isFresh(long now) {
+            return now >= storedAt && now < expiresAt;
+        }
+    }
+
+    public CheckResultCache(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 获取与请求匹配的缓存
+     * @param requestKey 请求标识（URL + 请求体）
+     * @return 缓存记录，没有或请求不匹配时返回 null
+     */
+    synchronized Entry get(String requestKey) {
+        if (!requestKey.equals(prefs.getString(KEY_REQUEST, null))) {
+            return null;
+        }
+        String body = prefs.getString(KEY_BODY, null);
+        if (body == null) {
+            return null;
+        }
+        return new Entry(body, prefs.getString(KEY_ETAG, null),
+                prefs.getLong(KEY_EXPIRES_AT, 0), prefs.getLong(KEY_STORED_AT, 0));
+    }
+
+    /**
+     * 保存成功的响应，并清除退避状态
+     * @param maxAgeMs 新鲜期（毫秒），{@link #NO_STORE} 表示不缓存
+     */
+    synchronized void put(String requestKey, String body, String etag, long maxAgeMs) {
+        SharedPreferences.Editor editor = prefs.edit()
+                .remove(KEY_FAILURE_COUNT)
+                .remove(KEY_RETRY_AT);
+        if (maxAgeMs == NO_STORE) {
+            editor.remove(KEY_REQUEST).remove(KEY_BODY).remove(KEY_ETAG)
+                    .remove(KEY_EXPIRES_AT).remove(KEY_STORED_AT);
+        } else {
+            long now = System.currentTimeMillis();
+            editor.putString(KEY_REQUEST, requestKey)
+                    .putString(KEY_BODY, body)
+                    .putString(KEY_ETAG, etag)
+                    .putLong(KEY_STORED_AT, now)
+                    .putLong(KEY_EXPIRES_AT, now + Math.min(maxAgeMs, MAX_TTL_MS));
+        }
+        editor.apply();
+    }
+
+    /**
+     * 条件请求返回 304：刷新新鲜期，保留原响应体
+     */
+    synchronized void onRevalidated(long maxAgeMs) {
+        long now = System.currentTimeMillis();
+        prefs.edit()
+                .remove(KEY_FAILURE_COUNT)
+                .remove(KEY_RETRY_AT)
+                .putLong(KEY_STORED_AT, now)
+                .putLong(KEY_EXPIRES_AT, now + Math.min(Math.max(0, maxAgeMs), MAX_TTL_MS))
+                .apply();
+    }
+
+    /**
+     * 记录一次失败并计算下次允许请求的时间
+     * @param retryAfterMs 服务器 Retry-After 指定的等待时间，没有时传 -1
+     * @return 退避时间（毫秒）
+     */
+    synchronized long onFailure(long retryAfterMs) {
+        int failures = prefs.getInt(KEY_FAILURE_COUNT, 0) + 1;
+        long delay;
+        if (retryAfterMs >= 0) {
+            delay = Math.min(retryAfterMs, MAX_BACKOFF_MS);
+        } else {
+            long exp = BASE_BACKOFF_MS << Math.min(failures - 1, 20);
+            long capped = Math.min(exp, MAX_BACKOFF_MS);
+            // 在 [capped/2, capped) 之间随机，打散同时失败的客户端
+            delay = capped / 2 + (long) (random.nextDouble() * (capped / 2));
+        }
+        prefs.edit()
+                .putInt(KEY_FAILURE_COUNT, failures)
+                .putLong(KEY_RETRY_AT, System.currentTimeMillis() + delay)
+                .apply();
+        Log.w(TAG, "Update check failed " + failures + " time(s), backing off " + delay + "ms");
+        return delay;
+    }
+
+    /**
+     * 退避剩余时间
+     * @return 距离下次允许请求的毫秒数，不在退避期时返回 0
+     */
+    synchronized long getBackoffRemaining() {
+        long retryAt = prefs.getLong(KEY_RETRY_AT, 0);
+        long now = System.currentTimeMillis();
+        if (retryAt <= now || retryAt - now > MAX_BACKOFF_MS) {
+            return 0;
+        }
+        return retryAt - now;
+    }
+
+    /**
+     * 清除缓存和退避状态（下次检查必定请求服务器）
+     */
+    public synchronized void clear() {
+        prefs.edit().clear().apply();
+    }
+
+    /**
+     * 解析 Cache-Control 中的新鲜期
+     * @return 新鲜期（毫秒）；没有 max-age 或 no-cache 时返回 0（只做条件请求）；no-store 返回 {@link #NO_STORE}
+     */
+    static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        long maxAge = 0;
+        for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store")) {
+                return NO_STORE;
+            }
+            if (directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    maxAge = 0;
+                }
+            }
+        }
+        return Math.max(0, maxAge);
+    }
+
+    /**
+     * 解析 Retry-After（秒数形式）
+     * @return 等待时间（毫秒），没有或无法解析时返回 -1
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.orange.update;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分块并行下载器
+ *
+ * 服务器在补丁旁发布分块哈希清单（&lt;补丁 URL&gt;.chunks.json，由 patch-cli --chunk-manifest 生成）
+ * 且支持 Range 请求时，用多个连接并行下载不同的字节范围：
+ * - 每个分块下载完成后立即用清单中的 SHA-256 校验，只重新下载校验失败的分块
+ * - 每个连接一次请求的分块数按实测吞吐自适应调整（目标约 2 秒一个请求），减少慢网络下的重传量
+ * - 断点续传时先校验目标文件中已有的分块，只下载缺失或损坏的部分，不盲目追加
+ *
+ * 没有清单或服务器不支持 Range 时回退到 {@link PatchDownloader} 的单连接下载。
+ */
+public class ChunkedDownloader {
+
+    private static final String TAG = "ChunkedDownloader";
+
+    private static final String MANIFEST_SUFFIX = ".chunks.json";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int MANIFEST_VERSION = 1;
+    private static final int MAX_MANIFEST_SIZE = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+    private static final int MAX_CHUNKS_PER_REQUEST = 16;
+    private static final long TARGET_REQUEST_MILLIS = 2000;
+
+    private final UpdateConfig config;
+    private final PatchDownloader fallbackDownloader;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final Set<HttpURLConnection> activeConnections =
+            Collections.synchronizedSet(new HashSet<HttpURLConnection>());
+
+    /**
+     * 构造函数
+     * @param config SDK 配置
+     */
+    public ChunkedDownloader(UpdateConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("UpdateConfig cannot be null");
+        }
+        this.config = config;
+        this.fallbackDownloader = new PatchDownloader(config);
+    }
+
+    /**
+     * 分块哈希清单
+     */
+    public static final class Manifest {
+        private final int chunkSize;
+        private final long totalSize;
+        private final List<String> chunkHashes;
+
+        Manifest(int chunkSize, long totalSize, List<String> chunkHashes) {
+            this.chunkSize = chunkSize;
+            this.totalSize = totalSize;
+            this.chunkHashes = chunkHashes;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        public int getChunkCount() {
+            return chunkHashes.size();
+        }
+
+        long chunkStart(int index) {
+            return (long) index * chunkSize;
+        }
+
+        int chunkLength(int index) {
+            return (int) (Math.min(totalSize, chunkStart(index) + chunkSize) - chunkStart(index));
+        }
+    }
+
+    /**
+     * 下载文件：可用时分块并行下载，否则回退到单连接下载
+     * @param downloadUrl 下载地址
+     * @param targetFile 目标文件
+     * @param callback 下载回调
+     */
+    public void download(String downloadUrl, File targetFile, DownloadCallback callback) {
+        Manifest manifest = prepare(downloadUrl);
+        if (manifest == null) {
+            fallbackDownloader.download(downloadUrl, targetFile, callback);
+            return;
+        }
+        download(downloadUrl, manifest, targetFile, callback);
+    }
+
+    /**
+     * 获取分块哈希清单并确认服务器支持 Range 请求
+     * @param downloadUrl 补丁下载地址
+     * @return 清单，不能分块下载时返回 null
+     */
+    public Manifest prepare(String downloadUrl) {
+        if (downloadUrl == null || downloadUrl.isEmpty()) {
+            return null;
+        }
+        try {
+            Manifest manifest = fetchManifest(downloadUrl);
+            if (manifest == null) {
+                Log.d(TAG, "No chunk manifest, using single stream download");
+                return null;
+            }
+            if (!probeRangeSupport(downloadUrl, manifest.totalSize)) {
+                Log.d(TAG, "Server does not support ranges, using single stream download");
+                return null;
+            }
+            return manifest;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Chunked download not available: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按清单分块并行下载
+     * @param downloadUrl 下载地址
+     * @param manifest 分块哈希清单（{@link #prepare(String)} 的返回值）
+     * @param targetFile 目标文件，已存在时校验并复用其中有效的分块
+     * @param callback 下载回调
+     */
+    public void download(String downloadUrl, Manifest manifest, File targetFile, DownloadCallback callback) {
+        if (manifest == null || targetFile == null) {
+            notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, "Invalid download arguments");
+            return;
+        }
+        cancelled.set(false);
+
+        File parentDir = targetFile.getParentFile();
+        if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+            notifyError(callback, UpdateErrorCode.ERROR_FILE_WRITE_FAILED,
+                    "Failed to create directory: " + parentDir.getAbsolutePath());
+            return;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(targetFile, "rw")) {
+            FileChannel channel = file.getChannel();
+
+            // 校验已有数据，只下载缺失或损坏的分块
+            long existingLength = file.length();
+            file.setLength(manifest.totalSize);
+            ChunkQueue queue = new ChunkQueue();
+            long verifiedBytes = 0;
+            for (int i = 0; i < manifest.getChunkCount(); i++) {
+                long end = manifest.chunkStart(i) + manifest.chunkLength(i);
+                if (end <= existingLength && verifyChunk(channel, manifest, i)) {
+                    verifiedBytes += manifest.chunkLength(i);
+                } else {
+                    queue.add(i);
+                }
+            }
+            if (verifiedBytes > 0) {
+                Log.d(TAG, "Resuming chunked download, " + verifiedBytes + " bytes already verified");
+            }
+
+            DownloadState state = new DownloadState(downloadUrl, manifest, channel, queue, callback, verifiedBytes);
+            notifyProgress(callback, verifiedBytes, manifest.totalSize);
+
+            int workerCount = Math.max(1, Math.min(config.getDownloadConnections(), queue.size()));
+            List<Thread> workers = new ArrayList<>(workerCount);
+            for (int i = 0; i < workerCount && !queue.isEmpty(); i++) {
+                Thread worker = new Thread(new Worker(state), "patch-download-" + i);
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            if (cancelled.get()) {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, "Download cancelled");
+            } else if (state.failure != null) {
+                notifyError(callback, state.failureCode, state.failure);
+            } else {
+                channel.force(false);
+                Log.d(TAG, "Chunked download completed: " + targetFile.getAbsolutePath());
+                notifyProgress(callback, manifest.totalSize, manifest.totalSize);
+                notifySuccess(callback, targetFile);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, "Download interrupted");
+        } catch (IOException e) {
+            Log.e(TAG, "Chunked download failed", e);
+            notifyError(callback, UpdateErrorCode.ERROR_FILE_WRITE_FAILED,
+                    "Download failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 取消当前下载
+     */
+    public void cancel() {
+        cancelled.set(true);
+        fallbackDownloader.cancel();
+        synchronized (activeConnections) {
+            for (HttpURLConnection connection : activeConnections) {
+                try {
+                    connection.disconnect();
+                } catch (Exception e) {
+                    Log.w(TAG, "Error disconnecting", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 下载线程：每次领取若干相邻分块，用一个 Range 请求下载并逐块校验
+     */
+    private final class Worker implements Runnable {
+        private final DownloadState state;
+        private int chunksPerRequest = 1;
+
+        Worker(DownloadState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void run() {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!cancelled.get() && state.failure == null) {
+                int[] range = state.queue.take(chunksPerRequest);
+                if (range == null) {
+                    return;
+                }
+                long startTime = System.currentTimeMillis();
+                int completed = fetchRange(range[0], range[1], digest, buffer);
+                adjustChunksPerRequest(completed, System.currentTimeMillis() - startTime);
+            }
+        }
+
+        /**
+         * @return 本次请求成功写入（无论校验是否通过）的分块数
+         */
+        private int fetchRange(int firstChunk, int count, MessageDigest digest, byte[] buffer) {
+            Manifest manifest = state.manifest;
+            long start = manifest.chunkStart(firstChunk);
+            long end = manifest.chunkStart(firstChunk + count - 1) + manifest.chunkLength(firstChunk + count - 1);
+            int chunk = firstChunk;
+            HttpURLConnection connection = null;
+            try {
+                connection = openConnection(state.url);
+                connection.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+                connection.connect();
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    // 探测时支持 Range，之后却返回完整内容（如 CDN 回源），无法继续分块下载
+                    state.fail(UpdateErrorCode.ERROR_SERVER_ERROR,
+                            "Unexpected response for range request: " + responseCode);
+                    return 0;
+                }
+
+                try (InputStream in = connection.getInputStream()) {
+                    for (; chunk < firstChunk + count; chunk++) {
+                        if (cancelled.get()) {
+                            state.queue.requeue(chunk, firstChunk + count);
+                            return chunk - firstChunk;
+                        }
+                        long position = manifest.chunkStart(chunk);
+                        int remaining = manifest.chunkLength(chunk);
+                        digest.reset();
+                        while (remaining > 0) {
+                            int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                            if (read == -1) {
+                                throw new IOException("Connection closed before chunk " + chunk + " completed");
+                            }
+                            digest.update(buffer, 0, read);
+                            ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                            while (data.hasRemaining()) {
+                                position += state.channel.write(data, position);
+                            }
+                            remaining -= read;
+                        }
+                        state.onChunkDownloaded(chunk, Md5Utils.toHex(digest.digest()));
+                    }
+                }
+                return count;
+            } catch (IOException e) {
+                if (!cancelled.get()) {
+                    Log.w(TAG, "Range request failed at chunk " + chunk + ": " + e.getMessage());
+                    state.onChunkFailed(chunk, "Download failed: " + e.getMessage());
+                }
+                // 未开始的分块直接放回队列
+                state.queue.requeue(chunk + 1, firstChunk + count);
+                return chunk - firstChunk;
+            } finally {
+                if (connection != null) {
+                    activeConnections.remove(connection);
+                    connection.disconnect();
+                }
+            }
+        }
+
+        /**
+         * 按本次请求的吞吐调整下次请求的分块数，使一个请求大约耗时 TARGET_REQUEST_MILLIS
+         */
+        private void adjustChunksPerRequest(int completedChunks, long elapsedMillis) {
+            if (completedChunks <= 0) {
+                chunksPerRequest = 1;
+                return;
+            }
+            long bytes = (long) completedChunks * state.manifest.chunkSize;
+            long bytesPerTarget = bytes * TARGET_REQUEST_MILLIS / Math.max(1, elapsedMillis);
+            int next = (int) Math.min(MAX_CHUNKS_PER_REQUEST, Math.max(1, bytesPerTarget / state.manifest.chunkSize));
+            // 每次最多翻倍，避免一次测量偏差导致请求过大
+            chunksPerRequest = Math.min(next, chunksPerRequest * 2);
+        }
+    }
+
+    /**
+     * 一次分块下载的共享状态
+     */
+    private final class DownloadState {
+        final String url;
+        final Manifest manifest;
+        final FileChannel channel;
+        final ChunkQueue queue;
+        final DownloadCallback callback;
+        final AtomicLong verifiedBytes;
+        final int[] attempts;
+        volatile String failure;
+        volatile int failureCode;
+
+        DownloadState(String url, Manifest manifest, FileChannel channel, ChunkQueue queue,
+                      DownloadCallback callback, long verifiedBytes) {
+            this.url = url;
+            this.manifest = manifest;
+            this.channel = channel;
+            this.queue = queue;
+            this.callback = callback;
+            this.verifiedBytes = new AtomicLong(verifiedBytes);
+            this.attempts = new int[manifest.getChunkCount()];
+        }
+
+        void onChunkDownloaded(int chunk, String hash) {
+            if (hash.equalsIgnoreCase(manifest.chunkHashes.get(chunk))) {
+                long current = verifiedBytes.addAndGet(manifest.chunkLength(chunk));
+                notifyProgress(callback, current, manifest.totalSize);
+            } else {
+                Log.w(TAG, "Chunk " + chunk + " failed verification, re-fetching");
+                onChunkFailed(chunk, "Chunk " + chunk + " checksum mismatch");
+            }
+        }
+
+        void onChunkFailed(int chunk, String message) {
+            boolean retry;
+            synchronized (attempts) {
+                retry = ++attempts[chunk] < MAX_CHUNK_ATTEMPTS;
+            }
+            if (retry) {
+                queue.add(chunk);
+            } else {
+                fail(message.contains("checksum") ? UpdateErrorCode.ERROR_CHECKSUM_MISMATCH
+                        : UpdateErrorCode.ERROR_DOWNLOAD_FAILED, message);
+            }
+        }
+
+        void fail(int errorCode, String message) {
+            synchronized (this) {
+                if (failure == null) {
+                    failureCode = errorCode;
+                    failure = message;
+                }
+            }
+        }
+    }
+
+    /**
+     * 待下载分块队列，按序号领取相邻分块
+     */
+    private static final class ChunkQueue {
+        private final TreeSet<Integer> pending = new TreeSet<>();
+
+        synchronized void add(int chunk) {
+            pending.add(chunk);
+        }
+
+        synchronized void requeue(int fromChunk, int toChunk) {
+            for (int i = fromChunk; i < toChunk; i++) {
+                pending.add(i);
+            }
+        }
+
+        synchronized boolean isEmpty() {
+            return pending.isEmpty();
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        /**
+         * 领取最多 maxCount 个相邻分块
+         * @return {起始分块, 分块数}，队列为空时返回 null
+         */
+        synchronized int[] take(int maxCount) {
+            if (pending.isEmpty()) {
+                return null;
+            }
+            int first = pending.pollFirst();
+            int count = 1;
+            while (count < maxCount && pending.remove(first + count)) {
+                count++;
+            }
+            return new int[]{first, count};
+        }
+    }
+
+    private Manifest fetchManifest(String downloadUrl) throws IOException, JSONException {
+        HttpURLConnection connection = openConnection(manifestUrl(downloadUrl));
+        try {
+            connection.connect();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    if (out.size() > MAX_MANIFEST_SIZE) {
+                        throw new IOException("Chunk manifest too large");
+                    }
+                }
+            }
+            return parseManifest(new JSONObject(out.toString("UTF-8")));
+        } finally {
+            activeConnections.remove(connection);
+            connection.disconnect();
+        }
+    }
+
+    private static Manifest parseManifest(JSONObject json) throws JSONException {
+        if (json.optInt("version", 0) != MANIFEST_VERSION
+                || !HASH_ALGORITHM.equalsIgnoreCase(json.optString("algorithm"))) {
+            Log.w(TAG, "Unsupported chunk manifest: " + json.optInt("version") + "/" + json.optString("algorithm"));
+            return null;
+        }
+        int chunkSize = json.getInt("chunkSize");
+        long totalSize = json.getLong("totalSize");
+        JSONArray chunks = json.getJSONArray("chunks");
+        long expectedCount = Math.max(1, (totalSize + chunkSize - 1) / Math.max(1, chunkSize));
+        if (chunkSize <= 0 || totalSize < 0 || chunks.length() != expectedCount) {
+            Log.w(TAG, "Invalid chunk manifest");
+            return null;
+        }
+        List<String> hashes = new ArrayList<>(chunks.length());
+        for (int i = 0; i < chunks.length(); i++) {
+            hashes.add(chunks.getString(i));
+        }
+        return new Manifest(chunkSize, totalSize, hashes);
+    }
+
+    /**
+     * 用 Range: bytes=0-0 探测是否支持范围请求，并确认文件大小与清单一致
+     */
+    private boolean probeRangeSupport(String downloadUrl, long expectedSize) throws IOException {
+        HttpURLConnection connection = openConnection(downloadUrl);
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            connection.connect();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                return false;
+            }
+            // Content-Range: bytes 0-0/<total>
+            String contentRange = connection.getHeaderField("Content-Range");
+            int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+            if (slash < 0) {
+                return false;
+            }
+            long total = Long.parseLong(contentRange.substring(slash + 1).trim());
+            if (total != expectedSize) {
+                Log.w(TAG, "Chunk manifest size " + expectedSize + " does not match server size " + total);
+                return false;
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            activeConnections.remove(connection);
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(config.getConnectTimeout());
+        connection.setReadTimeout(config.getReadTimeout());
+        connection.setRequestMethod("GET");
+        // 避免透明压缩导致字节范围与原始文件不一致
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        activeConnections.add(connection);
+        if (cancelled.get()) {
+            connection.disconnect();
+            throw new IOException("Download cancelled");
+        }
+        return connection;
+    }
+
+    /**
+     * 清单地址：在路径后追加 .chunks.json（保留查询参数）
+     */
+    private static String manifestUrl(String downloadUrl) {
+        int query = downloadUrl.indexOf('?');
+        if (query < 0) {
+            return downloadUrl + MANIFEST_SUFFIX;
+        }
+        return downloadUrl.substring(0, query) + MANIFEST_SUFFIX + downloadUrl.substring(query);
+    }
+
+    private static boolean verifyChunk(FileChannel channel, Manifest manifest, int chunk) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = manifest.chunkStart(chunk);
+        long end = position + manifest.chunkLength(chunk);
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return false;
+            }
+            digest.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return Md5Utils.toHex(digest.digest()).equalsIgnoreCase(manifest.chunkHashes.get(chunk));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private void notifyProgress(DownloadCallback callback, long current, long total) {
+        if (callback != null) {
+            synchronized (this) {
+                try {
+                    callback.onProgress(current, total);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error in progress callback", e);
+                }
+            }
+        }
+    }
+
+    private void notifySuccess(DownloadCallback callback, File file) {
+        if (callback != null) {
+            try {
+                callback.onSuccess(file);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in success callback", e);
+            }
+        }
+    }
+
+    private void notifyError(DownloadCallback callback, int errorCode, String message) {
+        if (callback != null) {
+            try {
+                callback.onError(errorCode, message);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in error callback", e);
+            }
+        }
+    }
+}
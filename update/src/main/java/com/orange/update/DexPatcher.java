@@ -1,6 +1,7 @@
 package com.orange.update;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.util.Log;
 
@@ -39,6 +40,16 @@ public class DexPatcher {
     private static final String FIELD_NATIVE_LIBRARY_DIRECTORIES = "nativeLibraryDirectories";
     private static final String FIELD_NATIVE_LIBRARY_PATH_ELEMENTS = "nativeLibraryPathElements";
     
+    // Android 10+ 代码缓存目录中的补丁副本：patch_<补丁哈希>.zip
+    private static final String CODE_CACHE_PATCH_PREFIX = "patch_";
+    private static final String CODE_CACHE_PATCH_SUFFIX = ".zip";
+    // 副本的验证状态记录（PatchVerifiedState）键名前缀，后接副本文件名
+    private static final String KEY_CODE_CACHE_COPY_PREFIX = "code_cache_copy_";
+    
+    /** 本进程中已注入的补丁（补丁哈希或路径），用于 O(1) 判断是否已注入 */
+    private static final java.util.Set<String> INJECTED_PATCHES =
+            java.util.Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<String, Boolean>());
+    
     /**
      * 将补丁 dex 注入到当前 ClassLoader
      * 
@@ -47,6 +58,19 @@ public class DexPatcher {
      * @throws PatchException 如果注入失败
      */
     public static void injectPatchDex(Context context, String patchDexPath) throws PatchException {
+        injectPatchDex(context, patchDexPath, (String) null);
+    }
+    
+    /**
+     * 将补丁 dex 注入到当前 ClassLoader
+     * 
+     * @param context 应用上下文
+     * @param patchDexPath 补丁 dex 文件路径
+     * @param patchHash 补丁内容哈希（可选），Android 10+ 用于复用代码缓存目录中的副本；
+     *                  为 null 时使用文件大小和修改时间作为键
+     * @throws PatchException 如果注入失败
+     */
+    public static void injectPatchDex(Context context, String patchDexPath, String patchHash) throws PatchException {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
@@ -61,7 +85,7 @@ public class DexPatcher {
         }
         
         File optimizedDir = getOptimizedDir(context);
-        injectPatchDex(context, patchDexPath, optimizedDir);
+        injectPatchDex(context, patchDexPath, optimizedDir, patchHash);
     }
     
     /**
@@ -74,6 +98,20 @@ public class DexPatcher {
      */
     public static void injectPatchDex(Context context, String patchDexPath, File optimizedDir) 
             throws PatchException {
+        injectPatchDex(context, patchDexPath, optimizedDir, null);
+    }
+    
+    /**
+     * 将补丁 dex 注入到当前 ClassLoader
+     * 
+     * @param context 应用上下文
+     * @param patchDexPath 补丁 dex 文件路径
+     * @param optimizedDir dex 优化输出目录
+     * @param patchHash 补丁内容哈希（可选）
+     * @throws PatchException 如果注入失败
+     */
+    public static void injectPatchDex(Context context, String patchDexPath, File optimizedDir, String patchHash) 
+            throws PatchException {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
@@ -102,7 +140,7 @@ public class DexPatcher {
             
             if (sdkVersion >= Build.VERSION_CODES.Q) {
                 // Android 10+ (API 29+)
-                injectPatchForQ(context, patchDexPath, optimizedDir);
+                injectPatchForQ(context, patchDexPath, optimizedDir, patchHash);
             } else if (sdkVersion >= Build.VERSION_CODES.N) {
                 // Android 7.0+ (API 24+)
                 injectPatchForN(context, patchDexPath, optimizedDir);
@@ -111,6 +149,7 @@ public class DexPatcher {
                 injectPatchStandard(context, patchDexPath, optimizedDir);
             }
             
+            markInjected(patchDexPath, patchHash);
             Log.i(TAG, "Patch dex injected successfully: " + patchDexPath);
             
         } catch (PatchException e) {
@@ -122,7 +161,100 @@ public class DexPatcher {
         }
     }
 
-    
+    /**
+     * 构建补丁的 dexElements，但不注入到当前 ClassLoader
+     *
+     * 与 {@link #installPatchElements(Context, Object[])} 配合使用：构建（Android 10+ 复制到代码缓存、
+     * 创建 DexClassLoader）可以在后台线程与补丁校验并发执行，校验通过后再在主线程安装。
+     *
+     * @param context 应用上下文
+     * @param patchDexPath 补丁 dex 文件路径
+     * @param optimizedDir dex 优化输出目录
+     * @param patchHash 补丁内容哈希（可选）
+     * @param prefs 保存代码缓存副本验证状态记录的 prefs（启动时为 {@link PatchStateStore#open(Context)} 返回的快照）
+     * @return 补丁的 dexElements
+     * @throws PatchException 如果构建失败
+     */
+    static Object[] loadPatchElements(Context context, String patchDexPath, File optimizedDir, String patchHash,
+                                      SharedPreferences prefs) throws PatchException {
+        File patchFile = new File(patchDexPath);
+        if (!patchFile.exists()) {
+            throw new PatchException(UpdateErrorCode.ERROR_FILE_NOT_FOUND,
+                    "Patch dex file not found: " + patchDexPath);
+        }
+        if (!optimizedDir.exists() && !optimizedDir.mkdirs()) {
+            throw new PatchException(UpdateErrorCode.ERROR_APPLY_FAILED,
+                    "Failed to create optimized directory: " + optimizedDir.getPath());
+        }
+
+        try {
+            String dexPath = patchDexPath;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                // Android 10+ 不允许从可写目录加载 DEX 文件
+                dexPath = prepareCodeCacheCopy(context, prefs, patchFile, patchHash).getAbsolutePath();
+            }
+
+            DexClassLoader patchClassLoader = new DexClassLoader(
+                    dexPath,
+                    optimizedDir.getAbsolutePath(),
+                    null,
+                    context.getClassLoader().getParent()
+            );
+            Object[] elements = getDexElements(getPathList(patchClassLoader));
+            logDexLayout(patchFile, elements.length);
+            return elements;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load patch dex elements", e);
+            throw new PatchException(UpdateErrorCode.ERROR_APPLY_FAILED,
+                    "Failed to load patch dex elements: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 记录补丁中的 dex 数量与实际加载情况
+     *
+     * 一个补丁文件对应一个 dex element，element 内按 classes.dex、classes2.dex ... 连续加载。
+     * 旧版本生成器按基准 dex 命名补丁 dex（如只有 classes3.dex），序号不连续的部分不会被加载。
+     */
+    private static void logDexLayout(File patchFile, int elementCount) {
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+        if (index == null) {
+            return;
+        }
+        int dexCount = index.getDexCount();
+        int loadable = index.getLoadableDexCount();
+        if (loadable < dexCount) {
+            Log.w(TAG, "Patch dex not consecutively named, only " + loadable + " of " + dexCount
+                    + " dex will load; regenerate the patch with the current generator");
+        } else {
+            Log.d(TAG, "Patch dex: " + dexCount + " dex in " + elementCount + " element(s)");
+        }
+    }
+
+    /**
+     * 将 {@link #loadPatchElements(Context, String, File, String, SharedPreferences)} 构建的补丁元素插入到当前 ClassLoader 的最前面
+     *
+     * @param context 应用上下文
+     * @param patchElements 补丁的 dexElements
+     * @param patchDexPath 补丁 dex 文件路径（记录为已注入）
+     * @param patchHash 补丁内容哈希（可选）
+     * @throws PatchException 如果注入失败
+     */
+    static void installPatchElements(Context context, Object[] patchElements, String patchDexPath,
+                                     String patchHash) throws PatchException {
+        try {
+            Object pathList = getPathList(context.getClassLoader());
+            Object[] oldElements = getDexElements(pathList);
+            setDexElements(pathList, combineArray(patchElements, oldElements));
+            markInjected(patchDexPath, patchHash);
+            Log.i(TAG, "Patch dex elements installed: " + patchElements.length);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to install patch dex elements", e);
+            throw new PatchException(UpdateErrorCode.ERROR_APPLY_FAILED,
+                    "Failed to install patch dex elements: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * 标准注入方案 (Android 5.0-6.0, API 21-23)
      */
@@ -148,6 +280,7 @@ public class DexPatcher {
         // 5. 获取补丁的 dexElements
         Object patchPathList = getPathList(patchClassLoader);
         Object[] patchElements = getDexElements(patchPathList);
+        logDexLayout(new File(patchDexPath), patchElements.length);
         
         // 6. 合并数组：补丁 dex 在前，原始 dex 在后
         Object[] newElements = combineArray(patchElements, oldElements);
@@ -180,6 +313,7 @@ public class DexPatcher {
         
         Object patchPathList = getPathList(patchClassLoader);
         Object[] patchElements = getDexElements(patchPathList);
+        logDexLayout(new File(patchDexPath), patchElements.length);
         
         // 合并数组
         Object[] newElements = combineArray(patchElements, oldElements);
@@ -192,21 +326,16 @@ public class DexPatcher {
      * Android 10+ 注入方案 (API 29+)
      * 需要处理非 SDK 接口限制和可写目录限制
      */
-    private static void injectPatchForQ(Context context, String patchDexPath, File optimizedDir) 
+    private static void injectPatchForQ(Context context, String patchDexPath, File optimizedDir, String patchHash) 
             throws Exception {
         // Android 10+ 不允许从可写目录加载 DEX 文件
         // 需要将补丁文件复制到代码缓存目录（只读）
         
-        File patchFile = new File(patchDexPath);
-        File codeCacheDir = context.getCodeCacheDir();
-        File readOnlyPatchFile = new File(codeCacheDir, "patch_" + System.currentTimeMillis() + ".zip");
-        
-        // 复制补丁文件到代码缓存目录
+        File readOnlyPatchFile;
         try {
-            copyFile(patchFile, readOnlyPatchFile);
-            // 设置为只读
-            readOnlyPatchFile.setReadOnly();
-            Log.d(TAG, "Copied patch to code cache dir: " + readOnlyPatchFile.getPath());
+            readOnlyPatchFile = prepareCodeCacheCopy(context,
+                    context.getSharedPreferences(PatchStateStore.PREFS_NAME, Context.MODE_PRIVATE),
+                    new File(patchDexPath), patchHash);
         } catch (Exception e) {
             Log.e(TAG, "Failed to copy patch file", e);
             throw new Exception("Failed to copy patch to code cache directory", e);
@@ -226,6 +355,7 @@ public class DexPatcher {
         
         Object patchPathList = getPathList(patchClassLoader);
         Object[] patchElements = getDexElements(patchPathList);
+        logDexLayout(new File(patchDexPath), patchElements.length);
         
         // 合并数组
         Object[] newElements = combineArray(patchElements, oldElements);
@@ -234,21 +364,229 @@ public class DexPatcher {
         Log.d(TAG, "Patch injected for Android Q+ from read-only location");
     }
     
+    /**
+     * 准备代码缓存目录中的只读补丁副本
+     * 
+     * 副本按补丁哈希命名。复制时计算实际写入字节的 SHA-256，连同副本和源文件的 stat 写入验证状态记录
+     * （{@link PatchVerifiedState}，HMAC 签名）。副本已存在且记录与副本、源文件都匹配时直接复用
+     * （不复制任何字节，ART 也能复用上次生成的 odex/vdex）；副本被改写、源文件被替换（如篡改后恢复）
+     * 或没有记录时删除副本及其编译产物，重新复制。
+     * 复制时先写临时文件再重命名，并清理旧副本及其编译产物。
+     * 保留当前副本和最近复制的另一个副本，对应 A/B 两个槽位，回滚后无需重新复制和编译。
+     * 记录键名以 code_cache_copy_ 开头，属于 {@link PatchStateStore} 的热字段，复用副本时不加载 prefs XML。
+     */
+    static synchronized File prepareCodeCacheCopy(Context context, SharedPreferences prefs, File patchFile,
+                                                  String patchHash) throws IOException {
+        File codeCacheDir = context.getCodeCacheDir();
+        String fileName = codeCacheFileName(patchFile, patchHash);
+        File readOnlyPatchFile = new File(codeCacheDir, fileName);
+        PatchVerifiedState copyState = new PatchVerifiedState(prefs, KEY_CODE_CACHE_COPY_PREFIX + fileName);
+        
+        if (readOnlyPatchFile.isFile()) {
+            String copiedSha256 = copyState.getSha256();
+            String source = sourceFingerprint(patchFile);
+            int state = copiedSha256 != null && source != null
+                    ? copyState.check(readOnlyPatchFile, source, copiedSha256)
+                    : PatchVerifiedState.STATE_ABSENT;
+            if (state == PatchVerifiedState.STATE_VALID || state == PatchVerifiedState.STATE_STALE) {
+                Log.d(TAG, "Reusing patch in code cache dir: " + readOnlyPatchFile.getPath());
+                // 不能修改副本的修改时间：记录绑定了副本的 stat，最近使用时间由 StorageQuota 记录
+                StorageQuota.recordUse(context, readOnlyPatchFile);
+                return readOnlyPatchFile;
+            }
+            // 副本可能不是当前补丁的字节，编译产物也不能再用
+            Log.w(TAG, "Patch copy in code cache dir does not match, copying again: " + fileName);
+            deleteCodeCacheCopy(context, fileName);
+        }
+        
+        File tempFile = new File(codeCacheDir, fileName + ".tmp");
+        String copiedSha256;
+        try {
+            copiedSha256 = copyFile(patchFile, tempFile);
+        } catch (Exception e) {
+            tempFile.delete();
+            throw new IOException("Failed to copy patch: " + e.getMessage(), e);
+        }
+        readOnlyPatchFile.delete();
+        if (!tempFile.renameTo(readOnlyPatchFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename patch copy: " + readOnlyPatchFile.getPath());
+        }
+        // 设置为只读（会更新 ctime，记录在此之后写入）
+        readOnlyPatchFile.setReadOnly();
+        String source = sourceFingerprint(patchFile);
+        if (source == null || !copyState.record(readOnlyPatchFile, source, copiedSha256, false)) {
+            copyState.clear();
+        }
+        Log.d(TAG, "Copied patch to code cache dir: " + readOnlyPatchFile.getPath());
+        
+        evictCodeCacheCopies(context, codeCacheDir, fileName);
+        StorageQuota.recordUse(context, readOnlyPatchFile);
+        return readOnlyPatchFile;
+    }
+    
+    /**
+     * 补丁在代码缓存目录中的副本文件名：patch_<补丁哈希>.zip，没有哈希时按长度和修改时间命名
+     */
+    private static String codeCacheFileName(File patchFile, String patchHash) {
+        String key = patchHash != null && !patchHash.isEmpty()
+                ? patchHash
+                : "m" + patchFile.length() + "_" + patchFile.lastModified();
+        return CODE_CACHE_PATCH_PREFIX + key + CODE_CACHE_PATCH_SUFFIX;
+    }
+    
+    /**
+     * 源文件的 stat 指纹（路径、大小、修改时间、ctime、inode），文件被替换或改写时变化
+     * 
+     * @return stat 失败时返回 null
+     */
+    private static String sourceFingerprint(File patchFile) {
+        try {
+            android.system.StructStat stat = android.system.Os.stat(patchFile.getAbsolutePath());
+            return patchFile.getAbsolutePath() + ":" + stat.st_size + ":" + stat.st_mtime + ":"
+                    + stat.st_ctime + ":" + stat.st_ino;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to stat patch file: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 清理代码缓存目录中的旧副本（保留当前副本和最近复制的另一个），
+     * 以及 ART 在 oat/<isa>/ 下为被清理副本生成的 odex/vdex/art
+     */
+    private static void evictCodeCacheCopies(Context context, File codeCacheDir, String keepFileName) {
+        java.util.Set<String> keepBaseNames = new java.util.HashSet<>();
+        keepBaseNames.add(baseName(keepFileName));
+        File previous = null;
+        File[] files = codeCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && name.startsWith(CODE_CACHE_PATCH_PREFIX) && name.endsWith(CODE_CACHE_PATCH_SUFFIX)
+                        && !name.equals(keepFileName)
+                        && (previous == null || file.lastModified() > previous.lastModified())) {
+                    previous = file;
+                }
+            }
+            if (previous != null) {
+                keepBaseNames.add(baseName(previous.getName()));
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && name.startsWith(CODE_CACHE_PATCH_PREFIX)
+                        && !name.equals(keepFileName) && !file.equals(previous)) {
+                    if (file.delete()) {
+                        new PatchVerifiedState(context, KEY_CODE_CACHE_COPY_PREFIX + name).clear();
+                        Log.d(TAG, "Evicted stale patch copy: " + name);
+                    }
+                }
+            }
+        }
+        
+        File[] isaDirs = new File(codeCacheDir, "oat").listFiles();
+        if (isaDirs != null) {
+            for (File isaDir : isaDirs) {
+                File[] artifacts = isaDir.listFiles();
+                if (artifacts == null) {
+                    continue;
+                }
+                for (File artifact : artifacts) {
+                    String name = artifact.getName();
+                    int dot = name.lastIndexOf('.');
+                    String baseName = dot > 0 ? name.substring(0, dot) : name;
+                    if (name.startsWith(CODE_CACHE_PATCH_PREFIX) && !keepBaseNames.contains(baseName)) {
+                        artifact.delete();
+                    }
+                }
+            }
+        }
+    }
+    
+    private static String baseName(String fileName) {
+        return fileName.substring(0, fileName.length() - CODE_CACHE_PATCH_SUFFIX.length());
+    }
+    
+    /**
+     * 是否为代码缓存目录中的补丁副本
+     */
+    static boolean isCodeCacheCopy(String fileName) {
+        return fileName.startsWith(CODE_CACHE_PATCH_PREFIX) && fileName.endsWith(CODE_CACHE_PATCH_SUFFIX);
+    }
+    
+    /**
+     * 列出 ART 在 oat/<isa>/ 下为补丁副本生成的 odex/vdex/art
+     */
+    static java.util.List<File> listCompiledArtifacts(File codeCacheDir, String fileName) {
+        java.util.List<File> result = new java.util.ArrayList<>();
+        String baseName = baseName(fileName);
+        File[] isaDirs = new File(codeCacheDir, "oat").listFiles();
+        if (isaDirs != null) {
+            for (File isaDir : isaDirs) {
+                File[] artifacts = isaDir.listFiles();
+                if (artifacts == null) {
+                    continue;
+                }
+                for (File artifact : artifacts) {
+                    String name = artifact.getName();
+                    if (name.startsWith(baseName + ".")) {
+                        result.add(artifact);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 删除补丁在代码缓存目录中的副本及其编译产物（补丁被篡改、恢复前使用）
+     * 
+     * @param patchFile 补丁文件
+     * @param patchHash 补丁哈希（可选），与 {@link #prepareCodeCacheCopy} 使用的相同
+     */
+    static void deleteCodeCacheCopy(Context context, File patchFile, String patchHash) {
+        deleteCodeCacheCopy(context, codeCacheFileName(patchFile, patchHash));
+    }
+    
+    /**
+     * 删除代码缓存目录中的补丁副本、编译产物及其验证状态记录（存储配额淘汰时使用）
+     */
+    static synchronized void deleteCodeCacheCopy(Context context, String fileName) {
+        File codeCacheDir = context.getCodeCacheDir();
+        for (File artifact : listCompiledArtifacts(codeCacheDir, fileName)) {
+            artifact.delete();
+        }
+        new PatchVerifiedState(context, KEY_CODE_CACHE_COPY_PREFIX + fileName).clear();
+        if (new File(codeCacheDir, fileName).delete()) {
+            Log.d(TAG, "Deleted patch copy: " + fileName);
+        }
+    }
+    
     /**
      * 复制文件
+     * 
+     * @return 写入字节的 SHA-256（十六进制）
      */
-    private static void copyFile(File source, File dest) throws Exception {
+    private static String copyFile(File source, File dest) throws Exception {
         java.io.FileInputStream fis = null;
         java.io.FileOutputStream fos = null;
         try {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
             fis = new java.io.FileInputStream(source);
             fos = new java.io.FileOutputStream(dest);
             byte[] buffer = new byte[8192];
             int length;
             while ((length = fis.read(buffer)) > 0) {
                 fos.write(buffer, 0, length);
+                digest.update(buffer, 0, length);
             }
             fos.flush();
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
         } finally {
             if (fis != null) {
                 try {
@@ -282,9 +620,7 @@ public class DexPatcher {
             throw new IllegalArgumentException("ClassLoader is not a BaseDexClassLoader");
         }
         
-        Field pathListField = BaseDexClassLoader.class.getDeclaredField(FIELD_PATH_LIST);
-        pathListField.setAccessible(true);
-        return pathListField.get(classLoader);
+        return dexField(BaseDexClassLoader.class, FIELD_PATH_LIST).get(classLoader);
     }
     
     /**
@@ -295,9 +631,7 @@ public class DexPatcher {
      * @throws Exception 如果反射失败
      */
     private static Object[] getDexElements(Object pathList) throws Exception {
-        Field dexElementsField = pathList.getClass().getDeclaredField(FIELD_DEX_ELEMENTS);
-        dexElementsField.setAccessible(true);
-        return (Object[]) dexElementsField.get(pathList);
+        return (Object[]) dexField(pathList.getClass(), FIELD_DEX_ELEMENTS).get(pathList);
     }
     
     /**
@@ -308,9 +642,19 @@ public class DexPatcher {
      * @throws Exception 如果反射失败
      */
     private static void setDexElements(Object pathList, Object[] dexElements) throws Exception {
-        Field dexElementsField = pathList.getClass().getDeclaredField(FIELD_DEX_ELEMENTS);
-        dexElementsField.setAccessible(true);
-        dexElementsField.set(pathList, dexElements);
+        dexField(pathList.getClass(), FIELD_DEX_ELEMENTS).set(pathList, dexElements);
+    }
+    
+    /**
+     * 从注册表获取 dex 注入需要的字段，ROM 缺少该字段时报告一次
+     */
+    private static Field dexField(Class<?> clazz, String name) throws NoSuchFieldException {
+        try {
+            return ReflectAccessors.field(clazz, name);
+        } catch (NoSuchFieldException e) {
+            ReflectAccessors.reportUnsupported(clazz.getSimpleName() + "." + name, e);
+            throw e;
+        }
     }
     
     /**
@@ -436,32 +780,48 @@ public class DexPatcher {
     /**
      * 检查补丁是否已经注入
      * 
+     * 注入成功时记录补丁路径（和哈希），这里只查记录，不遍历 dexElements。
+     * dexElements 不会在进程内被移除，记录与 ClassLoader 的实际状态一致。
+     * 
      * @param context 应用上下文
      * @param patchDexPath 补丁 dex 路径
      * @return 是否已注入
      */
     public static boolean isPatchInjected(Context context, String patchDexPath) {
-        try {
-            ClassLoader classLoader = context.getClassLoader();
-            Object pathList = getPathList(classLoader);
-            Object[] dexElements = getDexElements(pathList);
-            
-            File patchFile = new File(patchDexPath);
-            String patchName = patchFile.getName();
-            
-            for (Object element : dexElements) {
-                String elementStr = element.toString();
-                if (elementStr.contains(patchName)) {
-                    return true;
-                }
-            }
-            
-            return false;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to check patch injection status", e);
-            return false;
+        return isPatchInjected(context, patchDexPath, null);
+    }
+    
+    /**
+     * 检查补丁是否已经注入
+     * 
+     * @param context 应用上下文
+     * @param patchDexPath 补丁 dex 路径
+     * @param patchHash 补丁内容哈希（可选），已知时按哈希判断：两个槽位的补丁同名，
+     *                  同一路径在进程内也可能先后写入不同补丁
+     * @return 是否已注入
+     */
+    public static boolean isPatchInjected(Context context, String patchDexPath, String patchHash) {
+        if (patchHash != null && !patchHash.isEmpty()) {
+            return INJECTED_PATCHES.contains(hashIdentity(patchHash));
+        }
+        return patchDexPath != null && INJECTED_PATCHES.contains(pathIdentity(patchDexPath));
+    }
+    
+    private static void markInjected(String patchDexPath, String patchHash) {
+        if (patchDexPath != null) {
+            INJECTED_PATCHES.add(pathIdentity(patchDexPath));
         }
+        if (patchHash != null && !patchHash.isEmpty()) {
+            INJECTED_PATCHES.add(hashIdentity(patchHash));
+        }
+    }
+    
+    private static String pathIdentity(String patchDexPath) {
+        return "path:" + new File(patchDexPath).getAbsolutePath();
+    }
+    
+    private static String hashIdentity(String patchHash) {
+        return "sha256:" + patchHash;
     }
     
     /**
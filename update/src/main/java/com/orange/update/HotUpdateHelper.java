@@ -7,6 +7,10 @@ import android.util.Log;
 import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 热更新辅助类 - 提供简单易用的热更新 API
@@ -74,6 +78,23 @@ public class HotUpdateHelper {
     private static final String PREFS_SECURITY = "security_policy";
     private static final String KEY_REQUIRE_SIGNATURE = "require_signature";
     private static final String KEY_REQUIRE_ENCRYPTION = "require_encryption";
+    private static final String KEY_SELECTIVE_ZIP_DECRYPT = "selective_zip_decrypt";
+    
+    // 启动加载超时（毫秒），超时后按未打补丁的状态启动
+    public static final long DEFAULT_PATCH_LOAD_TIMEOUT_MS = 5000;
+    private volatile long patchLoadTimeoutMs = DEFAULT_PATCH_LOAD_TIMEOUT_MS;
+    
+    // 启动加载线程池的线程工厂：守护线程，超时放弃的任务不阻止进程退出
+    private static final ThreadFactory PATCH_LOAD_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "patch-load-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
     
     /**
      * 初始化单例实例（推荐在 Application.onCreate 中调用）
@@ -171,6 +192,18 @@ public class HotUpdateHelper {
     public static void setGlobalLogCallback(LogCallback callback) {
         globalLogCallback = callback;
     }
+
+    /**
+     * 设置性能指标监听器，为 null 时关闭采集（默认关闭）
+     * 
+     * 每次启动加载和应用补丁结束时回调一条 {@link PatchMetrics.Record}，
+     * 可用 {@link PatchMetrics.Record#toCompactString()} 序列化后批量上报。
+     * 
+     * @param listener 指标监听器
+     */
+    public static void setMetricsListener(PatchMetrics.Listener listener) {
+        PatchMetrics.setListener(listener);
+    }
     
     /**
      * 设置实例日志回调（仅当前实例使用）
@@ -349,12 +382,7 @@ public class HotUpdateHelper {
                     try {
                         // 解密 AES 加密的补丁（先尝试使用默认密钥）
                         tempDecryptedFile = new File(context.getCacheDir(), "temp_decrypt_" + System.currentTimeMillis() + ".zip");
-                        byte[] encryptedData = readFileToBytes(patchFile);
-                        byte[] decryptedData = securityManager.decrypt(encryptedData);
-                        
-                        java.io.FileOutputStream fos = new java.io.FileOutputStream(tempDecryptedFile);
-                        fos.write(decryptedData);
-                        fos.close();
+                        securityManager.decryptPatch(patchFile, tempDecryptedFile);
                         
                         actualPatchFile = tempDecryptedFile;
                         logD("✓ AES 解密成功（使用默认密钥）");
@@ -462,7 +490,7 @@ public class HotUpdateHelper {
                 // 4. 继续应用补丁流程
                 File finalTempFile = tempDecryptedFile;
                 try {
-                    applyPatchInternal(actualPatchFile, patchFile, callback);
+                    applyPatchInternal(actualPatchFile, patchFile, null, callback);
                 } finally {
                     // 清理临时解密文件
                     if (finalTempFile != null && finalTempFile.exists()) {
@@ -513,55 +541,19 @@ public class HotUpdateHelper {
             return false;
         }
         
-        // 检查文件魔数
-        try {
-            byte[] header = new byte[4];
-            java.io.FileInputStream fis = new java.io.FileInputStream(patchFile);
-            fis.read(header);
-            fis.close();
-            
-            // ZIP/APK 魔数: PK (0x50 0x4B)
-            if (header[0] == 0x50 && header[1] == 0x4B) {
-                return true;
-            }
-            
-            // DEX 魔数: dex\n (0x64 0x65 0x78 0x0A)
-            if (header[0] == 0x64 && header[1] == 0x65 && 
-                header[2] == 0x78 && header[3] == 0x0A) {
-                return false;
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to check patch file type", e);
-        }
-        
-        return false;
+        // 其他扩展名：能解析出中央目录的 ZIP/APK 可能包含资源，DEX 等其他格式不包含
+        return PatchArchiveIndex.of(patchFile) != null;
     }
     
     /**
      * 检查补丁是否包含 DEX 文件
      */
     private boolean hasDexPatch(File patchFile) {
-        try {
-            // 检查是否是 ZIP/APK 文件
-            java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.Enumeration<? extends java.util.zip.ZipEntry> entries = zipFile.entries();
-            
-            while (entries.hasMoreElements()) {
-                java.util.zip.ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                
-                // 检查是否有 .dex 文件
-                if (name.endsWith(".dex")) {
-                    zipFile.close();
-                    logD("✓ 检测到 DEX 文件: " + name);
-                    return true;
-                }
-            }
-            zipFile.close();
-        } catch (Exception e) {
-            logD("检查 DEX 文件失败: " + e.getMessage());
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+        if (index != null && index.hasDex()) {
+            logD("✓ 检测到 DEX 文件");
+            return true;
         }
-        
         return false;
     }
     
@@ -611,10 +603,13 @@ public class HotUpdateHelper {
      * 6. 加载完整资源包和 DEX 补丁
      */
     public void loadPatchIfNeeded() {
+        PatchMetrics.Session metrics = null;
+        boolean loaded = false;
         try {
             // 注意：在 attachBaseContext 中不能使用 getApplicationContext()
             // 因为 Application 还没有完全初始化，需要手动创建 SharedPreferences
-            android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
+            // 启动时的热字段从二进制快照读取，避免在启动线程上解析整个 prefs XML
+            android.content.SharedPreferences prefs = PatchStateStore.open(context);
             String appliedPatchId = prefs.getString("applied_patch_id", null);
 
             if (appliedPatchId == null || appliedPatchId.isEmpty()) {
@@ -623,26 +618,14 @@ public class HotUpdateHelper {
             }
 
             logD("Loading applied patch: " + appliedPatchId);
+            metrics = PatchMetrics.begin(PatchMetrics.KIND_STARTUP, appliedPatchId);
             
             // ✅ 检查 APK 版本是否变化（覆盖安装检测）
             try {
                 android.content.pm.PackageInfo packageInfo = context.getPackageManager()
                     .getPackageInfo(context.getPackageName(), 0);
                 
-                // 使用反射避免 D8/R8 生成合成类导致的 NoSuchMethodError
-                long currentVersionCode;
-                try {
-                    if (android.os.Build.VERSION.SDK_INT >= 28) { // API 28 = Android P
-                        // 使用反射调用 getLongVersionCode()
-                        java.lang.reflect.Method method = packageInfo.getClass().getMethod("getLongVersionCode");
-                        currentVersionCode = (Long) method.invoke(packageInfo);
-                    } else {
-                        currentVersionCode = packageInfo.versionCode;
-                    }
-                } catch (Exception e) {
-                    // 反射失败，使用旧方法
-                    currentVersionCode = packageInfo.versionCode;
-                }
+                long currentVersionCode = VersionUtils.getVersionCode(packageInfo);
                 
                 String currentVersionName = packageInfo.versionName;
                 
@@ -668,12 +651,12 @@ public class HotUpdateHelper {
                         logI("Clearing old patch due to APK update");
                         
                         // 获取已应用的补丁文件
-                        java.io.File updateDir = new java.io.File(context.getFilesDir(), "update");
-                        java.io.File appliedDir = new java.io.File(updateDir, "applied");
-                        java.io.File appliedFile = new java.io.File(appliedDir, "current_patch.zip");
+                        java.io.File appliedDir = PatchSlots.getActiveDir(context, prefs);
+                        java.io.File appliedFile = PatchSlots.getPatchFile(appliedDir);
                         
-                        // 清除旧补丁
+                        // 清除旧补丁（两个槽位都是基于旧 APK 的补丁）
                         clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+                        PatchSlots.clearInactiveSlot(context, prefs);
                         
                         // 更新保存的版本信息
                         prefs.edit()
@@ -690,134 +673,359 @@ public class HotUpdateHelper {
                 // 继续加载补丁，不因版本检查失败而中断
             }
 
-            // 获取已应用的补丁文件
-            java.io.File updateDir = new java.io.File(context.getFilesDir(), "update");
-            java.io.File appliedDir = new java.io.File(updateDir, "applied");
-            java.io.File appliedFile = new java.io.File(appliedDir, "current_patch.zip");
+            // 获取已应用的补丁文件（活动槽位）
+            PatchSlots.migrateLegacyLayout(context);
+            java.io.File appliedDir = PatchSlots.getActiveDir(context, prefs);
+            java.io.File appliedFile = PatchSlots.getPatchFile(appliedDir);
 
             if (!appliedFile.exists()) {
                 logW("Applied patch file not found: " + appliedFile.getAbsolutePath());
                 return;
             }
 
-            // ✅ 验证补丁完整性（防止篡改）
-            if (!verifyPatchIntegrity(appliedFile, prefs)) {
-                logE("⚠️ Patch integrity verification failed");
-
-                // 尝试恢复
-                if (!recoverPatch(appliedPatchId, appliedFile, prefs)) {
-                    logE("⚠️ Patch recovery failed, patch has been cleared");
+            // ✅ 验证状态记录有效时跳过完整校验（SHA-256 + 签名），只做 stat + HMAC
+            PatchVerifiedState verifiedState = new PatchVerifiedState(prefs, PatchVerifiedState.KEY_VERIFIED_STATE);
+            int state = verifiedState.check(appliedFile, appliedPatchId, prefs.getString("applied_patch_hash", null));
+            boolean fullVerify = state != PatchVerifiedState.STATE_VALID && state != PatchVerifiedState.STATE_STALE;
+            if (!fullVerify) {
+                boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
+                if (requireSignature && !verifiedState.hasSignature()) {
+                    logE("⚠️ 安全策略要求补丁必须签名，但当前补丁没有签名！");
+                    clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+                    logE("⚠️ 已清除不符合安全策略的补丁");
                     return;
                 }
+                logD("✅ 补丁验证状态有效，跳过完整校验");
+                PatchMetrics.hit(metrics, PatchMetrics.HIT_VERIFIED_STATE);
+                if (state == PatchVerifiedState.STATE_STALE) {
+                    scheduleBackgroundVerification(appliedFile, appliedPatchId);
+                }
             }
-            
-            // ✅ APK 签名验证（启动时验证）- 使用 apksig
-            // 检查安全策略是否要求签名
-            boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
-            
-            // 检查补丁在应用时是否有签名（防止攻击者删除签名文件）
-            boolean hadSignatureWhenApplied = prefs.getBoolean("patch_had_signature", false);
-            boolean hasSignatureNow = hasApkSignatureInternal(appliedFile);
-            
-            // 漏洞修复1：如果安全策略要求签名，但补丁没有签名，拒绝加载
-            if (requireSignature && !hasSignatureNow) {
-                logE("⚠️ 安全策略要求补丁必须签名，但当前补丁没有签名！");
-                clearPatchCompletely(prefs, appliedFile, appliedPatchId);
-                logE("⚠️ 已清除不符合安全策略的补丁");
+
+            if (!loadAppliedPatchConcurrently(prefs, appliedFile, appliedPatchId, appliedDir, fullVerify, metrics)) {
                 return;
             }
-            
-            // 漏洞修复2：如果补丁应用时有签名，但现在没有了，说明被删除了
-            if (hadSignatureWhenApplied && !hasSignatureNow) {
-                logE("⚠️ 安全警告：补丁签名文件被删除！这是一次攻击行为。");
-                clearPatchCompletely(prefs, appliedFile, appliedPatchId);
-                logE("⚠️ 已清除被篡改的补丁");
-                return;
+
+            loaded = true;
+            logI("✅ Patch loading completed with integrity verification");
+            // 后台增量核对存储占用，不影响启动
+            StorageQuota.getInstance(context).trim();
+
+        } catch (Exception e) {
+            logE("Failed to load patch in attachBaseContext", e);
+        } finally {
+            PatchMetrics.finish(metrics, loaded);
+        }
+    }
+    
+    /**
+     * 并发加载已应用的补丁
+     * 
+     * SHA-256 完整性校验、签名验证和补丁 dexElements 构建（含 ZIP 解密、Android 10+ 代码缓存副本）
+     * 互不依赖，放到小线程池中同时执行；补丁元素在校验通过前只构建不安装，校验失败时直接丢弃。
+     * 主线程只在有顺序要求的地方等待：替换 dexElements 之前等待校验结果和补丁元素，资源替换在 dex 注入之后。
+     * 超过 {@link #setPatchLoadTimeout(long)} 仍未完成时放弃本次加载，应用按未打补丁的状态启动。
+     * 
+     * @param fullVerify 是否需要完整校验（验证状态记录无效时）
+     * @param metrics 指标采集会话，未启用时为 null
+     * @return 补丁已加载返回 true；补丁被清除、解密失败或超时返回 false
+     */
+    private boolean loadAppliedPatchConcurrently(android.content.SharedPreferences prefs, java.io.File appliedFile,
+                                                 String appliedPatchId, java.io.File appliedDir,
+                                                 boolean fullVerify, PatchMetrics.Session metrics) throws Exception {
+        String patchHash = prefs.getString("applied_patch_hash", null);
+        long timeoutMs = patchLoadTimeoutMs;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        ExecutorService pool = Executors.newFixedThreadPool(fullVerify ? 3 : 1, PATCH_LOAD_THREAD_FACTORY);
+        Future<Boolean> integrity = null;
+        Future<SignatureCheck> signature = null;
+        Future<PreparedDex> dex;
+        PreparedDex prepared;
+        try {
+            if (fullVerify) {
+                integrity = pool.submit(() -> {
+                    long start = PatchMetrics.start(metrics);
+                    boolean valid = verifyPatchIntegrity(appliedFile, prefs);
+                    PatchMetrics.end(metrics, PatchMetrics.PHASE_INTEGRITY, start);
+                    PatchMetrics.addBytes(metrics, appliedFile);
+                    return valid;
+                });
+                signature = pool.submit(() -> {
+                    long start = PatchMetrics.start(metrics);
+                    SignatureCheck check = checkPatchSignature(appliedFile, prefs);
+                    PatchMetrics.end(metrics, PatchMetrics.PHASE_SIGNATURE, start);
+                    if (check.present) {
+                        PatchMetrics.addBytes(metrics, appliedFile);
+                    }
+                    return check;
+                });
             }
-            
-            // 如果补丁有签名，验证签名
-            if (hasSignatureNow) {
-                logD("检测到 APK 签名，开始验证...");
-                boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(appliedFile);
-                
-                if (!signatureValid) {
-                    logE("⚠️ APK 签名验证失败: " + patchSigner.getError());
-                    clearPatchCompletely(prefs, appliedFile, appliedPatchId);
-                    logE("⚠️ 已清除被篡改的补丁");
-                    return;
+            // 完整校验未完成时解密出的明文只暂存，校验通过后才发布到明文副本缓存
+            dex = pool.submit(() -> prepareDex(appliedFile, appliedPatchId, patchHash, appliedDir, !fullVerify,
+                    prefs, metrics));
+
+            boolean tampered = false;
+            if (fullVerify) {
+                if (!awaitLoadTask(integrity, deadline, timeoutMs)) {
+                    logE("⚠️ Patch integrity verification failed");
+                    tampered = true;
+                } else {
+                    SignatureCheck check = awaitLoadTask(signature, deadline, timeoutMs);
+                    if (check.error != null) {
+                        dex.cancel(true);
+                        logE(check.error);
+                        clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+                        logE("⚠️ 已清除被篡改或不符合安全策略的补丁");
+                        return false;
+                    }
+                    new PatchVerifiedState(prefs, PatchVerifiedState.KEY_VERIFIED_STATE)
+                            .record(appliedFile, appliedPatchId, patchHash, check.present);
                 }
-                
-                logD("✅ APK 签名验证通过（启动时）");
             }
 
-            // 检查补丁是否是 ZIP 密码保护的
-            java.io.File actualPatchFile = appliedFile;
-            if (isZipPasswordProtectedInternal(appliedFile)) {
-                logD("Patch is ZIP password protected, decrypting...");
-                
-                // 获取保存的自定义密码（如果有）
-                String customPassword = prefs.getString("custom_zip_password", null);
-                
-                // 自动解密 ZIP 密码保护的补丁
-                actualPatchFile = decryptZipPatchOnLoad(appliedFile, customPassword);
-                
-                if (actualPatchFile == null) {
-                    logE("Failed to decrypt ZIP password protected patch");
-                    return;
+            if (tampered) {
+                // 补丁被篡改：丢弃并发结果，按顺序走恢复流程，恢复后的文件重新构建补丁元素
+                signature.cancel(true);
+                dex.cancel(true);
+                // 并发构建可能已把篡改的字节复制到代码缓存目录并编译，删除后由恢复后的文件重新复制；
+                // 被取消的任务在删除之后才写入的副本与恢复后的文件 stat 不符，同样不会被复用
+                DexPatcher.deleteCodeCacheCopy(context, appliedFile, patchHash);
+                // 按可信哈希缓存的索引和明文副本可能来自篡改的文件
+                discardDerivedState(patchHash);
+                if (!verifyAppliedPatch(appliedFile, appliedPatchId, prefs)) {
+                    return false;
+                }
+                prepared = prepareDex(appliedFile, appliedPatchId, patchHash, appliedDir, true, prefs, metrics);
+            } else {
+                prepared = awaitLoadTask(dex, deadline, timeoutMs);
+                if (prepared != null && prepared.staged) {
+                    // 校验已通过：发布暂存的明文，下次启动直接使用
+                    java.io.File published = new PlaintextPatchCache(context, prefs).publish(prepared.patchFile,
+                            appliedPatchId, patchHash, prepared.selective);
+                    if (published != null) {
+                        prepared = new PreparedDex(published, prepared.elements, false, prepared.selective);
+                    }
                 }
-                
-                logD("✓ ZIP password protected patch decrypted");
             }
+        } catch (java.util.concurrent.TimeoutException e) {
+            logW("Patch loading timed out after " + timeoutMs + "ms, starting without patch");
+            pool.shutdownNow();
+            if (fullVerify) {
+                // 后台补做完整校验，下次启动可以走快速路径
+                scheduleBackgroundVerification(appliedFile, appliedPatchId);
+            }
+            return false;
+        } finally {
+            pool.shutdown();
+        }
 
-            String patchPath = actualPatchFile.getAbsolutePath();
-            String resourcePath = patchPath; // 资源路径可能不同于 DEX 路径
+        if (prepared == null) {
+            logE("Failed to decrypt ZIP password protected patch");
+            return false;
+        }
 
-            // 检查补丁是否包含资源
-            if (hasResourcePatchInternal(actualPatchFile)) {
-                logD("Patch contains resources, checking for merged resources");
+        // 注入 DEX 补丁（使用原始补丁文件）
+        if (prepared.elements != null) {
+            long start = PatchMetrics.start(metrics);
+            DexPatcher.installPatchElements(context, prepared.elements,
+                    prepared.patchFile.getAbsolutePath(), patchHash);
+            PatchMetrics.end(metrics, PatchMetrics.PHASE_DEX_INJECTION, start);
+            logD("Dex patch loaded successfully");
+        }
 
-                // 检查是否已经有合并后的资源文件
-                java.io.File mergedResourceFile = new java.io.File(appliedDir, "merged_resources.apk");
+        // 检查补丁是否包含资源：只加载已就绪的覆盖资源包或合并资源包，启动时不生成产物
+        if (hasResourcePatchInternal(prepared.patchFile)) {
+            ensureExecutorInitialized();
+            long start = PatchMetrics.start(metrics);
+            boolean resourcesLoaded = ResourceOverlay.loadReadyResources(context, prepared.patchFile, appliedDir,
+                    patchHash, executor);
+            PatchMetrics.end(metrics, PatchMetrics.PHASE_RESOURCE_SWAP, start);
+            if (resourcesLoaded) {
+                PatchMetrics.hit(metrics, PatchMetrics.HIT_RESOURCES_READY);
+                logD("Resource patch loaded successfully");
+            }
+        }
+        return true;
+    }
 
-                if (mergedResourceFile.exists()) {
-                    logI("Using existing merged resources: " + mergedResourceFile.length());
-                    resourcePath = mergedResourceFile.getAbsolutePath();
-                } else {
-                    logD("Merged resources not found, merging now...");
-                    
-                    // 使用 ResourceMerger 合并资源（Tinker 的方式）
-                    boolean merged = ResourceMerger.mergeResources(
-                        context, actualPatchFile, mergedResourceFile);
+    /**
+     * 后台构建好、尚未安装的补丁 dex
+     */
+    private static final class PreparedDex {
+        /** 实际加载的补丁文件（ZIP 密码保护时为明文副本） */
+        final java.io.File patchFile;
+        /** 补丁的 dexElements，补丁已注入时为 null */
+        final Object[] elements;
+        /** patchFile 是否为尚未发布的明文暂存文件 */
+        final boolean staged;
+        /** 明文是否为选择性解密 */
+        final boolean selective;
 
-                    if (merged && mergedResourceFile.exists()) {
-                        logI("Resources merged successfully, size: " + mergedResourceFile.length());
-                        // 使用合并后的完整资源包
-                        resourcePath = mergedResourceFile.getAbsolutePath();
-                    } else {
-                        logW("Failed to merge resources, using patch directly");
-                    }
-                }
+        PreparedDex(java.io.File patchFile, Object[] elements, boolean staged, boolean selective) {
+            this.patchFile = patchFile;
+            this.elements = elements;
+            this.staged = staged;
+            this.selective = selective;
+        }
+    }
+
+    /**
+     * 取得可加载的补丁文件并构建 dexElements（不安装）
+     * 
+     * @param verified 补丁文件是否已通过完整性校验；未通过时解密出的明文只暂存，不发布到明文副本缓存
+     * @return ZIP 密码保护的补丁解密失败时返回 null
+     */
+    private PreparedDex prepareDex(java.io.File appliedFile, String appliedPatchId, String patchHash,
+                                   java.io.File appliedDir, boolean verified,
+                                   android.content.SharedPreferences prefs, PatchMetrics.Session metrics)
+            throws DexPatcher.PatchException {
+        // 检查补丁是否是 ZIP 密码保护的：使用应用时解密好的明文副本，缺失时才解密一次
+        java.io.File actualPatchFile = appliedFile;
+        boolean staged = false;
+        boolean selective = false;
+        if (isZipPasswordProtectedInternal(appliedFile, patchHash)) {
+            // 选择性解密不包含 res/ 等文件，只有覆盖资源包或合并资源包已就绪时才能使用
+            selective = securityPrefs.getBoolean(KEY_SELECTIVE_ZIP_DECRYPT, false)
+                    && ResourceOverlay.isResourceReady(context, appliedDir, patchHash);
+            PlaintextPatchCache plaintextCache = new PlaintextPatchCache(context, prefs);
+            actualPatchFile = getPlaintextPatch(plaintextCache, appliedFile, appliedPatchId, patchHash,
+                    selective, verified, prefs, metrics);
+            if (actualPatchFile == null) {
+                return null;
             }
+            staged = PlaintextPatchCache.isStaged(actualPatchFile);
+        }
 
-            // 注入 DEX 补丁（使用原始补丁文件）
-            if (!DexPatcher.isPatchInjected(context, patchPath)) {
-                DexPatcher.injectPatchDex(context, patchPath);
-                logD("Dex patch loaded successfully");
+        String patchPath = actualPatchFile.getAbsolutePath();
+        if (DexPatcher.isPatchInjected(context, patchPath, patchHash)) {
+            PatchMetrics.hit(metrics, PatchMetrics.HIT_DEX_INJECTED);
+            return new PreparedDex(actualPatchFile, null, staged, selective);
+        }
+        long start = PatchMetrics.start(metrics);
+        Object[] elements = DexPatcher.loadPatchElements(context, patchPath,
+                PatchSlots.getOptimizedDir(appliedDir), patchHash, prefs);
+        PatchMetrics.end(metrics, PatchMetrics.PHASE_DEX_INJECTION, start);
+        return new PreparedDex(actualPatchFile, elements, staged, selective);
+    }
+
+    /**
+     * 在截止时间前等待加载任务，任务抛出的异常原样抛出
+     * 
+     * @param timeoutMs 不大于 0 时不限时
+     */
+    private static <T> T awaitLoadTask(Future<T> task, long deadline, long timeoutMs) throws Exception {
+        try {
+            if (timeoutMs <= 0) {
+                return task.get();
+            }
+            return task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
             }
+            throw e;
+        }
+    }
 
-            // 加载资源补丁（使用合并后的完整资源包）
-            try {
-                ResourcePatcher.loadPatchResources(context, resourcePath);
-                logD("Resource patch loaded successfully from: " + resourcePath);
-            } catch (ResourcePatcher.PatchResourceException e) {
-                logW("Failed to load resource patch");
+    /**
+     * 完整验证已应用的补丁（SHA-256 完整性 + 签名），通过后写入验证状态记录
+     * 
+     * @return 验证通过返回 true；失败时补丁已被清除或恢复失败，返回 false
+     */
+    private boolean verifyAppliedPatch(java.io.File appliedFile, String appliedPatchId,
+                                       android.content.SharedPreferences prefs) {
+        // ✅ 验证补丁完整性（防止篡改）
+        if (!verifyPatchIntegrity(appliedFile, prefs)) {
+            logE("⚠️ Patch integrity verification failed");
+
+            // 尝试恢复
+            if (!recoverPatch(appliedPatchId, appliedFile, prefs)) {
+                logE("⚠️ Patch recovery failed, patch has been cleared");
+                return false;
             }
+        }
+        
+        SignatureCheck signature = checkPatchSignature(appliedFile, prefs);
+        if (signature.error != null) {
+            logE(signature.error);
+            clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+            logE("⚠️ 已清除被篡改或不符合安全策略的补丁");
+            return false;
+        }
 
-            logI("✅ Patch loading completed with integrity verification");
+        new PatchVerifiedState(prefs, PatchVerifiedState.KEY_VERIFIED_STATE).record(appliedFile, appliedPatchId,
+            prefs.getString("applied_patch_hash", null), signature.present);
+        return true;
+    }
 
-        } catch (Exception e) {
-            logE("Failed to load patch in attachBaseContext", e);
+    /**
+     * 启动时的签名检查结果
+     */
+    private static final class SignatureCheck {
+        /** 补丁当前是否带签名 */
+        final boolean present;
+        /** 不通过的原因，通过时为 null */
+        final String error;
+
+        SignatureCheck(boolean present, String error) {
+            this.present = present;
+            this.error = error;
+        }
+    }
+
+    /**
+     * APK 签名验证（启动时验证）- 使用 apksig
+     * 
+     * 只读取补丁和配置，不清除补丁，可以在后台线程与完整性校验并发执行。
+     */
+    private SignatureCheck checkPatchSignature(java.io.File appliedFile, android.content.SharedPreferences prefs) {
+        // 检查安全策略是否要求签名
+        boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
+        
+        // 检查补丁在应用时是否有签名（防止攻击者删除签名文件）
+        boolean hadSignatureWhenApplied = prefs.getBoolean("patch_had_signature", false);
+        boolean hasSignatureNow = hasApkSignatureInternal(appliedFile, prefs.getString("applied_patch_hash", null));
+        
+        // 漏洞修复1：如果安全策略要求签名，但补丁没有签名，拒绝加载
+        if (requireSignature && !hasSignatureNow) {
+            return new SignatureCheck(false, "⚠️ 安全策略要求补丁必须签名，但当前补丁没有签名！");
+        }
+        
+        // 漏洞修复2：如果补丁应用时有签名，但现在没有了，说明被删除了
+        if (hadSignatureWhenApplied && !hasSignatureNow) {
+            return new SignatureCheck(false, "⚠️ 安全警告：补丁签名文件被删除！这是一次攻击行为。");
+        }
+        
+        // 如果补丁有签名，验证签名
+        if (hasSignatureNow) {
+            logD("检测到 APK 签名，开始验证...");
+            if (!patchSigner.verifyPatchSignatureMatchesApp(appliedFile)) {
+                return new SignatureCheck(true, "⚠️ APK 签名验证失败: " + patchSigner.getError());
+            }
+            logD("✅ APK 签名验证通过（启动时）");
         }
+        return new SignatureCheck(hasSignatureNow, null);
+    }
+
+    /**
+     * 验证状态记录过期时在后台重新完整验证
+     * 
+     * 当前进程继续使用已加载的补丁；验证失败时补丁被清除，下次启动生效。
+     */
+    private void scheduleBackgroundVerification(java.io.File appliedFile, String appliedPatchId) {
+        Thread thread = new Thread(() -> {
+            android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
+            if (verifyAppliedPatch(appliedFile, appliedPatchId, prefs)) {
+                logD("✅ 后台完整校验通过，已刷新验证状态");
+            } else {
+                logE("⚠️ 后台完整校验失败，补丁将在下次启动时失效");
+            }
+        }, "patch-verify");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
     }
     
     /**
@@ -836,28 +1044,8 @@ public class HotUpdateHelper {
             return false;
         }
 
-        // 检查文件魔数
-        try {
-            byte[] header = new byte[4];
-            java.io.FileInputStream fis = new java.io.FileInputStream(patchFile);
-            fis.read(header);
-            fis.close();
-
-            // ZIP/APK 魔数: PK (0x50 0x4B)
-            if (header[0] == 0x50 && header[1] == 0x4B) {
-                return true;
-            }
-
-            // DEX 魔数: dex\n (0x64 0x65 0x78 0x0A)
-            if (header[0] == 0x64 && header[1] == 0x65 &&
-                header[2] == 0x78 && header[3] == 0x0A) {
-                return false;
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to check patch file type", e);
-        }
-
-        return false;
+        // 其他扩展名：能解析出中央目录的 ZIP/APK 可能包含资源，DEX 等其他格式不包含
+        return PatchArchiveIndex.of(patchFile) != null;
     }
 
     /**
@@ -918,6 +1106,8 @@ public class HotUpdateHelper {
 
         // 尝试从加密存储恢复
         logI("Attempting to recover from encrypted storage...");
+        // 按当前哈希缓存的索引和明文副本可能来自篡改的文件，恢复后的文件重新生成
+        discardDerivedState(prefs.getString("applied_patch_hash", null));
 
         try {
             java.io.File updateDir = new java.io.File(context.getFilesDir(), "update");
@@ -963,6 +1153,14 @@ public class HotUpdateHelper {
         return false;
     }
 
+    /**
+     * 丢弃从已应用补丁派生、以其哈希为键的缓存：明文副本和 ZIP 索引
+     */
+    private void discardDerivedState(String patchHash) {
+        PatchArchiveIndex.invalidate(patchHash);
+        new PlaintextPatchCache(context).clear();
+    }
+
     /**
      * 计算 SHA-256 哈希
      */
@@ -1005,6 +1203,8 @@ public class HotUpdateHelper {
         editor.remove("is_zip_password_protected");
         editor.remove("custom_zip_password");
         editor.remove("tamper_count");
+        editor.remove("patch_verified_state");
+        editor.remove("patch_verified_state_plain");
         
         // 清除补丁信息
         if (patchId != null) {
@@ -1013,29 +1213,16 @@ public class HotUpdateHelper {
         
         editor.apply();
         
-        // 2. 删除补丁文件
-        if (appliedFile != null && appliedFile.exists()) {
-            appliedFile.delete();
-            logD("✓ 删除补丁文件: " + appliedFile.getName());
-        }
-        
-        // 3. 删除合并的资源文件
+        // 2. 删除补丁所在的槽位（补丁文件、合并资源包、odex / oat 都在槽位内），另一个槽位保留
         if (appliedFile != null) {
-            java.io.File appliedDir = appliedFile.getParentFile();
-            if (appliedDir != null) {
-                java.io.File mergedResourceFile = new java.io.File(appliedDir, "merged_resources.apk");
-                if (mergedResourceFile.exists()) {
-                    mergedResourceFile.delete();
-                    logD("✓ 删除合并资源文件");
-                }
-                
-                // 删除 oat 目录
-                java.io.File oatDir = new java.io.File(appliedDir, "oat");
-                if (oatDir.exists()) {
-                    deleteDirectoryInternal(oatDir);
-                    logD("✓ 删除 oat 目录");
-                }
+            java.io.File slotDir = appliedFile.getParentFile();
+            if (slotDir != null) {
+                deleteDirectoryInternal(slotDir);
+                logD("✓ 删除补丁槽位: " + slotDir.getName());
             }
+            
+            // 删除明文补丁副本
+            new PlaintextPatchCache(context).clear();
         }
         
         // 4. 清理缓存中的临时解密文件
@@ -1079,53 +1266,20 @@ public class HotUpdateHelper {
     /**
      * 检查补丁是否是 ZIP 密码保护的
      */
-    private boolean isZipPasswordProtectedInternal(java.io.File patchFile) {
-        try {
-            net.lingala.zip4j.ZipFile zipFile = new net.lingala.zip4j.ZipFile(patchFile);
-            return zipFile.isEncrypted();
-        } catch (Exception e) {
-            return false;
-        }
+    private boolean isZipPasswordProtectedInternal(java.io.File patchFile, String patchHash) {
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile, patchHash);
+        return index != null && index.isEncrypted();
     }
     
     /**
      * 检查补丁是否有 APK 签名
      */
-    private boolean hasApkSignatureInternal(java.io.File patchFile) {
-        // 方法1: 检查 zip 内部是否有 META-INF/ 签名文件（新方案）
-        try {
-            java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.Enumeration<? extends java.util.zip.ZipEntry> entries = zipFile.entries();
-            
-            while (entries.hasMoreElements()) {
-                java.util.zip.ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                
-                // 检查是否有 META-INF/ 签名文件
-                if (name.startsWith("META-INF/") && 
-                    (name.endsWith(".SF") || name.endsWith(".RSA") || 
-                     name.endsWith(".DSA") || name.endsWith(".EC"))) {
-                    zipFile.close();
-                    Log.d(TAG, "✓ 检测到 APK 签名文件: " + name);
-                    return true;
-                }
-            }
-            zipFile.close();
-        } catch (Exception e) {
-            Log.d(TAG, "检查 META-INF/ 签名失败: " + e.getMessage());
-        }
-        
-        // 方法2: 检查 zip 内部是否有 signature.sig 标记文件（向后兼容）
-        try {
-            java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.zip.ZipEntry sigEntry = zipFile.getEntry("signature.sig");
-            zipFile.close();
-            if (sigEntry != null) {
-                logD("✓ 检测到 zip 内部的签名标记文件");
-                return true;
-            }
-        } catch (Exception e) {
-            logD("检查 zip 内部签名标记失败: " + e.getMessage());
+    private boolean hasApkSignatureInternal(java.io.File patchFile, String patchHash) {
+        // 方法1、2: 检查 zip 内部是否有 META-INF/ 签名文件（新方案）或 signature.sig 标记文件（向后兼容）
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile, patchHash);
+        if (index != null && index.hasSignatureEntries()) {
+            logD("✓ 检测到 zip 内部的签名文件");
+            return true;
         }
         
         // 方法3: 检查外部 .sig 文件（向后兼容）
@@ -1139,52 +1293,51 @@ public class HotUpdateHelper {
     }
     
     /**
-     * 在加载时解密 ZIP 密码保护的补丁
-     * 使用从应用签名派生的密码或保存的自定义密码自动解密
+     * 获取 ZIP 密码保护补丁的明文副本
      * 
+     * 优先使用应用时保存的明文副本（由验证记录保证未被修改），缺失时流式解密一次：
+     * 加密补丁已通过完整性校验时直接缓存，否则只写入暂存文件，由调用方在校验通过后发布。
+     * 
+     * @param plaintextCache 明文副本缓存
      * @param encryptedPatch 加密的补丁文件
-     * @param customPassword 自定义密码（如果有）
-     */
-    private java.io.File decryptZipPatchOnLoad(java.io.File encryptedPatch, String customPassword) {
-        try {
-            // 创建 ZipPasswordManager 实例
-            ZipPasswordManager zipPasswordManager = storage.getZipPasswordManager();
-            
-            // 获取密码：优先使用自定义密码，否则使用派生密码
-            String zipPassword;
-            if (customPassword != null && !customPassword.isEmpty()) {
-                Log.d(TAG, "Using custom ZIP password");
-                zipPassword = customPassword;
-            } else {
-                Log.d(TAG, "Using derived ZIP password");
-                zipPassword = zipPasswordManager.getZipPassword();
-            }
-            
-            // 解密到临时目录
-            java.io.File tempDir = new java.io.File(context.getCacheDir(), "patch_load_" + System.currentTimeMillis());
-            tempDir.mkdirs();
-            
-            boolean extracted = zipPasswordManager.extractEncryptedZip(encryptedPatch, tempDir, zipPassword);
-            
-            if (!extracted) {
-                Log.e(TAG, "Failed to extract encrypted ZIP");
-                deleteDirectoryInternal(tempDir);
-                return null;
-            }
-            
-            // 重新打包为未加密的 ZIP（临时文件）
-            java.io.File decryptedZip = new java.io.File(context.getCacheDir(), "patch_decrypted_" + System.currentTimeMillis() + ".zip");
-            repackZipInternal(tempDir, decryptedZip);
-            
-            // 清理临时目录
-            deleteDirectoryInternal(tempDir);
-            
-            return decryptedZip;
-            
-        } catch (Exception e) {
-            logE("Failed to decrypt ZIP password protected patch", e);
-            return null;
+     * @param patchId 补丁 ID
+     * @param patchHash 加密补丁文件的 SHA-256
+     * @param selective 是否接受选择性解密的副本
+     * @param verified 加密补丁是否已通过完整性校验
+     * @param prefs SharedPreferences 实例
+     * @param metrics 指标采集会话，未启用时为 null
+     */
+    private java.io.File getPlaintextPatch(PlaintextPatchCache plaintextCache, java.io.File encryptedPatch,
+                                           String patchId, String patchHash, boolean selective, boolean verified,
+                                           android.content.SharedPreferences prefs,
+                                           PatchMetrics.Session metrics) {
+        java.io.File cached = plaintextCache.find(patchId, patchHash, selective);
+        if (cached != null) {
+            logD("Using cached plaintext patch: " + cached.getName());
+            PatchMetrics.hit(metrics, PatchMetrics.HIT_PLAINTEXT_CACHE);
+            return cached;
         }
+
+        long start = PatchMetrics.start(metrics);
+        logD("Patch is ZIP password protected, decrypting once...");
+        // 获取密码：优先使用自定义密码，否则使用派生密码
+        String zipPassword = prefs.getString("custom_zip_password", null);
+        if (zipPassword == null || zipPassword.isEmpty()) {
+            Log.d(TAG, "Using derived ZIP password");
+            zipPassword = new ZipPasswordManager(context).getZipPassword();
+        } else {
+            Log.d(TAG, "Using custom ZIP password");
+        }
+
+        java.io.File decrypted = verified
+                ? plaintextCache.decrypt(encryptedPatch, zipPassword, patchId, patchHash, selective)
+                : plaintextCache.decryptStaged(encryptedPatch, zipPassword, patchHash, selective);
+        PatchMetrics.end(metrics, PatchMetrics.PHASE_DECRYPTION, start);
+        PatchMetrics.addBytes(metrics, encryptedPatch);
+        if (decrypted != null) {
+            logD("✓ ZIP password protected patch decrypted");
+        }
+        return decrypted;
     }
     
     /**
@@ -1206,27 +1359,6 @@ public class HotUpdateHelper {
         }
     }
     
-    /**
-     * 重新打包目录为 ZIP 文件（不加密，不压缩）
-     */
-    private void repackZipInternal(java.io.File sourceDir, java.io.File destZip) throws Exception {
-        net.lingala.zip4j.ZipFile zipFile = new net.lingala.zip4j.ZipFile(destZip);
-        net.lingala.zip4j.model.ZipParameters params = new net.lingala.zip4j.model.ZipParameters();
-        params.setCompressionMethod(net.lingala.zip4j.model.enums.CompressionMethod.STORE);
-        
-        // 添加目录中的所有文件和文件夹
-        java.io.File[] files = sourceDir.listFiles();
-        if (files != null) {
-            for (java.io.File file : files) {
-                if (file.isDirectory()) {
-                    zipFile.addFolder(file, params);
-                } else {
-                    zipFile.addFile(file, params);
-                }
-            }
-        }
-    }
-    
     /**
      * 清除补丁（回滚）
      * 
@@ -1395,6 +1527,53 @@ public class HotUpdateHelper {
         securityPrefs.edit().putBoolean(KEY_REQUIRE_ENCRYPTION, required).apply();
     }
     
+    /**
+     * 设置启动加载补丁的超时时间
+     * 
+     * loadPatchIfNeeded() 并发执行完整性校验、签名验证和 dex 构建，主线程最多等待这么久；
+     * 超时后放弃本次加载，应用按未打补丁的状态启动。需要在 loadPatchIfNeeded() 之前调用。
+     * 
+     * @param timeoutMs 超时时间（毫秒），不大于 0 表示不限时
+     */
+    public void setPatchLoadTimeout(long timeoutMs) {
+        this.patchLoadTimeoutMs = timeoutMs;
+    }
+    
+    /**
+     * 设置 ZIP 密码保护补丁缺少明文副本时是否只解密 dex、resources.arsc 和 patch.json
+     * 
+     * 仅在覆盖资源包或合并资源包已就绪（或补丁不含资源）时生效，否则仍完整解密。
+     * 
+     * @param selective 是否选择性解密
+     */
+    public void setSelectiveZipDecrypt(boolean selective) {
+        securityPrefs.edit().putBoolean(KEY_SELECTIVE_ZIP_DECRYPT, selective).apply();
+    }
+    
+    /**
+     * 设置是否使用覆盖资源包加载资源补丁（Android 11+）
+     * 
+     * 覆盖资源包只包含变化的资源，叠加在原始 APK 之上加载；关闭后使用合并资源包。
+     * 默认开启，个别 ROM 加载失败时会自动回退。需要在 loadPatchIfNeeded() 之前调用。
+     * 
+     * @param enabled 是否使用覆盖资源包
+     */
+    public void setResourceOverlayEnabled(boolean enabled) {
+        ResourceOverlay.setEnabled(enabled);
+    }
+    
+    /**
+     * 设置补丁相关文件的磁盘预算
+     * 
+     * 统计下载的补丁、A/B 槽位、明文副本、SO 缓存和代码缓存副本等全部产物，
+     * 超出预算时在后台按最近使用时间淘汰；活动槽位和回滚目标的补丁不会被淘汰。
+     * 
+     * @param bytes 字节数，不大于 0 时只统计不淘汰（默认 256 MB）
+     */
+    public void setStorageQuota(long bytes) {
+        StorageQuota.getInstance(context).setBudget(bytes);
+    }
+    
     /**
      * 检查是否要求补丁签名
      * 
@@ -1514,75 +1693,25 @@ public class HotUpdateHelper {
      * 检查是否是有效的 ZIP 文件（通过魔数验证）
      */
     private boolean isValidZipFile(File file) {
-        try {
-            byte[] header = new byte[4];
-            java.io.FileInputStream fis = new java.io.FileInputStream(file);
-            int bytesRead = fis.read(header);
-            fis.close();
-            
-            if (bytesRead < 4) {
-                return false;
-            }
-            
-            // ZIP 魔数: PK (0x50 0x4B 0x03 0x04)
-            return header[0] == 0x50 && header[1] == 0x4B && 
-                   header[2] == 0x03 && header[3] == 0x04;
-        } catch (Exception e) {
-            logE("检查 ZIP 魔数失败", e);
+        PatchArchiveIndex index = PatchArchiveIndex.of(file);
+        if (index == null) {
+            logE("补丁不是有效的 ZIP 文件（中央目录无法解析）");
             return false;
         }
+        // ZIP 魔数: PK (0x50 0x4B 0x03 0x04)
+        return index.startsWithLocalHeader();
     }
     
     /**
      * 从 ZIP 文件中读取 patch.json
      */
     private PatchInfo readPatchInfoFromZip(File patchFile) {
-        java.util.zip.ZipFile zipFile = null;
-        try {
-            zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.zip.ZipEntry patchJsonEntry = zipFile.getEntry("patch.json");
-            
-            if (patchJsonEntry == null) {
-                logE("补丁文件中未找到 patch.json");
-                return null;
-            }
-            
-            // 读取 patch.json 内容
-            java.io.InputStream is = zipFile.getInputStream(patchJsonEntry);
-            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
-            }
-            is.close();
-            
-            String jsonContent = baos.toString("UTF-8");
-            
-            // 解析 JSON
-            org.json.JSONObject jsonObject = new org.json.JSONObject(jsonContent);
-            
-            // 创建 PatchInfo 对象
-            PatchInfo patchInfo = new PatchInfo();
-            patchInfo.setPatchId(jsonObject.optString("patchId", null));
-            patchInfo.setPatchVersion(jsonObject.optString("patchVersion", null));
-            patchInfo.setTargetAppVersion(jsonObject.optString("targetVersion", null));
-            patchInfo.setPackageName(jsonObject.optString("packageName", null));
-            
-            return patchInfo;
-            
-        } catch (Exception e) {
-            logE("读取 patch.json 失败", e);
-            return null;
-        } finally {
-            if (zipFile != null) {
-                try {
-                    zipFile.close();
-                } catch (Exception e) {
-                    // ignore
-                }
-            }
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+        PatchInfo patchInfo = index != null ? index.newPatchInfo() : null;
+        if (patchInfo == null) {
+            logE("补丁文件中未找到 patch.json");
         }
+        return patchInfo;
     }
     
     /**
@@ -1656,40 +1785,11 @@ public class HotUpdateHelper {
      * @return 是否有签名
      */
     private boolean checkHasSignature(File patchFile) {
-        // 方法1: 检查 zip 内部是否有 META-INF/ 签名文件（新方案）
-        try {
-            java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.Enumeration<? extends java.util.zip.ZipEntry> entries = zipFile.entries();
-            
-            while (entries.hasMoreElements()) {
-                java.util.zip.ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                
-                // 检查是否有 META-INF/ 签名文件
-                if (name.startsWith("META-INF/") && 
-                    (name.endsWith(".SF") || name.endsWith(".RSA") || 
-                     name.endsWith(".DSA") || name.endsWith(".EC"))) {
-                    zipFile.close();
-                    Log.d(TAG, "✓ 检测到 APK 签名文件: " + name);
-                    return true;
-                }
-            }
-            zipFile.close();
-        } catch (Exception e) {
-            Log.d(TAG, "检查 META-INF/ 签名失败: " + e.getMessage());
-        }
-        
-        // 方法2: 检查 zip 内部是否有 signature.sig 标记文件（向后兼容）
-        try {
-            java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.zip.ZipEntry sigEntry = zipFile.getEntry("signature.sig");
-            zipFile.close();
-            if (sigEntry != null) {
-                Log.d(TAG, "✓ 检测到 zip 内部的签名标记文件");
-                return true;
-            }
-        } catch (Exception e) {
-            Log.d(TAG, "检查 zip 内部签名标记失败: " + e.getMessage());
+        // 方法1、2: 检查 zip 内部是否有 META-INF/ 签名文件（新方案）或 signature.sig 标记文件（向后兼容）
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile, null);
+        if (index != null && index.hasSignatureEntries()) {
+            Log.d(TAG, "✓ 检测到 zip 内部的签名文件");
+            return true;
         }
         
         // 方法3: 检查外部 .sig 文件（向后兼容）
@@ -1719,22 +1819,10 @@ public class HotUpdateHelper {
         
         // 尝试从补丁包中的 patch.json 读取版本信息
         try {
-            java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(patchFile);
-            java.util.zip.ZipEntry patchJsonEntry = zipFile.getEntry("patch.json");
+            PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+            String jsonContent = index != null ? index.getPatchJson() : null;
             
-            if (patchJsonEntry != null) {
-                // 读取 patch.json
-                java.io.InputStream is = zipFile.getInputStream(patchJsonEntry);
-                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                byte[] buffer = new byte[4096];
-                int len;
-                while ((len = is.read(buffer)) != -1) {
-                    baos.write(buffer, 0, len);
-                }
-                is.close();
-                String jsonContent = baos.toString("UTF-8");
-                zipFile.close();
-                
+            if (jsonContent != null) {
                 // 解析 JSON
                 org.json.JSONObject json = new org.json.JSONObject(jsonContent);
                 
@@ -1979,12 +2067,7 @@ public class HotUpdateHelper {
                 
                 logD("✓ ZIP 文件解密成功");
                 
-                // 5. 保存自定义密码到 SharedPreferences（用于应用启动时解密）
-                android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
-                prefs.edit()
-                    .putBoolean("is_zip_password_protected", true)
-                    .putString("custom_zip_password", zipPassword)
-                    .apply();
+                // 5. 自定义密码在补丁切换生效后与槽位状态一起保存（用于应用启动时解密）
                 
                 // 6. 继续应用补丁流程
                 // actualPatchFile: 解密后的文件（用于应用）
@@ -1992,7 +2075,7 @@ public class HotUpdateHelper {
                 File finalTempDecryptedFile = tempDecryptedFile;
                 File finalTempDecryptedDir = tempDecryptedDir;
                 try {
-                    applyPatchInternal(tempDecryptedFile, patchFile, callback);
+                    applyPatchInternal(tempDecryptedFile, patchFile, zipPassword, callback);
                 } finally {
                     // 清理临时文件
                     if (finalTempDecryptedFile != null && finalTempDecryptedFile.exists()) {
@@ -2147,7 +2230,7 @@ public class HotUpdateHelper {
                 // 5. 继续应用补丁流程
                 File finalTempFile = tempDecryptedFile;
                 try {
-                    applyPatchInternal(tempDecryptedFile, patchFile, callback);
+                    applyPatchInternal(tempDecryptedFile, patchFile, null, callback);
                 } finally {
                     // 清理临时解密文件
                     if (finalTempFile != null && finalTempFile.exists()) {
@@ -2237,7 +2320,10 @@ public class HotUpdateHelper {
      * @param originalPatchFile 原始补丁文件
      * @param callback 回调接口
      */
-    private void applyPatchInternal(File actualPatchFile, File originalPatchFile, Callback callback) {
+    private void applyPatchInternal(File actualPatchFile, File originalPatchFile, String customZipPassword,
+                                    Callback callback) {
+        PatchMetrics.Session metrics = PatchMetrics.begin(PatchMetrics.KIND_APPLY, null);
+        boolean applied = false;
         try {
             if (callback != null) {
                 callback.onProgress(20, "准备应用补丁...");
@@ -2252,7 +2338,10 @@ public class HotUpdateHelper {
                     callback.onProgress(22, "验证 APK 签名...");
                 }
                 
+                long start = PatchMetrics.start(metrics);
                 boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(actualPatchFile);
+                PatchMetrics.end(metrics, PatchMetrics.PHASE_SIGNATURE, start);
+                PatchMetrics.addBytes(metrics, actualPatchFile);
                 if (!signatureValid) {
                     if (callback != null) {
                         callback.onError("⚠️ APK 签名验证失败: " + patchSigner.getError());
@@ -2265,6 +2354,7 @@ public class HotUpdateHelper {
             
             // 3. 创建 PatchInfo
             PatchInfo patchInfo = createPatchInfo(actualPatchFile);
+            PatchMetrics.setPatchId(metrics, patchInfo.getPatchId());
             
             // 3.5 检查是否重复应用相同补丁（防止 SIGBUS 崩溃）
             PatchInfo currentPatchInfo = storage.getAppliedPatchInfo();
@@ -2272,6 +2362,8 @@ public class HotUpdateHelper {
                 patchInfo.getMd5() != null && 
                 patchInfo.getMd5().equals(currentPatchInfo.getMd5())) {
                 logI("⚠️ 检测到重复补丁（MD5: " + patchInfo.getMd5().substring(0, 8) + "...），跳过应用以防止崩溃");
+                PatchMetrics.hit(metrics, PatchMetrics.HIT_DUPLICATE_PATCH);
+                applied = true;
                 
                 if (callback != null) {
                     callback.onProgress(100, "补丁已应用，无需重复操作");
@@ -2320,14 +2412,6 @@ public class HotUpdateHelper {
             storage.savePatchInfo(patchInfo);
             logD("✓ 保存补丁信息: " + patchInfo.getPatchId() + ", 版本: " + patchInfo.getPatchVersion());
             
-            // 保存 ZIP 密码标记（如果是 ZIP 密码保护的）
-            if (isZipPasswordProtected) {
-                // 保存一个标记，表示这个补丁是 ZIP 密码保护的
-                android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
-                prefs.edit().putBoolean("is_zip_password_protected", true).apply();
-                logD("✓ 补丁已保存为加密状态到 applied 目录");
-            }
-            
             if (callback != null) {
                 callback.onProgress(40, "应用补丁...");
             }
@@ -2339,36 +2423,41 @@ public class HotUpdateHelper {
                 callback.onProgress(50, "合并资源文件...");
             }
             
-            boolean success = applier.apply(patchInfo);
+            boolean success = applier.apply(patchInfo, metrics);
+            applied = success;
             
             if (success) {
                 // 记录补丁是否有签名（用于启动时验证）
                 boolean hasSignature = checkHasSignature(actualPatchFile);
                 android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
                 
-                // 保存补丁签名状态
-                prefs.edit().putBoolean("patch_had_signature", hasSignature).apply();
+                // 保存补丁签名状态和 ZIP 密码标记（随槽位切换，必须在切换生效后写入）
+                android.content.SharedPreferences.Editor slotEditor = prefs.edit()
+                    .putBoolean("patch_had_signature", hasSignature)
+                    .putBoolean("is_zip_password_protected", isZipPasswordProtected);
+                if (customZipPassword != null) {
+                    slotEditor.putString("custom_zip_password", customZipPassword);
+                } else {
+                    slotEditor.remove("custom_zip_password");
+                }
+                slotEditor.apply();
                 logD("✓ 记录补丁签名状态: " + (hasSignature ? "有签名" : "无签名"));
+                if (isZipPasswordProtected) {
+                    logD("✓ 补丁已保存为加密状态到 applied 目录");
+                }
+                
+                // 写入验证状态记录（签名已在上面验证，哈希由 PatchStorage 在写入 applied 目录时计算）
+                if (new PatchVerifiedState(context).record(storage.getAppliedPatchFile(),
+                        patchInfo.getPatchId(), prefs.getString("applied_patch_hash", null), hasSignature)) {
+                    logD("✓ 记录补丁验证状态");
+                }
                 
                 // 保存当前 APK 版本信息（用于检测覆盖安装）
                 try {
                     android.content.pm.PackageInfo packageInfo = context.getPackageManager()
                         .getPackageInfo(context.getPackageName(), 0);
                     
-                    // 使用反射避免 D8/R8 生成合成类导致的 NoSuchMethodError
-                    long versionCode;
-                    try {
-                        if (android.os.Build.VERSION.SDK_INT >= 28) { // API 28 = Android P
-                            // 使用反射调用 getLongVersionCode()
-                            java.lang.reflect.Method method = packageInfo.getClass().getMethod("getLongVersionCode");
-                            versionCode = (Long) method.invoke(packageInfo);
-                        } else {
-                            versionCode = packageInfo.versionCode;
-                        }
-                    } catch (Exception e) {
-                        // 反射失败，使用旧方法
-                        versionCode = packageInfo.versionCode;
-                    }
+                    long versionCode = VersionUtils.getVersionCode(packageInfo);
                     
                     String versionName = packageInfo.versionName;
                     
@@ -2412,6 +2501,15 @@ public class HotUpdateHelper {
                 }
             }
             
+            // ZIP 密码保护的补丁：保留已解密的文件作为明文副本，启动时无需再次解密
+            if (success && isZipPasswordProtected && actualPatchFile != originalPatchFile) {
+                android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
+                if (new PlaintextPatchCache(context).adopt(actualPatchFile, patchInfo.getPatchId(),
+                        prefs.getString("applied_patch_hash", null)) != null) {
+                    logD("✓ 保存明文补丁副本");
+                }
+            }
+            
             // 清理临时解密文件
             if (actualPatchFile != originalPatchFile && actualPatchFile.exists()) {
                 actualPatchFile.delete();
@@ -2422,6 +2520,8 @@ public class HotUpdateHelper {
             if (callback != null) {
                 callback.onError("应用补丁失败: " + e.getMessage());
             }
+        } finally {
+            PatchMetrics.finish(metrics, applied);
         }
     }
     
@@ -2455,13 +2555,9 @@ public class HotUpdateHelper {
             return true;
         }
         
-        // 或者尝试用 zip4j 检查是否加密
-        try {
-            net.lingala.zip4j.ZipFile zipFile = new net.lingala.zip4j.ZipFile(patchFile);
-            return zipFile.isEncrypted();
-        } catch (Exception e) {
-            return false;
-        }
+        // 或者检查是否有加密条目
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+        return index != null && index.isEncrypted();
     }
     
     /**
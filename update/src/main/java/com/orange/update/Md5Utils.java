@@ -76,6 +76,15 @@ public final class Md5Utils {
         }
     }
     
+    /**
+     * 将摘要转换为十六进制字符串
+     * @param digest 摘要字节数组
+     * @return 小写十六进制字符串
+     */
+    public static String toHex(byte[] digest) {
+        return bytesToHex(digest);
+    }
+    
     /**
      * 将字节数组转换为十六进制字符串
      * @param bytes 字节数组
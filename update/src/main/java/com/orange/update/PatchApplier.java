@@ -78,6 +78,19 @@ public class PatchApplier {
      * @return 是否应用成功
      */
     public boolean apply(PatchInfo patchInfo) {
+        PatchMetrics.Session metrics = PatchMetrics.begin(PatchMetrics.KIND_APPLY,
+                patchInfo != null ? patchInfo.getPatchId() : null);
+        boolean success = apply(patchInfo, metrics);
+        PatchMetrics.finish(metrics, success);
+        return success;
+    }
+
+    /**
+     * 应用补丁，阶段耗时记录到调用方的指标采集会话（由调用方结束采集）
+     * 
+     * @param metrics 指标采集会话，未启用时为 null
+     */
+    boolean apply(PatchInfo patchInfo, PatchMetrics.Session metrics) {
         if (patchInfo == null) {
             Log.e(TAG, "PatchInfo is null");
             return false;
@@ -103,6 +116,7 @@ public class PatchApplier {
                 patchInfo.getMd5() != null && 
                 patchInfo.getMd5().equals(currentPatchInfo.getMd5())) {
                 Log.i(TAG, "Patch MD5 matches, skipping duplicate application to prevent crash");
+                PatchMetrics.hit(metrics, PatchMetrics.HIT_DUPLICATE_PATCH);
                 return true;
             }
             
@@ -110,56 +124,43 @@ public class PatchApplier {
             Log.w(TAG, "Patch ID matches but MD5 differs, applying new patch");
         }
         
+        boolean staged = false;
         try {
-            // 1. 备份当前补丁（如果有）
-            if (currentAppliedId != null) {
-                Log.d(TAG, "Backing up current patch: " + currentAppliedId);
-                if (!storage.backupCurrentPatch()) {
-                    Log.w(TAG, "Failed to backup current patch, continuing anyway");
-                }
-            }
-            
-            // 2. 解密补丁到应用目录
-            File appliedPatchFile = storage.decryptPatchToApplied(patchId);
+            // 1. 解密补丁到非活动槽位（当前补丁所在槽位保持不变，切换后成为回滚目标）
+            long start = PatchMetrics.start(metrics);
+            File appliedPatchFile = storage.stagePatch(patchId);
+            PatchMetrics.end(metrics, PatchMetrics.PHASE_DECRYPTION, start);
+            PatchMetrics.addBytes(metrics, appliedPatchFile);
             if (appliedPatchFile == null || !appliedPatchFile.exists()) {
                 Log.e(TAG, "Failed to decrypt patch: " + patchId);
+                storage.discardStagedPatch();
                 return false;
             }
+            staged = true;
+            File slotDir = storage.getStagedDir();
+            String patchHash = storage.getStagedPatchHash();
             
-            // 3. 注入补丁 Dex
+            // 2. 注入补丁 Dex（odex 输出到槽位内）
             String patchPath = appliedPatchFile.getAbsolutePath();
             try {
-                DexPatcher.injectPatchDex(context, patchPath);
+                start = PatchMetrics.start(metrics);
+                DexPatcher.injectPatchDex(context, patchPath, PatchSlots.getOptimizedDir(slotDir), patchHash);
+                PatchMetrics.end(metrics, PatchMetrics.PHASE_DEX_INJECTION, start);
                 Log.d(TAG, "Dex patch injected successfully");
             } catch (DexPatcher.PatchException e) {
                 Log.e(TAG, "Failed to inject dex patch", e);
-                // 清理解密的文件
-                securityManager.secureDelete(appliedPatchFile);
+                // 丢弃暂存的槽位
+                storage.discardStagedPatch();
                 return false;
             }
             
-            // 4. 如果包含资源，进行资源合并（Tinker 的方式）
+            // 3. 如果包含资源，生成覆盖资源包（不支持时合并资源，Tinker 的方式）并加载
             try {
                 if (hasResourcePatch(appliedPatchFile)) {
-                    Log.d(TAG, "Patch contains resources, merging with original APK");
-                    
-                    // 使用 ResourceMerger 合并资源
-                    File mergedResourceFile = new File(
-                        storage.getAppliedDir(), "merged_resources.apk");
+                    Log.d(TAG, "Patch contains resources, preparing resources");
                     
-                    boolean merged = ResourceMerger.mergeResources(
-                        context, appliedPatchFile, mergedResourceFile);
-                    
-                    if (merged && mergedResourceFile.exists()) {
-                        Log.i(TAG, "Resources merged successfully, size: " + mergedResourceFile.length());
-                        // 使用合并后的完整资源包加载资源
-                        patchPath = mergedResourceFile.getAbsolutePath();
-                    } else {
-                        Log.w(TAG, "Failed to merge resources, using patch directly");
-                    }
-                    
-                    // 加载资源补丁（使用合并后的完整资源包）
-                    ResourcePatcher.loadPatchResources(context, patchPath);
+                    // 产物带补丁哈希和 APK 版本标签写入槽位，供下次启动直接加载
+                    ResourceOverlay.prepareAndLoadResources(context, appliedPatchFile, slotDir, patchHash, metrics);
                     Log.d(TAG, "Resource patch loaded successfully");
                 }
             } catch (ResourcePatcher.PatchResourceException e) {
@@ -167,9 +168,13 @@ public class PatchApplier {
                 Log.w(TAG, "Failed to load resource patch, continuing with dex only", e);
             }
             
-            // 5. 更新应用状态
-            storage.saveAppliedPatchId(patchId);
+            // 4. 切换活动槽位，更新应用状态
             storage.savePatchInfo(patchInfo);
+            if (!storage.activateStagedPatch()) {
+                Log.e(TAG, "Failed to activate patch: " + patchId);
+                storage.discardStagedPatch();
+                return false;
+            }
             
             Log.i(TAG, "Patch applied successfully: " + patchId);
             return true;
@@ -177,7 +182,9 @@ public class PatchApplier {
         } catch (Exception e) {
             Log.e(TAG, "Failed to apply patch: " + patchId, e);
             // 尝试回滚
-            rollbackOnFailure();
+            if (staged) {
+                rollbackOnFailure();
+            }
             return false;
         }
     }
@@ -224,24 +231,11 @@ public class PatchApplier {
     }
     
     /**
-     * 应用失败时的回滚处理
+     * 应用失败时的回滚处理：丢弃暂存的槽位，活动槽位未切换，无需恢复
      */
     private void rollbackOnFailure() {
         try {
-            // 清理已应用的补丁文件
-            File appliedFile = storage.getAppliedPatchFile();
-            if (appliedFile.exists()) {
-                securityManager.secureDelete(appliedFile);
-            }
-            
-            // 恢复之前的状态
-            String previousPatchId = storage.getPreviousPatchId();
-            if (previousPatchId != null) {
-                storage.saveAppliedPatchId(previousPatchId);
-            } else {
-                storage.saveAppliedPatchId(null);
-            }
-            
+            storage.discardStagedPatch();
             Log.d(TAG, "Rollback on failure completed");
         } catch (Exception e) {
             Log.e(TAG, "Failed to rollback on failure", e);
@@ -254,55 +248,37 @@ public class PatchApplier {
     /**
      * 回滚到上一版本
      * 
+     * 切换回非活动槽位中的上一个补丁，不复制文件、不重新计算哈希；没有上一个补丁时回滚到原始状态。
+     * 
      * @return 是否回滚成功
      */
     public boolean rollback() {
         Log.d(TAG, "Starting rollback");
         
-        String currentPatchId = storage.getAppliedPatchId();
-        String previousPatchId = storage.getPreviousPatchId();
-        
         try {
-            // 1. 清理当前应用的补丁文件
-            File appliedFile = storage.getAppliedPatchFile();
-            if (appliedFile.exists()) {
-                securityManager.secureDelete(appliedFile);
-                Log.d(TAG, "Cleared current applied patch file");
-            }
-            
-            // 2. 如果有上一个补丁，恢复它
-            if (previousPatchId != null) {
-                String restoredPatchId = storage.restoreBackupPatch();
-                if (restoredPatchId != null) {
-                    Log.d(TAG, "Restored previous patch: " + restoredPatchId);
-                    
-                    // 重新注入上一个补丁
-                    File restoredFile = storage.getAppliedPatchFile();
-                    if (restoredFile.exists()) {
-                        try {
-                            DexPatcher.injectPatchDex(context, restoredFile.getAbsolutePath());
-                            Log.d(TAG, "Previous patch re-injected");
-                        } catch (DexPatcher.PatchException e) {
-                            Log.w(TAG, "Failed to re-inject previous patch", e);
-                            // 继续回滚到原始状态
-                            storage.saveAppliedPatchId(null);
-                            storage.clearBackup();
-                        }
-                    }
-                } else {
-                    // 恢复失败，回滚到原始状态
-                    Log.w(TAG, "Failed to restore backup, rolling back to original state");
-                    storage.saveAppliedPatchId(null);
+            // 1. 切换回上一个补丁的槽位（被回滚的补丁随之丢弃）
+            String restoredPatchId = storage.restoreBackupPatch();
+            if (restoredPatchId != null) {
+                Log.d(TAG, "Restored previous patch: " + restoredPatchId);
+                
+                // 重新注入上一个补丁
+                File restoredFile = storage.getAppliedPatchFile();
+                try {
+                    DexPatcher.injectPatchDex(context, restoredFile.getAbsolutePath(),
+                            PatchSlots.getOptimizedDir(storage.getAppliedDir()), storage.getAppliedPatchHash());
+                    Log.d(TAG, "Previous patch re-injected");
+                } catch (DexPatcher.PatchException e) {
+                    Log.w(TAG, "Failed to re-inject previous patch", e);
+                    // 继续回滚到原始状态
+                    storage.clearAppliedSlot();
                 }
             } else {
                 // 没有上一个补丁，回滚到原始状态
                 Log.d(TAG, "No previous patch, rolling back to original state");
-                storage.saveAppliedPatchId(null);
+                storage.clearAppliedSlot();
+                storage.clearBackup();
             }
             
-            // 3. 清理备份
-            storage.clearBackup();
-            
             Log.i(TAG, "Rollback completed successfully");
             return true;
             
@@ -321,17 +297,8 @@ public class PatchApplier {
         Log.d(TAG, "Rolling back to original state");
         
         try {
-            // 1. 清理已应用的补丁文件
-            File appliedFile = storage.getAppliedPatchFile();
-            if (appliedFile.exists()) {
-                securityManager.secureDelete(appliedFile);
-            }
-            
-            // 2. 清除应用状态
-            storage.saveAppliedPatchId(null);
-            storage.savePreviousPatchId(null);
-            
-            // 3. 清理备份
+            // 清除两个槽位及应用状态
+            storage.clearAppliedSlot();
             storage.clearBackup();
             
             Log.i(TAG, "Rolled back to original state");
@@ -361,6 +328,8 @@ public class PatchApplier {
         }
         
         Log.d(TAG, "Loading applied patch: " + appliedPatchId);
+        PatchMetrics.Session metrics = PatchMetrics.begin(PatchMetrics.KIND_STARTUP, appliedPatchId);
+        boolean loaded = false;
         
         // 检查已应用的补丁文件是否存在
         File appliedFile = storage.getAppliedPatchFile();
@@ -368,10 +337,14 @@ public class PatchApplier {
             Log.w(TAG, "Applied patch file not found, trying to restore from encrypted storage");
             
             // 尝试从加密存储恢复
+            long start = PatchMetrics.start(metrics);
             File decryptedFile = storage.decryptPatchToApplied(appliedPatchId);
+            PatchMetrics.end(metrics, PatchMetrics.PHASE_DECRYPTION, start);
+            PatchMetrics.addBytes(metrics, decryptedFile);
             if (decryptedFile == null || !decryptedFile.exists()) {
                 Log.e(TAG, "Failed to restore applied patch, clearing state");
                 storage.saveAppliedPatchId(null);
+                PatchMetrics.finish(metrics, false);
                 return;
             }
             appliedFile = decryptedFile;
@@ -380,53 +353,38 @@ public class PatchApplier {
         // 注入补丁
         try {
             String patchPath = appliedFile.getAbsolutePath();
-            String resourcePath = patchPath; // 资源路径可能不同于 DEX 路径
             
             // 检查补丁是否已经注入
-            if (DexPatcher.isPatchInjected(context, patchPath)) {
+            if (DexPatcher.isPatchInjected(context, patchPath, storage.getAppliedPatchHash())) {
                 Log.d(TAG, "Patch already injected, skipping");
+                PatchMetrics.hit(metrics, PatchMetrics.HIT_DEX_INJECTED);
+                loaded = true;
                 return;
             }
             
-            // 注入 Dex 补丁（使用原始补丁文件）
-            DexPatcher.injectPatchDex(context, patchPath);
+            // 注入 Dex 补丁（使用原始补丁文件，odex 输出到槽位内）
+            long start = PatchMetrics.start(metrics);
+            DexPatcher.injectPatchDex(context, patchPath, PatchSlots.getOptimizedDir(storage.getAppliedDir()),
+                    storage.getAppliedPatchHash());
+            PatchMetrics.end(metrics, PatchMetrics.PHASE_DEX_INJECTION, start);
             Log.d(TAG, "Dex patch loaded successfully");
             
             // 加载资源补丁（如果存在）
             if (hasResourcePatch(appliedFile)) {
-                Log.d(TAG, "Patch contains resources, checking for merged resources");
-                
-                // 检查是否已经有合并后的资源文件
-                File mergedResourceFile = new File(storage.getAppliedDir(), "merged_resources.apk");
+                Log.d(TAG, "Patch contains resources, checking for prepared resources");
                 
-                if (mergedResourceFile.exists()) {
-                    Log.i(TAG, "Using existing merged resources: " + mergedResourceFile.length());
-                    resourcePath = mergedResourceFile.getAbsolutePath();
-                } else {
-                    Log.d(TAG, "Merged resources not found, merging now...");
-                    
-                    // 使用 ResourceMerger 合并资源（Tinker 的方式）
-                    boolean merged = ResourceMerger.mergeResources(
-                        context, appliedFile, mergedResourceFile);
-                    
-                    if (merged && mergedResourceFile.exists()) {
-                        Log.i(TAG, "Resources merged successfully, size: " + mergedResourceFile.length());
-                        // 使用合并后的完整资源包
-                        resourcePath = mergedResourceFile.getAbsolutePath();
-                    } else {
-                        Log.w(TAG, "Failed to merge resources, using patch directly");
-                    }
-                }
-                
-                try {
-                    // 使用合并后的完整资源包加载资源
-                    ResourcePatcher.loadPatchResources(context, resourcePath);
-                    Log.d(TAG, "Resource patch loaded successfully from: " + resourcePath);
-                } catch (ResourcePatcher.PatchResourceException e) {
-                    Log.w(TAG, "Failed to load resource patch", e);
+                // 只加载已就绪的覆盖资源包或合并资源包，缺失时本次使用原始资源，后台生成供下次启动使用
+                start = PatchMetrics.start(metrics);
+                boolean resourcesLoaded = ResourceOverlay.loadReadyResources(context, appliedFile,
+                        storage.getAppliedDir(), storage.getAppliedPatchHash(), null);
+                PatchMetrics.end(metrics, PatchMetrics.PHASE_RESOURCE_SWAP, start);
+                if (resourcesLoaded) {
+                    PatchMetrics.hit(metrics, PatchMetrics.HIT_RESOURCES_READY);
+                    Log.d(TAG, "Resource patch loaded successfully");
                 }
             }
             
+            loaded = true;
             Log.i(TAG, "Applied patch loaded: " + appliedPatchId);
             
         } catch (DexPatcher.PatchException e) {
@@ -434,6 +392,8 @@ public class PatchApplier {
             
             // 加载失败，清理状态
             handleLoadFailure(appliedPatchId);
+        } finally {
+            PatchMetrics.finish(metrics, loaded);
         }
     }
     
@@ -443,26 +403,17 @@ public class PatchApplier {
     private void handleLoadFailure(String patchId) {
         Log.w(TAG, "Handling load failure for patch: " + patchId);
         
-        // 清理已应用的补丁文件
-        File appliedFile = storage.getAppliedPatchFile();
-        if (appliedFile.exists()) {
-            securityManager.secureDelete(appliedFile);
-        }
-        
-        // 尝试恢复上一个补丁
-        String previousPatchId = storage.getPreviousPatchId();
-        if (previousPatchId != null && !previousPatchId.equals(patchId)) {
-            Log.d(TAG, "Trying to restore previous patch: " + previousPatchId);
-            String restoredId = storage.restoreBackupPatch();
-            if (restoredId != null) {
-                // 递归加载恢复的补丁
-                loadAppliedPatch();
-                return;
-            }
+        // 尝试切换回上一个补丁的槽位（失败的补丁随之丢弃）
+        String restoredId = storage.restoreBackupPatch();
+        if (restoredId != null && !restoredId.equals(patchId)) {
+            Log.d(TAG, "Restored previous patch: " + restoredId);
+            // 递归加载恢复的补丁
+            loadAppliedPatch();
+            return;
         }
         
         // 无法恢复，清除状态
-        storage.saveAppliedPatchId(null);
+        storage.clearAppliedSlot();
         storage.clearBackup();
         Log.w(TAG, "Cleared patch state due to load failure");
     }
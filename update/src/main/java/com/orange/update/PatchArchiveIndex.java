@@ -0,0 +1,499 @@
+package com.orange.update;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 补丁包索引
+ *
+ * 一次读取 EOCD 和中央目录，得到所有条目的名称、本地头偏移、大小、CRC 和标志位，
+ * 并读出 patch.json。应用补丁和启动时的各项检查（格式校验、是否含 DEX / 签名 / SO、
+ * 是否 ZIP 密码加密、资源条目列表）都从索引得到结果，不再各自打开并遍历补丁。
+ *
+ * 索引不可变，按文件 SHA-256（未知时按路径 + 长度 + 修改时间）缓存最近几个补丁。
+ */
+public final class PatchArchiveIndex {
+
+    private static final String TAG = "PatchArchiveIndex";
+
+    public static final String PATCH_JSON = "patch.json";
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    /** 中央目录大小上限，超出视为损坏 */
+    private static final long MAX_CENTRAL_DIRECTORY_SIZE = 64L * 1024 * 1024;
+    /** patch.json 大小上限 */
+    private static final int MAX_PATCH_JSON_SIZE = 1024 * 1024;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int CACHE_SIZE = 4;
+
+    private static final Map<String, PatchArchiveIndex> cache =
+            new LinkedHashMap<String, PatchArchiveIndex>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PatchArchiveIndex> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /**
+     * 中央目录中的一个条目
+     */
+    public static final class Entry {
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, int flags, int method, long crc, long compressedSize, long size,
+              long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        public boolean isEncrypted() {
+            return (flags & FLAG_ENCRYPTED) != 0;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final long fileLength;
+    private final boolean startsWithLocalHeader;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+    private final boolean encrypted;
+    private final String patchJson;
+    private final String patchId;
+    private final String patchVersion;
+    private final String targetVersion;
+    private final String packageName;
+
+    private PatchArchiveIndex(File file, boolean startsWithLocalHeader, List<Entry> entries,
+                              String patchJson) {
+        this.fileLength = file.length();
+        this.startsWithLocalHeader = startsWithLocalHeader;
+        this.entries = Collections.unmodifiableList(entries);
+        Map<String, Entry> byName = new LinkedHashMap<>();
+        boolean anyEncrypted = false;
+        for (Entry entry : entries) {
+            byName.put(entry.name, entry);
+            anyEncrypted |= entry.isEncrypted();
+        }
+        this.entriesByName = Collections.unmodifiableMap(byName);
+        this.encrypted = anyEncrypted;
+        this.patchJson = patchJson;
+
+        JSONObject json = null;
+        if (patchJson != null) {
+            try {
+                json = new JSONObject(patchJson);
+            } catch (JSONException e) {
+                Log.w(TAG, "Invalid patch.json in " + file.getName());
+            }
+        }
+        this.patchId = json != null ? json.optString("patchId", null) : null;
+        this.patchVersion = json != null ? json.optString("patchVersion", null) : null;
+        this.targetVersion = json != null ? json.optString("targetVersion", null) : null;
+        this.packageName = json != null ? json.optString("packageName", null) : null;
+    }
+
+    /**
+     * 获取补丁索引（按路径 + 长度 + 修改时间缓存）
+     *
+     * @return 索引；不是有效的 ZIP 文件时返回 null
+     */
+    public static PatchArchiveIndex of(File file) {
+        return of(file, null);
+    }
+
+    /**
+     * 获取补丁索引
+     *
+     * @param file 补丁文件
+     * @param sha256 文件的 SHA-256（已知时作为缓存键，可为 null）
+     * @return 索引；不是有效的 ZIP 文件时返回 null
+     */
+    public static PatchArchiveIndex of(File file, String sha256) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        String key = sha256 != null ? sha256.toLowerCase(java.util.Locale.ROOT)
+                : file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+        synchronized (cache) {
+            PatchArchiveIndex cached = cache.get(key);
+            if (cached != null && cached.fileLength == file.length()) {
+                return cached;
+            }
+        }
+        try {
+            PatchArchiveIndex index = read(file);
+            synchronized (cache) {
+                cache.put(key, index);
+            }
+            return index;
+        } catch (IOException e) {
+            Log.d(TAG, "Not a valid zip archive: " + file.getName() + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 丢弃按哈希缓存的索引
+     *
+     * 文件被篡改时，校验完成前读取的索引可能已经以可信的哈希为键缓存，恢复文件前需要丢弃。
+     */
+    public static void invalidate(String sha256) {
+        if (sha256 == null) {
+            return;
+        }
+        synchronized (cache) {
+            cache.remove(sha256.toLowerCase(java.util.Locale.ROOT));
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    public boolean hasEntry(String name) {
+        return entriesByName.containsKey(name);
+    }
+
+    /**
+     * 文件是否以本地文件头（PK\3\4）开头
+     */
+    public boolean startsWithLocalHeader() {
+        return startsWithLocalHeader;
+    }
+
+    /**
+     * 是否有加密条目（ZIP 密码保护）
+     */
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * 是否包含 DEX 文件
+     */
+    public boolean hasDex() {
+        for (Entry entry : entries) {
+            if (entry.name.endsWith(".dex")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 包含的 DEX 文件数量
+     */
+    public int getDexCount() {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.name.endsWith(".dex")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 一个 dex element 实际会加载的 DEX 数量
+     *
+     * ART 从 classes.dex 开始依次加载 classes2.dex、classes3.dex ...，遇到缺失的序号即停止；
+     * 新版本生成器连续命名补丁 dex，此值等于 {@link #getDexCount()}。
+     */
+    public int getLoadableDexCount() {
+        int count = 0;
+        while (hasEntry(count == 0 ? "classes.dex" : "classes" + (count + 1) + ".dex")) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 是否包含签名：META-INF/ 下的 JAR 签名文件，或 signature.sig 标记文件
+     */
+    public boolean hasSignatureEntries() {
+        for (Entry entry : entries) {
+            String name = entry.name;
+            if (name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA")
+                    || name.endsWith(".DSA") || name.endsWith(".EC"))) {
+                return true;
+            }
+        }
+        return entriesByName.containsKey("signature.sig");
+    }
+
+    /**
+     * patch.json 原文，没有或条目已加密时返回 null
+     */
+    public String getPatchJson() {
+        return patchJson;
+    }
+
+    /**
+     * 由 patch.json 创建补丁信息
+     *
+     * @return 新的 PatchInfo 实例，没有 patch.json 时返回 null
+     */
+    public PatchInfo newPatchInfo() {
+        if (patchJson == null) {
+            return null;
+        }
+        PatchInfo patchInfo = new PatchInfo();
+        patchInfo.setPatchId(patchId);
+        patchInfo.setPatchVersion(patchVersion);
+        patchInfo.setTargetAppVersion(targetVersion);
+        patchInfo.setPackageName(packageName);
+        return patchInfo;
+    }
+
+    // ==================== 解析 ====================
+
+    private static PatchArchiveIndex read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < EOCD_MIN_SIZE) {
+                throw new IOException("File too short");
+            }
+
+            // 1. 从文件末尾一次读出 EOCD 可能所在的区域（包括 ZIP64 定位器）
+            int tailLength = (int) Math.min(length, EOCD_MIN_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+            long tailOffset = length - tailLength;
+            ByteBuffer tail = readBuffer(raf, tailOffset, tailLength);
+            int eocd = findEocd(tail);
+            if (eocd < 0) {
+                throw new IOException("End of central directory not found");
+            }
+            long entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+            long cdSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+            long cdOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+            if (entryCount == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+                int locator = eocd - ZIP64_LOCATOR_SIZE;
+                if (locator < 0 || tail.getInt(locator) != ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                    throw new IOException("ZIP64 locator not found");
+                }
+                long zip64Offset = tail.getLong(locator + 8);
+                ByteBuffer zip64 = readBuffer(raf, zip64Offset, 56);
+                if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Invalid ZIP64 end of central directory");
+                }
+                entryCount = zip64.getLong(32);
+                cdSize = zip64.getLong(40);
+                cdOffset = zip64.getLong(48);
+            }
+            if (cdSize > MAX_CENTRAL_DIRECTORY_SIZE || cdOffset + cdSize > length
+                    || entryCount > cdSize / CENTRAL_HEADER_SIZE) {
+                throw new IOException("Invalid central directory: offset=" + cdOffset + ", size=" + cdSize);
+            }
+
+            // 2. 一次读出整个中央目录并解析
+            ByteBuffer cd = readBuffer(raf, cdOffset, (int) cdSize);
+            List<Entry> entries = new ArrayList<>((int) entryCount);
+            int pos = 0;
+            for (long i = 0; i < entryCount; i++) {
+                entries.add(parseCentralHeader(cd, pos, length));
+                pos += CENTRAL_HEADER_SIZE + (cd.getShort(pos + 28) & 0xFFFF)
+                        + (cd.getShort(pos + 30) & 0xFFFF) + (cd.getShort(pos + 32) & 0xFFFF);
+            }
+
+            boolean startsWithLocalHeader = readBuffer(raf, 0, 4).getInt(0) == LOCAL_HEADER_SIGNATURE;
+
+            // 3. 读出 patch.json
+            String patchJson = null;
+            for (Entry entry : entries) {
+                if (PATCH_JSON.equals(entry.name)) {
+                    patchJson = readPatchJson(raf, entry);
+                    break;
+                }
+            }
+            return new PatchArchiveIndex(file, startsWithLocalHeader, entries, patchJson);
+        }
+    }
+
+    private static Entry parseCentralHeader(ByteBuffer cd, int pos, long fileLength) throws IOException {
+        if (pos + CENTRAL_HEADER_SIZE > cd.capacity() || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid central directory entry at " + pos);
+        }
+        int flags = cd.getShort(pos + 8) & 0xFFFF;
+        int method = cd.getShort(pos + 10) & 0xFFFF;
+        long crc = cd.getInt(pos + 16) & 0xFFFFFFFFL;
+        long compressedSize = cd.getInt(pos + 20) & 0xFFFFFFFFL;
+        long size = cd.getInt(pos + 24) & 0xFFFFFFFFL;
+        int nameLength = cd.getShort(pos + 28) & 0xFFFF;
+        int extraLength = cd.getShort(pos + 30) & 0xFFFF;
+        long localHeaderOffset = cd.getInt(pos + 42) & 0xFFFFFFFFL;
+        int nameStart = pos + CENTRAL_HEADER_SIZE;
+        if (nameStart + nameLength + extraLength > cd.capacity()) {
+            throw new IOException("Truncated central directory entry at " + pos);
+        }
+        byte[] nameBytes = new byte[nameLength];
+        cd.position(nameStart);
+        cd.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        // ZIP64 扩展字段：只包含头部中为 0xFFFFFFFF 的字段，按 原始大小、压缩大小、本地头偏移 顺序
+        if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+            int extra = nameStart + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = cd.getShort(extra) & 0xFFFF;
+                int dataSize = cd.getShort(extra + 2) & 0xFFFF;
+                int field = extra + 4;
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                        size = cd.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                        compressedSize = cd.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                        localHeaderOffset = cd.getLong(field);
+                    }
+                    break;
+                }
+                extra = field + dataSize;
+            }
+        }
+        if (localHeaderOffset + LOCAL_HEADER_SIZE > fileLength) {
+            throw new IOException("Invalid local header offset for " + name);
+        }
+        return new Entry(name, flags, method, crc, compressedSize, size, localHeaderOffset);
+    }
+
+    private static String readPatchJson(RandomAccessFile raf, Entry entry) throws IOException {
+        if (entry.isEncrypted() || entry.size > MAX_PATCH_JSON_SIZE
+                || entry.compressedSize > MAX_PATCH_JSON_SIZE) {
+            return null;
+        }
+        ByteBuffer local = readBuffer(raf, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header for " + entry.name);
+        }
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE
+                + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+        byte[] data = new byte[(int) entry.compressedSize];
+        raf.seek(dataOffset);
+        raf.readFully(data);
+
+        byte[] plain;
+        if (entry.method == METHOD_STORED) {
+            plain = data;
+        } else if (entry.method == METHOD_DEFLATED) {
+            plain = new byte[(int) entry.size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                int count = inflater.inflate(plain);
+                if (count != plain.length) {
+                    throw new IOException("Truncated " + entry.name);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt " + entry.name, e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            Log.w(TAG, "Unsupported compression method for patch.json: " + entry.method);
+            return null;
+        }
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private static int findEocd(ByteBuffer tail) {
+        int size = tail.capacity();
+        int maxCommentSize = Math.min(MAX_COMMENT_SIZE, size - EOCD_MIN_SIZE);
+        for (int commentSize = 0; commentSize <= maxCommentSize; commentSize++) {
+            int offset = size - EOCD_MIN_SIZE - commentSize;
+            if (tail.getInt(offset) == EOCD_SIGNATURE
+                    && (tail.getShort(offset + EOCD_MIN_SIZE - 2) & 0xFFFF) == commentSize) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer readBuffer(RandomAccessFile raf, long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > raf.length()) {
+            throw new IOException("Read beyond end of file: " + offset + "+" + length);
+        }
+        byte[] data = new byte[length];
+        raf.seek(offset);
+        raf.readFully(data);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,184 @@
+package com.orange.update;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 补丁差分文件，用本地已应用的旧补丁 + 差分重建新补丁
+ *
+ * 格式由 patch-core 的 PatchDeltaDiffer 生成：
+ * <pre>
+ * 头部（不压缩）: "HUDLT001" | 旧补丁长度(8) | 旧补丁 SHA-256(32) | 新补丁长度(8) | 新补丁 SHA-256(32)
+ * 指令（Deflate 压缩）: 'C' 偏移(8) 长度(4) | 'I' 长度(4) 数据 | 'E'
+ * </pre>
+ * 重建结果的长度和 SHA-256 必须与头部一致，否则视为失败（调用方回退到完整补丁）。
+ */
+public final class PatchDelta {
+
+    private static final String MAGIC = "HUDLT001";
+    private static final int HEADER_SIZE = 8 + 8 + 32 + 8 + 32;
+
+    private static final int OP_COPY = 'C';
+    private static final int OP_INSERT = 'I';
+    private static final int OP_END = 'E';
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long baseLength;
+    private final String baseSha256;
+    private final long targetLength;
+    private final String targetSha256;
+
+    private PatchDelta(long baseLength, String baseSha256, long targetLength, String targetSha256) {
+        this.baseLength = baseLength;
+        this.baseSha256 = baseSha256;
+        this.targetLength = targetLength;
+        this.targetSha256 = targetSha256;
+    }
+
+    /**
+     * 读取差分文件头部
+     * @throws IOException 不是差分文件或文件损坏
+     */
+    public static PatchDelta readHeader(File deltaFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(deltaFile))) {
+            return readHeader(in);
+        }
+    }
+
+    private static PatchDelta readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length()];
+        in.readFully(magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+            throw new IOException("Not a patch delta file");
+        }
+        long baseLength = in.readLong();
+        byte[] baseHash = new byte[32];
+        in.readFully(baseHash);
+        long targetLength = in.readLong();
+        byte[] targetHash = new byte[32];
+        in.readFully(targetHash);
+        if (baseLength < 0 || targetLength < 0) {
+            throw new IOException("Invalid patch delta header");
+        }
+        return new PatchDelta(baseLength, Md5Utils.toHex(baseHash), targetLength, Md5Utils.toHex(targetHash));
+    }
+
+    public String getBaseSha256() {
+        return baseSha256;
+    }
+
+    public String getTargetSha256() {
+        return targetSha256;
+    }
+
+    public long getTargetLength() {
+        return targetLength;
+    }
+
+    /**
+     * 用旧补丁和差分文件重建新补丁
+     *
+     * @param baseFile 旧补丁（明文）
+     * @param deltaFile 差分文件
+     * @param outFile 输出的新补丁
+     * @return 差分头部信息
+     * @throws IOException 旧补丁不匹配、差分损坏或重建结果校验失败（outFile 已删除）
+     */
+    public static PatchDelta apply(File baseFile, File deltaFile, File outFile) throws IOException {
+        boolean success = false;
+        try (DataInputStream deltaIn = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(deltaFile), BUFFER_SIZE))) {
+            PatchDelta delta = readHeader(deltaIn);
+            if (baseFile.length() != delta.baseLength) {
+                throw new IOException("Base patch length mismatch: " + baseFile.length()
+                        + " != " + delta.baseLength);
+            }
+
+            MessageDigest sha256 = newSha256();
+            long written = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (RandomAccessFile base = new RandomAccessFile(baseFile, "r");
+                 DataInputStream ops = new DataInputStream(new InflaterInputStream(deltaIn));
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE)) {
+                while (true) {
+                    int op = ops.read();
+                    if (op == OP_END) {
+                        break;
+                    }
+                    if (op == OP_COPY) {
+                        long offset = ops.readLong();
+                        int length = ops.readInt();
+                        if (offset < 0 || length < 0 || offset + length > delta.baseLength) {
+                            throw new IOException("Invalid copy range: " + offset + "+" + length);
+                        }
+                        base.seek(offset);
+                        written += transfer(base, null, length, out, sha256, buffer);
+                    } else if (op == OP_INSERT) {
+                        int length = ops.readInt();
+                        if (length < 0) {
+                            throw new IOException("Invalid insert length: " + length);
+                        }
+                        written += transfer(null, ops, length, out, sha256, buffer);
+                    } else {
+                        throw new IOException(op == -1 ? "Unexpected end of delta" : "Unknown delta op: " + op);
+                    }
+                    if (written > delta.targetLength) {
+                        throw new IOException("Delta output exceeds target length");
+                    }
+                }
+            }
+
+            if (written != delta.targetLength) {
+                throw new IOException("Target length mismatch: " + written + " != " + delta.targetLength);
+            }
+            String actual = Md5Utils.toHex(sha256.digest());
+            if (!actual.equalsIgnoreCase(delta.targetSha256)) {
+                throw new IOException("Target SHA-256 mismatch");
+            }
+            success = true;
+            return delta;
+        } finally {
+            if (!success) {
+                outFile.delete();
+            }
+        }
+    }
+
+    private static long transfer(RandomAccessFile base, InputStream in, int length, OutputStream out,
+                                 MessageDigest digest, byte[] buffer) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int chunk = Math.min(buffer.length, remaining);
+            int read = base != null ? base.read(buffer, 0, chunk) : in.read(buffer, 0, chunk);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of " + (base != null ? "base patch" : "delta"));
+            }
+            digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return length;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
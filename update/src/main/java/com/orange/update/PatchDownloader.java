@@ -5,6 +5,7 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
@@ -13,7 +14,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 补丁下载器，负责从服务器下载补丁文件。
- * 支持断点续传和下载进度回调。
+ * 支持断点续传、流式下载目标和下载进度回调。
  */
 public class PatchDownloader {
     
@@ -185,6 +186,148 @@ public class PatchDownloader {
         }
     }
 
+    /**
+     * 流式下载目标
+     * 
+     * 下载数据直接写入目标（如边计算摘要边加密），不经过明文临时文件，完成后由目标校验并提交。
+     */
+    public interface StreamTarget {
+        
+        /**
+         * 开始接收数据
+         * @param contentLength 数据总长度
+         * @return 数据写入的输出流
+         */
+        OutputStream open(long contentLength) throws IOException;
+        
+        /**
+         * 数据接收完毕，校验并提交
+         * @return 提交后的文件，校验失败时返回 null
+         */
+        File commit() throws IOException;
+        
+        /**
+         * 下载失败或取消，丢弃已写入的数据
+         */
+        void abort();
+    }
+    
+    /**
+     * 流式下载到目标，网络数据只读取一次、写入一次
+     * 
+     * 流式目标不支持断点续传，每次从头下载；校验失败时回调 ERROR_CHECKSUM_MISMATCH。
+     * @param downloadUrl 下载地址
+     * @param target 流式下载目标
+     * @param callback 下载回调，成功时返回 {@link StreamTarget#commit()} 提交的文件
+     */
+    public void download(String downloadUrl, StreamTarget target, DownloadCallback callback) {
+        if (downloadUrl == null || downloadUrl.isEmpty()) {
+            notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, "Download URL is empty");
+            return;
+        }
+        
+        if (target == null) {
+            notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, "Download target is null");
+            return;
+        }
+        
+        cancelled.set(false);
+        
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+        boolean committed = false;
+        
+        try {
+            URL url = new URL(downloadUrl);
+            connection = (HttpURLConnection) url.openConnection();
+            currentConnection = connection;
+            
+            // 配置连接
+            connection.setConnectTimeout(config.getConnectTimeout());
+            connection.setReadTimeout(config.getReadTimeout());
+            connection.setRequestMethod("GET");
+            connection.connect();
+            
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                notifyError(callback, UpdateErrorCode.ERROR_SERVER_ERROR,
+                        "Server returned error code: " + responseCode);
+                return;
+            }
+            
+            // 流式目标需要预先知道长度（分段加密的头部包含明文长度）
+            long totalSize = connection.getContentLength();
+            if (totalSize <= 0) {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED,
+                        "Invalid content length");
+                return;
+            }
+            
+            inputStream = connection.getInputStream();
+            OutputStream outputStream = target.open(totalSize);
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            long currentBytes = 0;
+            long lastProgressCallback = 0;
+            
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                // 检查是否取消
+                if (cancelled.get()) {
+                    Log.d(TAG, "Download cancelled");
+                    notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, 
+                            "Download cancelled");
+                    return;
+                }
+                
+                outputStream.write(buffer, 0, bytesRead);
+                currentBytes += bytesRead;
+                
+                // 定期回调进度
+                if (currentBytes - lastProgressCallback >= PROGRESS_CALLBACK_INTERVAL) {
+                    notifyProgress(callback, currentBytes, totalSize);
+                    lastProgressCallback = currentBytes;
+                }
+            }
+            
+            // 最终进度回调
+            notifyProgress(callback, currentBytes, totalSize);
+            
+            File committedFile = target.commit();
+            committed = true;
+            if (committedFile == null) {
+                notifyError(callback, UpdateErrorCode.ERROR_CHECKSUM_MISMATCH,
+                        "Checksum verification failed");
+                return;
+            }
+            
+            Log.d(TAG, "Stream download committed: " + committedFile.getAbsolutePath());
+            notifySuccess(callback, committedFile);
+            
+        } catch (SocketTimeoutException e) {
+            Log.e(TAG, "Download timeout", e);
+            notifyError(callback, UpdateErrorCode.ERROR_TIMEOUT, "Download timeout");
+        } catch (IOException e) {
+            Log.e(TAG, "Download failed", e);
+            if (cancelled.get()) {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, 
+                        "Download cancelled");
+            } else {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, 
+                        "Download failed: " + e.getMessage());
+            }
+        } finally {
+            if (!committed) {
+                target.abort();
+            }
+            closeQuietly(inputStream);
+            if (connection != null) {
+                connection.disconnect();
+            }
+            currentConnection = null;
+        }
+    }
+
     /**
      * 取消当前下载
      */
@@ -19,6 +19,8 @@ public class PatchInfo {
     private static final String KEY_MD5 = "md5";
     private static final String KEY_CREATE_TIME = "createTime";
     private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_DELTA = "delta";
+    private static final String KEY_DELTA_BASE_HASH = "baseHash";
     
     private String patchId;
     private String patchVersion;
@@ -30,6 +32,12 @@ public class PatchInfo {
     private long createTime;
     private String description;
     
+    // 差分下载信息（服务器按客户端上报的已应用补丁哈希选出，只在检查更新结果中存在，不持久化）
+    private String deltaBaseHash;
+    private String deltaDownloadUrl;
+    private String deltaMd5;
+    private long deltaFileSize;
+    
     public PatchInfo() {
     }
     
@@ -107,6 +115,47 @@ public class PatchInfo {
         this.description = description;
     }
     
+    /**
+     * 差分的基准补丁 SHA-256（需与本地已应用补丁的哈希一致）
+     */
+    public String getDeltaBaseHash() {
+        return deltaBaseHash;
+    }
+    
+    public String getDeltaDownloadUrl() {
+        return deltaDownloadUrl;
+    }
+    
+    public String getDeltaMd5() {
+        return deltaMd5;
+    }
+    
+    public long getDeltaFileSize() {
+        return deltaFileSize;
+    }
+    
+    /**
+     * 设置差分下载信息
+     * @param baseHash 基准补丁 SHA-256
+     * @param downloadUrl 差分文件下载地址
+     * @param md5 差分文件 MD5，可为 null
+     * @param fileSize 差分文件大小
+     */
+    public void setDelta(String baseHash, String downloadUrl, String md5, long fileSize) {
+        this.deltaBaseHash = baseHash;
+        this.deltaDownloadUrl = downloadUrl;
+        this.deltaMd5 = md5;
+        this.deltaFileSize = fileSize;
+    }
+    
+    /**
+     * 是否提供了差分下载
+     */
+    public boolean hasDelta() {
+        return deltaBaseHash != null && !deltaBaseHash.isEmpty()
+                && deltaDownloadUrl != null && !deltaDownloadUrl.isEmpty();
+    }
+    
     /**
      * 将 PatchInfo 序列化为 JSON 字符串
      * @return JSON 字符串
@@ -157,6 +206,14 @@ public class PatchInfo {
             patchInfo.setCreateTime(jsonObject.optLong(KEY_CREATE_TIME, 0));
             patchInfo.setDescription(jsonObject.optString(KEY_DESCRIPTION, null));
             
+            JSONObject delta = jsonObject.optJSONObject(KEY_DELTA);
+            if (delta != null) {
+                patchInfo.setDelta(delta.optString(KEY_DELTA_BASE_HASH, null),
+                        delta.optString(KEY_DOWNLOAD_URL, null),
+                        delta.optString(KEY_MD5, null),
+                        delta.optLong(KEY_FILE_SIZE, 0));
+            }
+            
             // 验证字段值
             patchInfo.validate();
             
@@ -4,7 +4,10 @@ import android.content.Context;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -19,6 +22,8 @@ import java.util.List;
  * 集成组件：
  * - SecurityManager: 签名验证和加密存储
  * - PatchDownloader: 文件下载
+ * - ChunkedDownloader: 发布了分块哈希清单时的分块并行下载
+ * - PatchDelta: 基于已应用补丁的差分重建
  * - PatchStorage: 补丁存储管理
  */
 public class PatchManager {
@@ -28,6 +33,7 @@ public class PatchManager {
     private final Context context;
     private final PatchStorage storage;
     private final PatchDownloader downloader;
+    private final ChunkedDownloader chunkedDownloader;
     private final SecurityManager securityManager;
     private final UpdateConfig config;
     
@@ -47,8 +53,11 @@ public class PatchManager {
         this.context = context.getApplicationContext();
         this.config = config;
         this.securityManager = new SecurityManager(this.context, config.isDebugMode());
+        this.securityManager.setSecureOverwrite(config.isSecureOverwriteDelete());
         this.storage = new PatchStorage(this.context, this.securityManager);
+        StorageQuota.getInstance(this.context).setBudget(config.getStorageQuota());
         this.downloader = new PatchDownloader(config);
+        this.chunkedDownloader = new ChunkedDownloader(config);
     }
     
     /**
@@ -60,6 +69,7 @@ public class PatchManager {
         this.config = config;
         this.storage = storage;
         this.downloader = downloader;
+        this.chunkedDownloader = new ChunkedDownloader(config);
         this.securityManager = securityManager;
     }
 
@@ -88,8 +98,8 @@ public class PatchManager {
         String patchId = patchInfo.getPatchId();
         Log.d(TAG, "Starting download for patch: " + patchId);
         
-        // 获取临时下载文件
-        File tempFile = new File(storage.getTempDir(), patchId + ".tmp");
+        // 下载数据直接计算摘要并加密写入补丁目录，MD5 校验通过后才提交
+        PatchStreamWriter writer = storage.createPatchStreamWriter(patchId, patchInfo.getMd5());
         
         // 创建内部回调处理下载完成后的逻辑
         DownloadCallback internalCallback = new DownloadCallback() {
@@ -102,66 +112,161 @@ public class PatchManager {
             
             @Override
             public void onSuccess(File file) {
-                // 下载完成后，验证 MD5 并加密存储
-                try {
-                    // 验证 MD5
-                    String expectedMd5 = patchInfo.getMd5();
-                    if (expectedMd5 != null && !expectedMd5.isEmpty()) {
-                        if (!Md5Utils.verifyMd5(file, expectedMd5)) {
-                            Log.e(TAG, "MD5 verification failed for patch: " + patchId);
-                            securityManager.secureDelete(file);
-                            notifyError(callback, UpdateErrorCode.ERROR_CHECKSUM_MISMATCH,
-                                    "MD5 checksum verification failed");
-                            return;
-                        }
-                        Log.d(TAG, "MD5 verification passed for patch: " + patchId);
-                    }
-                    
-                    // 加密存储补丁文件
-                    if (!storage.savePatchFromFile(patchId, file)) {
-                        Log.e(TAG, "Failed to save patch file: " + patchId);
-                        notifyError(callback, UpdateErrorCode.ERROR_FILE_WRITE_FAILED,
-                                "Failed to save patch file");
-                        return;
-                    }
-                    
-                    // 保存补丁信息
-                    storage.savePatchInfo(patchInfo);
-                    
-                    // 清理临时文件
-                    securityManager.secureDelete(file);
-                    
-                    Log.d(TAG, "Patch downloaded and saved: " + patchId);
-                    
-                    // 通知成功
-                    File savedFile = storage.getPatchFile(patchId);
-                    if (callback != null) {
-                        callback.onSuccess(savedFile);
-                    }
-                    
-                } catch (IOException e) {
-                    Log.e(TAG, "Error processing downloaded patch: " + patchId, e);
-                    securityManager.secureDelete(file);
-                    notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED,
-                            "Error processing downloaded patch: " + e.getMessage());
+                // 保存补丁信息
+                storage.savePatchInfo(patchInfo);
+                
+                Log.d(TAG, "Patch downloaded and saved: " + patchId + ", sha256: " + writer.getSha256());
+                
+                // 通知成功
+                if (callback != null) {
+                    callback.onSuccess(file);
                 }
             }
             
             @Override
             public void onError(int errorCode, String message) {
                 Log.e(TAG, "Download failed for patch " + patchId + ": " + message);
-                // 清理临时文件
-                if (tempFile.exists()) {
-                    securityManager.secureDelete(tempFile);
-                }
                 if (callback != null) {
                     callback.onError(errorCode, message);
                 }
             }
         };
         
-        // 开始下载
-        downloader.download(downloadUrl, tempFile, internalCallback);
+        // 本地已应用补丁正是差分的基准时只下载差分，失败回退到完整补丁
+        File basePatch = storage.getAppliedPatchFile();
+        if (patchInfo.hasDelta() && basePatch.isFile()
+                && patchInfo.getDeltaBaseHash().equalsIgnoreCase(storage.getAppliedPatchHash())) {
+            downloadDelta(patchInfo, basePatch, writer, internalCallback);
+            return;
+        }
+        
+        downloadFull(downloadUrl, patchId, writer, internalCallback);
+    }
+    
+    /**
+     * 下载完整补丁
+     */
+    private void downloadFull(String downloadUrl, String patchId, PatchStreamWriter writer,
+                              DownloadCallback internalCallback) {
+        // 服务器发布了分块哈希清单且支持 Range 时分块并行下载，否则单连接流式下载
+        ChunkedDownloader.Manifest manifest = config.getDownloadConnections() > 1
+                ? chunkedDownloader.prepare(downloadUrl) : null;
+        if (manifest != null) {
+            downloadChunked(downloadUrl, manifest, patchId, writer, internalCallback);
+        } else {
+            downloader.download(downloadUrl, writer, internalCallback);
+        }
+    }
+    
+    /**
+     * 下载差分并用已应用的补丁重建新补丁，重建结果经 writer 校验 MD5 后加密提交。
+     * 差分下载、校验或重建失败时回退到完整补丁下载（取消除外）。
+     */
+    private void downloadDelta(PatchInfo patchInfo, File basePatch, PatchStreamWriter writer,
+                               DownloadCallback internalCallback) {
+        String patchId = patchInfo.getPatchId();
+        File deltaFile = new File(storage.getTempDir(), patchId + ".delta");
+        Log.d(TAG, "Downloading delta for patch " + patchId + " (" + patchInfo.getDeltaFileSize() + " bytes)");
+        
+        downloader.download(patchInfo.getDeltaDownloadUrl(), deltaFile, new DownloadCallback() {
+            @Override
+            public void onProgress(long current, long total) {
+                internalCallback.onProgress(current, total);
+            }
+            
+            @Override
+            public void onSuccess(File file) {
+                File rebuiltFile = new File(storage.getTempDir(), patchId + ".rebuilt");
+                File patchFile = null;
+                try {
+                    String deltaMd5 = patchInfo.getDeltaMd5();
+                    if (deltaMd5 != null && !deltaMd5.isEmpty() && !Md5Utils.verifyMd5(file, deltaMd5)) {
+                        throw new IOException("Delta MD5 mismatch");
+                    }
+                    PatchDelta.apply(basePatch, file, rebuiltFile);
+                    patchFile = importDownloadedFile(rebuiltFile, writer);
+                    if (patchFile == null) {
+                        throw new IOException("Rebuilt patch MD5 mismatch");
+                    }
+                } catch (IOException e) {
+                    writer.abort();
+                    Log.w(TAG, "Delta update failed for patch " + patchId + ", downloading full patch: "
+                            + e.getMessage());
+                } finally {
+                    file.delete();
+                    securityManager.secureDelete(rebuiltFile);
+                }
+                
+                if (patchFile != null) {
+                    Log.d(TAG, "Patch rebuilt from delta: " + patchId);
+                    internalCallback.onSuccess(patchFile);
+                } else {
+                    downloadFull(patchInfo.getDownloadUrl(), patchId, writer, internalCallback);
+                }
+            }
+            
+            @Override
+            public void onError(int errorCode, String message) {
+                if (errorCode == UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED) {
+                    internalCallback.onError(errorCode, message);
+                    return;
+                }
+                Log.w(TAG, "Delta download failed for patch " + patchId + ", downloading full patch: " + message);
+                deltaFile.delete();
+                downloadFull(patchInfo.getDownloadUrl(), patchId, writer, internalCallback);
+            }
+        });
+    }
+    
+    /**
+     * 分块下载到临时目录（可断点续传），全部分块校验通过后再经 writer 加密提交
+     */
+    private void downloadChunked(String downloadUrl, ChunkedDownloader.Manifest manifest, String patchId,
+                                 PatchStreamWriter writer, DownloadCallback internalCallback) {
+        File chunkedFile = new File(storage.getTempDir(), patchId + ".chunked");
+        chunkedDownloader.download(downloadUrl, manifest, chunkedFile, new DownloadCallback() {
+            @Override
+            public void onProgress(long current, long total) {
+                internalCallback.onProgress(current, total);
+            }
+
+            @Override
+            public void onSuccess(File file) {
+                try {
+                    File patchFile = importDownloadedFile(file, writer);
+                    if (patchFile == null) {
+                        internalCallback.onError(UpdateErrorCode.ERROR_CHECKSUM_MISMATCH,
+                                "MD5 checksum mismatch");
+                    } else {
+                        internalCallback.onSuccess(patchFile);
+                    }
+                } catch (IOException e) {
+                    writer.abort();
+                    internalCallback.onError(UpdateErrorCode.ERROR_FILE_WRITE_FAILED,
+                            "Failed to save patch: " + e.getMessage());
+                } finally {
+                    securityManager.secureDelete(file);
+                }
+            }
+
+            @Override
+            public void onError(int errorCode, String message) {
+                // 保留已下载的分块，下次下载时校验复用
+                internalCallback.onError(errorCode, message);
+            }
+        });
+    }
+
+    private File importDownloadedFile(File file, PatchStreamWriter writer) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            OutputStream out = writer.open(file.length());
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return writer.commit();
     }
     
     /**
@@ -169,6 +274,7 @@ public class PatchManager {
      */
     public void cancelDownload() {
         downloader.cancel();
+        chunkedDownloader.cancel();
     }
 
     
@@ -194,17 +300,33 @@ public class PatchManager {
             return false;
         }
         
-        // 读取解密后的补丁数据进行验证
-        byte[] patchData = storage.readPatchFile(patchId);
-        if (patchData == null) {
-            Log.e(TAG, "Failed to read patch file: " + patchId);
+        // 流式解密补丁数据：计算 MD5 并保留文件头用于格式检查
+        String actualMd5;
+        byte[] header;
+        try (InputStream in = storage.openPatchInputStream(patchId)) {
+            java.security.MessageDigest md = java.security.MessageDigest.getInstance("MD5");
+            byte[] buffer = new byte[64 * 1024];
+            byte[] headerBuffer = new byte[8];
+            int headerLength = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                if (headerLength < headerBuffer.length) {
+                    int count = Math.min(bytesRead, headerBuffer.length - headerLength);
+                    System.arraycopy(buffer, 0, headerBuffer, headerLength, count);
+                    headerLength += count;
+                }
+                md.update(buffer, 0, bytesRead);
+            }
+            actualMd5 = Md5Utils.toHex(md.digest());
+            header = java.util.Arrays.copyOf(headerBuffer, headerLength);
+        } catch (IOException | java.security.NoSuchAlgorithmException e) {
+            Log.e(TAG, "Failed to read patch file: " + patchId, e);
             return false;
         }
         
         // 1. MD5 校验
         String expectedMd5 = patchInfo.getMd5();
         if (expectedMd5 != null && !expectedMd5.isEmpty()) {
-            String actualMd5 = Md5Utils.calculateMd5(patchData);
             if (!actualMd5.equalsIgnoreCase(expectedMd5)) {
                 Log.e(TAG, "MD5 verification failed for patch: " + patchId + 
                         ", expected: " + expectedMd5 + ", actual: " + actualMd5);
@@ -214,7 +336,7 @@ public class PatchManager {
         }
         
         // 2. 验证补丁格式（基本检查）
-        if (!verifyPatchFormat(patchData)) {
+        if (!verifyPatchFormat(header)) {
             Log.e(TAG, "Invalid patch format: " + patchId);
             return false;
         }
@@ -247,15 +369,14 @@ public class PatchManager {
         
         String patchId = patchInfo.getPatchId();
         
-        // 读取解密后的补丁数据
-        byte[] patchData = storage.readPatchFile(patchId);
-        if (patchData == null) {
-            Log.e(TAG, "Failed to read patch file for signature verification: " + patchId);
+        // 流式解密补丁数据并验证签名，不把整个明文读入内存
+        boolean valid;
+        try (InputStream in = storage.openPatchInputStream(patchId)) {
+            valid = securityManager.verifySignature(in, signature);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read patch file for signature verification: " + patchId, e);
             return false;
         }
-        
-        // 验证签名
-        boolean valid = securityManager.verifySignature(patchData, signature);
         if (valid) {
             Log.d(TAG, "Signature verification passed for patch: " + patchId);
         } else {
@@ -396,6 +517,14 @@ public class PatchManager {
         return storage.getStorageUsage();
     }
     
+    /**
+     * 获取存储配额管理器（按产物类别统计占用，超出预算时在后台淘汰）
+     * @return 存储配额管理器
+     */
+    public StorageQuota getStorageQuota() {
+        return StorageQuota.getInstance(context);
+    }
+    
     // ==================== 内部方法 ====================
     
     /**
@@ -0,0 +1,383 @@
+package com.orange.update;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 补丁加载与应用的性能指标
+ *
+ * 启动加载（{@link #KIND_STARTUP}）和应用补丁（{@link #KIND_APPLY}）各生成一条 {@link Record}：
+ * 各阶段耗时（完整性校验、签名验证、解密、资源合并、dex 注入、资源替换）、读取的字节数，
+ * 以及命中的缓存（如验证状态有效跳过完整校验）。
+ *
+ * 使用：
+ * <pre>
+ * PatchMetrics.setListener(record -&gt; uploader.enqueue(record.toCompactString()));
+ * </pre>
+ *
+ * 未设置监听器时 {@link #begin(int, String)} 返回 null，其余方法遇到 null 直接返回，
+ * 不读时钟、不分配对象，对启动路径没有额外开销。
+ *
+ * 监听器在结束本次加载或应用的线程上回调（启动加载时为主线程），应尽快返回，耗时操作转到其它线程。
+ */
+public final class PatchMetrics {
+
+    private static final String TAG = "PatchMetrics";
+
+    /** 启动时加载已应用的补丁 */
+    public static final int KIND_STARTUP = 0;
+    /** 应用新补丁 */
+    public static final int KIND_APPLY = 1;
+
+    /** 完整性校验（SHA-256） */
+    public static final int PHASE_INTEGRITY = 0;
+    /** 签名验证 */
+    public static final int PHASE_SIGNATURE = 1;
+    /** 解密（AES 存储解密或 ZIP 密码解密） */
+    public static final int PHASE_DECRYPTION = 2;
+    /** 生成覆盖资源包或合并资源包 */
+    public static final int PHASE_MERGE = 3;
+    /** 构建并注入补丁 dexElements */
+    public static final int PHASE_DEX_INJECTION = 4;
+    /** 替换 AssetManager / Resources */
+    public static final int PHASE_RESOURCE_SWAP = 5;
+    /** 阶段数量 */
+    public static final int PHASE_COUNT = 6;
+
+    /** 验证状态记录有效，跳过完整校验 */
+    public static final int HIT_VERIFIED_STATE = 1;
+    /** 使用已有的明文补丁副本，未解密 */
+    public static final int HIT_PLAINTEXT_CACHE = 1 << 1;
+    /** 补丁已注入当前进程，未重复注入 */
+    public static final int HIT_DEX_INJECTED = 1 << 2;
+    /** 加载了已就绪的覆盖资源包或合并资源包 */
+    public static final int HIT_RESOURCES_READY = 1 << 3;
+    /** 补丁与已应用的补丁相同，跳过应用 */
+    public static final int HIT_DUPLICATE_PATCH = 1 << 4;
+
+    private static final String[] PHASE_NAMES = {
+            "integrity", "signature", "decryption", "merge", "dex_injection", "resource_swap"
+    };
+
+    /** 紧凑格式版本 */
+    private static final int FORMAT_VERSION = 1;
+    private static final char SEPARATOR = ';';
+
+    private static volatile Listener listener;
+
+    private PatchMetrics() {
+    }
+
+    /**
+     * 指标监听器
+     */
+    public interface Listener {
+        /**
+         * 一次加载或应用结束
+         */
+        void onRecord(Record record);
+    }
+
+    /**
+     * 设置指标监听器，为 null 时关闭指标采集
+     */
+    public static void setListener(Listener listener) {
+        PatchMetrics.listener = listener;
+    }
+
+    public static boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * 阶段名称，如 "integrity"
+     */
+    public static String phaseName(int phase) {
+        return phase >= 0 && phase < PHASE_COUNT ? PHASE_NAMES[phase] : String.valueOf(phase);
+    }
+
+    // ==================== 采集（包内使用） ====================
+
+    /**
+     * 开始一次采集
+     *
+     * @return 采集会话，未设置监听器时返回 null
+     */
+    static Session begin(int kind, String patchId) {
+        Listener current = listener;
+        return current != null ? new Session(kind, patchId, current) : null;
+    }
+
+    /**
+     * 补充补丁 ID（开始采集时尚未确定的情况）
+     */
+    static void setPatchId(Session session, String patchId) {
+        if (session != null) {
+            session.patchId = patchId;
+        }
+    }
+
+    /**
+     * 阶段开始时间，配合 {@link #end(Session, int, long)} 使用
+     *
+     * @return 会话为 null 时返回 0，不读时钟
+     */
+    static long start(Session session) {
+        return session != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 阶段结束，耗时累加到该阶段（同一阶段可以多次计时，如 dex 构建与安装分在不同线程）
+     */
+    static void end(Session session, int phase, long startNanos) {
+        if (session != null) {
+            session.phaseNanos.addAndGet(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 累加读取的字节数
+     */
+    static void addBytes(Session session, long bytes) {
+        if (session != null && bytes > 0) {
+            session.bytesRead.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * 累加读取的字节数（整个文件）
+     */
+    static void addBytes(Session session, File file) {
+        if (session != null && file != null) {
+            addBytes(session, file.length());
+        }
+    }
+
+    /**
+     * 记录命中的缓存
+     *
+     * @param hit HIT_* 常量
+     */
+    static void hit(Session session, int hit) {
+        if (session == null) {
+            return;
+        }
+        int current;
+        do {
+            current = session.hits.get();
+        } while (!session.hits.compareAndSet(current, current | hit));
+    }
+
+    /**
+     * 结束采集并回调监听器，同一会话只回调一次
+     */
+    static void finish(Session session, boolean success) {
+        if (session == null || !session.finished.compareAndSet(false, true)) {
+            return;
+        }
+        long[] phaseMicros = new long[PHASE_COUNT];
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            phaseMicros[i] = session.phaseNanos.get(i) / 1000;
+        }
+        Record record = new Record(session.kind, session.patchId, success, session.startTimeMillis,
+                Build.VERSION.SDK_INT, (System.nanoTime() - session.startNanos) / 1000,
+                phaseMicros, session.bytesRead.get(), session.hits.get());
+        try {
+            session.listener.onRecord(record);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Metrics listener failed", e);
+        }
+    }
+
+    /**
+     * 一次加载或应用的采集状态，阶段可能在多个线程上并发计时
+     */
+    static final class Session {
+        final int kind;
+        final Listener listener;
+        final long startTimeMillis = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final AtomicLongArray phaseNanos = new AtomicLongArray(PHASE_COUNT);
+        final AtomicLong bytesRead = new AtomicLong();
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile String patchId;
+
+        Session(int kind, String patchId, Listener listener) {
+            this.kind = kind;
+            this.patchId = patchId;
+            this.listener = listener;
+        }
+    }
+
+    // ==================== 记录 ====================
+
+    /**
+     * 一次加载或应用的指标
+     *
+     * {@link #toCompactString()} 输出一行紧凑文本，便于批量上报：
+     * <pre>
+     * 版本;类型;开始时间;API 级别;是否成功;补丁 ID;总耗时;各阶段耗时(逗号分隔);读取字节数;命中标记
+     * 1;s;1718000000000;34;1;patch_001;18250;0,0,0,0,9120,4410;0;13
+     * </pre>
+     * 类型 s 为启动加载、a 为应用补丁；耗时单位为微秒，阶段顺序同 PHASE_* 常量；命中标记为 HIT_* 的按位或。
+     */
+    public static final class Record {
+        private final int kind;
+        private final String patchId;
+        private final boolean success;
+        private final long startTimeMillis;
+        private final int sdkInt;
+        private final long totalMicros;
+        private final long[] phaseMicros;
+        private final long bytesRead;
+        private final int hits;
+
+        Record(int kind, String patchId, boolean success, long startTimeMillis, int sdkInt,
+               long totalMicros, long[] phaseMicros, long bytesRead, int hits) {
+            this.kind = kind;
+            this.patchId = patchId;
+            this.success = success;
+            this.startTimeMillis = startTimeMillis;
+            this.sdkInt = sdkInt;
+            this.totalMicros = totalMicros;
+            this.phaseMicros = phaseMicros;
+            this.bytesRead = bytesRead;
+            this.hits = hits;
+        }
+
+        /**
+         * KIND_STARTUP 或 KIND_APPLY
+         */
+        public int getKind() {
+            return kind;
+        }
+
+        public String getPatchId() {
+            return patchId;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getStartTimeMillis() {
+            return startTimeMillis;
+        }
+
+        public int getSdkInt() {
+            return sdkInt;
+        }
+
+        /**
+         * 从开始采集到结束的总耗时（微秒），并发执行的阶段之和可能大于总耗时
+         */
+        public long getTotalMicros() {
+            return totalMicros;
+        }
+
+        /**
+         * 阶段耗时（微秒），未执行的阶段为 0
+         *
+         * @param phase PHASE_* 常量
+         */
+        public long getPhaseMicros(int phase) {
+            return phaseMicros[phase];
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * 命中标记（HIT_* 的按位或）
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        public boolean hasHit(int hit) {
+            return (hits & hit) != 0;
+        }
+
+        /**
+         * 序列化为一行紧凑文本
+         */
+        public String toCompactString() {
+            StringBuilder sb = new StringBuilder(96);
+            sb.append(FORMAT_VERSION).append(SEPARATOR)
+                    .append(kind == KIND_APPLY ? 'a' : 's').append(SEPARATOR)
+                    .append(startTimeMillis).append(SEPARATOR)
+                    .append(sdkInt).append(SEPARATOR)
+                    .append(success ? '1' : '0').append(SEPARATOR)
+                    .append(patchId != null ? patchId.replace(SEPARATOR, '_') : "").append(SEPARATOR)
+                    .append(totalMicros).append(SEPARATOR);
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(phaseMicros[i]);
+            }
+            sb.append(SEPARATOR).append(bytesRead).append(SEPARATOR).append(hits);
+            return sb.toString();
+        }
+
+        /**
+         * 解析 {@link #toCompactString()} 的输出
+         *
+         * @return 格式不正确时返回 null
+         */
+        public static Record fromCompactString(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split(String.valueOf(SEPARATOR), -1);
+            if (parts.length != 10 || !String.valueOf(FORMAT_VERSION).equals(parts[0])) {
+                return null;
+            }
+            try {
+                String[] phases = parts[7].split(",", -1);
+                if (phases.length != PHASE_COUNT) {
+                    return null;
+                }
+                long[] phaseMicros = new long[PHASE_COUNT];
+                for (int i = 0; i < PHASE_COUNT; i++) {
+                    phaseMicros[i] = Long.parseLong(phases[i]);
+                }
+                return new Record("a".equals(parts[1]) ? KIND_APPLY : KIND_STARTUP,
+                        parts[5].isEmpty() ? null : parts[5],
+                        "1".equals(parts[4]),
+                        Long.parseLong(parts[2]),
+                        Integer.parseInt(parts[3]),
+                        Long.parseLong(parts[6]),
+                        phaseMicros,
+                        Long.parseLong(parts[8]),
+                        Integer.parseInt(parts[9]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("PatchMetrics.Record{")
+                    .append(kind == KIND_APPLY ? "apply" : "startup")
+                    .append(", patchId=").append(patchId)
+                    .append(", success=").append(success)
+                    .append(", total=").append(totalMicros).append("us");
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                if (phaseMicros[i] > 0) {
+                    sb.append(", ").append(PHASE_NAMES[i]).append('=').append(phaseMicros[i]).append("us");
+                }
+            }
+            return sb.append(", bytesRead=").append(bytesRead)
+                    .append(", hits=").append(hits).append('}').toString();
+        }
+    }
+}
@@ -14,7 +14,7 @@ import java.util.List;
  * 补丁签名和验证工具
  * 
  * 用于验证补丁 ZIP 文件的签名
- * 补丁 ZIP 文件使用 JAR 签名（v1签名方案），可以：
+ * 补丁 ZIP 文件使用 JAR 签名（v1签名方案），新版本生成的补丁还带有 v2 风格的签名块，可以：
  * 1. 验证补丁的完整性
  * 2. 验证补丁的来源
  * 3. 防止补丁被篡改
@@ -22,6 +22,9 @@ import java.util.List;
  * 使用场景：
  * - 补丁应用前：验证补丁签名
  * 
+ * 补丁包含签名块时优先使用 {@link PatchSigningBlockVerifier} 分块并行验证，
+ * 否则回退到 JarFile 逐条目验证。
+ * 
  * 注意：补丁签名功能在 patch-generator-android 模块中实现
  */
 public class PatchSigner {
@@ -48,9 +51,45 @@ public class PatchSigner {
      * @return 签名有效返回 true，否则返回 false
      */
     public boolean verifyPatchSignature(File patchFile) {
+        return verify(patchFile).valid;
+    }
+
+    /**
+     * 签名验证结果
+     */
+    private static final class Verification {
+        static final Verification FAILED = new Verification(false, null);
+        static final Verification JAR_SIGNED = new Verification(true, null);
+
+        final boolean valid;
+        /** 签名块验证通过时的证书，JAR 签名时为 null（需要从 JAR 中提取） */
+        final X509Certificate blockCertificate;
+
+        Verification(boolean valid, X509Certificate blockCertificate) {
+            this.valid = valid;
+            this.blockCertificate = blockCertificate;
+        }
+    }
+
+    /**
+     * 验证补丁签名，证书随结果返回，不保存在实例中，多个线程可以同时验证不同的补丁
+     */
+    private Verification verify(File patchFile) {
         try {
             Log.i(TAG, "验证补丁签名: " + patchFile.getName());
             
+            // 优先验证签名块（v2 风格，分块并行校验）
+            PatchSigningBlockVerifier.Result blockResult = PatchSigningBlockVerifier.verify(patchFile);
+            if (blockResult.isPresent()) {
+                if (!blockResult.isVerified()) {
+                    lastError = blockResult.getError();
+                    Log.e(TAG, "签名块验证失败: " + lastError);
+                    return Verification.FAILED;
+                }
+                Log.i(TAG, "✓ 补丁签名验证成功（签名块）");
+                return new Verification(true, blockResult.getCertificate());
+            }
+            
             // 使用 JarFile 验证 JAR 签名（v1 签名方案）
             java.util.jar.JarFile jarFile = new java.util.jar.JarFile(patchFile, true);
             
@@ -83,7 +122,7 @@ public class PatchSigner {
                     Log.w(TAG, "  条目未签名: " + entry.getName());
                     jarFile.close();
                     lastError = "补丁包含未签名的条目: " + entry.getName();
-                    return false;
+                    return Verification.FAILED;
                 }
             }
             
@@ -92,16 +131,16 @@ public class PatchSigner {
             if (!hasSigned) {
                 lastError = "补丁未签名";
                 Log.e(TAG, lastError);
-                return false;
+                return Verification.FAILED;
             }
             
             Log.i(TAG, "✓ 补丁签名验证成功（JAR 签名）");
-            return true;
+            return Verification.JAR_SIGNED;
             
         } catch (Exception e) {
             lastError = "验证失败: " + e.getMessage();
             Log.e(TAG, lastError, e);
-            return false;
+            return Verification.FAILED;
         }
     }
     
@@ -118,12 +157,14 @@ public class PatchSigner {
             Log.i(TAG, "验证补丁签名是否与应用签名匹配");
             
             // 1. 验证补丁签名
-            if (!verifyPatchSignature(patchFile)) {
+            Verification verification = verify(patchFile);
+            if (!verification.valid) {
                 return false;
             }
             
-            // 2. 从 JAR 签名中获取补丁的签名证书
-            X509Certificate patchCert = extractCertificateFromJar(patchFile);
+            // 2. 获取补丁的签名证书（签名块验证时已得到，否则从 JAR 签名中提取）
+            X509Certificate patchCert = verification.blockCertificate != null
+                ? verification.blockCertificate : extractCertificateFromJar(patchFile);
             if (patchCert == null) {
                 lastError = "无法从补丁中提取签名证书";
                 Log.e(TAG, lastError);
@@ -0,0 +1,354 @@
+package com.orange.update;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 补丁签名块验证器
+ *
+ * 验证 patch-core 在中央目录前写入的 v2 风格签名块（ID 0x48555031）：
+ * 1. 用签名块中的证书验证 分块大小 | 分块数 | 顶层摘要 的签名
+ * 2. mmap 整个补丁文件，按 1MB 分块并行计算摘要，与签名块中的分块摘要逐一比对
+ *
+ * 被摘要的内容为条目区、中央目录和 EOCD（中央目录偏移按签名块偏移计算），与生成端一致。
+ * 相比 JarFile 逐条目解压校验，只需顺序读一遍文件，且多个分块可以同时计算。
+ */
+public final class PatchSigningBlockVerifier {
+
+    private static final int BLOCK_ID = 0x48555031;
+    private static final int SUPPORTED_VERSION = 1;
+    private static final byte[] MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+    private static final int DIGEST_LENGTH = 32;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int EOCD_CD_OFFSET_OFFSET = 16;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int MAX_THREADS = 4;
+    private static volatile ExecutorService digestExecutor;
+
+    private PatchSigningBlockVerifier() {
+    }
+
+    /**
+     * 验证结果
+     */
+    public static final class Result {
+        private final boolean present;
+        private final boolean verified;
+        private final X509Certificate certificate;
+        private final List<Integer> corruptChunks;
+        private final String error;
+
+        private Result(boolean present, boolean verified, X509Certificate certificate,
+                       List<Integer> corruptChunks, String error) {
+            this.present = present;
+            this.verified = verified;
+            this.certificate = certificate;
+            this.corruptChunks = corruptChunks;
+            this.error = error;
+        }
+
+        static Result absent() {
+            return new Result(false, false, null, Collections.<Integer>emptyList(), "签名块不存在");
+        }
+
+        static Result failed(String error) {
+            return new Result(true, false, null, Collections.<Integer>emptyList(), error);
+        }
+
+        /** 补丁是否包含签名块 */
+        public boolean isPresent() {
+            return present;
+        }
+
+        /** 签名和所有分块摘要是否都验证通过 */
+        public boolean isVerified() {
+            return verified;
+        }
+
+        /** 签名证书，仅签名验证通过时非空 */
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        /** 摘要不匹配的分块序号（按条目区、中央目录、EOCD 顺序编号） */
+        public List<Integer> getCorruptChunks() {
+            return corruptChunks;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * 验证补丁文件的签名块
+     *
+     * @param patchFile 补丁文件
+     * @return 验证结果；没有签名块时 {@link Result#isPresent()} 为 false
+     */
+    public static Result verify(File patchFile) {
+        try (RandomAccessFile raf = new RandomAccessFile(patchFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return Result.failed("补丁文件过大");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return verify(mapped);
+        } catch (IOException e) {
+            return Result.failed("读取补丁失败: " + e.getMessage());
+        }
+    }
+
+    private static Result verify(ByteBuffer file) {
+        int eocdOffset = findEocd(file);
+        if (eocdOffset < 0) {
+            return Result.absent();
+        }
+        int cdOffset = file.getInt(eocdOffset + EOCD_CD_OFFSET_OFFSET);
+        if (cdOffset < MAGIC.length + 16 || cdOffset > eocdOffset || !hasMagic(file, cdOffset - MAGIC.length)) {
+            return Result.absent();
+        }
+
+        long blockSize = file.getLong(cdOffset - MAGIC.length - 8);
+        long blockOffsetLong = cdOffset - blockSize - 8;
+        if (blockSize < MAGIC.length + 8 || blockOffsetLong < 0 || file.getLong((int) blockOffsetLong) != blockSize) {
+            return Result.failed("签名块结构损坏");
+        }
+        int blockOffset = (int) blockOffsetLong;
+
+        ByteBuffer value = findPair(file, blockOffset + 8, cdOffset - MAGIC.length - 8);
+        if (value == null) {
+            return Result.absent();
+        }
+
+        try {
+            int version = value.getInt();
+            if (version != SUPPORTED_VERSION) {
+                return Result.failed("不支持的签名块版本: " + version);
+            }
+            int chunkSize = value.getInt();
+            int chunkCount = value.getInt();
+            if (chunkSize <= 0 || chunkCount < 0 || (long) chunkCount * DIGEST_LENGTH > value.remaining()) {
+                return Result.failed("签名块参数非法");
+            }
+            List<byte[]> expected = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                byte[] digest = new byte[DIGEST_LENGTH];
+                value.get(digest);
+                expected.add(digest);
+            }
+            String algorithm = new String(readLengthPrefixed(value), StandardCharsets.UTF_8);
+            byte[] signature = readLengthPrefixed(value);
+            byte[] certificateBytes = readLengthPrefixed(value);
+
+            // 1. 验证签名
+            X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(certificateBytes));
+            Signature verifier = Signature.getInstance(algorithm);
+            verifier.initVerify(certificate.getPublicKey());
+            verifier.update(signedData(chunkSize, chunkCount, topLevelDigest(expected)));
+            if (!verifier.verify(signature)) {
+                return Result.failed("签名块签名无效");
+            }
+
+            // 2. 并行校验分块摘要
+            byte[] eocd = new byte[file.capacity() - eocdOffset];
+            ByteBuffer eocdSource = file.duplicate();
+            eocdSource.position(eocdOffset);
+            eocdSource.get(eocd);
+            ByteBuffer.wrap(eocd).order(ByteOrder.LITTLE_ENDIAN).putInt(EOCD_CD_OFFSET_OFFSET, blockOffset);
+
+            List<ByteBuffer> chunks = new ArrayList<>();
+            addChunks(chunks, slice(file, 0, blockOffset), chunkSize);
+            addChunks(chunks, slice(file, cdOffset, eocdOffset), chunkSize);
+            addChunks(chunks, ByteBuffer.wrap(eocd), chunkSize);
+            if (chunks.size() != chunkCount) {
+                return Result.failed("分块数不匹配: " + chunks.size() + " != " + chunkCount);
+            }
+
+            List<Integer> corrupt = digestChunks(chunks, expected);
+            if (!corrupt.isEmpty()) {
+                return new Result(true, false, null, corrupt, "补丁内容与签名块不一致，损坏分块数: " + corrupt.size());
+            }
+            return new Result(true, true, certificate, Collections.<Integer>emptyList(), null);
+
+        } catch (Exception e) {
+            return Result.failed("签名块验证失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 计算所有分块摘要并返回不匹配的分块序号
+     */
+    private static List<Integer> digestChunks(final List<ByteBuffer> chunks, final List<byte[]> expected)
+            throws Exception {
+        List<Integer> corrupt = new ArrayList<>();
+        if (chunks.size() <= 1) {
+            for (int i = 0; i < chunks.size(); i++) {
+                if (!Arrays.equals(chunkDigest(chunks.get(i)), expected.get(i))) {
+                    corrupt.add(i);
+                }
+            }
+            return corrupt;
+        }
+
+        List<Future<byte[]>> futures = new ArrayList<>(chunks.size());
+        ExecutorService executor = getDigestExecutor();
+        for (final ByteBuffer chunk : chunks) {
+            futures.add(executor.submit(() -> chunkDigest(chunk)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            if (!Arrays.equals(futures.get(i).get(), expected.get(i))) {
+                corrupt.add(i);
+            }
+        }
+        return corrupt;
+    }
+
+    private static ExecutorService getDigestExecutor() {
+        if (digestExecutor == null) {
+            synchronized (PatchSigningBlockVerifier.class) {
+                if (digestExecutor == null) {
+                    int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+                    digestExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "patch-verify");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return digestExecutor;
+    }
+
+    /**
+     * 分块摘要 = SHA-256(0xa5 | uint32 长度 | 数据)
+     */
+    private static byte[] chunkDigest(ByteBuffer chunk) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) 0xa5);
+        digest.update(intToBytes(chunk.remaining()));
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    /**
+     * 顶层摘要 = SHA-256(0x5a | uint32 分块数 | 各分块摘要)
+     */
+    private static byte[] topLevelDigest(List<byte[]> chunkDigests) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) 0x5a);
+        digest.update(intToBytes(chunkDigests.size()));
+        for (byte[] chunkDigest : chunkDigests) {
+            digest.update(chunkDigest);
+        }
+        return digest.digest();
+    }
+
+    private static byte[] signedData(int chunkSize, int chunkCount, byte[] topLevelDigest) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + topLevelDigest.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(chunkSize);
+        buffer.putInt(chunkCount);
+        buffer.put(topLevelDigest);
+        return buffer.array();
+    }
+
+    private static void addChunks(List<ByteBuffer> chunks, ByteBuffer section, int chunkSize) {
+        int start = section.position();
+        int end = section.limit();
+        for (int offset = start; offset < end; offset += chunkSize) {
+            chunks.add(slice(section, offset, Math.min(end, offset + chunkSize)));
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return slice;
+    }
+
+    /**
+     * 在签名块中查找补丁签名的键值对，返回值部分
+     */
+    private static ByteBuffer findPair(ByteBuffer file, int start, int end) {
+        int offset = start;
+        while (offset + 12 <= end) {
+            long pairLength = file.getLong(offset);
+            if (pairLength < 4 || pairLength > end - offset - 8) {
+                return null;
+            }
+            int id = file.getInt(offset + 8);
+            if (id == BLOCK_ID) {
+                ByteBuffer value = slice(file, offset + 12, (int) (offset + 8 + pairLength)).slice();
+                value.order(ByteOrder.LITTLE_ENDIAN);
+                return value;
+            }
+            offset += 8 + (int) pairLength;
+        }
+        return null;
+    }
+
+    private static byte[] readLengthPrefixed(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("长度字段非法: " + length);
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    private static int findEocd(ByteBuffer file) {
+        int size = file.capacity();
+        if (size < EOCD_MIN_SIZE) {
+            return -1;
+        }
+        int maxCommentSize = Math.min(MAX_COMMENT_SIZE, size - EOCD_MIN_SIZE);
+        for (int commentSize = 0; commentSize <= maxCommentSize; commentSize++) {
+            int offset = size - EOCD_MIN_SIZE - commentSize;
+            if (file.getInt(offset) == EOCD_SIGNATURE
+                    && (file.getShort(offset + EOCD_MIN_SIZE - 2) & 0xFFFF) == commentSize) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasMagic(ByteBuffer file, int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (file.get(offset + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] intToBytes(int value) {
+        return new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+    }
+}
@@ -0,0 +1,286 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * 已应用补丁的 A/B 槽位
+ *
+ * <pre>
+ * /data/data/{package}/files/update/applied/
+ * ├── slot_a/
+ * │   ├── current_patch.zip             # 补丁（明文或 ZIP 密码保护）
+ * │   ├── overlay_resources_*.apk       # 覆盖资源包（只含变化的资源，API 30+）
+ * │   ├── merged_resources_*.apk        # 合并资源包（覆盖资源包不可用时）
+ * │   ├── odex/                         # DexClassLoader 优化输出（API 21-25）
+ * │   └── oat/                          # ART 编译产物（API 26-28）
+ * └── slot_b/
+ * </pre>
+ *
+ * 槽位写入完成后不再修改（覆盖资源包加载失败时留下的 overlay_resources.disabled 标记除外）：应用新补丁时写入非活动槽位，校验、注入和资源合并都完成后切换活动指针；
+ * 回滚时切回另一个槽位，不复制文件、不重新计算哈希，派生产物随槽位保留，切回后直接可用。
+ *
+ * 活动指针 {@link #KEY_ACTIVE_SLOT} 与活动槽位的状态（applied_patch_id / applied_patch_hash 等，
+ * 启动时读取的字段不变）保存在 patch_storage_prefs 中；非活动槽位的状态以 slot_&lt;槽位&gt;_ 为前缀保存。
+ * 切换时一次 commit() 同时交换两组字段和活动指针，SharedPreferences 每次写入新文件后重命名，
+ * 因此切换是原子的：崩溃后要么完整指向旧槽位，要么完整指向新槽位。
+ */
+public final class PatchSlots {
+
+    private static final String TAG = "PatchSlots";
+
+    public static final String SLOT_A = "a";
+    public static final String SLOT_B = "b";
+
+    static final String KEY_ACTIVE_SLOT = "active_slot";
+    private static final String KEY_PREVIOUS_PATCH_ID = "previous_patch_id";
+    private static final String KEY_SLOT_PREFIX = "slot_";
+
+    private static final String DIR_UPDATE = "update";
+    private static final String DIR_APPLIED = "applied";
+    private static final String DIR_SLOT_PREFIX = "slot_";
+    private static final String DIR_ODEX = "odex";
+    private static final String FILE_PATCH = "current_patch.zip";
+    private static final String MERGED_PREFIX = "merged_resources";
+
+    /** 随槽位切换的状态字段（活动槽位使用原键名，非活动槽位加 slot_&lt;槽位&gt;_ 前缀） */
+    static final String[] SLOT_KEYS = {
+            "applied_patch_id",
+            "applied_patch_hash",
+            "patch_had_signature",
+            "is_zip_password_protected",
+            "custom_zip_password",
+            "patch_verified_state"
+    };
+
+    private PatchSlots() {
+    }
+
+    /**
+     * 当前活动槽位
+     */
+    public static String getActiveSlot(SharedPreferences prefs) {
+        return SLOT_B.equals(prefs.getString(KEY_ACTIVE_SLOT, SLOT_A)) ? SLOT_B : SLOT_A;
+    }
+
+    /**
+     * 另一个槽位
+     */
+    public static String otherSlot(String slot) {
+        return SLOT_A.equals(slot) ? SLOT_B : SLOT_A;
+    }
+
+    /**
+     * 槽位目录 files/update/applied/slot_&lt;槽位&gt;/
+     */
+    public static File getSlotDir(Context context, String slot) {
+        return new File(getAppliedRoot(context), DIR_SLOT_PREFIX + slot);
+    }
+
+    /**
+     * 活动槽位目录
+     */
+    public static File getActiveDir(Context context, SharedPreferences prefs) {
+        return getSlotDir(context, getActiveSlot(prefs));
+    }
+
+    /**
+     * 非活动槽位目录（新补丁写入这里）
+     */
+    public static File getInactiveDir(Context context, SharedPreferences prefs) {
+        return getSlotDir(context, otherSlot(getActiveSlot(prefs)));
+    }
+
+    /**
+     * 槽位中的补丁文件
+     */
+    public static File getPatchFile(File slotDir) {
+        return new File(slotDir, FILE_PATCH);
+    }
+
+    /**
+     * 槽位的 dex 优化输出目录，两个槽位的补丁同名，odex 必须分开存放
+     */
+    public static File getOptimizedDir(File slotDir) {
+        return new File(slotDir, DIR_ODEX);
+    }
+
+    /**
+     * 非活动槽位中补丁的 ID（即回滚目标），没有时返回 null
+     */
+    public static String getInactivePatchId(SharedPreferences prefs) {
+        return prefs.getString(slotKey(otherSlot(getActiveSlot(prefs)), "applied_patch_id"), null);
+    }
+
+    /**
+     * 非活动槽位中补丁的 SHA-256，没有时返回 null
+     */
+    public static String getInactivePatchHash(SharedPreferences prefs) {
+        return prefs.getString(slotKey(otherSlot(getActiveSlot(prefs)), "applied_patch_hash"), null);
+    }
+
+    /**
+     * 清空非活动槽位，准备写入新补丁
+     *
+     * @return 空的非活动槽位目录
+     */
+    static File resetInactiveSlot(Context context, SharedPreferences prefs) {
+        String slot = otherSlot(getActiveSlot(prefs));
+        SharedPreferences.Editor editor = prefs.edit();
+        clearSlot(context, editor, slot, false);
+        editor.commit();
+
+        File slotDir = getSlotDir(context, slot);
+        if (!slotDir.exists() && !slotDir.mkdirs()) {
+            Log.w(TAG, "Failed to create slot directory: " + slotDir.getAbsolutePath());
+        }
+        return slotDir;
+    }
+
+    /**
+     * 记录写入非活动槽位的补丁（尚未生效）
+     */
+    static void recordInactivePatch(SharedPreferences prefs, String patchId, String patchHash) {
+        String slot = otherSlot(getActiveSlot(prefs));
+        SharedPreferences.Editor editor = prefs.edit();
+        putOrRemove(editor, slotKey(slot, "applied_patch_id"), patchId);
+        putOrRemove(editor, slotKey(slot, "applied_patch_hash"), patchHash);
+        editor.commit();
+    }
+
+    /**
+     * 切换到非活动槽位（应用新补丁或回滚）
+     *
+     * 一次 commit() 交换两个槽位的状态字段和活动指针；切换后原活动槽位成为回滚目标，
+     * previous_patch_id 指向它的补丁。
+     *
+     * @return 切换后活动槽位的补丁 ID；非活动槽位没有补丁时不切换，返回 null
+     */
+    static String switchToInactive(Context context, SharedPreferences prefs) {
+        String current = getActiveSlot(prefs);
+        String target = otherSlot(current);
+        String targetPatchId = prefs.getString(slotKey(target, "applied_patch_id"), null);
+        if (targetPatchId == null || !getPatchFile(getSlotDir(context, target)).isFile()) {
+            Log.w(TAG, "Slot " + target + " has no patch, not switching");
+            return null;
+        }
+
+        Map<String, ?> all = prefs.getAll();
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : SLOT_KEYS) {
+            put(editor, slotKey(current, key), all.get(key));
+            put(editor, key, all.get(slotKey(target, key)));
+            editor.remove(slotKey(target, key));
+        }
+        putOrRemove(editor, KEY_PREVIOUS_PATCH_ID, (String) all.get("applied_patch_id"));
+        editor.putString(KEY_ACTIVE_SLOT, target);
+        if (!editor.commit()) {
+            Log.e(TAG, "Failed to switch to slot " + target);
+            return null;
+        }
+        Log.i(TAG, "Switched active slot " + current + " -> " + target + ": " + targetPatchId);
+        return targetPatchId;
+    }
+
+    /**
+     * 删除非活动槽位（回滚后丢弃被回滚的补丁，或清理备份）
+     */
+    static void clearInactiveSlot(Context context, SharedPreferences prefs) {
+        SharedPreferences.Editor editor = prefs.edit();
+        clearSlot(context, editor, otherSlot(getActiveSlot(prefs)), false);
+        editor.remove(KEY_PREVIOUS_PATCH_ID);
+        editor.commit();
+    }
+
+    /**
+     * 删除槽位目录（补丁及其全部派生产物）和槽位状态
+     *
+     * @param editor 调用方负责提交
+     * @param active 是否为活动槽位（决定清除哪一组状态字段）
+     */
+    static void clearSlot(Context context, SharedPreferences.Editor editor, String slot, boolean active) {
+        for (String key : SLOT_KEYS) {
+            editor.remove(active ? key : slotKey(slot, key));
+        }
+        deleteDirectory(getSlotDir(context, slot));
+    }
+
+    /**
+     * 迁移旧版本的单文件布局 applied/current_patch.zip 到活动槽位（重命名，不复制）
+     *
+     * 只在旧文件存在时做事，启动时的开销是一次 stat。
+     */
+    static void migrateLegacyLayout(Context context) {
+        File appliedRoot = getAppliedRoot(context);
+        File legacyPatch = new File(appliedRoot, FILE_PATCH);
+        if (!legacyPatch.isFile()) {
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences(PatchStateStore.PREFS_NAME, Context.MODE_PRIVATE);
+        File slotDir = getActiveDir(context, prefs);
+        if (!slotDir.exists() && !slotDir.mkdirs()) {
+            Log.w(TAG, "Failed to create slot directory: " + slotDir.getAbsolutePath());
+            return;
+        }
+        File[] files = appliedRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(FILE_PATCH) || name.startsWith(MERGED_PREFIX) || name.equals("oat")) {
+                    if (!file.renameTo(new File(slotDir, name))) {
+                        Log.w(TAG, "Failed to migrate " + name);
+                    }
+                }
+            }
+        }
+        Log.i(TAG, "Migrated legacy applied patch to slot " + getActiveSlot(prefs));
+    }
+
+    private static File getAppliedRoot(Context context) {
+        return new File(new File(context.getFilesDir(), DIR_UPDATE), DIR_APPLIED);
+    }
+
+    private static String slotKey(String slot, String key) {
+        return KEY_SLOT_PREFIX + slot + "_" + key;
+    }
+
+    private static void put(SharedPreferences.Editor editor, String key, Object value) {
+        if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else {
+            editor.remove(key);
+        }
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null || value.isEmpty()) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
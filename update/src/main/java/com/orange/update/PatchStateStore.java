@@ -0,0 +1,401 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 补丁启动状态的二进制快照
+ *
+ * 冷启动时 loadPatchIfNeeded 只需要 patch_storage_prefs 中的少数几个字段（已应用补丁 ID / 哈希、
+ * APK 版本、验证状态记录等），但读取 SharedPreferences 会在启动线程上解析整个 XML
+ * （其中还有每个补丁的 patch_info_&lt;id&gt; JSON）。这里把这些热字段保存为一个小的二进制文件
+ * files/update/patch_state.bin：
+ * <pre>
+ * 头部（定长）: "HUST" | 版本(2) | 字段数(2) | prefs 文件 inode(8) | 修改时间(8) | 长度(8)
+ * 字段: 键序号(1) | [键名(UTF)] | 类型(1) | 值（long / int / boolean / UTF 字符串）
+ * 尾部: CRC32(4)
+ * </pre>
+ *
+ * SharedPreferences 仍是唯一的数据源，所有写入照旧通过 prefs：快照头部记录生成快照时 prefs XML 的
+ * inode / 修改时间 / 长度，任何写入都会替换 XML 文件（SharedPreferencesImpl 每次写新文件），
+ * 启动时 stat 一次即可判断快照是否仍然有效；无效、损坏或不存在时读取 prefs 并在后台重新生成快照
+ * （首次运行即完成从 prefs 的迁移）。快照先写临时文件、fsync 后原子重命名，崩溃时只会留下旧快照或没有快照。
+ *
+ * 键名不固定的热字段（如按副本文件名区分的代码缓存副本验证状态记录）按前缀匹配，
+ * 键序号写为 {@code 0xFF}，其后是完整的键名。
+ */
+public final class PatchStateStore {
+
+    private static final String TAG = "PatchStateStore";
+
+    static final String PREFS_NAME = "patch_storage_prefs";
+    private static final String FILE_NAME = "patch_state.bin";
+    private static final byte[] MAGIC = {'H', 'U', 'S', 'T'};
+    private static final int VERSION = 2;
+
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_INT = 3;
+    private static final int TYPE_BOOLEAN = 4;
+
+    /** 快照中的热字段，序号即在文件中的键编号，只能追加 */
+    static final List<String> HOT_KEYS = Collections.unmodifiableList(Arrays.asList(
+            "applied_patch_id",
+            "applied_patch_hash",
+            "apk_version_code",
+            "apk_version_name",
+            "patch_had_signature",
+            "is_zip_password_protected",
+            "patch_verified_state",
+            "patch_verified_state_plain",
+            "active_slot"
+    ));
+
+    /** 按前缀匹配的热字段（键名含文件名等可变部分） */
+    static final List<String> HOT_KEY_PREFIXES = Collections.singletonList("code_cache_copy_");
+
+    /** 键名随字段保存时的键序号 */
+    private static final int NAMED_KEY = 0xFF;
+
+    private PatchStateStore() {
+    }
+
+    /**
+     * 打开补丁状态
+     *
+     * 快照有效时返回的 SharedPreferences 直接从快照读取热字段，不加载 prefs XML；
+     * 读取其它字段、调用 edit() 等操作时才加载真实的 prefs（edit() 之后所有读取都走真实 prefs）。
+     * 快照无效时直接返回真实的 prefs，并在后台重新生成快照。
+     */
+    public static SharedPreferences open(Context context) {
+        File prefsFile = getPrefsFile(context);
+        File stateFile = getStateFile(context);
+        long[] stat = statPrefs(prefsFile);
+
+        Map<String, Object> values = read(stateFile, stat);
+        if (values != null) {
+            return new SnapshotPreferences(context, values);
+        }
+
+        // 快照无效：读取 prefs（此时进程内还没有写入，内存中的值与磁盘一致）并在后台重新生成
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Map<String, Object> hot = new HashMap<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() != null && isHotKey(entry.getKey())) {
+                hot.put(entry.getKey(), entry.getValue());
+            }
+        }
+        new Thread(() -> write(stateFile, stat, hot), "patch-state-store").start();
+        return prefs;
+    }
+
+    static boolean isHotKey(String key) {
+        if (HOT_KEYS.contains(key)) {
+            return true;
+        }
+        for (String prefix : HOT_KEY_PREFIXES) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static File getStateFile(Context context) {
+        return new File(new File(context.getFilesDir(), "update"), FILE_NAME);
+    }
+
+    /**
+     * prefs XML 路径（与 ContextImpl 一致：&lt;dataDir&gt;/shared_prefs/&lt;name&gt;.xml）
+     */
+    private static File getPrefsFile(Context context) {
+        File dataDir = context.getFilesDir().getParentFile();
+        return new File(new File(dataDir, "shared_prefs"), PREFS_NAME + ".xml");
+    }
+
+    /**
+     * @return {inode, 修改时间, 长度}，文件不存在时全为 0
+     */
+    private static long[] statPrefs(File prefsFile) {
+        if (!prefsFile.exists()) {
+            return new long[]{0, 0, 0};
+        }
+        long inode = 0;
+        try {
+            inode = Os.stat(prefsFile.getPath()).st_ino;
+        } catch (Exception e) {
+            // 取不到 inode 时只比较修改时间和长度
+        }
+        return new long[]{inode, prefsFile.lastModified(), prefsFile.length()};
+    }
+
+    /**
+     * 读取快照
+     * @return 热字段，快照不存在、损坏或与 prefs 文件不匹配时返回 null
+     */
+    static Map<String, Object> read(File stateFile, long[] prefsStat) {
+        if (!stateFile.isFile() || stateFile.length() > 64 * 1024) {
+            return null;
+        }
+        byte[] data = new byte[(int) stateFile.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+            in.readFully(data);
+        } catch (IOException e) {
+            return null;
+        }
+        if (data.length < 32 + 4) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int storedCrc = ((data[data.length - 4] & 0xff) << 24) | ((data[data.length - 3] & 0xff) << 16)
+                | ((data[data.length - 2] & 0xff) << 8) | (data[data.length - 1] & 0xff);
+        if ((int) crc.getValue() != storedCrc) {
+            Log.w(TAG, "Patch state snapshot corrupted");
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data, 0, data.length - 4))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readUnsignedShort() != VERSION) {
+                return null;
+            }
+            int count = in.readUnsignedShort();
+            if (in.readLong() != prefsStat[0] || in.readLong() != prefsStat[1] || in.readLong() != prefsStat[2]) {
+                return null;
+            }
+            Map<String, Object> values = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                int keyIndex = in.readUnsignedByte();
+                String key = keyIndex == NAMED_KEY ? in.readUTF()
+                        : keyIndex < HOT_KEYS.size() ? HOT_KEYS.get(keyIndex) : null;
+                int type = in.readUnsignedByte();
+                Object value;
+                switch (type) {
+                    case TYPE_STRING:
+                        value = in.readUTF();
+                        break;
+                    case TYPE_LONG:
+                        value = in.readLong();
+                        break;
+                    case TYPE_INT:
+                        value = in.readInt();
+                        break;
+                    case TYPE_BOOLEAN:
+                        value = in.readBoolean();
+                        break;
+                    default:
+                        return null;
+                }
+                if (key != null) {
+                    values.put(key, value);
+                }
+            }
+            return values;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 原子写入快照：临时文件 + fsync + 重命名
+     */
+    static boolean write(File stateFile, long[] prefsStat, Map<String, Object> values) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.write(MAGIC);
+            out.writeShort(VERSION);
+            int countPos = out.size();
+            out.writeShort(0);
+            out.writeLong(prefsStat[0]);
+            out.writeLong(prefsStat[1]);
+            out.writeLong(prefsStat[2]);
+            int count = 0;
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                if (value == null || !isHotKey(entry.getKey())) {
+                    continue;
+                }
+                int keyIndex = HOT_KEYS.indexOf(entry.getKey());
+                if (keyIndex >= 0) {
+                    out.writeByte(keyIndex);
+                } else {
+                    out.writeByte(NAMED_KEY);
+                    out.writeUTF(entry.getKey());
+                }
+                if (value instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    out.writeUTF((String) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    // 其它类型不进入快照，读取时回退到 prefs
+                    return false;
+                }
+                count++;
+            }
+            out.flush();
+            byte[] data = buffer.toByteArray();
+            data[countPos] = (byte) (count >>> 8);
+            data[countPos + 1] = (byte) count;
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            File dir = stateFile.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                return false;
+            }
+            File tmpFile = new File(stateFile.getPath() + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(tmpFile)) {
+                DataOutputStream fileData = new DataOutputStream(fileOut);
+                fileData.write(data);
+                fileData.writeInt((int) crc.getValue());
+                fileData.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tmpFile.renameTo(stateFile)) {
+                tmpFile.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write patch state snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 快照优先的 SharedPreferences：热字段从快照读取，其它操作按需加载真实 prefs
+     */
+    private static final class SnapshotPreferences implements SharedPreferences {
+        private final Context context;
+        private final Map<String, Object> snapshot;
+        private volatile SharedPreferences prefs;
+        private volatile boolean modified;
+
+        SnapshotPreferences(Context context, Map<String, Object> snapshot) {
+            this.context = context;
+            this.snapshot = snapshot;
+        }
+
+        private SharedPreferences prefs() {
+            if (prefs == null) {
+                synchronized (this) {
+                    if (prefs == null) {
+                        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                    }
+                }
+            }
+            return prefs;
+        }
+
+        private boolean fromSnapshot(String key) {
+            return !modified && isHotKey(key);
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            return prefs().getAll();
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            if (fromSnapshot(key)) {
+                Object value = snapshot.get(key);
+                return value != null ? (String) value : defValue;
+            }
+            return prefs().getString(key, defValue);
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return prefs().getStringSet(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            if (fromSnapshot(key)) {
+                Object value = snapshot.get(key);
+                return value != null ? (Integer) value : defValue;
+            }
+            return prefs().getInt(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            if (fromSnapshot(key)) {
+                Object value = snapshot.get(key);
+                return value != null ? (Long) value : defValue;
+            }
+            return prefs().getLong(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return prefs().getFloat(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            if (fromSnapshot(key)) {
+                Object value = snapshot.get(key);
+                return value != null ? (Boolean) value : defValue;
+            }
+            return prefs().getBoolean(key, defValue);
+        }
+
+        @Override
+        public boolean contains(String key) {
+            if (fromSnapshot(key)) {
+                return snapshot.containsKey(key);
+            }
+            return prefs().contains(key);
+        }
+
+        @Override
+        public Editor edit() {
+            // 写入后快照不再反映当前值，之后全部读取真实 prefs
+            modified = true;
+            return prefs().edit();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            prefs().registerOnSharedPreferenceChangeListener(listener);
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            prefs().unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+}
@@ -8,10 +8,14 @@ import android.util.Log;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -27,14 +31,14 @@ import java.util.Set;
  * ├── patches/                          # 已下载的加密补丁
  * │   ├── patch_001.enc                 # AES-256 加密的补丁文件
  * │   └── patch_002.enc
- * ├── applied/                          # 当前应用的补丁（解密后）
- * │   └── current_patch.dex
+ * ├── applied/                          # 已应用的补丁，A/B 两个槽位（见 PatchSlots）
+ * │   ├── slot_a/current_patch.zip
+ * │   └── slot_b/current_patch.zip
  * ├── temp/                             # 临时解密目录（使用后立即清理）
  * │   └── .nomedia
  * ├── config/
  * │   └── patch_info.json               # 补丁元数据
- * └── backup/                           # 回滚备份
- *     └── previous_patch.enc
+ * └── backup/                           # 旧版本的回滚备份（已由非活动槽位代替）
  * 
  * 功能：
  * - 补丁目录管理
@@ -56,7 +60,6 @@ public class PatchStorage {
 
     
     // 文件名常量
-    private static final String FILE_CURRENT_PATCH = "current_patch.zip";
     private static final String FILE_NOMEDIA = ".nomedia";
     private static final String FILE_EXTENSION_ENC = ".enc";
     private static final String FILE_EXTENSION_DEX = ".dex";
@@ -124,9 +127,10 @@ public class PatchStorage {
         patchesDir = new File(updateDir, DIR_PATCHES);
         ensureDirectoryExists(patchesDir);
         
-        // 已应用补丁目录: applied/
+        // 已应用补丁目录: applied/，旧版本的单文件布局迁移到槽位
         appliedDir = new File(updateDir, DIR_APPLIED);
         ensureDirectoryExists(appliedDir);
+        PatchSlots.migrateLegacyLayout(context);
         
         // 临时目录: temp/
         tempDir = new File(updateDir, DIR_TEMP);
@@ -187,11 +191,11 @@ public class PatchStorage {
     }
     
     /**
-     * 获取已应用补丁目录
-     * @return 已应用补丁目录 /data/data/{package}/files/update/applied/
+     * 获取已应用补丁目录（活动槽位）
+     * @return 活动槽位目录 /data/data/{package}/files/update/applied/slot_&lt;槽位&gt;/
      */
     public File getAppliedDir() {
-        return appliedDir;
+        return PatchSlots.getActiveDir(context, prefs);
     }
     
     /**
@@ -213,7 +217,9 @@ public class PatchStorage {
     /**
      * 获取备份目录
      * @return 备份目录 /data/data/{package}/files/update/backup/
+     * @deprecated 回滚改为切换 A/B 槽位，不再写入备份目录
      */
+    @Deprecated
     public File getBackupDir() {
         return backupDir;
     }
@@ -237,14 +243,16 @@ public class PatchStorage {
      * @return 当前应用的补丁文件
      */
     public File getAppliedPatchFile() {
-        return new File(appliedDir, FILE_CURRENT_PATCH);
+        return PatchSlots.getPatchFile(getAppliedDir());
     }
     
     /**
      * 获取备份的补丁文件
      * @param patchId 补丁ID
      * @return 备份的补丁文件
+     * @deprecated 回滚改为切换 A/B 槽位，不再写入备份目录
      */
+    @Deprecated
     public File getBackupPatchFile(String patchId) {
         if (patchId == null || patchId.isEmpty()) {
             throw new IllegalArgumentException("Patch ID cannot be null or empty");
@@ -293,24 +301,24 @@ public class PatchStorage {
         }
         
         try {
-            // 加密数据 (API 23+) 或直接存储 (API 21-22)
-            byte[] dataToWrite;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                dataToWrite = securityManager.encrypt(patchData);
-            } else {
-                // API 21-22 不支持 KeyStore 加密，直接存储
-                Log.w(TAG, "API level < 23, storing patch without encryption");
-                dataToWrite = patchData;
-            }
+            // 先删除同名旧文件（销毁其密钥）
+            securityManager.secureDelete(patchFile);
             
-            // 写入文件
+            // 加密写入 (API 23+，分段流式加密，不再额外生成整个密文数组) 或直接存储 (API 21-22)
             try (FileOutputStream fos = new FileOutputStream(patchFile)) {
-                fos.write(dataToWrite);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    securityManager.encrypt(new ByteArrayInputStream(patchData), patchData.length, fos);
+                } else {
+                    // API 21-22 不支持 KeyStore 加密，直接存储
+                    Log.w(TAG, "API level < 23, storing patch without encryption");
+                    fos.write(patchData);
+                }
                 fos.flush();
             }
             
             // 添加到已下载列表
             addToDownloadedPatchIds(patchId);
+            StorageQuota.recordUse(context, getPatchFile(patchId));
             
             Log.d(TAG, "Saved encrypted patch file: " + patchFile.getAbsolutePath());
             return true;
@@ -319,12 +327,66 @@ public class PatchStorage {
             Log.e(TAG, "Failed to save patch file: " + patchId, e);
             // 清理失败的文件
             if (patchFile.exists()) {
-                patchFile.delete();
+                securityManager.secureDelete(patchFile);
             }
             return false;
         }
     }
     
+    /**
+     * 创建补丁流式写入器，下载数据边计算摘要边加密写入，MD5 校验通过后才提交
+     * @param patchId 补丁ID
+     * @param expectedMd5 期望的明文 MD5，为空时不校验
+     * @return 流式写入器
+     */
+    public PatchStreamWriter createPatchStreamWriter(String patchId, String expectedMd5) {
+        if (patchId == null || patchId.isEmpty()) {
+            throw new IllegalArgumentException("Patch ID cannot be null or empty");
+        }
+        return new PatchStreamWriter(this, securityManager, patchId, expectedMd5, getPatchFile(patchId));
+    }
+    
+    /**
+     * 流式写入的补丁提交后记录到已下载列表
+     */
+    void onPatchStreamCommitted(String patchId) {
+        addToDownloadedPatchIds(patchId);
+        StorageQuota.recordUse(context, getPatchFile(patchId));
+    }
+    
+    /**
+     * 打开补丁文件的明文输入流
+     * 分段加密格式按段解密，不把整个补丁读入内存
+     * @param patchId 补丁ID
+     * @return 明文输入流，使用后需要关闭
+     * @throws IOException 如果文件不存在或读取失败
+     */
+    public InputStream openPatchInputStream(String patchId) throws IOException {
+        File patchFile = getPatchFile(patchId);
+        if (!patchFile.exists()) {
+            throw new FileNotFoundException("Patch file not found: " + patchId);
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            // API 21-22 不支持 KeyStore 加密，直接读取
+            return new FileInputStream(patchFile);
+        }
+        try {
+            if (!SegmentedAead.isSegmented(patchFile)) {
+                // 旧格式只能整体解密
+                return new ByteArrayInputStream(securityManager.decryptToBytes(patchFile));
+            }
+            final SegmentedAead.Reader reader = securityManager.openEncryptedPatch(patchFile);
+            return new FilterInputStream(reader.newInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        } catch (SecurityException e) {
+            throw new IOException("Failed to decrypt patch file: " + patchId, e);
+        }
+    }
+    
     /**
      * 读取补丁文件（解密后返回）
      * 注意：解密功能需要 API 23+ (Android 6.0+)，低版本将直接读取未加密数据
@@ -344,16 +406,13 @@ public class PatchStorage {
         }
         
         try {
-            // 读取数据
-            byte[] fileData = readFileBytes(patchFile);
-            
             // 解密数据 (API 23+) 或直接返回 (API 21-22)
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                return securityManager.decrypt(fileData);
+                return securityManager.decryptToBytes(patchFile);
             } else {
                 // API 21-22 不支持 KeyStore 加密，直接返回
                 Log.w(TAG, "API level < 23, reading patch without decryption");
-                return fileData;
+                return readFileBytes(patchFile);
             }
             
         } catch (IOException | SecurityException e) {
@@ -387,7 +446,7 @@ public class PatchStorage {
                 
                 // 移动到补丁目录
                 if (targetFile.exists()) {
-                    targetFile.delete();
+                    securityManager.secureDelete(targetFile);
                 }
                 
                 if (!encryptedFile.renameTo(targetFile)) {
@@ -406,6 +465,7 @@ public class PatchStorage {
             
             // 添加到已下载列表
             addToDownloadedPatchIds(patchId);
+            StorageQuota.recordUse(context, getPatchFile(patchId));
             
             Log.d(TAG, "Saved patch from file: " + patchId);
             return true;
@@ -417,12 +477,90 @@ public class PatchStorage {
     }
     
     /**
-     * 解密补丁到应用目录
+     * 解密补丁到应用目录（活动槽位，用于恢复被篡改或丢失的补丁文件）
      * 注意：解密功能需要 API 23+ (Android 6.0+)，低版本将直接复制未加密数据
      * @param patchId 补丁ID
      * @return 解密后的补丁文件，如果失败返回 null
      */
     public File decryptPatchToApplied(String patchId) {
+        File appliedFile = decryptPatchTo(patchId, getAppliedPatchFile());
+        if (appliedFile == null) {
+            return null;
+        }
+        
+        // 计算并保存文件哈希值（用于完整性验证）
+        String hash = calculateSHA256(appliedFile);
+        if (hash != null) {
+            prefs.edit().putString(KEY_APPLIED_PATCH_HASH, hash).apply();
+            Log.d(TAG, "Saved patch hash: " + hash.substring(0, 16) + "...");
+        } else {
+            Log.w(TAG, "Failed to calculate patch hash");
+        }
+        return appliedFile;
+    }
+    
+    /**
+     * 解密补丁到非活动槽位，等待 {@link #activateStagedPatch()} 切换生效
+     * 
+     * 槽位中原有的补丁（上一次回滚目标）及其派生产物会被清除；当前活动槽位不受影响。
+     * @param patchId 补丁ID
+     * @return 非活动槽位中的补丁文件，如果失败返回 null
+     */
+    public File stagePatch(String patchId) {
+        File slotDir = PatchSlots.resetInactiveSlot(context, prefs);
+        File stagedFile = decryptPatchTo(patchId, PatchSlots.getPatchFile(slotDir));
+        if (stagedFile == null) {
+            return null;
+        }
+        
+        String hash = calculateSHA256(stagedFile);
+        if (hash == null) {
+            Log.w(TAG, "Failed to calculate staged patch hash");
+        }
+        PatchSlots.recordInactivePatch(prefs, patchId, hash);
+        StorageQuota.recordUse(context, stagedFile);
+        Log.d(TAG, "Staged patch " + patchId + " in " + slotDir.getName());
+        return stagedFile;
+    }
+    
+    /**
+     * 获取非活动槽位目录（暂存的新补丁或回滚目标）
+     */
+    public File getStagedDir() {
+        return PatchSlots.getInactiveDir(context, prefs);
+    }
+    
+    /**
+     * 获取非活动槽位中补丁的 SHA-256（暂存时计算）
+     */
+    public String getStagedPatchHash() {
+        return PatchSlots.getInactivePatchHash(prefs);
+    }
+    
+    /**
+     * 切换到暂存的补丁：原活动槽位成为回滚目标
+     * @return 是否切换成功
+     */
+    public boolean activateStagedPatch() {
+        if (PatchSlots.switchToInactive(context, prefs) == null) {
+            return false;
+        }
+        // 活动槽位和回滚目标变了，重新计算哪些产物可以淘汰
+        StorageQuota.getInstance(context).trim();
+        return true;
+    }
+    
+    /**
+     * 丢弃暂存的补丁（应用失败时）
+     */
+    public void discardStagedPatch() {
+        PatchSlots.clearInactiveSlot(context, prefs);
+    }
+    
+    /**
+     * 解密（或复制）补丁到目标文件
+     */
+    private File decryptPatchTo(String patchId, File targetFile) {
         if (patchId == null || patchId.isEmpty()) {
             throw new IllegalArgumentException("Patch ID cannot be null or empty");
         }
@@ -434,10 +572,8 @@ public class PatchStorage {
         }
         
         try {
-            File appliedFile = getAppliedPatchFile();
-            
             // 确保父目录存在
-            File parentDir = appliedFile.getParentFile();
+            File parentDir = targetFile.getParentFile();
             if (parentDir != null && !parentDir.exists()) {
                 if (!parentDir.mkdirs()) {
                     Log.e(TAG, "Failed to create applied directory");
@@ -445,8 +581,8 @@ public class PatchStorage {
                 }
             }
             
-            if (appliedFile.exists()) {
-                appliedFile.delete();
+            if (targetFile.exists()) {
+                targetFile.delete();
             }
             
             // 检查补丁文件是否加密（通过文件扩展名判断）
@@ -458,9 +594,9 @@ public class PatchStorage {
                 File decryptedFile = securityManager.decryptPatch(patchFile);
                 
                 // 移动到应用目录
-                if (!decryptedFile.renameTo(appliedFile)) {
+                if (!decryptedFile.renameTo(targetFile)) {
                     // 如果重命名失败，尝试复制
-                    copyFile(decryptedFile, appliedFile);
+                    copyFile(decryptedFile, targetFile);
                     securityManager.secureDelete(decryptedFile);
                 }
                 Log.d(TAG, "Decrypted patch to applied directory: " + patchId);
@@ -471,20 +607,10 @@ public class PatchStorage {
                 } else {
                     Log.w(TAG, "API level < 23, copying encrypted patch without decryption (may fail)");
                 }
-                copyFile(patchFile, appliedFile);
+                copyFile(patchFile, targetFile);
                 Log.d(TAG, "Copied patch to applied directory: " + patchId);
             }
-            
-            // 计算并保存文件哈希值（用于完整性验证）
-            String hash = calculateSHA256(appliedFile);
-            if (hash != null) {
-                prefs.edit().putString(KEY_APPLIED_PATCH_HASH, hash).apply();
-                Log.d(TAG, "Saved patch hash: " + hash.substring(0, 16) + "...");
-            } else {
-                Log.w(TAG, "Failed to calculate patch hash");
-            }
-            
-            return appliedFile;
+            return targetFile;
             
         } catch (IOException | SecurityException e) {
             Log.e(TAG, "Failed to prepare patch: " + patchId, e);
@@ -576,6 +702,14 @@ public class PatchStorage {
         return prefs.getString(KEY_APPLIED_PATCH_ID, null);
     }
     
+    /**
+     * 获取已应用补丁文件的 SHA-256（解密到 applied 目录时计算）
+     * @return 哈希值，不存在时返回 null
+     */
+    public String getAppliedPatchHash() {
+        return prefs.getString(KEY_APPLIED_PATCH_HASH, null);
+    }
+    
     /**
      * 保存上一个补丁ID（用于回滚）
      * @param patchId 补丁ID
@@ -756,6 +890,11 @@ public class PatchStorage {
             }
         }
         
+        // 如果是回滚目标，清除非活动槽位
+        if (patchId.equals(PatchSlots.getInactivePatchId(prefs))) {
+            PatchSlots.clearInactiveSlot(context, prefs);
+        }
+        
         Log.d(TAG, "Deleted patch: " + patchId + ", success: " + success);
         return success;
     }
@@ -814,6 +953,9 @@ public class PatchStorage {
         success &= securityManager.secureDelete(tempDir);
         success &= securityManager.secureDelete(backupDir);
         
+        // 销毁写入中途被中断遗留的文件密钥
+        securityManager.pruneFileKeys(patchesDir, appliedDir, tempDir, backupDir);
+        
         // 清理 SharedPreferences
         prefs.edit().clear().apply();
         
@@ -828,85 +970,64 @@ public class PatchStorage {
     // ==================== 备份和回滚支持 ====================
     
     /**
-     * 备份当前应用的补丁
-     * @return 是否备份成功
+     * 备份当前应用的补丁（空操作）
+     * 
+     * 新补丁写入非活动槽位，当前补丁所在的槽位切换后自然成为回滚目标，不再需要备份：
+     * 该方法不读写任何文件，只为兼容旧调用方保留，将在后续版本移除。
+     * @return 始终返回 true
+     * @deprecated 空操作，应用新补丁使用 {@link #stagePatch(String)} / {@link #activateStagedPatch()}
      */
+    @Deprecated
     public boolean backupCurrentPatch() {
-        String appliedPatchId = getAppliedPatchId();
-        if (appliedPatchId == null) {
-            Log.d(TAG, "No applied patch to backup");
-            return true;
-        }
-        
-        File sourcePatchFile = getPatchFile(appliedPatchId);
-        if (!sourcePatchFile.exists()) {
-            Log.w(TAG, "Applied patch file not found: " + appliedPatchId);
-            return false;
-        }
-        
-        try {
-            File backupFile = getBackupPatchFile(appliedPatchId);
-            copyFile(sourcePatchFile, backupFile);
-            savePreviousPatchId(appliedPatchId);
-            Log.d(TAG, "Backed up patch: " + appliedPatchId);
-            return true;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to backup patch: " + appliedPatchId, e);
-            return false;
-        }
+        return true;
     }
     
     /**
-     * 恢复备份的补丁
-     * @return 恢复的补丁ID，如果失败返回 null
+     * 恢复上一个补丁：切换回非活动槽位，并丢弃被回滚的补丁
+     * 
+     * 不复制文件、不重新计算哈希，槽位中的合并资源包和编译产物直接复用。
+     * @return 恢复的补丁ID，如果没有可恢复的补丁返回 null
      */
     public String restoreBackupPatch() {
-        String previousPatchId = getPreviousPatchId();
+        String previousPatchId = PatchSlots.getInactivePatchId(prefs);
         if (previousPatchId == null) {
             Log.d(TAG, "No backup patch to restore");
             return null;
         }
         
-        File backupFile = getBackupPatchFile(previousPatchId);
-        if (!backupFile.exists()) {
-            Log.w(TAG, "Backup patch file not found: " + previousPatchId);
-            savePreviousPatchId(null);
+        String restoredPatchId = PatchSlots.switchToInactive(context, prefs);
+        if (restoredPatchId == null) {
+            Log.w(TAG, "Backup slot is not usable: " + previousPatchId);
+            PatchSlots.clearInactiveSlot(context, prefs);
             return null;
         }
         
-        try {
-            // 恢复到补丁目录
-            File targetFile = getPatchFile(previousPatchId);
-            if (!targetFile.exists()) {
-                copyFile(backupFile, targetFile);
-                addToDownloadedPatchIds(previousPatchId);
-            }
-            
-            // 解密到应用目录
-            File appliedFile = decryptPatchToApplied(previousPatchId);
-            if (appliedFile != null) {
-                saveAppliedPatchId(previousPatchId);
-                Log.d(TAG, "Restored backup patch: " + previousPatchId);
-                return previousPatchId;
-            }
-            
-            return null;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to restore backup patch: " + previousPatchId, e);
-            return null;
-        }
+        // 被回滚的补丁现在位于非活动槽位，丢弃它
+        PatchSlots.clearInactiveSlot(context, prefs);
+        Log.d(TAG, "Restored backup patch: " + restoredPatchId);
+        return restoredPatchId;
     }
     
     /**
-     * 清理备份
+     * 清理备份（非活动槽位）
      */
     public void clearBackup() {
+        PatchSlots.clearInactiveSlot(context, prefs);
         securityManager.secureDelete(backupDir);
         ensureDirectoryExists(backupDir);
-        savePreviousPatchId(null);
         Log.d(TAG, "Cleared backup");
     }
     
+    /**
+     * 清除活动槽位（补丁文件及其派生产物）和应用状态，非活动槽位保留
+     */
+    public void clearAppliedSlot() {
+        SharedPreferences.Editor editor = prefs.edit();
+        PatchSlots.clearSlot(context, editor, PatchSlots.getActiveSlot(prefs), true);
+        editor.commit();
+        Log.d(TAG, "Cleared applied slot");
+    }
+    
     // ==================== 工具方法 ====================
     
     /**
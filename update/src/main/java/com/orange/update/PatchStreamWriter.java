@@ -0,0 +1,184 @@
+package com.orange.update;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 补丁流式写入器，作为 {@link PatchDownloader.StreamTarget} 接收下载数据
+ *
+ * 网络数据只经过一次：同时更新 MD5 / SHA-256 摘要并分段加密写入 patches/&lt;patchId&gt;.enc.part，
+ * 下载完成后校验 MD5，匹配时才原子重命名为正式的补丁文件，不再有明文临时文件和重复读取。
+ * 每次写入使用新的按文件密钥，丢弃的临时文件和被替换的旧补丁都会销毁各自的密钥。
+ * API 23 以下不支持 KeyStore 加密，直接写入明文（与 {@link PatchStorage#savePatchFromFile} 一致）。
+ */
+public class PatchStreamWriter implements PatchDownloader.StreamTarget {
+
+    private static final String TAG = "PatchStreamWriter";
+    private static final String PART_SUFFIX = ".part";
+
+    private final PatchStorage storage;
+    private final SecurityManager securityManager;
+    private final String patchId;
+    private final String expectedMd5;
+    private final File targetFile;
+    private final File partFile;
+
+    private MessageDigest md5;
+    private MessageDigest sha256;
+    private FileOutputStream fileOut;
+    private BufferedOutputStream bufferedOut;
+    private SegmentedAead.Writer encryptedOut;
+    private OutputStream out;
+    private long expectedLength;
+    private long writtenLength;
+    private String actualMd5;
+    private String actualSha256;
+
+    PatchStreamWriter(PatchStorage storage, SecurityManager securityManager, String patchId,
+                      String expectedMd5, File targetFile) {
+        this.storage = storage;
+        this.securityManager = securityManager;
+        this.patchId = patchId;
+        this.expectedMd5 = expectedMd5;
+        this.targetFile = targetFile;
+        this.partFile = new File(targetFile.getPath() + PART_SUFFIX);
+    }
+
+    @Override
+    public OutputStream open(long contentLength) throws IOException {
+        abort();
+        File parentDir = partFile.getParentFile();
+        if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parentDir.getAbsolutePath());
+        }
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Digest algorithm not available", e);
+        }
+
+        expectedLength = contentLength;
+        writtenLength = 0;
+        fileOut = new FileOutputStream(partFile);
+        bufferedOut = new BufferedOutputStream(fileOut, 64 * 1024);
+        encryptedOut = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                encryptedOut = securityManager.newEncryptingWriter(bufferedOut, contentLength);
+            } catch (GeneralSecurityException | SecurityException e) {
+                fileOut.close();
+                fileOut = null;
+                throw new IOException("Failed to initialize encryption", e);
+            }
+        } else {
+            Log.w(TAG, "API level < 23, storing patch without encryption");
+        }
+
+        final OutputStream sink = encryptedOut != null ? encryptedOut : bufferedOut;
+        out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                writtenLength += length;
+                md5.update(data, offset, length);
+                sha256.update(data, offset, length);
+                sink.write(data, offset, length);
+            }
+        };
+        return out;
+    }
+
+    /**
+     * 完成写入：校验 MD5，通过后原子替换正式补丁文件
+     *
+     * @return 补丁文件，MD5 不匹配时返回 null（临时文件已删除）
+     */
+    @Override
+    public File commit() throws IOException {
+        if (out == null) {
+            throw new IOException("Stream not opened");
+        }
+        if (writtenLength != expectedLength) {
+            abort();
+            throw new IOException("Incomplete download: " + writtenLength + " of " + expectedLength + " bytes");
+        }
+        try {
+            // 写出最后一段后落盘再提交
+            if (encryptedOut != null) {
+                encryptedOut.finish();
+            }
+            bufferedOut.flush();
+            fileOut.getFD().sync();
+            fileOut.close();
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        out = null;
+        fileOut = null;
+
+        actualMd5 = Md5Utils.toHex(md5.digest());
+        actualSha256 = Md5Utils.toHex(sha256.digest());
+        if (expectedMd5 != null && !expectedMd5.isEmpty() && !expectedMd5.equalsIgnoreCase(actualMd5)) {
+            Log.e(TAG, "MD5 mismatch for patch " + patchId + ", expected: " + expectedMd5
+                    + ", actual: " + actualMd5);
+            securityManager.secureDelete(partFile);
+            return null;
+        }
+
+        byte[] replacedKeyId = SegmentedAead.readKeyId(targetFile);
+        if (!partFile.renameTo(targetFile)) {
+            securityManager.secureDelete(partFile);
+            throw new IOException("Failed to commit patch file: " + targetFile.getName());
+        }
+        // 旧补丁已被替换，销毁它的密钥
+        securityManager.destroyFileKey(replacedKeyId);
+        storage.onPatchStreamCommitted(patchId);
+        Log.d(TAG, "Patch stream committed: " + patchId);
+        return targetFile;
+    }
+
+    @Override
+    public void abort() {
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing patch stream", e);
+            }
+            out = null;
+            fileOut = null;
+        }
+        if (partFile.exists()) {
+            securityManager.secureDelete(partFile);
+        }
+    }
+
+    /**
+     * 明文 MD5（commit 之后有效）
+     */
+    public String getMd5() {
+        return actualMd5;
+    }
+
+    /**
+     * 明文 SHA-256（commit 之后有效）
+     */
+    public String getSha256() {
+        return actualSha256;
+    }
+}
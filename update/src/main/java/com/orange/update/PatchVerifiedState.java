@@ -0,0 +1,224 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * 补丁验证状态记录
+ *
+ * 补丁完整验证（SHA-256 + 签名）通过后写入一条记录，绑定补丁 ID、文件哈希、
+ * 文件大小、修改时间、ctime 和 inode，并用 Android KeyStore 中的 HMAC 密钥签名。
+ * 冷启动时只需 stat 文件并校验 HMAC（O(1)），记录不匹配时才重新完整验证；
+ * 记录超过 {@link #RECHECK_INTERVAL_MS} 时仍走快速路径，但由调用方在后台重新完整验证。
+ *
+ * 文件被替换或修改时 inode / ctime 会变化（ctime 无法通过 touch 回拨），
+ * 记录本身被改写时 HMAC 校验失败。API 23 以下没有 KeyStore HMAC，始终完整验证。
+ */
+public class PatchVerifiedState {
+
+    private static final String TAG = "PatchVerifiedState";
+
+    private static final String PREFS_NAME = "patch_storage_prefs";
+    static final String KEY_VERIFIED_STATE = "patch_verified_state";
+
+    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+    private static final String HMAC_KEY_ALIAS = "patch_state_hmac_key";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String VERSION = "v1";
+
+    /** 记录有效期，超过后在后台重新完整验证 */
+    public static final long RECHECK_INTERVAL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    /** 没有记录或不支持 */
+    public static final int STATE_ABSENT = 0;
+    /** 记录与文件匹配 */
+    public static final int STATE_VALID = 1;
+    /** 记录与文件匹配，但已超过有效期 */
+    public static final int STATE_STALE = 2;
+    /** 记录与文件不匹配或 HMAC 校验失败 */
+    public static final int STATE_MISMATCH = 3;
+
+    private final SharedPreferences prefs;
+    private final String key;
+
+    public PatchVerifiedState(Context context) {
+        this(context, KEY_VERIFIED_STATE);
+    }
+
+    /**
+     * @param key 记录在 SharedPreferences 中的键名，用于同时维护多条记录（如解密后的明文副本）
+     */
+    public PatchVerifiedState(Context context, String key) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.key = key;
+    }
+
+    /**
+     * 使用已打开的 prefs（如 {@link PatchStateStore#open(Context)} 返回的快照）
+     */
+    PatchVerifiedState(SharedPreferences prefs, String key) {
+        this.prefs = prefs;
+        this.key = key;
+    }
+
+    /**
+     * 是否支持验证状态记录（需要 KeyStore HMAC，API 23+）
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * 完整验证通过后写入记录
+     *
+     * @param patchFile 已验证的补丁文件
+     * @param patchId 补丁 ID
+     * @param sha256 补丁文件的 SHA-256（由完整验证计算）
+     * @param hasSignature 补丁是否有签名
+     * @return 是否写入成功
+     */
+    public boolean record(File patchFile, String patchId, String sha256, boolean hasSignature) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || patchId == null || sha256 == null) {
+            return false;
+        }
+        try {
+            String payload = buildPayload(patchFile, patchId, sha256, hasSignature, System.currentTimeMillis());
+            prefs.edit().putString(key, payload + "|" + hmac(payload)).apply();
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to record verified state: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 检查记录
+     *
+     * @param patchFile 补丁文件
+     * @param patchId 当前补丁 ID
+     * @param sha256 当前保存的补丁哈希
+     * @return STATE_ABSENT / STATE_VALID / STATE_STALE / STATE_MISMATCH
+     */
+    public int check(File patchFile, String patchId, String sha256) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return STATE_ABSENT;
+        }
+        String stored = prefs.getString(key, null);
+        if (stored == null || patchId == null || sha256 == null) {
+            return STATE_ABSENT;
+        }
+        try {
+            int split = stored.lastIndexOf('|');
+            if (split < 0) {
+                return STATE_MISMATCH;
+            }
+            String payload = stored.substring(0, split);
+            String[] fields = payload.split("\\|", -1);
+            if (fields.length != 9 || !VERSION.equals(fields[0])) {
+                return STATE_MISMATCH;
+            }
+            boolean hasSignature = Boolean.parseBoolean(fields[7]);
+            long verifiedAt = Long.parseLong(fields[8]);
+
+            // 先比较文件属性，不匹配时无需访问 KeyStore
+            String expected = buildPayload(patchFile, patchId, sha256, hasSignature, verifiedAt);
+            if (!expected.equals(payload)) {
+                Log.d(TAG, "Verified state does not match patch file");
+                return STATE_MISMATCH;
+            }
+            if (!MessageDigest.isEqual(hmac(payload).getBytes(StandardCharsets.US_ASCII),
+                    stored.substring(split + 1).getBytes(StandardCharsets.US_ASCII))) {
+                Log.w(TAG, "Verified state HMAC mismatch");
+                return STATE_MISMATCH;
+            }
+
+            long age = System.currentTimeMillis() - verifiedAt;
+            return age < 0 || age > RECHECK_INTERVAL_MS ? STATE_STALE : STATE_VALID;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to check verified state: " + e.getMessage());
+            return STATE_MISMATCH;
+        }
+    }
+
+    /**
+     * 记录中的签名状态（仅在 check 返回 STATE_VALID / STATE_STALE 后使用）
+     */
+    public boolean hasSignature() {
+        String stored = prefs.getString(key, null);
+        if (stored == null) {
+            return false;
+        }
+        String[] fields = stored.split("\\|", -1);
+        return fields.length > 7 && Boolean.parseBoolean(fields[7]);
+    }
+
+    /**
+     * 记录中的文件哈希，没有记录时返回 null（取出后仍需 {@link #check} 确认记录有效）
+     */
+    String getSha256() {
+        String stored = prefs.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+        String[] fields = stored.split("\\|", -1);
+        return fields.length > 2 && VERSION.equals(fields[0]) ? fields[2] : null;
+    }
+
+    /**
+     * 清除记录
+     */
+    public void clear() {
+        prefs.edit().remove(key).apply();
+    }
+
+    private static String buildPayload(File patchFile, String patchId, String sha256,
+                                       boolean hasSignature, long verifiedAt) throws Exception {
+        StructStat stat = Os.stat(patchFile.getAbsolutePath());
+        return VERSION + "|" + patchId + "|" + sha256 + "|" + stat.st_size + "|"
+                + patchFile.lastModified() + "|" + stat.st_ctime + "|" + stat.st_ino + "|"
+                + hasSignature + "|" + verifiedAt;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private static String hmac(String payload) throws Exception {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(getOrCreateKey());
+        byte[] result = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(result.length * 2);
+        for (byte b : result) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private static SecretKey getOrCreateKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(HMAC_KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(HMAC_KEY_ALIAS, null);
+        }
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_HMAC_SHA256, ANDROID_KEYSTORE);
+        keyGenerator.init(new KeyGenParameterSpec.Builder(HMAC_KEY_ALIAS, KeyProperties.PURPOSE_SIGN)
+                .build());
+        return keyGenerator.generateKey();
+    }
+}
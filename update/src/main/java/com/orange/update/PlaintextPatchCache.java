@@ -0,0 +1,317 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZIP 密码保护补丁的明文副本缓存
+ *
+ * 加密补丁只在应用时（或缓存缺失时）解密一次，明文副本保存在应用私有目录
+ * files/update/plain/patch_plain_&lt;加密文件哈希前 16 位&gt;.zip，之后每次启动直接使用，
+ * 不再解压到临时目录再重新打包。
+ *
+ * 明文副本的完整性由单独的 {@link PatchVerifiedState} 记录跟踪（绑定补丁 ID 和加密文件哈希），
+ * 记录不匹配时删除副本并重新解密。API 23 以下没有验证记录，副本存在即使用
+ * （与 applied 目录下的补丁一样处于应用私有目录）。加密补丁通过完整性校验之前解密出的明文
+ * 只写入暂存文件，校验通过后才发布为副本，避免把篡改后的内容记录在可信的哈希之下。
+ *
+ * 选择性模式只解密 dex、resources.arsc 和 patch.json，适用于覆盖资源包或合并资源包已就绪、
+ * 启动时不需要其它资源文件的情况。
+ */
+public class PlaintextPatchCache {
+
+    private static final String TAG = "PlaintextPatchCache";
+
+    private static final String DIR_UPDATE = "update";
+    private static final String DIR_PLAIN = "plain";
+    private static final String FILE_PREFIX = "patch_plain_";
+    private static final String KEY_PLAIN_STATE = "patch_verified_state_plain";
+    private static final String SELECTIVE_SUFFIX = "_min";
+    private static final String STAGED_SUFFIX = ".staged.zip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final File cacheDir;
+    private final PatchVerifiedState verifiedState;
+
+    public PlaintextPatchCache(Context context) {
+        this(context, context.getSharedPreferences(PatchStateStore.PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    /**
+     * @param prefs 已打开的 prefs（启动时为 {@link PatchStateStore#open(Context)} 返回的快照，读取记录不加载 prefs XML）
+     */
+    PlaintextPatchCache(Context context, SharedPreferences prefs) {
+        this.context = context;
+        this.cacheDir = new File(new File(context.getFilesDir(), DIR_UPDATE), DIR_PLAIN);
+        this.verifiedState = new PatchVerifiedState(prefs, KEY_PLAIN_STATE);
+    }
+
+    /**
+     * 获取明文副本文件路径
+     *
+     * @param encryptedHash 加密补丁文件的 SHA-256
+     * @param selective 是否为选择性解密的副本
+     */
+    public File getCacheFile(String encryptedHash, boolean selective) {
+        String key = encryptedHash.length() > 16 ? encryptedHash.substring(0, 16) : encryptedHash;
+        return new File(cacheDir, FILE_PREFIX + key + (selective ? SELECTIVE_SUFFIX : "") + ".zip");
+    }
+
+    /**
+     * 查找可用的明文副本
+     *
+     * 完整副本可以代替选择性副本使用，反之不行。
+     *
+     * @param patchId 补丁 ID
+     * @param encryptedHash 加密补丁文件的 SHA-256
+     * @param selective 是否接受选择性副本
+     * @return 可用的副本，不存在或校验失败时返回 null
+     */
+    public File find(String patchId, String encryptedHash, boolean selective) {
+        if (patchId == null || encryptedHash == null) {
+            return null;
+        }
+        File full = checkCacheFile(getCacheFile(encryptedHash, false), patchId, encryptedHash);
+        if (full != null || !selective) {
+            return full;
+        }
+        return checkCacheFile(getCacheFile(encryptedHash, true), patchId, encryptedHash);
+    }
+
+    /**
+     * 接管应用时已经解密好的明文补丁（移动或复制到缓存目录），避免启动时再次解密
+     *
+     * @param plaintextPatch 解密后的补丁文件
+     * @param patchId 补丁 ID
+     * @param encryptedHash 加密补丁文件的 SHA-256
+     * @return 缓存中的副本，失败时返回 null
+     */
+    public File adopt(File plaintextPatch, String patchId, String encryptedHash) {
+        if (plaintextPatch == null || !plaintextPatch.isFile() || patchId == null || encryptedHash == null) {
+            return null;
+        }
+        File target = getCacheFile(encryptedHash, false);
+        try {
+            ensureCacheDir();
+            if (!plaintextPatch.renameTo(target)) {
+                // 不同挂载点（如 cache 目录）无法直接重命名，复制后再替换
+                File tempFile = File.createTempFile(FILE_PREFIX, ".tmp", cacheDir);
+                try (InputStream in = new FileInputStream(plaintextPatch);
+                     OutputStream out = new FileOutputStream(tempFile)) {
+                    copy(in, out, new byte[BUFFER_SIZE]);
+                }
+                if (!tempFile.renameTo(target)) {
+                    tempFile.delete();
+                    throw new IOException("Failed to move plaintext patch into cache");
+                }
+            }
+            onCacheReady(target, patchId, encryptedHash);
+            return target;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to adopt plaintext patch: " + e.getMessage());
+            target.delete();
+            return null;
+        }
+    }
+
+    /**
+     * 流式解密加密补丁到缓存目录
+     *
+     * 逐个条目从 zip4j 解密流读取并直接写入新的 ZIP，不解压到磁盘、不重新打包。
+     * resources.arsc 以 STORED 方式写入（AssetManager 可以直接 mmap），其它条目使用最快压缩级别。
+     *
+     * @param encryptedPatch 加密的补丁文件
+     * @param password ZIP 密码
+     * @param patchId 补丁 ID
+     * @param encryptedHash 加密补丁文件的 SHA-256
+     * @param selective 是否只解密 dex、resources.arsc 和 patch.json
+     * @return 缓存中的副本，解密失败时返回 null
+     */
+    public File decrypt(File encryptedPatch, String password, String patchId, String encryptedHash,
+                        boolean selective) {
+        if (patchId == null) {
+            return null;
+        }
+        File staged = decryptStaged(encryptedPatch, password, encryptedHash, selective);
+        return staged != null ? publish(staged, patchId, encryptedHash, selective) : null;
+    }
+
+    /**
+     * 流式解密到缓存目录中的暂存文件，不写入验证记录
+     *
+     * 加密补丁尚未通过完整性校验时使用：暂存文件不会被 {@link #find} 返回，
+     * 校验通过后由 {@link #publish} 发布为缓存副本，被篡改时由 {@link #clear()} 删除。
+     *
+     * @return 暂存文件，解密失败时返回 null
+     */
+    public File decryptStaged(File encryptedPatch, String password, String encryptedHash, boolean selective) {
+        if (encryptedPatch == null || !encryptedPatch.isFile() || password == null || encryptedHash == null) {
+            return null;
+        }
+        File stagedFile = null;
+        try {
+            ensureCacheDir();
+            stagedFile = File.createTempFile(FILE_PREFIX, STAGED_SUFFIX, cacheDir);
+            ZipFile zipFile = new ZipFile(encryptedPatch, password.toCharArray());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count = 0;
+
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(stagedFile))) {
+                zos.setLevel(Deflater.BEST_SPEED);
+                for (FileHeader header : zipFile.getFileHeaders()) {
+                    String name = header.getFileName();
+                    if (header.isDirectory() || (selective && !isRequiredEntry(name))) {
+                        continue;
+                    }
+                    try (InputStream in = zipFile.getInputStream(header)) {
+                        if ("resources.arsc".equals(name)) {
+                            writeStored(zos, name, in, buffer);
+                        } else {
+                            zos.putNextEntry(new ZipEntry(name));
+                            copy(in, zos, buffer);
+                            zos.closeEntry();
+                        }
+                    }
+                    count++;
+                }
+            }
+
+            Log.i(TAG, "Decrypted " + count + " entries" + (selective ? " (selective)" : "")
+                    + " to " + stagedFile.getName());
+            File result = stagedFile;
+            stagedFile = null;
+            return result;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to decrypt patch", e);
+            return null;
+        } finally {
+            if (stagedFile != null) {
+                stagedFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 把 {@link #decryptStaged} 的暂存文件发布为缓存副本并写入验证记录
+     *
+     * @return 缓存中的副本，失败时返回 null（暂存文件保留，调用方仍可在本次启动中使用）
+     */
+    public File publish(File stagedFile, String patchId, String encryptedHash, boolean selective) {
+        if (stagedFile == null || !stagedFile.isFile() || patchId == null || encryptedHash == null) {
+            return null;
+        }
+        File target = getCacheFile(encryptedHash, selective);
+        if (!stagedFile.renameTo(target)) {
+            Log.w(TAG, "Failed to publish decrypted patch: " + target.getName());
+            return null;
+        }
+        onCacheReady(target, patchId, encryptedHash);
+        return target;
+    }
+
+    /**
+     * 是否为 {@link #decryptStaged} 写入的暂存文件
+     */
+    public static boolean isStaged(File file) {
+        return file != null && file.getName().startsWith(FILE_PREFIX) && file.getName().endsWith(STAGED_SUFFIX);
+    }
+
+    /**
+     * 删除所有明文副本和验证记录
+     */
+    public void clear() {
+        verifiedState.clear();
+        deleteOtherCopies(null);
+    }
+
+    private File checkCacheFile(File cacheFile, String patchId, String encryptedHash) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        if (!PatchVerifiedState.isSupported()) {
+            return cacheFile;
+        }
+        int state = verifiedState.check(cacheFile, patchId, encryptedHash);
+        if (state == PatchVerifiedState.STATE_VALID || state == PatchVerifiedState.STATE_STALE) {
+            return cacheFile;
+        }
+        // 记录不匹配（文件被替换或修改），删除后由调用方重新解密
+        Log.w(TAG, "Plaintext patch copy failed verification, discarding: " + cacheFile.getName());
+        cacheFile.delete();
+        return null;
+    }
+
+    private void onCacheReady(File cacheFile, String patchId, String encryptedHash) {
+        verifiedState.record(cacheFile, patchId, encryptedHash, false);
+        deleteOtherCopies(cacheFile);
+        StorageQuota.recordUse(context, cacheFile);
+    }
+
+    private void deleteOtherCopies(File keep) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (keep == null || !file.equals(keep)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void ensureCacheDir() throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + cacheDir.getAbsolutePath());
+        }
+    }
+
+    private static boolean isRequiredEntry(String name) {
+        return name.endsWith(".dex") || "resources.arsc".equals(name) || "patch.json".equals(name);
+    }
+
+    /**
+     * STORED 条目需要预先知道 CRC 和大小，读入内存后写出
+     */
+    private static void writeStored(ZipOutputStream zos, String name, InputStream in, byte[] buffer)
+            throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        copy(in, data, buffer);
+        byte[] bytes = data.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
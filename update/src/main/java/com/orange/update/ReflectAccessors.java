@@ -0,0 +1,178 @@
+package com.orange.update;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内共享的反射访问器注册表
+ *
+ * DexPatcher、ResourcePatcher、SoPatcher 需要的隐藏字段和方法（pathList、dexElements、
+ * mResourceImpls、mResourceReferences、mPackages、nativeLibraryPathElements 等）在进程内
+ * 只解析一次：查找结果（包括找不到）按类缓存，返回的 Field/Method/Constructor 已设置为可访问。
+ * 同一进程的系统版本不会变化，因此缓存无需按 API 级别区分。
+ *
+ * 字段和方法会沿父类向上查找，定制 ROM 把字段放到子类或父类时也能找到。
+ *
+ * ROM 缺少某个隐藏接口时通过 {@link #reportUnsupported(String, Throwable)} 报告，
+ * 每个接口在进程内只记录一次日志（包含厂商和 API 级别），之后的调用不再重复输出堆栈。
+ */
+final class ReflectAccessors {
+
+    private static final String TAG = "ReflectAccessors";
+
+    /** 查找失败的缓存标记 */
+    private static final Object MISSING = new Object();
+
+    private static final ConcurrentHashMap<Class<?>, Map<String, Object>> MEMBERS = new ConcurrentHashMap<>();
+    private static final Map<String, Object> CLASSES = new ConcurrentHashMap<>();
+    private static final Set<String> UNSUPPORTED =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private ReflectAccessors() {
+    }
+
+    /**
+     * 获取类（包括隐藏类）
+     *
+     * @throws ClassNotFoundException 如果类不存在（结果会被缓存）
+     */
+    static Class<?> type(String className) throws ClassNotFoundException {
+        Object cached = CLASSES.get(className);
+        if (cached == null) {
+            try {
+                cached = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                cached = MISSING;
+            }
+            CLASSES.put(className, cached);
+        }
+        if (cached == MISSING) {
+            throw new ClassNotFoundException(className);
+        }
+        return (Class<?>) cached;
+    }
+
+    /**
+     * 获取可访问的字段，先在 clazz 中查找，再沿父类向上查找
+     *
+     * @throws NoSuchFieldException 如果整个继承链中都没有该字段（结果会被缓存）
+     */
+    static Field field(Class<?> clazz, String name) throws NoSuchFieldException {
+        Map<String, Object> members = membersOf(clazz);
+        Object cached = members.get(name);
+        if (cached == null) {
+            cached = MISSING;
+            for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+                try {
+                    Field field = current.getDeclaredField(name);
+                    field.setAccessible(true);
+                    cached = field;
+                    break;
+                } catch (NoSuchFieldException ignored) {
+                    // 继续查找父类
+                }
+            }
+            members.put(name, cached);
+        }
+        if (cached == MISSING) {
+            throw new NoSuchFieldException(clazz.getName() + "." + name);
+        }
+        return (Field) cached;
+    }
+
+    /**
+     * 获取可访问的方法，先在 clazz 中查找，再沿父类向上查找
+     *
+     * @throws NoSuchMethodException 如果整个继承链中都没有该方法（结果会被缓存）
+     */
+    static Method method(Class<?> clazz, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        Map<String, Object> members = membersOf(clazz);
+        String key = name + Arrays.toString(parameterTypes);
+        Object cached = members.get(key);
+        if (cached == null) {
+            cached = MISSING;
+            for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+                try {
+                    Method method = current.getDeclaredMethod(name, parameterTypes);
+                    method.setAccessible(true);
+                    cached = method;
+                    break;
+                } catch (NoSuchMethodException ignored) {
+                    // 继续查找父类
+                }
+            }
+            members.put(key, cached);
+        }
+        if (cached == MISSING) {
+            throw new NoSuchMethodException(clazz.getName() + "." + key);
+        }
+        return (Method) cached;
+    }
+
+    /**
+     * 获取可访问的构造方法
+     *
+     * @throws NoSuchMethodException 如果没有该构造方法（结果会被缓存）
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Constructor<T> constructor(Class<T> clazz, Class<?>... parameterTypes) throws NoSuchMethodException {
+        Map<String, Object> members = membersOf(clazz);
+        String key = "<init>" + Arrays.toString(parameterTypes);
+        Object cached = members.get(key);
+        if (cached == null) {
+            try {
+                Constructor<T> constructor = clazz.getDeclaredConstructor(parameterTypes);
+                constructor.setAccessible(true);
+                cached = constructor;
+            } catch (NoSuchMethodException e) {
+                cached = MISSING;
+            }
+            members.put(key, cached);
+        }
+        if (cached == MISSING) {
+            throw new NoSuchMethodException(clazz.getName() + "." + key);
+        }
+        return (Constructor<T>) cached;
+    }
+
+    /**
+     * 报告当前 ROM 不支持某个隐藏接口，每个接口在进程内只记录一次
+     *
+     * @param feature 接口名称，如 "ResourcesManager.mResourceImpls"
+     * @param cause 失败原因
+     */
+    static void reportUnsupported(String feature, Throwable cause) {
+        if (UNSUPPORTED.add(feature)) {
+            Log.w(TAG, "Unsupported on " + Build.MANUFACTURER + " API " + Build.VERSION.SDK_INT
+                    + ": " + feature + " (" + cause + ")");
+        }
+    }
+
+    /**
+     * 当前进程中是否已报告过该接口不受支持
+     */
+    static boolean isUnsupported(String feature) {
+        return UNSUPPORTED.contains(feature);
+    }
+
+    private static Map<String, Object> membersOf(Class<?> clazz) {
+        Map<String, Object> members = MEMBERS.get(clazz);
+        if (members == null) {
+            members = new ConcurrentHashMap<>();
+            Map<String, Object> existing = MEMBERS.putIfAbsent(clazz, members);
+            if (existing != null) {
+                members = existing;
+            }
+        }
+        return members;
+    }
+}
@@ -11,6 +11,7 @@ import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -24,14 +25,125 @@ import java.util.zip.ZipOutputStream;
  * - 补丁包只包含差异资源
  * - 客户端将原始资源和补丁资源合并成完整资源包
  * - 加载完整资源包，而不是增量补丁
+ * 
+ * 合并在应用补丁时（后台线程）完成，产物文件名带有补丁哈希和基础 APK 版本号
+ * （merged_resources_&lt;哈希&gt;_&lt;versionCode&gt;.apk），写入临时文件后重命名发布。
+ * 启动时只加载已就绪的产物，不在主线程合并。
  */
 public class ResourceMerger {
     
     private static final String TAG = "ResourceMerger";
     
+    private static final String MERGED_PREFIX = "merged_resources";
+    private static final String MERGED_SUFFIX = ".apk";
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    /**
+     * 获取补丁对应的合并资源包路径（不检查是否存在）
+     * 
+     * @param context 应用上下文
+     * @param dir 产物目录（applied 目录）
+     * @param patchHash 补丁哈希
+     * @return 带标签的合并资源包文件
+     */
+    public static File getMergedResourceFile(Context context, File dir, String patchHash) {
+        String hash = patchHash != null && patchHash.length() > 16 ? patchHash.substring(0, 16) : patchHash;
+        return new File(dir, MERGED_PREFIX + "_" + hash + "_" + getBaseVersionCode(context) + MERGED_SUFFIX);
+    }
+    
+    /**
+     * 查找已就绪的合并资源包
+     * 
+     * @return 与补丁哈希和当前 APK 版本匹配的产物，不存在时返回 null
+     */
+    public static File findReadyMergedResources(Context context, File dir, String patchHash) {
+        if (patchHash == null || patchHash.isEmpty()) {
+            return null;
+        }
+        File mergedFile = getMergedResourceFile(context, dir, patchHash);
+        return mergedFile.isFile() ? mergedFile : null;
+    }
+    
+    /**
+     * 生成并发布补丁对应的合并资源包，同时清理其它补丁或旧版本 APK 的产物
+     * 
+     * 应在后台线程调用。产物已存在时直接返回。
+     * 
+     * @return 已发布的产物，失败时返回 null
+     */
+    public static File prepareMergedResources(Context context, File patchFile, File dir, String patchHash) {
+        if (patchHash == null || patchHash.isEmpty()) {
+            Log.w(TAG, "Patch hash unavailable, cannot tag merged resources");
+            return null;
+        }
+        File mergedFile = getMergedResourceFile(context, dir, patchHash);
+        if (!mergedFile.isFile() && !mergeResources(context, patchFile, mergedFile)) {
+            return null;
+        }
+        deleteMergedResources(dir, mergedFile);
+        StorageQuota.recordUse(context, mergedFile);
+        return mergedFile;
+    }
+    
+    /**
+     * 在 executor 上生成合并资源包（启动时发现产物缺失，为下次启动准备）
+     * 
+     * @param executor 执行器，为 null 时使用新的后台线程
+     */
+    public static void prepareMergedResourcesAsync(Context context, File patchFile, File dir,
+                                                   String patchHash, Executor executor) {
+        Runnable task = () -> {
+            File mergedFile = prepareMergedResources(context, patchFile, dir, patchHash);
+            if (mergedFile != null) {
+                Log.i(TAG, "Merged resources ready for next launch: " + mergedFile.getName());
+            }
+        };
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            Thread thread = new Thread(task, "patch-resource-merge");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    /**
+     * 删除目录中的合并资源包
+     * 
+     * @param keep 保留的文件，为 null 时全部删除
+     */
+    public static void deleteMergedResources(File dir, File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(MERGED_PREFIX) && name.endsWith(MERGED_SUFFIX)
+                    && (keep == null || !file.equals(keep))) {
+                if (file.delete()) {
+                    Log.d(TAG, "Deleted merged resources: " + name);
+                }
+            }
+        }
+    }
+    
+    static long getBaseVersionCode(Context context) {
+        try {
+            android.content.pm.PackageInfo packageInfo = context.getPackageManager()
+                .getPackageInfo(context.getPackageName(), 0);
+            return VersionUtils.getVersionCode(packageInfo);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to get APK version code", e);
+            return 0;
+        }
+    }
+    
     /**
      * 合并原始 APK 和补丁资源，生成完整的资源包
      * 
+     * 先写入同目录下的临时文件，完成后重命名为 outputFile，读取方不会看到写了一半的文件。
+     * 
      * @param context 应用上下文
      * @param patchFile 补丁文件（包含差异资源）
      * @param outputFile 输出文件（完整资源包）
@@ -47,13 +159,15 @@ public class ResourceMerger {
         Log.d(TAG, "  Patch file: " + patchFile.getAbsolutePath());
         Log.d(TAG, "  Output file: " + outputFile.getAbsolutePath());
         
+        File tempFile = null;
         try {
             // 1. 收集补丁中的资源文件名
             Set<String> patchEntries = collectPatchEntries(patchFile);
             Log.d(TAG, "Patch contains " + patchEntries.size() + " entries");
             
-            // 2. 创建输出 ZIP
-            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(outputFile))) {
+            // 2. 创建输出 ZIP（临时文件）
+            tempFile = File.createTempFile(outputFile.getName(), TEMP_SUFFIX, outputFile.getParentFile());
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tempFile))) {
                 
                 // 3. 先写入补丁中的资源（优先级更高）
                 writePatchEntries(patchFile, zos, patchEntries);
@@ -62,13 +176,18 @@ public class ResourceMerger {
                 writeOriginalEntries(originalApkPath, zos, patchEntries);
             }
             
+            // 5. 重命名发布
+            if (!tempFile.renameTo(outputFile)) {
+                throw new IOException("Failed to publish merged resources: " + outputFile.getName());
+            }
+            
             Log.i(TAG, "Resources merged successfully, size: " + outputFile.length());
             return true;
             
         } catch (Exception e) {
             Log.e(TAG, "Failed to merge resources", e);
-            if (outputFile.exists()) {
-                outputFile.delete();
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
             }
             return false;
         }
@@ -80,17 +199,17 @@ public class ResourceMerger {
     private static Set<String> collectPatchEntries(File patchFile) throws IOException {
         Set<String> entries = new HashSet<>();
         
-        // 使用 ZipFile 而不是 ZipInputStream，避免 STORED 模式的兼容性问题
-        try (ZipFile zipFile = new ZipFile(patchFile)) {
-            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-            while (zipEntries.hasMoreElements()) {
-                ZipEntry entry = zipEntries.nextElement();
-                String name = entry.getName();
-                Log.d(TAG, "  Checking entry: " + name + " -> " + (isResourceEntry(name) ? "YES" : "NO"));
-                // 只收集资源相关的条目
-                if (isResourceEntry(name)) {
-                    entries.add(name);
-                }
+        // 使用补丁索引（中央目录），与其他检查共享同一次解析
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+        if (index == null) {
+            throw new IOException("Invalid patch archive: " + patchFile.getName());
+        }
+        for (PatchArchiveIndex.Entry entry : index.getEntries()) {
+            String name = entry.getName();
+            Log.d(TAG, "  Checking entry: " + name + " -> " + (isResourceEntry(name) ? "YES" : "NO"));
+            // 只收集资源相关的条目
+            if (isResourceEntry(name)) {
+                entries.add(name);
             }
         }
         
@@ -146,8 +265,15 @@ public class ResourceMerger {
      */
     private static void writeEntry(ZipFile zipFile, ZipEntry entry, ZipOutputStream zos) 
             throws IOException {
+        writeEntry(zipFile, entry, entry.getName(), zos);
+    }
+    
+    /**
+     * 以指定名称写入单个条目（覆盖资源包把 resources_overlay.arsc 写为 resources.arsc）
+     */
+    static void writeEntry(ZipFile zipFile, ZipEntry entry, String name, ZipOutputStream zos) 
+            throws IOException {
         
-        String name = entry.getName();
         ZipEntry newEntry = new ZipEntry(name);
         
         // resources.arsc 必须使用 STORED 方式（不压缩）
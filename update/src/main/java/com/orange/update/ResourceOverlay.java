@@ -0,0 +1,319 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 覆盖资源包
+ *
+ * 补丁生成器为资源补丁额外生成 resources_overlay.arsc：只包含变化条目的资源表。
+ * 应用补丁时把它（改名为 resources.arsc）和补丁中的 res/、assets/ 文件写成一个很小的覆盖资源包，
+ * Android 11+ 通过 ResourcesLoader 叠加在原始 APK 之上加载（见 {@link ResourcePatcher#loadOverlayResources}）。
+ * 与 {@link ResourceMerger} 相比，不复制原始 APK 的资源，没有几十 MB 的合并 I/O 和重复存储。
+ *
+ * 以下情况回退到合并资源包：
+ * - Android 11 以下，或通过 {@link #setEnabled(boolean)} 关闭
+ * - 补丁不含覆盖资源表（旧版本生成器）
+ * - 覆盖资源包加载失败（部分 ROM），此时在槽位中留下标记，之后不再尝试
+ *
+ * 产物文件名带有补丁哈希和基础 APK 版本号（overlay_resources_&lt;哈希&gt;_&lt;versionCode&gt;.apk），
+ * 写入临时文件后重命名发布，随槽位一起删除。
+ */
+public class ResourceOverlay {
+
+    private static final String TAG = "ResourceOverlay";
+
+    /** 补丁中覆盖资源表的条目名 */
+    static final String OVERLAY_TABLE = "resources_overlay.arsc";
+
+    private static final String RESOURCES_ARSC = "resources.arsc";
+    private static final String OVERLAY_PREFIX = "overlay_resources";
+    private static final String OVERLAY_SUFFIX = ".apk";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DISABLED_MARKER = "overlay_resources.disabled";
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * 设置是否使用覆盖资源包，关闭后始终使用合并资源包
+     *
+     * 默认开启。需要在加载补丁之前调用。
+     */
+    public static void setEnabled(boolean enabled) {
+        ResourceOverlay.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 检查当前设备和产物目录是否可以使用覆盖资源包
+     *
+     * @param dir 产物目录（槽位目录），之前加载失败过时不再使用
+     */
+    public static boolean isSupported(File dir) {
+        return enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                && !new File(dir, DISABLED_MARKER).exists();
+    }
+
+    /**
+     * 检查补丁是否包含覆盖资源表
+     */
+    public static boolean hasOverlayTable(File patchFile) {
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile);
+        return index != null && index.hasEntry(OVERLAY_TABLE);
+    }
+
+    /**
+     * 获取补丁对应的覆盖资源包路径（不检查是否存在）
+     */
+    public static File getOverlayResourceFile(Context context, File dir, String patchHash) {
+        String hash = patchHash != null && patchHash.length() > 16 ? patchHash.substring(0, 16) : patchHash;
+        return new File(dir, OVERLAY_PREFIX + "_" + hash + "_"
+                + ResourceMerger.getBaseVersionCode(context) + OVERLAY_SUFFIX);
+    }
+
+    /**
+     * 查找已就绪的覆盖资源包
+     *
+     * @return 与补丁哈希和当前 APK 版本匹配的产物，不存在时返回 null
+     */
+    public static File findReadyOverlayResources(Context context, File dir, String patchHash) {
+        if (patchHash == null || patchHash.isEmpty()) {
+            return null;
+        }
+        File overlayFile = getOverlayResourceFile(context, dir, patchHash);
+        return overlayFile.isFile() ? overlayFile : null;
+    }
+
+    /**
+     * 生成并发布补丁对应的覆盖资源包，同时清理其它补丁或旧版本 APK 的产物
+     *
+     * 应在后台线程调用。产物已存在时直接返回。
+     *
+     * @return 已发布的产物，失败时返回 null
+     */
+    public static File prepareOverlayResources(Context context, File patchFile, File dir, String patchHash) {
+        if (patchHash == null || patchHash.isEmpty()) {
+            Log.w(TAG, "Patch hash unavailable, cannot tag overlay resources");
+            return null;
+        }
+        File overlayFile = getOverlayResourceFile(context, dir, patchHash);
+        if (!overlayFile.isFile() && !buildOverlayResources(patchFile, overlayFile)) {
+            return null;
+        }
+        deleteOverlayResources(dir, overlayFile);
+        StorageQuota.recordUse(context, overlayFile);
+        return overlayFile;
+    }
+
+    /**
+     * 删除目录中的覆盖资源包
+     *
+     * @param keep 保留的文件，为 null 时全部删除
+     */
+    public static void deleteOverlayResources(File dir, File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(OVERLAY_PREFIX + "_") && name.endsWith(OVERLAY_SUFFIX)
+                    && (keep == null || !file.equals(keep))) {
+                if (file.delete()) {
+                    Log.d(TAG, "Deleted overlay resources: " + name);
+                }
+            }
+        }
+    }
+
+    /**
+     * 检查是否已有启动时可以直接加载的资源产物（覆盖资源包或合并资源包）
+     */
+    static boolean isResourceReady(Context context, File dir, String patchHash) {
+        return (isSupported(dir) && findReadyOverlayResources(context, dir, patchHash) != null)
+                || ResourceMerger.findReadyMergedResources(context, dir, patchHash) != null;
+    }
+
+    /**
+     * 应用补丁时（后台线程）准备并加载补丁资源
+     *
+     * 优先使用覆盖资源包，不可用或加载失败时合并资源包；合并也失败时直接加载补丁文件。
+     *
+     * @param patchFile 补丁文件（明文）
+     * @param dir 产物目录（槽位目录）
+     * @param metrics 指标采集会话，未启用时为 null
+     * @throws ResourcePatcher.PatchResourceException 如果加载失败
+     */
+    static void prepareAndLoadResources(Context context, File patchFile, File dir, String patchHash,
+                                        PatchMetrics.Session metrics)
+            throws ResourcePatcher.PatchResourceException {
+        if (isSupported(dir) && hasOverlayTable(patchFile)) {
+            long start = PatchMetrics.start(metrics);
+            File overlayFile = prepareOverlayResources(context, patchFile, dir, patchHash);
+            PatchMetrics.end(metrics, PatchMetrics.PHASE_MERGE, start);
+            if (overlayFile != null) {
+                start = PatchMetrics.start(metrics);
+                boolean loaded = loadOverlay(context, overlayFile, dir);
+                PatchMetrics.end(metrics, PatchMetrics.PHASE_RESOURCE_SWAP, start);
+                if (loaded) {
+                    return;
+                }
+            }
+        }
+
+        String resourcePath = patchFile.getAbsolutePath();
+        long start = PatchMetrics.start(metrics);
+        File mergedResourceFile = ResourceMerger.prepareMergedResources(context, patchFile, dir, patchHash);
+        PatchMetrics.end(metrics, PatchMetrics.PHASE_MERGE, start);
+        if (mergedResourceFile != null) {
+            Log.i(TAG, "Resources merged successfully, size: " + mergedResourceFile.length());
+            resourcePath = mergedResourceFile.getAbsolutePath();
+        } else {
+            Log.w(TAG, "Failed to merge resources, using patch directly");
+        }
+        start = PatchMetrics.start(metrics);
+        ResourcePatcher.loadPatchResources(context, resourcePath);
+        PatchMetrics.end(metrics, PatchMetrics.PHASE_RESOURCE_SWAP, start);
+    }
+
+    /**
+     * 启动时加载已就绪的补丁资源，不在主线程生成产物
+     *
+     * 产物缺失时本次使用原始资源，在 executor 上生成供下次启动使用。
+     *
+     * @param patchFile 补丁文件（明文，可能是只含 dex 和资源表的选择性解密副本）
+     * @param dir 产物目录（槽位目录）
+     * @param executor 执行器，为 null 时使用新的后台线程
+     * @return 是否加载了补丁资源
+     */
+    static boolean loadReadyResources(Context context, File patchFile, File dir, String patchHash,
+                                      Executor executor) {
+        if (isSupported(dir)) {
+            File overlayFile = findReadyOverlayResources(context, dir, patchHash);
+            if (overlayFile != null) {
+                if (loadOverlay(context, overlayFile, dir)) {
+                    return true;
+                }
+            } else if (hasOverlayTable(patchFile)) {
+                Log.w(TAG, "Overlay resources not ready, using original resources for this launch");
+                runInBackground(executor, () -> {
+                    File prepared = prepareOverlayResources(context, patchFile, dir, patchHash);
+                    if (prepared != null) {
+                        Log.i(TAG, "Overlay resources ready for next launch: " + prepared.getName());
+                    }
+                });
+                return false;
+            }
+        }
+
+        File mergedResourceFile = ResourceMerger.findReadyMergedResources(context, dir, patchHash);
+        if (mergedResourceFile == null) {
+            // 留有标记的槽位中补丁带有覆盖资源表，当前文件没有该条目说明是选择性解密副本（不含 res/），
+            // 不能用来合并，下次启动使用完整副本时再合并
+            boolean selectiveCopy = new File(dir, DISABLED_MARKER).exists() && !hasOverlayTable(patchFile);
+            if (!selectiveCopy) {
+                Log.w(TAG, "Merged resources not ready, using original resources for this launch");
+                ResourceMerger.prepareMergedResourcesAsync(context, patchFile, dir, patchHash, executor);
+            } else {
+                Log.w(TAG, "Merged resources not ready, will merge on next launch");
+            }
+            return false;
+        }
+
+        try {
+            Log.i(TAG, "Using existing merged resources: " + mergedResourceFile.length());
+            ResourcePatcher.loadPatchResources(context, mergedResourceFile.getAbsolutePath());
+            return true;
+        } catch (ResourcePatcher.PatchResourceException e) {
+            Log.w(TAG, "Failed to load merged resources", e);
+            return false;
+        }
+    }
+
+    /**
+     * 加载覆盖资源包，失败时在槽位中留下标记并删除产物，之后改用合并资源包
+     */
+    private static boolean loadOverlay(Context context, File overlayFile, File dir) {
+        try {
+            ResourcePatcher.loadOverlayResources(context, overlayFile.getAbsolutePath());
+            return true;
+        } catch (ResourcePatcher.PatchResourceException | RuntimeException | LinkageError e) {
+            Log.w(TAG, "Overlay resources unsupported on this device, falling back to merged resources", e);
+            try {
+                new File(dir, DISABLED_MARKER).createNewFile();
+            } catch (IOException ignored) {
+                // 标记写入失败时下次启动会再尝试一次
+            }
+            deleteOverlayResources(dir, null);
+            return false;
+        }
+    }
+
+    /**
+     * 把补丁中的覆盖资源表和 res/、assets/ 文件写成覆盖资源包
+     *
+     * 先写入同目录下的临时文件，完成后重命名为 outputFile，读取方不会看到写了一半的文件。
+     */
+    private static boolean buildOverlayResources(File patchFile, File outputFile) {
+        File tempFile = null;
+        try (ZipFile zipFile = new ZipFile(patchFile)) {
+            ZipEntry table = zipFile.getEntry(OVERLAY_TABLE);
+            if (table == null) {
+                throw new IOException("Patch has no " + OVERLAY_TABLE);
+            }
+
+            tempFile = File.createTempFile(outputFile.getName(), TEMP_SUFFIX, outputFile.getParentFile());
+            int count = 0;
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tempFile))) {
+                // 覆盖资源表以 STORED 方式写为 resources.arsc
+                ResourceMerger.writeEntry(zipFile, table, RESOURCES_ARSC, zos);
+
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (!entry.isDirectory() && (name.startsWith("res/") || name.startsWith("assets/"))) {
+                        ResourceMerger.writeEntry(zipFile, entry, name, zos);
+                        count++;
+                    }
+                }
+            }
+
+            if (!tempFile.renameTo(outputFile)) {
+                throw new IOException("Failed to publish overlay resources: " + outputFile.getName());
+            }
+            Log.i(TAG, "Overlay resources built: " + count + " files, size: " + outputFile.length());
+            return true;
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to build overlay resources", e);
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
+            return false;
+        }
+    }
+
+    private static void runInBackground(Executor executor, Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            Thread thread = new Thread(task, "patch-resource-overlay");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
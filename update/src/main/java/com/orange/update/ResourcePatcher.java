@@ -5,11 +5,15 @@ import android.app.Application;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
+import android.content.res.loader.ResourcesLoader;
+import android.content.res.loader.ResourcesProvider;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.util.ArrayMap;
 import android.util.Log;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -30,6 +34,8 @@ import androidx.annotation.RequiresApi;
  * - API 21-23: 标准 AssetManager 替换
  * - API 24-27: 需要处理 ResourcesImpl
  * - API 28+: 需要处理 ResourcesManager 缓存
+ * - API 30+: 可以用 ResourcesLoader 把覆盖资源包叠加在原始 APK 之上（{@link #loadOverlayResources}），
+ *   不替换 AssetManager，也不需要合并完整资源包
  */
 public class ResourcePatcher {
     
@@ -96,6 +102,104 @@ public class ResourcePatcher {
     }
 
     
+    /**
+     * 加载覆盖资源包 (Android 11+, API 30+)
+     * 
+     * 原始 APK 保留在 AssetManager 中，覆盖资源包通过 ResourcesLoader 叠加在它之上：
+     * 加载器中的条目在配置相同时也优先于原始 APK，因此覆盖资源包只需包含变化的条目和文件。
+     * 加载器加到 Application 的 Resources 上，之后创建的 Activity 会继承它；
+     * 已存在的本应用 Resources（如已创建的 Activity）也一并添加。
+     * 
+     * @param context 应用上下文
+     * @param overlayResourcePath 覆盖资源包路径（由 {@link ResourceOverlay} 生成）
+     * @throws PatchResourceException 如果加载失败
+     */
+    @RequiresApi(Build.VERSION_CODES.R)
+    public static void loadOverlayResources(Context context, String overlayResourcePath)
+            throws PatchResourceException {
+        if (context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        File overlayFile = new File(overlayResourcePath);
+        if (!overlayFile.isFile()) {
+            throw new PatchResourceException(UpdateErrorCode.ERROR_FILE_NOT_FOUND,
+                    "Overlay resource file not found: " + overlayResourcePath);
+        }
+        
+        try {
+            // ResourcesProvider 会复制文件描述符，这里可以直接关闭
+            ResourcesProvider provider;
+            try (ParcelFileDescriptor pfd = ParcelFileDescriptor.open(overlayFile,
+                    ParcelFileDescriptor.MODE_READ_ONLY)) {
+                provider = ResourcesProvider.loadFromApk(pfd);
+            }
+            ResourcesLoader loader = new ResourcesLoader();
+            loader.addProvider(provider);
+            
+            // 1. Application 的 Resources（Activity 创建时继承其加载器）
+            Resources appResources = context.getResources();
+            appResources.addLoaders(loader);
+            Context appContext = context.getApplicationContext();
+            if (appContext != null && appContext.getResources() != appResources) {
+                appContext.getResources().addLoaders(loader);
+            }
+            
+            // 2. 已存在的本应用 Resources
+            addLoaderToActiveResources(context, loader);
+            
+            Log.i(TAG, "Overlay resources loaded: " + overlayResourcePath);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to load overlay resources", e);
+            throw new PatchResourceException(UpdateErrorCode.ERROR_APPLY_FAILED,
+                    "Failed to load overlay resources: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 把加载器添加到 ResourcesManager 中已存在的本应用 Resources
+     * 
+     * 只处理 AssetManager 包含本应用 APK 的 Resources，其它包的 Resources 不受影响；失败时只记录日志。
+     */
+    @RequiresApi(Build.VERSION_CODES.R)
+    @SuppressWarnings("unchecked")
+    private static void addLoaderToActiveResources(Context context, ResourcesLoader loader) {
+        try {
+            Class<?> resourcesManagerClass = ReflectAccessors.type("android.app.ResourcesManager");
+            Object resourcesManager = ReflectAccessors.method(resourcesManagerClass, "getInstance").invoke(null);
+            Field referencesField = ReflectAccessors.field(resourcesManagerClass, FIELD_M_RESOURCE_REFERENCES);
+            Collection<WeakReference<Resources>> references =
+                    (Collection<WeakReference<Resources>>) referencesField.get(resourcesManager);
+            if (references == null) {
+                return;
+            }
+            
+            Method getApkPathsMethod = ReflectAccessors.method(AssetManager.class, "getApkPaths");
+            String sourceDir = context.getApplicationInfo().sourceDir;
+            // 先复制引用列表，addLoaders 会回调 ResourcesManager 更新缓存
+            java.util.List<WeakReference<Resources>> snapshot;
+            synchronized (resourcesManager) {
+                snapshot = new java.util.ArrayList<>(references);
+            }
+            int count = 0;
+            for (WeakReference<Resources> reference : snapshot) {
+                Resources resources = reference != null ? reference.get() : null;
+                if (resources == null || resources.getLoaders().contains(loader)) {
+                    continue;
+                }
+                String[] paths = (String[]) getApkPathsMethod.invoke(resources.getAssets());
+                if (paths != null && java.util.Arrays.asList(paths).contains(sourceDir)) {
+                    resources.addLoaders(loader);
+                    count++;
+                }
+            }
+            Log.d(TAG, "Added overlay loader to " + count + " active Resources");
+        } catch (NoSuchFieldException | NoSuchMethodException | ClassNotFoundException e) {
+            ReflectAccessors.reportUnsupported("ResourcesManager." + FIELD_M_RESOURCE_REFERENCES, e);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to add overlay loader to active Resources: " + e.getMessage());
+        }
+    }
+    
     /**
      * 标准资源加载方案 (Android 5.0-6.0, API 21-23)
      * 
@@ -108,9 +212,7 @@ public class ResourcePatcher {
         AssetManager newAssetManager = AssetManager.class.newInstance();
         
         // 2. 通过反射调用 addAssetPath 方法
-        Method addAssetPathMethod = AssetManager.class.getDeclaredMethod(
-                METHOD_ADD_ASSET_PATH, String.class);
-        addAssetPathMethod.setAccessible(true);
+        Method addAssetPathMethod = ReflectAccessors.method(AssetManager.class, METHOD_ADD_ASSET_PATH, String.class);
         
         // 只添加补丁资源路径（补丁已经是完整的资源包）
         int result = (int) addAssetPathMethod.invoke(newAssetManager, patchResourcePath);
@@ -150,9 +252,7 @@ public class ResourcePatcher {
         AssetManager newAssetManager = AssetManager.class.newInstance();
         
         // 2. 添加资源路径 - 只添加补丁！
-        Method addAssetPathMethod = AssetManager.class.getDeclaredMethod(
-                METHOD_ADD_ASSET_PATH, String.class);
-        addAssetPathMethod.setAccessible(true);
+        Method addAssetPathMethod = ReflectAccessors.method(AssetManager.class, METHOD_ADD_ASSET_PATH, String.class);
         
         // 只添加补丁资源路径（补丁已经是完整的资源包）
         int result = (int) addAssetPathMethod.invoke(newAssetManager, patchResourcePath);
@@ -173,8 +273,7 @@ public class ResourcePatcher {
         
         // 6. 修改 ApplicationInfo.publicSourceDir
         try {
-            Field publicSourceDirField = context.getApplicationInfo().getClass().getDeclaredField("publicSourceDir");
-            publicSourceDirField.setAccessible(true);
+            Field publicSourceDirField = ReflectAccessors.field(context.getApplicationInfo().getClass(), "publicSourceDir");
             publicSourceDirField.set(context.getApplicationInfo(), patchResourcePath);
             Log.d(TAG, "Updated ApplicationInfo.publicSourceDir");
         } catch (Exception e) {
@@ -197,9 +296,7 @@ public class ResourcePatcher {
         AssetManager newAssetManager = AssetManager.class.newInstance();
         
         // 2. 添加资源路径 - 只添加补丁！（Tinker 的方式）
-        Method addAssetPathMethod = AssetManager.class.getDeclaredMethod(
-                METHOD_ADD_ASSET_PATH, String.class);
-        addAssetPathMethod.setAccessible(true);
+        Method addAssetPathMethod = ReflectAccessors.method(AssetManager.class, METHOD_ADD_ASSET_PATH, String.class);
         
         // 只添加补丁资源路径（补丁已经是完整的资源包）
         int result = (int) addAssetPathMethod.invoke(newAssetManager, patchResourcePath);
@@ -237,9 +334,8 @@ public class ResourcePatcher {
             replaceLoadedApkResDir(context, patchResourcePath);
             
             // 获取 ResourcesManager 单例
-            Class<?> resourcesManagerClass = Class.forName("android.app.ResourcesManager");
-            Method getInstanceMethod = resourcesManagerClass.getDeclaredMethod("getInstance");
-            getInstanceMethod.setAccessible(true);
+            Class<?> resourcesManagerClass = ReflectAccessors.type("android.app.ResourcesManager");
+            Method getInstanceMethod = ReflectAccessors.method(resourcesManagerClass, "getInstance");
             Object resourcesManager = getInstanceMethod.invoke(null);
             
             if (resourcesManager == null) {
@@ -251,11 +347,10 @@ public class ResourcePatcher {
             Collection<WeakReference<Resources>> references = null;
             Field resourceRefsField = null;
             try {
-                resourceRefsField = resourcesManagerClass.getDeclaredField("mResourceReferences");
-                resourceRefsField.setAccessible(true);
+                resourceRefsField = ReflectAccessors.field(resourcesManagerClass, FIELD_M_RESOURCE_REFERENCES);
                 references = (Collection<WeakReference<Resources>>) resourceRefsField.get(resourcesManager);
             } catch (NoSuchFieldException e) {
-                Log.d(TAG, "mResourceReferences field not found");
+                ReflectAccessors.reportUnsupported("ResourcesManager." + FIELD_M_RESOURCE_REFERENCES, e);
             }
             
             // ===== Tinker 步骤 3: 清空 ResourcesManager 缓存 =====
@@ -264,8 +359,7 @@ public class ResourcePatcher {
             // ===== Tinker 步骤 4: 替换所有 ResourcesImpl 中的 AssetManager =====
             Field resourceImplsField = null;
             try {
-                resourceImplsField = resourcesManagerClass.getDeclaredField("mResourceImpls");
-                resourceImplsField.setAccessible(true);
+                resourceImplsField = ReflectAccessors.field(resourcesManagerClass, FIELD_M_RESOURCE_IMPLS);
                 Object resourceImpls = resourceImplsField.get(resourcesManager);
                 
                 if (resourceImpls instanceof ArrayMap) {
@@ -284,7 +378,7 @@ public class ResourcePatcher {
                     }
                 }
             } catch (NoSuchFieldException e) {
-                Log.w(TAG, "Cannot find mResourceImpls field");
+                ReflectAccessors.reportUnsupported("ResourcesManager." + FIELD_M_RESOURCE_IMPLS, e);
             }
             
             // ===== Tinker 步骤 5: 替换所有 Resources 中的 AssetManager 并调用 updateConfiguration =====
@@ -316,8 +410,7 @@ public class ResourcePatcher {
             
             // ===== Tinker 步骤 6: 修改 ApplicationInfo.publicSourceDir (Android N+) =====
             try {
-                Field publicSourceDirField = context.getApplicationInfo().getClass().getDeclaredField("publicSourceDir");
-                publicSourceDirField.setAccessible(true);
+                Field publicSourceDirField = ReflectAccessors.field(context.getApplicationInfo().getClass(), "publicSourceDir");
                 publicSourceDirField.set(context.getApplicationInfo(), patchResourcePath);
                 Log.d(TAG, "Updated ApplicationInfo.publicSourceDir");
             } catch (Exception e) {
@@ -339,27 +432,24 @@ public class ResourcePatcher {
     private static void replaceLoadedApkResDir(Context context, String patchResourcePath) {
         try {
             // 获取 ActivityThread
-            Class<?> activityThreadClass = Class.forName("android.app.ActivityThread");
-            Method currentActivityThreadMethod = activityThreadClass.getDeclaredMethod("currentActivityThread");
-            currentActivityThreadMethod.setAccessible(true);
+            Class<?> activityThreadClass = ReflectAccessors.type("android.app.ActivityThread");
+            Method currentActivityThreadMethod = ReflectAccessors.method(activityThreadClass, "currentActivityThread");
             Object currentActivityThread = currentActivityThreadMethod.invoke(null);
             
             // 获取 mPackages
-            Field packagesField = activityThreadClass.getDeclaredField("mPackages");
-            packagesField.setAccessible(true);
+            Field packagesField = ReflectAccessors.field(activityThreadClass, "mPackages");
             Map<String, WeakReference<?>> packages = (Map<String, WeakReference<?>>) packagesField.get(currentActivityThread);
             
             // 获取 LoadedApk 类
             Class<?> loadedApkClass;
             try {
-                loadedApkClass = Class.forName("android.app.LoadedApk");
+                loadedApkClass = ReflectAccessors.type("android.app.LoadedApk");
             } catch (ClassNotFoundException e) {
-                loadedApkClass = Class.forName("android.app.ActivityThread$PackageInfo");
+                loadedApkClass = ReflectAccessors.type("android.app.ActivityThread$PackageInfo");
             }
             
             // 获取 mResDir 字段
-            Field resDirField = loadedApkClass.getDeclaredField("mResDir");
-            resDirField.setAccessible(true);
+            Field resDirField = ReflectAccessors.field(loadedApkClass, "mResDir");
             
             // 替换所有 LoadedApk 的 mResDir
             String appSourceDir = context.getApplicationInfo().sourceDir;
@@ -377,8 +467,7 @@ public class ResourcePatcher {
             
             // 也尝试 mResourcePackages
             try {
-                Field resourcePackagesField = activityThreadClass.getDeclaredField("mResourcePackages");
-                resourcePackagesField.setAccessible(true);
+                Field resourcePackagesField = ReflectAccessors.field(activityThreadClass, "mResourcePackages");
                 Map<String, WeakReference<?>> resourcePackages = (Map<String, WeakReference<?>>) resourcePackagesField.get(currentActivityThread);
                 
                 for (Map.Entry<String, WeakReference<?>> entry : resourcePackages.entrySet()) {
@@ -396,6 +485,8 @@ public class ResourcePatcher {
                 Log.d(TAG, "mResourcePackages field not found");
             }
             
+        } catch (NoSuchFieldException | NoSuchMethodException | ClassNotFoundException e) {
+            ReflectAccessors.reportUnsupported("ActivityThread.mPackages", e);
         } catch (Exception e) {
             Log.w(TAG, "Failed to replace LoadedApk mResDir: " + e.getMessage());
         }
@@ -406,12 +497,10 @@ public class ResourcePatcher {
      */
     private static void clearPreloadTypedArrayIssue(Resources resources) {
         try {
-            Field typedArrayPoolField = Resources.class.getDeclaredField("mTypedArrayPool");
-            typedArrayPoolField.setAccessible(true);
+            Field typedArrayPoolField = ReflectAccessors.field(Resources.class, "mTypedArrayPool");
             Object typedArrayPool = typedArrayPoolField.get(resources);
             
-            Method acquireMethod = typedArrayPool.getClass().getDeclaredMethod("acquire");
-            acquireMethod.setAccessible(true);
+            Method acquireMethod = ReflectAccessors.method(typedArrayPool.getClass(), "acquire");
             
             while (true) {
                 Object typedArray = acquireMethod.invoke(typedArrayPool);
@@ -434,8 +523,7 @@ public class ResourcePatcher {
         try {
             // 尝试清空 mResourceImpls
             try {
-                Field resourceImplsField = resourcesManager.getClass().getDeclaredField("mResourceImpls");
-                resourceImplsField.setAccessible(true);
+                Field resourceImplsField = ReflectAccessors.field(resourcesManager.getClass(), "mResourceImpls");
                 Object resourceImpls = resourceImplsField.get(resourcesManager);
                 
                 if (resourceImpls instanceof ArrayMap) {
@@ -450,8 +538,7 @@ public class ResourcePatcher {
             
             // 尝试清空 mActivityResourceReferences (Android 10+)
             try {
-                Field activityRefsField = resourcesManager.getClass().getDeclaredField("mActivityResourceReferences");
-                activityRefsField.setAccessible(true);
+                Field activityRefsField = ReflectAccessors.field(resourcesManager.getClass(), "mActivityResourceReferences");
                 Object activityRefs = activityRefsField.get(resourcesManager);
                 
                 if (activityRefs instanceof ArrayMap) {
@@ -466,8 +553,7 @@ public class ResourcePatcher {
             
             // 尝试清空 mResourceReferences
             try {
-                Field resourceRefsField = resourcesManager.getClass().getDeclaredField("mResourceReferences");
-                resourceRefsField.setAccessible(true);
+                Field resourceRefsField = ReflectAccessors.field(resourcesManager.getClass(), "mResourceReferences");
                 Object resourceRefs = resourceRefsField.get(resourcesManager);
                 
                 if (resourceRefs instanceof Collection) {
@@ -495,8 +581,7 @@ public class ResourcePatcher {
             // Android 9.0+ 使用 getApkPaths
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
                 try {
-                    Method getApkPathsMethod = AssetManager.class.getDeclaredMethod("getApkPaths");
-                    getApkPathsMethod.setAccessible(true);
+                    Method getApkPathsMethod = ReflectAccessors.method(AssetManager.class, "getApkPaths");
                     String[] paths = (String[]) getApkPathsMethod.invoke(assetManager);
                     
                     if (paths != null && paths.length > 0) {
@@ -523,28 +608,15 @@ public class ResourcePatcher {
             throws Exception {
         try {
             // 获取 Resources 中的 mResourcesImpl
-            Field resourcesImplField = Resources.class.getDeclaredField("mResourcesImpl");
-            resourcesImplField.setAccessible(true);
+            Field resourcesImplField = ReflectAccessors.field(Resources.class, FIELD_M_RESOURCES_IMPL);
             Object resourcesImpl = resourcesImplField.get(resources);
             
             if (resourcesImpl != null) {
                 // 在 ResourcesImpl 及其父类中查找 mAssets 字段
-                Class<?> clazz = resourcesImpl.getClass();
-                while (clazz != null) {
-                    try {
-                        Field assetsField = clazz.getDeclaredField("mAssets");
-                        assetsField.setAccessible(true);
-                        assetsField.set(resourcesImpl, newAssetManager);
-                        Log.d(TAG, "Replaced mAssets in " + clazz.getName());
-                        return;
-                    } catch (NoSuchFieldException e) {
-                        clazz = clazz.getSuperclass();
-                    }
-                }
-                Log.w(TAG, "mAssets not found in ResourcesImpl: " + resourcesImpl.getClass().getName());
+                replaceResourcesImplAssetsDirect(resourcesImpl, newAssetManager);
             }
         } catch (NoSuchFieldException e) {
-            Log.w(TAG, "mResourcesImpl field not found: " + e.getMessage());
+            ReflectAccessors.reportUnsupported("Resources." + FIELD_M_RESOURCES_IMPL, e);
         }
     }
 
@@ -556,9 +628,7 @@ public class ResourcePatcher {
      */
     private static void ensureStringBlocks(AssetManager assetManager) {
         try {
-            Method ensureStringBlocksMethod = AssetManager.class.getDeclaredMethod(
-                    METHOD_ENSURE_STRING_BLOCKS);
-            ensureStringBlocksMethod.setAccessible(true);
+            Method ensureStringBlocksMethod = ReflectAccessors.method(AssetManager.class, METHOD_ENSURE_STRING_BLOCKS);
             ensureStringBlocksMethod.invoke(assetManager);
         } catch (Exception e) {
             // 某些版本可能没有这个方法，忽略错误
@@ -596,22 +666,10 @@ public class ResourcePatcher {
     private static void replaceContextResources(Context context, Resources newResources) 
             throws Exception {
         try {
-            Field resourcesField = context.getClass().getDeclaredField(FIELD_M_RESOURCES);
-            resourcesField.setAccessible(true);
+            // 包括父类中的字段
+            Field resourcesField = ReflectAccessors.field(context.getClass(), FIELD_M_RESOURCES);
             resourcesField.set(context, newResources);
         } catch (NoSuchFieldException e) {
-            // 尝试从父类查找
-            Class<?> clazz = context.getClass().getSuperclass();
-            while (clazz != null) {
-                try {
-                    Field resourcesField = clazz.getDeclaredField(FIELD_M_RESOURCES);
-                    resourcesField.setAccessible(true);
-                    resourcesField.set(context, newResources);
-                    return;
-                } catch (NoSuchFieldException ex) {
-                    clazz = clazz.getSuperclass();
-                }
-            }
             Log.w(TAG, "mResources field not found in context hierarchy");
         }
     }
@@ -623,13 +681,11 @@ public class ResourcePatcher {
             throws Exception {
         try {
             // 获取 ContextImpl 的 mPackageInfo (LoadedApk)
-            Field packageInfoField = context.getClass().getDeclaredField("mPackageInfo");
-            packageInfoField.setAccessible(true);
+            Field packageInfoField = ReflectAccessors.field(context.getClass(), "mPackageInfo");
             Object loadedApk = packageInfoField.get(context);
             
             if (loadedApk != null) {
-                Field resourcesField = loadedApk.getClass().getDeclaredField(FIELD_M_RESOURCES);
-                resourcesField.setAccessible(true);
+                Field resourcesField = ReflectAccessors.field(loadedApk.getClass(), FIELD_M_RESOURCES);
                 resourcesField.set(loadedApk, newResources);
             }
         } catch (Exception e) {
@@ -645,9 +701,8 @@ public class ResourcePatcher {
             AssetManager newAssetManager, Resources newResources) throws Exception {
         try {
             // 获取 ResourcesManager 单例
-            Class<?> resourcesManagerClass = Class.forName("android.app.ResourcesManager");
-            Method getInstanceMethod = resourcesManagerClass.getDeclaredMethod("getInstance");
-            getInstanceMethod.setAccessible(true);
+            Class<?> resourcesManagerClass = ReflectAccessors.type("android.app.ResourcesManager");
+            Method getInstanceMethod = ReflectAccessors.method(resourcesManagerClass, "getInstance");
             Object resourcesManager = getInstanceMethod.invoke(null);
             
             if (resourcesManager == null) {
@@ -675,9 +730,7 @@ public class ResourcePatcher {
     @SuppressWarnings("unchecked")
     private static void replaceActiveResources(Object resourcesManager, 
             AssetManager newAssetManager, Resources newResources) throws Exception {
-        Field activeResourcesField = resourcesManager.getClass()
-                .getDeclaredField(FIELD_M_ACTIVE_RESOURCES);
-        activeResourcesField.setAccessible(true);
+        Field activeResourcesField = ReflectAccessors.field(resourcesManager.getClass(), FIELD_M_ACTIVE_RESOURCES);
         
         Object activeResources = activeResourcesField.get(resourcesManager);
         
@@ -716,9 +769,7 @@ public class ResourcePatcher {
     private static void replaceResourceImpls(Object resourcesManager, 
             AssetManager newAssetManager) throws Exception {
         try {
-            Field resourceImplsField = resourcesManager.getClass()
-                    .getDeclaredField(FIELD_M_RESOURCE_IMPLS);
-            resourceImplsField.setAccessible(true);
+            Field resourceImplsField = ReflectAccessors.field(resourcesManager.getClass(), FIELD_M_RESOURCE_IMPLS);
             
             Object resourceImpls = resourceImplsField.get(resourcesManager);
             
@@ -749,9 +800,7 @@ public class ResourcePatcher {
     private static void replaceResourceReferences(Object resourcesManager, 
             AssetManager newAssetManager) throws Exception {
         try {
-            Field resourceRefsField = resourcesManager.getClass()
-                    .getDeclaredField(FIELD_M_RESOURCE_REFERENCES);
-            resourceRefsField.setAccessible(true);
+            Field resourceRefsField = ReflectAccessors.field(resourcesManager.getClass(), FIELD_M_RESOURCE_REFERENCES);
             
             Object resourceRefs = resourceRefsField.get(resourcesManager);
             
@@ -778,8 +827,7 @@ public class ResourcePatcher {
      */
     private static void replaceResourcesAssets(Resources resources, AssetManager newAssetManager) 
             throws Exception {
-        Field assetsField = Resources.class.getDeclaredField(FIELD_M_ASSETS);
-        assetsField.setAccessible(true);
+        Field assetsField = ReflectAccessors.field(Resources.class, FIELD_M_ASSETS);
         assetsField.set(resources, newAssetManager);
     }
     
@@ -792,8 +840,7 @@ public class ResourcePatcher {
         
         try {
             // 获取 Resources 中的 mResourcesImpl
-            Field resourcesImplField = Resources.class.getDeclaredField(FIELD_M_RESOURCES_IMPL);
-            resourcesImplField.setAccessible(true);
+            Field resourcesImplField = ReflectAccessors.field(Resources.class, FIELD_M_RESOURCES_IMPL);
             Object resourcesImpl = resourcesImplField.get(resources);
             
             if (resourcesImpl != null) {
@@ -811,21 +858,14 @@ public class ResourcePatcher {
      */
     private static void replaceResourcesImplAssetsDirect(Object resourcesImpl, 
             AssetManager newAssetManager) throws Exception {
-        // 尝试在当前类和父类中查找 mAssets 字段
-        Class<?> clazz = resourcesImpl.getClass();
-        while (clazz != null) {
-            try {
-                Field assetsField = clazz.getDeclaredField(FIELD_M_ASSETS);
-                assetsField.setAccessible(true);
-                assetsField.set(resourcesImpl, newAssetManager);
-                Log.d(TAG, "Replaced mAssets in " + clazz.getName());
-                return;
-            } catch (NoSuchFieldException e) {
-                // 继续查找父类
-                clazz = clazz.getSuperclass();
-            }
+        // 在当前类和父类中查找 mAssets 字段（查找结果按类缓存）
+        try {
+            Field assetsField = ReflectAccessors.field(resourcesImpl.getClass(), FIELD_M_ASSETS);
+            assetsField.set(resourcesImpl, newAssetManager);
+            Log.d(TAG, "Replaced mAssets in " + assetsField.getDeclaringClass().getName());
+        } catch (NoSuchFieldException e) {
+            ReflectAccessors.reportUnsupported(resourcesImpl.getClass().getName() + "." + FIELD_M_ASSETS, e);
         }
-        Log.w(TAG, "mAssets field not found in ResourcesImpl hierarchy: " + resourcesImpl.getClass().getName());
     }
 
 
@@ -877,8 +917,7 @@ public class ResourcePatcher {
             
             // 尝试获取 getApkAssets 方法 (Android 9.0+)
             try {
-                Method getApkAssetsMethod = AssetManager.class.getDeclaredMethod("getApkAssets");
-                getApkAssetsMethod.setAccessible(true);
+                Method getApkAssetsMethod = ReflectAccessors.method(AssetManager.class, "getApkAssets");
                 Object[] apkAssets = (Object[]) getApkAssetsMethod.invoke(assetManager);
                 
                 Log.d(TAG, "=== AssetManager Paths (API 28+) ===");
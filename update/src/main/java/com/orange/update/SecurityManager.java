@@ -9,11 +9,16 @@ import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -29,6 +34,9 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -46,6 +54,10 @@ import javax.crypto.spec.GCMParameterSpec;
  * - AES-256-GCM 加密/解密
  * - RSA-2048 签名验证
  * - 安全删除临时文件
+ *
+ * 补丁文件使用按文件密钥加密：每个文件生成独立的 KeyStore 密钥，密钥 ID 写在文件头部
+ * （{@link SegmentedAead} v2 格式）。删除文件时销毁对应密钥即可使密文不可恢复（crypto-shredding），
+ * 不再需要多次覆写整个文件；多次覆写只在 {@link #setSecureOverwrite(boolean)} 显式开启时使用。
  */
 public class SecurityManager {
     
@@ -54,6 +66,7 @@ public class SecurityManager {
     // KeyStore 相关常量
     private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
     private static final String KEY_ALIAS = "patch_encryption_key";
+    private static final String FILE_KEY_ALIAS_PREFIX = "patch_file_key_";
     
     // 加密算法常量
     private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding";
@@ -73,6 +86,7 @@ public class SecurityManager {
     private KeyStore keyStore;
     private PublicKey signaturePublicKey;
     private boolean debugMode;
+    private volatile boolean secureOverwrite;
 
     
     /**
@@ -187,7 +201,7 @@ public class SecurityManager {
             }
             
             // 生成新密钥
-            return generateEncryptionKey();
+            return generateEncryptionKey(KEY_ALIAS);
         } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException e) {
             Log.e(TAG, "Failed to get or create encryption key", e);
             throw new SecurityException("Failed to get or create encryption key: " + e.getMessage(), e);
@@ -196,16 +210,17 @@ public class SecurityManager {
     
     /**
      * 生成新的 AES-256 加密密钥并存储到 KeyStore
+     * @param alias 密钥别名
      * @return 生成的密钥
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
-    private SecretKey generateEncryptionKey() {
+    private SecretKey generateEncryptionKey(String alias) {
         try {
             KeyGenerator keyGenerator = KeyGenerator.getInstance(
                     KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
             
             KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
-                    KEY_ALIAS,
+                    alias,
                     KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
                     .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
                     .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
@@ -255,6 +270,119 @@ public class SecurityManager {
             return false;
         }
     }
+    
+    /**
+     * 按文件密钥：KeyStore 中的密钥及其 ID
+     */
+    private static final class FileKey {
+        final byte[] id;
+        final SecretKey key;
+        
+        FileKey(byte[] id, SecretKey key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+    
+    /**
+     * 为一个新文件生成专用密钥
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private FileKey createFileKey() {
+        byte[] id = new byte[SegmentedAead.KEY_ID_LENGTH];
+        new SecureRandom().nextBytes(id);
+        return new FileKey(id, generateEncryptionKey(fileKeyAlias(id)));
+    }
+    
+    /**
+     * 获取加密文件使用的密钥：v2 格式使用头部记录的按文件密钥，旧文件使用共享密钥
+     * @throws SecurityException 文件密钥已销毁（文件已被删除）或读取失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private SecretKey resolveKey(File encryptedFile) {
+        byte[] keyId = SegmentedAead.readKeyId(encryptedFile);
+        if (keyId == null) {
+            return getOrCreateEncryptionKey();
+        }
+        try {
+            SecretKey key = (SecretKey) keyStore.getKey(fileKeyAlias(keyId), null);
+            if (key == null) {
+                throw new SecurityException("File key has been destroyed: " + encryptedFile.getName());
+            }
+            return key;
+        } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException e) {
+            Log.e(TAG, "Failed to load file key", e);
+            throw new SecurityException("Failed to load file key: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 销毁按文件密钥
+     * @param keyId 密钥 ID，为 null 时不做任何事
+     * @return 是否成功（密钥不存在也视为成功）
+     */
+    boolean destroyFileKey(byte[] keyId) {
+        if (keyId == null) {
+            return true;
+        }
+        try {
+            keyStore.deleteEntry(fileKeyAlias(keyId));
+            return true;
+        } catch (KeyStoreException e) {
+            Log.e(TAG, "Failed to destroy file key", e);
+            return false;
+        }
+    }
+    
+    /**
+     * 清理没有文件引用的按文件密钥（例如进程在写入过程中被杀留下的密钥）
+     * @param roots 仍可能包含加密文件的目录
+     * @return 销毁的密钥数量
+     */
+    public int pruneFileKeys(File... roots) {
+        Set<String> referenced = new HashSet<>();
+        for (File root : roots) {
+            collectFileKeyAliases(root, referenced);
+        }
+        int destroyed = 0;
+        try {
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (alias.startsWith(FILE_KEY_ALIAS_PREFIX) && !referenced.contains(alias)) {
+                    keyStore.deleteEntry(alias);
+                    destroyed++;
+                }
+            }
+        } catch (KeyStoreException e) {
+            Log.e(TAG, "Failed to prune file keys", e);
+        }
+        if (destroyed > 0) {
+            Log.d(TAG, "Pruned " + destroyed + " orphaned file keys");
+        }
+        return destroyed;
+    }
+    
+    private void collectFileKeyAliases(File file, Set<String> aliases) {
+        if (file == null) {
+            return;
+        }
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectFileKeyAliases(child, aliases);
+                }
+            }
+            return;
+        }
+        byte[] keyId = SegmentedAead.readKeyId(file);
+        if (keyId != null) {
+            aliases.add(fileKeyAlias(keyId));
+        }
+    }
+    
+    private static String fileKeyAlias(byte[] keyId) {
+        return FILE_KEY_ALIAS_PREFIX + Md5Utils.toHex(keyId);
+    }
 
     
     // ==================== AES-256-GCM 加密/解密 ====================
@@ -281,32 +409,11 @@ public class SecurityManager {
         File encryptedFile = new File(patchFile.getPath() + ".enc");
         
         try {
-            // 从密码派生密钥
-            SecretKey key = deriveKeyFromPassword(password);
-            
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 读取原始文件
-            byte[] plainData = readFileBytes(patchFile);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(plainData);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 写入加密文件：IV + 加密数据（包含 auth tag）
-            try (FileOutputStream fos = new FileOutputStream(encryptedFile)) {
-                fos.write(iv);
-                fos.write(encryptedData);
-            }
-            
+            // 从密码派生密钥，分段流式加密
+            encryptFileSegmented(patchFile, encryptedFile, deriveKeyFromPassword(password), null);
             return encryptedFile;
             
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Failed to encrypt patch file with password", e);
             // 清理失败的加密文件
             if (encryptedFile.exists()) {
@@ -345,42 +452,11 @@ public class SecurityManager {
         File decryptedFile = new File(decryptedPath);
         
         try {
-            // 从密码派生密钥
-            SecretKey key = deriveKeyFromPassword(password);
-            
-            // 读取加密文件
-            byte[] encryptedContent = readFileBytes(encryptedFile);
-            
-            if (encryptedContent.length < GCM_IV_LENGTH) {
-                throw new SecurityException("Invalid encrypted file: too short");
-            }
-            
-            // 提取 IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, 0, iv, 0, GCM_IV_LENGTH);
-            
-            // 提取加密数据
-            byte[] encryptedData = new byte[encryptedContent.length - GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, GCM_IV_LENGTH, encryptedData, 0, encryptedData.length);
-            
-            // 初始化解密器
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, key, spec);
-            
-            // 解密数据
-            byte[] decryptedData = cipher.doFinal(encryptedData);
-            
-            // 写入解密文件
-            try (FileOutputStream fos = new FileOutputStream(decryptedFile)) {
-                fos.write(decryptedData);
-            }
-            
+            // 从密码派生密钥后解密
+            decryptFileTo(encryptedFile, decryptedFile, deriveKeyFromPassword(password));
             return decryptedFile;
             
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 InvalidAlgorithmParameterException | IllegalBlockSizeException | 
-                 BadPaddingException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Failed to decrypt patch file with password", e);
             // 清理失败的解密文件
             if (decryptedFile.exists()) {
@@ -425,7 +501,7 @@ public class SecurityManager {
     
     /**
      * 加密补丁文件
-     * 使用 AES-256-GCM 加密，输出格式：[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]
+     * 使用分段 AES-256-GCM 加密（格式见 {@link SegmentedAead}），内存占用与补丁大小无关
      * 
      * @param patchFile 原始补丁文件
      * @return 加密后的文件（.enc 扩展名）
@@ -439,35 +515,16 @@ public class SecurityManager {
         
         File encryptedFile = new File(patchFile.getPath() + ".enc");
         
+        FileKey fileKey = createFileKey();
         try {
-            // 获取加密密钥
-            SecretKey key = getOrCreateEncryptionKey();
-            
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 读取原始文件
-            byte[] plainData = readFileBytes(patchFile);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(plainData);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 写入加密文件：IV + 加密数据（包含 auth tag）
-            try (FileOutputStream fos = new FileOutputStream(encryptedFile)) {
-                fos.write(iv);
-                fos.write(encryptedData);
-            }
-            
+            // 使用按文件密钥分段流式加密
+            encryptFileSegmented(patchFile, encryptedFile, fileKey.key, fileKey.id);
             return encryptedFile;
             
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Failed to encrypt patch file", e);
-            // 清理失败的加密文件
+            // 清理失败的加密文件和密钥
+            destroyFileKey(fileKey.id);
             if (encryptedFile.exists()) {
                 encryptedFile.delete();
             }
@@ -517,7 +574,7 @@ public class SecurityManager {
     
     /**
      * 解密补丁文件
-     * 输入格式：[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]
+     * 支持分段格式（{@link SegmentedAead}，流式解密）和旧格式：[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]
      * 
      * @param encryptedFile 加密的补丁文件
      * @return 解密后的文件
@@ -536,45 +593,29 @@ public class SecurityManager {
         } else {
             decryptedPath = decryptedPath + ".dec";
         }
-        File decryptedFile = new File(decryptedPath);
+        return decryptPatch(encryptedFile, new File(decryptedPath));
+    }
+    
+    /**
+     * 解密补丁文件到指定位置
+     * 
+     * @param encryptedFile 加密的补丁文件
+     * @param decryptedFile 解密后的文件
+     * @return 解密后的文件
+     * @throws SecurityException 如果解密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public File decryptPatch(File encryptedFile, File decryptedFile) {
+        if (encryptedFile == null || !encryptedFile.exists()) {
+            throw new IllegalArgumentException("Encrypted file does not exist");
+        }
         
         try {
-            // 获取解密密钥
-            SecretKey key = getOrCreateEncryptionKey();
-            
-            // 读取加密文件
-            byte[] encryptedContent = readFileBytes(encryptedFile);
-            
-            if (encryptedContent.length < GCM_IV_LENGTH) {
-                throw new SecurityException("Invalid encrypted file: too short");
-            }
-            
-            // 提取 IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, 0, iv, 0, GCM_IV_LENGTH);
-            
-            // 提取加密数据
-            byte[] encryptedData = new byte[encryptedContent.length - GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, GCM_IV_LENGTH, encryptedData, 0, encryptedData.length);
-            
-            // 初始化解密器
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, key, spec);
-            
-            // 解密数据
-            byte[] decryptedData = cipher.doFinal(encryptedData);
-            
-            // 写入解密文件
-            try (FileOutputStream fos = new FileOutputStream(decryptedFile)) {
-                fos.write(decryptedData);
-            }
-            
+            // 使用 KeyStore 密钥解密
+            decryptFileTo(encryptedFile, decryptedFile, resolveKey(encryptedFile));
             return decryptedFile;
             
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 InvalidAlgorithmParameterException | IllegalBlockSizeException | 
-                 BadPaddingException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Failed to decrypt patch file", e);
             // 清理失败的解密文件
             if (decryptedFile.exists()) {
@@ -628,6 +669,96 @@ public class SecurityManager {
     }
 
     
+    /**
+     * 流式加密到输出流（使用新的按文件密钥，分段格式）
+     * 输出应写入单个文件，删除该文件时通过 {@link #secureDelete(File)} 销毁密钥
+     * 
+     * @param in 明文输入
+     * @param length 明文长度
+     * @param out 密文输出
+     * @throws SecurityException 如果加密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public void encrypt(InputStream in, long length, OutputStream out) {
+        FileKey fileKey = createFileKey();
+        try {
+            SegmentedAead.encrypt(in, length, out, fileKey.key, SegmentedAead.DEFAULT_SEGMENT_SIZE, fileKey.id);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to encrypt stream", e);
+            destroyFileKey(fileKey.id);
+            throw new SecurityException("Failed to encrypt data: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 创建使用新的按文件密钥的分段加密输出流（写入单个文件）
+     * 
+     * @param out 密文输出
+     * @param length 明文长度
+     * @throws SecurityException 如果密钥生成失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    SegmentedAead.Writer newEncryptingWriter(OutputStream out, long length)
+            throws IOException, GeneralSecurityException {
+        FileKey fileKey = createFileKey();
+        try {
+            return new SegmentedAead.Writer(out, length, fileKey.key,
+                    SegmentedAead.DEFAULT_SEGMENT_SIZE, fileKey.id);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            destroyFileKey(fileKey.id);
+            throw e;
+        }
+    }
+    
+    /**
+     * 解密补丁文件到内存（使用 KeyStore 密钥）
+     * 分段格式直接解密到明文大小的数组，不再额外持有整个密文
+     * 
+     * @param encryptedFile 加密的补丁文件
+     * @return 解密后的数据
+     * @throws SecurityException 如果解密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public byte[] decryptToBytes(File encryptedFile) {
+        try {
+            if (!SegmentedAead.isSegmented(encryptedFile)) {
+                return decrypt(readFileBytes(encryptedFile));
+            }
+            try (SegmentedAead.Reader reader = SegmentedAead.Reader.open(encryptedFile, resolveKey(encryptedFile))) {
+                if (reader.getPlainLength() > Integer.MAX_VALUE) {
+                    throw new IOException("File too large: " + reader.getPlainLength());
+                }
+                byte[] data = new byte[(int) reader.getPlainLength()];
+                int offset = 0;
+                while (offset < data.length) {
+                    offset += reader.read(offset, data, offset, data.length - offset);
+                }
+                return data;
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to decrypt patch file", e);
+            throw new SecurityException("Failed to decrypt patch file: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 打开分段加密补丁的随机访问读取器（使用 KeyStore 密钥）
+     * 只解密读取位置所在的分段，例如读取 ZIP 中央目录时无需解密整个文件
+     * 
+     * @param encryptedFile 分段格式的加密补丁文件
+     * @return 读取器，使用后需要关闭
+     * @throws SecurityException 如果文件不是分段格式或打开失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public SegmentedAead.Reader openEncryptedPatch(File encryptedFile) {
+        try {
+            return SegmentedAead.Reader.open(encryptedFile, resolveKey(encryptedFile));
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to open encrypted patch", e);
+            throw new SecurityException("Failed to open encrypted patch: " + e.getMessage(), e);
+        }
+    }
+    
     // ==================== RSA 签名验证 ====================
     
     /**
@@ -643,6 +774,30 @@ public class SecurityManager {
             return false;
         }
         
+        try (FileInputStream fis = new FileInputStream(patchFile)) {
+            return verifySignature(fis, base64Signature);
+        } catch (IOException e) {
+            Log.e(TAG, "Signature verification failed", e);
+            return false;
+        }
+    }
+    
+    /**
+     * 验证输入流内容的 RSA 签名
+     * 
+     * 按块更新签名，不把整个内容读入内存（如 {@link PatchStorage#openPatchInputStream(String)} 的明文流）。
+     * 输入流由调用方关闭。
+     * 
+     * @param in 输入流
+     * @param base64Signature Base64 编码的签名
+     * @return 签名是否有效
+     */
+    public boolean verifySignature(InputStream in, String base64Signature) {
+        if (in == null) {
+            Log.e(TAG, "Input stream is null");
+            return false;
+        }
+        
         if (base64Signature == null || base64Signature.isEmpty()) {
             Log.e(TAG, "Signature is null or empty");
             return false;
@@ -664,13 +819,11 @@ public class SecurityManager {
             Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
             signature.initVerify(signaturePublicKey);
             
-            // 读取补丁文件内容并更新签名
-            try (FileInputStream fis = new FileInputStream(patchFile)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    signature.update(buffer, 0, bytesRead);
-                }
+            // 按块读取内容并更新签名
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                signature.update(buffer, 0, bytesRead);
             }
             
             // 解码并验证签名
@@ -759,9 +912,27 @@ public class SecurityManager {
     
     // ==================== 安全删除 ====================
     
+    /**
+     * 是否在删除时多次覆写文件内容
+     * 默认关闭：按文件密钥加密的文件删除时销毁密钥即可，与文件大小无关；
+     * 开启后每个文件额外覆写 3 遍并同步到磁盘（闪存上的磨损均衡会让覆写不一定落在原位置）
+     * 
+     * @param secureOverwrite 是否开启
+     */
+    public void setSecureOverwrite(boolean secureOverwrite) {
+        this.secureOverwrite = secureOverwrite;
+    }
+    
+    /**
+     * @return 删除时是否多次覆写文件内容
+     */
+    public boolean isSecureOverwrite() {
+        return secureOverwrite;
+    }
+    
     /**
      * 安全删除文件
-     * 通过多次覆写文件内容来防止数据恢复
+     * 按文件密钥加密的文件先销毁密钥再删除；开启 {@link #setSecureOverwrite(boolean)} 时还会多次覆写文件内容
      * 
      * @param file 要删除的文件
      * @return 是否删除成功
@@ -786,6 +957,12 @@ public class SecurityManager {
             return true;
         }
         
+        // 先销毁密钥：即使后面删除失败，密文也已无法解密
+        boolean keyDestroyed = destroyFileKey(SegmentedAead.readKeyId(file));
+        if (!secureOverwrite) {
+            return file.delete() && keyDestroyed;
+        }
+        
         long fileLength = file.length();
         
         // 如果文件为空，直接删除
@@ -874,6 +1051,43 @@ public class SecurityManager {
     
     // ==================== 工具方法 ====================
     
+    /**
+     * 分段流式加密文件
+     */
+    private void encryptFileSegmented(File patchFile, File encryptedFile, SecretKey key, byte[] keyId)
+            throws IOException, GeneralSecurityException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(patchFile));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(encryptedFile))) {
+            SegmentedAead.encrypt(in, patchFile.length(), out, key, SegmentedAead.DEFAULT_SEGMENT_SIZE, keyId);
+        }
+    }
+    
+    /**
+     * 解密文件：分段格式流式解密，旧格式整体解密
+     */
+    private void decryptFileTo(File encryptedFile, File decryptedFile, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        if (SegmentedAead.isSegmented(encryptedFile)) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(decryptedFile))) {
+                SegmentedAead.decrypt(encryptedFile, out, key);
+            }
+            return;
+        }
+        
+        // 旧格式：IV + 整体密文
+        byte[] encryptedContent = readFileBytes(encryptedFile);
+        if (encryptedContent.length < GCM_IV_LENGTH) {
+            throw new SecurityException("Invalid encrypted file: too short");
+        }
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, encryptedContent, 0, GCM_IV_LENGTH);
+        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+        byte[] decryptedData = cipher.doFinal(encryptedContent, GCM_IV_LENGTH, encryptedContent.length - GCM_IV_LENGTH);
+        try (FileOutputStream fos = new FileOutputStream(decryptedFile)) {
+            fos.write(decryptedData);
+        }
+    }
+    
     /**
      * 读取文件内容为字节数组
      */
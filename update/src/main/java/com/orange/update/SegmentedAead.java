@@ -0,0 +1,518 @@
+package com.orange.update;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * 分段 AES-GCM 加密容器
+ *
+ * 明文按固定大小分段，每段独立加密（各自的随机 IV 和认证标签），加解密只需一个分段大小的缓冲区，
+ * 并且可以只解密某一段（如读取 ZIP 中央目录时只解密文件末尾的分段）。
+ *
+ * 文件格式（大端序）：
+ * <pre>
+ * 头部 v1（24 字节）：byte[8] 魔数 "HUSEG001" | uint32 分段大小 | uint32 分段数 | uint64 明文长度
+ * 头部 v2（40 字节）：byte[8] 魔数 "HUSEG002" | uint32 分段大小 | uint32 分段数 | uint64 明文长度 | byte[16] 密钥 ID
+ * 分段 i：byte[12] IV | 密文 | byte[16] 认证标签
+ * </pre>
+ *
+ * v2 的密钥 ID 标识该文件专用的密钥（见 {@link SecurityManager} 的按文件密钥），
+ * 同样属于头部，受每段认证保护。
+ *
+ * 每段的附加认证数据为 头部 | uint32 段序号 | 是否最后一段(1 字节)，
+ * 分段被调换、截断或头部被修改时认证失败。
+ *
+ * 每段由 Cipher 自动生成 IV，因此也适用于要求随机 IV 的 Android KeyStore 密钥。
+ * v1 与 patch-generator-android 模块 PatchEncryptor 写出的格式保持一致。
+ */
+public final class SegmentedAead {
+
+    /** 默认分段大小 */
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    /** 密钥 ID 长度 */
+    public static final int KEY_ID_LENGTH = 16;
+
+    private static final byte[] MAGIC = {'H', 'U', 'S', 'E', 'G', '0', '0', '1'};
+    private static final byte[] MAGIC_V2 = {'H', 'U', 'S', 'E', 'G', '0', '0', '2'};
+    private static final int HEADER_LENGTH = 24;
+    private static final int HEADER_LENGTH_V2 = HEADER_LENGTH + KEY_ID_LENGTH;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final String ALGORITHM = "AES/GCM/NoPadding";
+
+    private SegmentedAead() {
+    }
+
+    /**
+     * 检查文件是否为分段加密格式（否则为旧的 IV + 整体密文格式）
+     */
+    public static boolean isSegmented(File file) {
+        if (file == null || file.length() < HEADER_LENGTH) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return parseHeader(readHeader(raf), raf.length()) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取 v2 头部中的密钥 ID
+     *
+     * @return 密钥 ID；v1 格式、不是分段加密格式或读取失败时返回 null
+     */
+    public static byte[] readKeyId(File file) {
+        if (file == null || file.length() < HEADER_LENGTH_V2) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] header = readHeader(raf);
+            if (parseHeader(header, raf.length()) == null) {
+                return null;
+            }
+            return keyIdOf(header);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 流式加密
+     *
+     * @param in 明文输入
+     * @param plainLength 明文长度（写入头部，输入不足时抛出 EOFException）
+     * @param out 密文输出（加密完成后不关闭）
+     * @param key AES 密钥
+     * @param segmentSize 分段大小
+     */
+    public static void encrypt(InputStream in, long plainLength, OutputStream out, SecretKey key,
+                               int segmentSize) throws IOException, GeneralSecurityException {
+        encrypt(in, plainLength, out, key, segmentSize, null);
+    }
+
+    /**
+     * 流式加密，并在头部记录密钥 ID（v2 格式）
+     *
+     * @param keyId 密钥 ID（{@link #KEY_ID_LENGTH} 字节），为 null 时写出 v1 格式
+     */
+    public static void encrypt(InputStream in, long plainLength, OutputStream out, SecretKey key,
+                               int segmentSize, byte[] keyId) throws IOException, GeneralSecurityException {
+        Writer writer = new Writer(out, plainLength, key, segmentSize, keyId);
+        byte[] buffer = new byte[Math.min(segmentSize, 64 * 1024)];
+        long remaining = plainLength;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of input");
+            }
+            writer.write(buffer, 0, read);
+            remaining -= read;
+        }
+        writer.finish();
+    }
+
+    /**
+     * 流式解密整个文件
+     *
+     * @param encryptedFile 分段加密的文件
+     * @param out 明文输出
+     * @param key AES 密钥
+     */
+    public static void decrypt(File encryptedFile, OutputStream out, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        try (Reader reader = Reader.open(encryptedFile, key)) {
+            for (int index = 0; index < reader.getSegmentCount(); index++) {
+                int length = reader.decryptSegment(index);
+                out.write(reader.plain, 0, length);
+            }
+        }
+    }
+
+    /**
+     * 流式加密输出流
+     *
+     * 写入的明文攒满一个分段即加密写出，只占用一个分段大小的缓冲区。
+     * 明文长度需要预先知道（写入头部并参与每段的认证），写入量与声明不符时
+     * {@link #finish()} 抛出异常。{@link #close()} 会先 finish 再关闭下层输出流。
+     */
+    public static final class Writer extends OutputStream {
+        private final OutputStream out;
+        private final SecretKey key;
+        private final byte[] header;
+        private final int segmentSize;
+        private final long segmentCount;
+        private final long plainLength;
+        private final Cipher cipher;
+        private final byte[] plain;
+        private final byte[] sealed;
+        private int buffered;
+        private int segmentIndex;
+        private long written;
+        private boolean finished;
+
+        public Writer(OutputStream out, long plainLength, SecretKey key, int segmentSize)
+                throws IOException, GeneralSecurityException {
+            this(out, plainLength, key, segmentSize, null);
+        }
+
+        /**
+         * @param keyId 密钥 ID（{@link #KEY_ID_LENGTH} 字节），为 null 时写出 v1 格式
+         */
+        public Writer(OutputStream out, long plainLength, SecretKey key, int segmentSize, byte[] keyId)
+                throws IOException, GeneralSecurityException {
+            if (keyId != null && keyId.length != KEY_ID_LENGTH) {
+                throw new IllegalArgumentException("Invalid key id length: " + keyId.length);
+            }
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+            }
+            long count = segmentCount(plainLength, segmentSize);
+            if (plainLength < 0 || count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid plaintext length: " + plainLength);
+            }
+            this.out = out;
+            this.key = key;
+            this.segmentSize = segmentSize;
+            this.segmentCount = count;
+            this.plainLength = plainLength;
+            this.cipher = Cipher.getInstance(ALGORITHM);
+            this.plain = new byte[segmentSize];
+            this.sealed = new byte[segmentSize + TAG_LENGTH];
+            ByteBuffer buffer = ByteBuffer.allocate(keyId != null ? HEADER_LENGTH_V2 : HEADER_LENGTH)
+                    .put(keyId != null ? MAGIC_V2 : MAGIC)
+                    .putInt(segmentSize)
+                    .putInt((int) count)
+                    .putLong(plainLength);
+            if (keyId != null) {
+                buffer.put(keyId);
+            }
+            this.header = buffer.array();
+            out.write(header);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (finished) {
+                throw new IOException("Writer already finished");
+            }
+            if (written + length > plainLength) {
+                throw new IOException("More data than declared length " + plainLength);
+            }
+            while (length > 0) {
+                int count = Math.min(length, segmentSize - buffered);
+                System.arraycopy(data, offset, plain, buffered, count);
+                buffered += count;
+                written += count;
+                offset += count;
+                length -= count;
+                // 最后一段留到 finish 时写出
+                if (buffered == segmentSize && segmentIndex < segmentCount - 1) {
+                    sealSegment();
+                }
+            }
+        }
+
+        /**
+         * 写出最后一段，不关闭下层输出流
+         *
+         * @throws IOException 写入量少于声明的明文长度时抛出
+         */
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (written != plainLength) {
+                throw new EOFException("Expected " + plainLength + " bytes but got " + written);
+            }
+            sealSegment();
+            finished = true;
+            Arrays.fill(plain, (byte) 0);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void sealSegment() throws IOException {
+            try {
+                // 不指定 IV，由 Cipher 为每段生成新的随机 IV
+                cipher.init(Cipher.ENCRYPT_MODE, key);
+                cipher.updateAAD(segmentAad(header, segmentIndex, segmentIndex == segmentCount - 1));
+                int sealedLength = cipher.doFinal(plain, 0, buffered, sealed, 0);
+                byte[] iv = cipher.getIV();
+                if (iv == null || iv.length != IV_LENGTH) {
+                    throw new GeneralSecurityException("Unexpected GCM IV length");
+                }
+                out.write(iv);
+                out.write(sealed, 0, sealedLength);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt segment " + segmentIndex, e);
+            }
+            segmentIndex++;
+            buffered = 0;
+        }
+    }
+
+    /**
+     * 随机访问读取器
+     *
+     * 按需解密所在分段并缓存最近一段，顺序或局部读取只解密涉及的分段。
+     */
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final SecretKey key;
+        private final byte[] header;
+        private final int segmentSize;
+        private final int segmentCount;
+        private final long plainLength;
+        private final Cipher cipher;
+        private final byte[] sealed;
+        private final byte[] plain;
+        private int cachedIndex = -1;
+        private int cachedLength;
+
+        private Reader(RandomAccessFile file, SecretKey key, byte[] header, long[] fields)
+                throws GeneralSecurityException {
+            this.file = file;
+            this.key = key;
+            this.header = header;
+            this.segmentSize = (int) fields[0];
+            this.segmentCount = (int) fields[1];
+            this.plainLength = fields[2];
+            this.cipher = Cipher.getInstance(ALGORITHM);
+            this.sealed = new byte[IV_LENGTH + segmentSize + TAG_LENGTH];
+            this.plain = new byte[segmentSize];
+        }
+
+        /**
+         * 打开分段加密文件
+         *
+         * @throws IOException 文件不是分段加密格式或长度与头部不符时抛出
+         */
+        public static Reader open(File encryptedFile, SecretKey key) throws IOException, GeneralSecurityException {
+            RandomAccessFile raf = new RandomAccessFile(encryptedFile, "r");
+            try {
+                byte[] header = readHeader(raf);
+                long[] fields = parseHeader(header, raf.length());
+                if (fields == null) {
+                    throw new IOException("Not a segmented encrypted file: " + encryptedFile.getName());
+                }
+                return new Reader(raf, key, header, fields);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        public long getPlainLength() {
+            return plainLength;
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return v2 头部中的密钥 ID，v1 格式返回 null
+         */
+        public byte[] getKeyId() {
+            return keyIdOf(header);
+        }
+
+        /**
+         * 从明文的指定位置读取
+         *
+         * @param position 明文偏移
+         * @return 实际读取的字节数，到达末尾时返回 -1
+         */
+        public int read(long position, byte[] buffer, int offset, int length)
+                throws IOException, GeneralSecurityException {
+            if (position < 0) {
+                throw new IllegalArgumentException("Negative position: " + position);
+            }
+            if (position >= plainLength) {
+                return -1;
+            }
+            int total = 0;
+            while (length > 0 && position < plainLength) {
+                int index = (int) (position / segmentSize);
+                int segmentLength = decryptSegment(index);
+                int inSegment = (int) (position - (long) index * segmentSize);
+                int count = Math.min(length, segmentLength - inSegment);
+                System.arraycopy(plain, inSegment, buffer, offset, count);
+                position += count;
+                offset += count;
+                length -= count;
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * 从明文开头顺序读取的输入流（共享读取器的分段缓存，不需要单独关闭）
+         */
+        public InputStream newInputStream() {
+            return new InputStream() {
+                private long position;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    try {
+                        int count = Reader.this.read(position, buffer, offset, length);
+                        if (count > 0) {
+                            position += count;
+                        }
+                        return count;
+                    } catch (GeneralSecurityException e) {
+                        throw new IOException("Failed to decrypt segment", e);
+                    }
+                }
+            };
+        }
+
+        /**
+         * 解密指定分段到内部缓冲区
+         *
+         * @return 分段明文长度
+         */
+        int decryptSegment(int index) throws IOException, GeneralSecurityException {
+            if (index < 0 || index >= segmentCount) {
+                throw new IndexOutOfBoundsException("Segment " + index + " of " + segmentCount);
+            }
+            if (index == cachedIndex) {
+                return cachedLength;
+            }
+            int length = (int) Math.min(segmentSize, plainLength - (long) index * segmentSize);
+            file.seek(header.length + (long) index * (IV_LENGTH + segmentSize + TAG_LENGTH));
+            file.readFully(sealed, 0, IV_LENGTH + length + TAG_LENGTH);
+
+            cachedIndex = -1;
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, sealed, 0, IV_LENGTH));
+            cipher.updateAAD(segmentAad(header, index, index == segmentCount - 1));
+            cachedLength = cipher.doFinal(sealed, IV_LENGTH, length + TAG_LENGTH, plain, 0);
+            cachedIndex = index;
+            return cachedLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(plain, (byte) 0);
+            cachedIndex = -1;
+            file.close();
+        }
+    }
+
+    /**
+     * 读取头部：先读 v1 长度，魔数为 v2 时再读出密钥 ID
+     */
+    private static byte[] readHeader(RandomAccessFile raf) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        raf.readFully(header);
+        if (!startsWith(header, MAGIC_V2)) {
+            return header;
+        }
+        byte[] headerV2 = Arrays.copyOf(header, HEADER_LENGTH_V2);
+        raf.readFully(headerV2, HEADER_LENGTH, KEY_ID_LENGTH);
+        return headerV2;
+    }
+
+    private static byte[] keyIdOf(byte[] header) {
+        if (header.length != HEADER_LENGTH_V2) {
+            return null;
+        }
+        return Arrays.copyOfRange(header, HEADER_LENGTH, HEADER_LENGTH_V2);
+    }
+
+    private static boolean startsWith(byte[] header, byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析并校验头部
+     *
+     * @return {分段大小, 分段数, 明文长度}，不是分段加密格式时返回 null
+     */
+    private static long[] parseHeader(byte[] header, long fileLength) {
+        int expectedHeaderLength = startsWith(header, MAGIC) ? HEADER_LENGTH
+                : startsWith(header, MAGIC_V2) ? HEADER_LENGTH_V2 : -1;
+        if (header.length != expectedHeaderLength) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header, MAGIC.length, HEADER_LENGTH - MAGIC.length);
+        int segmentSize = buffer.getInt();
+        int segmentCount = buffer.getInt();
+        long plainLength = buffer.getLong();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE || plainLength < 0
+                || segmentCount != segmentCount(plainLength, segmentSize)) {
+            return null;
+        }
+        long expectedLength = header.length + (long) segmentCount * (IV_LENGTH + TAG_LENGTH) + plainLength;
+        if (expectedLength != fileLength) {
+            return null;
+        }
+        return new long[]{segmentSize, segmentCount, plainLength};
+    }
+
+    /**
+     * 分段数，空明文也占一段（保证有认证标签）
+     */
+    private static long segmentCount(long plainLength, int segmentSize) {
+        return Math.max(1, (plainLength + segmentSize - 1) / segmentSize);
+    }
+
+    private static byte[] segmentAad(byte[] header, int index, boolean last) {
+        return ByteBuffer.allocate(header.length + 5)
+                .put(header)
+                .putInt(index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+}
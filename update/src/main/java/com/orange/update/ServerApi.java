@@ -34,76 +34,150 @@ public class ServerApi {
     private static final int RESPONSE_CODE_SUCCESS = 0;
     
     private final UpdateConfig config;
+    private final CheckResultCache cache;
     
     /**
      * 构造函数
      * @param config SDK 配置
      */
     public ServerApi(UpdateConfig config) {
+        this(config, null);
+    }
+    
+    /**
+     * 构造函数
+     * @param config SDK 配置
+     * @param cache 检查结果缓存，为 null 时每次都请求服务器
+     */
+    public ServerApi(UpdateConfig config, CheckResultCache cache) {
         if (config == null) {
             throw new IllegalArgumentException("UpdateConfig cannot be null");
         }
         this.config = config;
+        this.cache = cache;
+    }
+    
+    /**
+     * 检查更新接口（不上报已应用补丁哈希）
+     * @see #checkUpdate(String, String, String, String)
+     */
+    public PatchInfo checkUpdate(String appKey, String appVersion, String patchVersion) 
+            throws UpdateException {
+        return checkUpdate(appKey, appVersion, patchVersion, null);
     }
     
     /**
      * 检查更新接口
+     * 
+     * 上报已应用补丁的 SHA-256 后，服务器可以在补丁信息中附带以该补丁为基准的差分（delta 字段）。
+     * 
+     * 配置了 {@link CheckResultCache} 时：新鲜期内直接返回缓存结果；过期后发送条件请求，
+     * 304 时复用缓存；失败后的退避期内返回旧结果（没有缓存时抛出异常）。
+     * 
      * @param appKey 应用标识
      * @param appVersion 应用版本
      * @param patchVersion 当前补丁版本，可为 null
+     * @param patchHash 当前已应用补丁文件的 SHA-256，可为 null
      * @return 如果有更新返回 PatchInfo，否则返回 null
      * @throws UpdateException 如果请求失败或响应格式错误
      */
-    public PatchInfo checkUpdate(String appKey, String appVersion, String patchVersion) 
+    public PatchInfo checkUpdate(String appKey, String appVersion, String patchVersion, String patchHash) 
             throws UpdateException {
         HttpURLConnection connection = null;
+        CheckResultCache.Entry cached = null;
         
         try {
             // 构建请求 URL
             String requestUrl = buildCheckUpdateUrl();
-            URL url = new URL(requestUrl);
             
+            // 构建请求体
+            String requestBody = buildRequestBody(appKey, appVersion, patchVersion, patchHash);
+            String requestKey = requestUrl + "\n" + requestBody;
+            
+            if (cache != null) {
+                cached = cache.get(requestKey);
+                if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+                    Log.d(TAG, "Using cached check result");
+                    return parseCheckUpdateResponse(cached.body);
+                }
+                long backoff = cache.getBackoffRemaining();
+                if (backoff > 0) {
+                    if (cached != null) {
+                        Log.d(TAG, "Backing off, using stale check result");
+                        return parseCheckUpdateResponse(cached.body);
+                    }
+                    throw new UpdateException(UpdateErrorCode.ERROR_SERVER_ERROR,
+                            "Update check backing off for " + backoff + "ms");
+                }
+            }
+            
+            URL url = new URL(requestUrl);
             connection = (HttpURLConnection) url.openConnection();
             configureConnection(connection);
-            
-            // 构建请求体
-            String requestBody = buildRequestBody(appKey, appVersion, patchVersion);
+            if (cached != null && cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
             
             // 发送请求
+            byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
             connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(input.length);
             try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
                 os.write(input, 0, input.length);
             }
 
             // 获取响应
             int responseCode = connection.getResponseCode();
             
-            if (responseCode == HttpURLConnection.HTTP_OK) {
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                readResponse(connection.getInputStream());
+                cache.onRevalidated(CheckResultCache.parseMaxAge(connection.getHeaderField("Cache-Control")));
+                Log.d(TAG, "Check result not modified");
+                return parseCheckUpdateResponse(cached.body);
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
                 String responseBody = readResponse(connection.getInputStream());
-                return parseCheckUpdateResponse(responseBody);
+                PatchInfo patchInfo = parseCheckUpdateResponse(responseBody);
+                if (cache != null) {
+                    cache.put(requestKey, responseBody, connection.getHeaderField("ETag"),
+                            CheckResultCache.parseMaxAge(connection.getHeaderField("Cache-Control")));
+                }
+                return patchInfo;
             } else {
                 String errorBody = readResponse(connection.getErrorStream());
                 Log.e(TAG, "Server returned error: " + responseCode + ", body: " + errorBody);
+                if (cache != null && (responseCode >= 500 || responseCode == 429)) {
+                    cache.onFailure(CheckResultCache.parseRetryAfter(connection.getHeaderField("Retry-After")));
+                }
                 throw new UpdateException(UpdateErrorCode.ERROR_SERVER_ERROR,
                         "Server returned error code: " + responseCode);
             }
             
         } catch (SocketTimeoutException e) {
             Log.e(TAG, "Request timeout", e);
+            onNetworkFailure(connection);
             throw new UpdateException(UpdateErrorCode.ERROR_TIMEOUT, "Request timeout", e);
         } catch (IOException e) {
             Log.e(TAG, "Network error", e);
+            onNetworkFailure(connection);
             throw new UpdateException(UpdateErrorCode.ERROR_NETWORK_UNAVAILABLE, 
                     "Network error: " + e.getMessage(), e);
         } catch (JSONException e) {
             Log.e(TAG, "JSON parsing error", e);
             throw new UpdateException(UpdateErrorCode.ERROR_INVALID_RESPONSE,
                     "Invalid response format: " + e.getMessage(), e);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+        }
+        // 响应读完后不调用 disconnect()，让 HttpURLConnection 复用 keep-alive 连接
+    }
+    
+    /**
+     * 网络错误：断开连接（不放回连接池）并进入退避
+     */
+    private void onNetworkFailure(HttpURLConnection connection) {
+        if (connection != null) {
+            connection.disconnect();
+        }
+        if (cache != null) {
+            cache.onFailure(-1);
         }
     }
     
@@ -133,14 +207,17 @@ public class ServerApi {
     /**
      * 构建请求体 JSON
      */
-    private String buildRequestBody(String appKey, String appVersion, String patchVersion) 
-            throws JSONException {
+    private String buildRequestBody(String appKey, String appVersion, String patchVersion,
+                                    String patchHash) throws JSONException {
         JSONObject json = new JSONObject();
         json.put("appKey", appKey);
         json.put("appVersion", appVersion);
         if (patchVersion != null && !patchVersion.isEmpty()) {
             json.put("patchVersion", patchVersion);
         }
+        if (patchHash != null && !patchHash.isEmpty()) {
+            json.put("patchHash", patchHash);
+        }
         return json.toString();
     }
     
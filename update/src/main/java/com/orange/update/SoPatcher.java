@@ -5,12 +5,18 @@ import android.os.Build;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -35,6 +41,9 @@ import java.util.zip.ZipFile;
  * └── assets/
  *     └── so_meta.txt  # SO 库元数据
  * 
+ * 只加载当前进程主 ABI 的库，按补丁哈希缓存，同一补丁只解压一次；
+ * STORED 且页对齐的库直接从补丁 zip 内加载，不解压（API 23+）。
+ * 
  * 兼容性：
  * - API 21-22: 修改 DexPathList.nativeLibraryDirectories
  * - API 23+: 修改 DexPathList.nativeLibraryPathElements
@@ -49,18 +58,58 @@ public class SoPatcher {
     // SO 元数据文件
     private static final String SO_META_FILE = "assets/so_meta.txt";
     
+    // SO 缓存根目录，子目录为 <补丁哈希>-<主 ABI>
+    private static final String LIB_ROOT = "hotupdate/lib";
+    private static final String STAMP_FILE = "so.stamp";
+    private static final String STAMP_MODE = "mode";
+    private static final String STAMP_ABI = "abi";
+    private static final String STAMP_ZIP = "zip";
+    private static final String STAMP_ZIP_LENGTH = "zip.length";
+    private static final String STAMP_ZIP_MODIFIED = "zip.modified";
+    private static final String STAMP_LIBS = "libs";
+    private static final String STAMP_LIB_PREFIX = "lib.";
+    
+    // 加载方式：补丁没有 SO / 解压到目录 / 直接从 zip 加载
+    private static final int MODE_NONE = 0;
+    private static final int MODE_DIR = 1;
+    private static final int MODE_ZIP = 2;
+    
+    // 直接从 zip 加载要求数据按页对齐
+    private static final int PAGE_SIZE = 4096;
+    
     // 支持的 ABI
     private static final String[] SUPPORTED_ABIS = Build.SUPPORTED_ABIS;
     
     /**
      * 从补丁包加载 SO 库
      * 
+     * 缓存键由 SO 条目的名称、大小和 CRC 计算（需要读取一次中央目录）；
+     * 已知补丁哈希时使用 {@link #loadPatchLibraries(Context, File, String)}，缓存命中时完全不读补丁。
+     * 
      * @param context 应用上下文
      * @param patchFile 补丁文件
      * @throws PatchSoException 如果加载失败
      */
     public static void loadPatchLibraries(Context context, File patchFile) 
             throws PatchSoException {
+        loadPatchLibraries(context, patchFile, null);
+    }
+    
+    /**
+     * 从补丁包加载 SO 库
+     * 
+     * 只处理当前进程的主 ABI，结果缓存在 hotupdate/lib/&lt;补丁哈希&gt;-&lt;ABI&gt;/ 下，
+     * 目录内的 so.stamp 最后写入，记录加载方式和每个库的大小；下次启动校验通过即直接注入，不再解压。
+     * 补丁中的 SO 全部为 STORED 且数据按页对齐时（与 extractNativeLibs=false 的 APK 相同），
+     * API 23+ 直接从 zip 内加载，不解压。
+     * 
+     * @param context 应用上下文
+     * @param patchFile 补丁文件（明文 zip）
+     * @param patchHash 补丁文件的 SHA-256（调用方已校验），为 null 时由 SO 条目计算缓存键
+     * @throws PatchSoException 如果加载失败
+     */
+    public static void loadPatchLibraries(Context context, File patchFile, String patchHash)
+            throws PatchSoException {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
@@ -72,23 +121,44 @@ public class SoPatcher {
         try {
             Log.d(TAG, "Loading SO libraries from patch: " + patchFile.getAbsolutePath());
             
-            // 1. 检查补丁包是否包含 SO 库
-            if (!hasSoLibraries(patchFile)) {
-                Log.d(TAG, "No SO libraries found in patch, skipping");
-                return;
+            File libRoot = new File(context.getFilesDir(), LIB_ROOT);
+            String[] abis = getProcessAbis();
+            
+            // 1. 已知补丁哈希时先查缓存，命中则不打开补丁
+            NativeLibs libs = null;
+            File cacheDir = null;
+            if (patchHash != null && patchHash.length() >= 16) {
+                cacheDir = new File(libRoot, cacheKey(patchHash.substring(0, 16), abis[0]));
+                libs = readStamp(cacheDir, patchFile);
             }
             
-            // 2. 提取 SO 库到临时目录
-            File soDir = extractSoLibraries(context, patchFile);
-            if (soDir == null || !soDir.exists()) {
-                Log.w(TAG, "Failed to extract SO libraries");
+            // 2. 未命中：读取中央目录，选出主 ABI 的 SO，解压或直接从 zip 加载
+            if (libs == null) {
+                List<LibEntry> entries = listLibraries(patchFile, patchHash, abis);
+                String key = patchHash != null && patchHash.length() >= 16
+                        ? patchHash.substring(0, 16) : entriesDigest(entries);
+                cacheDir = new File(libRoot, cacheKey(key, abis[0]));
+                libs = readStamp(cacheDir, patchFile);
+                if (libs == null) {
+                    libs = prepareLibraries(patchFile, entries, libRoot, cacheDir);
+                }
+            } else {
+                Log.d(TAG, "Using cached SO libraries: " + cacheDir.getName());
+                // 修改时间作为最近使用时间，淘汰时保留
+                cacheDir.setLastModified(System.currentTimeMillis());
+            }
+            
+            StorageQuota.recordUse(context, cacheDir);
+            
+            if (libs.mode == MODE_NONE) {
+                Log.d(TAG, "No SO libraries found in patch, skipping");
                 return;
             }
             
             // 3. 注入 SO 库路径到 ClassLoader
-            injectSoPath(context, soDir);
+            injectSoPath(context, libs);
             
-            Log.i(TAG, "SO libraries loaded successfully from: " + soDir.getAbsolutePath());
+            Log.i(TAG, "SO libraries loaded successfully from: " + libs.describe());
             
         } catch (PatchSoException e) {
             throw e;
@@ -100,99 +170,289 @@ public class SoPatcher {
     }
     
     /**
-     * 检查补丁包是否包含 SO 库
+     * 当前进程可用的 ABI，按优先级排列（64 位进程只能加载 64 位库，反之亦然）
      */
-    private static boolean hasSoLibraries(File patchFile) {
-        try (ZipFile zipFile = new ZipFile(patchFile)) {
-            java.util.Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                // 检查是否有 lib/ 目录下的 .so 文件
-                if (name.startsWith(LIB_DIR_PREFIX) && name.endsWith(".so")) {
-                    Log.d(TAG, "Found SO library: " + name);
-                    return true;
+    private static String[] getProcessAbis() {
+        String[] abis;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            abis = android.os.Process.is64Bit() ? Build.SUPPORTED_64_BIT_ABIS : Build.SUPPORTED_32_BIT_ABIS;
+        } else {
+            String arch = System.getProperty("os.arch", "");
+            abis = arch.contains("64") ? Build.SUPPORTED_64_BIT_ABIS : Build.SUPPORTED_32_BIT_ABIS;
+        }
+        return abis != null && abis.length > 0 ? abis : SUPPORTED_ABIS;
+    }
+    
+    private static String cacheKey(String hash, String primaryAbi) {
+        return hash.toLowerCase(Locale.US) + "-" + primaryAbi;
+    }
+    
+    /**
+     * 中央目录中的一个 SO 条目
+     */
+    private static final class LibEntry {
+        final String name;
+        final String abi;
+        final long size;
+        final long crc;
+        final boolean pageAligned;
+        
+        LibEntry(String name, String abi, long size, long crc, boolean pageAligned) {
+            this.name = name;
+            this.abi = abi;
+            this.size = size;
+            this.crc = crc;
+            this.pageAligned = pageAligned;
+        }
+        
+        String fileName() {
+            return name.substring(name.lastIndexOf('/') + 1);
+        }
+    }
+    
+    /**
+     * 已就绪的 SO 库：解压目录或 zip 内路径
+     */
+    private static final class NativeLibs {
+        final int mode;
+        final String abi;
+        final File dir;
+        final File zip;
+        
+        NativeLibs(int mode, String abi, File dir, File zip) {
+            this.mode = mode;
+            this.abi = abi;
+            this.dir = dir;
+            this.zip = zip;
+        }
+        
+        String describe() {
+            return mode == MODE_ZIP ? zip.getAbsolutePath() + "!/" + LIB_DIR_PREFIX + abi
+                    : dir.getAbsolutePath();
+        }
+    }
+    
+    /**
+     * 一次读取中央目录，选出进程可用的第一个 ABI 下的 SO 条目（只取 lib/&lt;abi&gt;/ 下一层）
+     */
+    private static List<LibEntry> listLibraries(File patchFile, String patchHash, String[] abis)
+            throws IOException {
+        PatchArchiveIndex index = PatchArchiveIndex.of(patchFile, patchHash);
+        if (index == null) {
+            throw new IOException("Invalid patch archive: " + patchFile.getName());
+        }
+        for (String abi : abis) {
+            String prefix = LIB_DIR_PREFIX + abi + "/";
+            List<LibEntry> entries = new ArrayList<>();
+            try (RandomAccessFile raf = new RandomAccessFile(patchFile, "r")) {
+                for (PatchArchiveIndex.Entry header : index.getEntries()) {
+                    String name = header.getName();
+                    if (header.isDirectory() || !name.startsWith(prefix) || !name.endsWith(".so")
+                            || name.indexOf('/', prefix.length()) >= 0) {
+                        continue;
+                    }
+                    boolean aligned = header.getMethod() == PatchArchiveIndex.METHOD_STORED
+                            && !header.isEncrypted()
+                            && dataOffset(raf, header.getLocalHeaderOffset()) % PAGE_SIZE == 0;
+                    entries.add(new LibEntry(name, abi, header.getSize(), header.getCrc(), aligned));
                 }
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to check SO libraries", e);
+            if (!entries.isEmpty()) {
+                Log.d(TAG, "Found " + entries.size() + " SO libraries for ABI " + abi);
+                return entries;
+            }
         }
-        return false;
+        return new ArrayList<>();
     }
     
     /**
-     * 提取 SO 库到临时目录
-     * 
-     * @return SO 库根目录（包含各个 ABI 子目录）
+     * 条目数据在文件中的偏移：本地文件头 30 字节 + 文件名 + 扩展字段
+     */
+    private static long dataOffset(RandomAccessFile raf, long localHeaderOffset) throws IOException {
+        raf.seek(localHeaderOffset + 26);
+        int nameLength = raf.readUnsignedByte() | (raf.readUnsignedByte() << 8);
+        int extraLength = raf.readUnsignedByte() | (raf.readUnsignedByte() << 8);
+        return localHeaderOffset + 30 + nameLength + extraLength;
+    }
+    
+    /**
+     * 由 SO 条目计算缓存键（内容相同的库在不同补丁间复用）
      */
-    private static File extractSoLibraries(Context context, File patchFile) throws Exception {
-        // 创建 SO 库目录
-        File soRootDir = new File(context.getFilesDir(), "hotupdate/lib");
-        if (!soRootDir.exists()) {
-            soRootDir.mkdirs();
+    private static String entriesDigest(List<LibEntry> entries) {
+        StringBuilder sb = new StringBuilder();
+        for (LibEntry entry : entries) {
+            sb.append(entry.name).append(':').append(entry.size).append(':').append(entry.crc).append('\n');
+        }
+        return Md5Utils.calculateMd5(sb.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+    
+    /**
+     * 准备 SO 库：全部可直接映射时记录 zip 方式，否则解压到临时目录后原子重命名；最后写入 so.stamp
+     */
+    private static NativeLibs prepareLibraries(File patchFile, List<LibEntry> entries,
+                                               File libRoot, File cacheDir) throws IOException {
+        if (!libRoot.exists() && !libRoot.mkdirs()) {
+            throw new IOException("Failed to create directory: " + libRoot);
+        }
+        File tempDir = new File(libRoot, cacheDir.getName() + ".tmp");
+        deleteDirectory(tempDir);
+        deleteDirectory(cacheDir);
+        if (!tempDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + tempDir);
         }
         
-        // 清空旧的 SO 库
-        deleteDirectory(soRootDir);
-        soRootDir.mkdirs();
+        Properties stamp = new Properties();
+        NativeLibs libs;
+        if (entries.isEmpty()) {
+            stamp.setProperty(STAMP_MODE, String.valueOf(MODE_NONE));
+            libs = new NativeLibs(MODE_NONE, null, null, null);
+        } else {
+            String abi = entries.get(0).abi;
+            stamp.setProperty(STAMP_ABI, abi);
+            if (canLoadFromZip(entries)) {
+                stamp.setProperty(STAMP_MODE, String.valueOf(MODE_ZIP));
+                stamp.setProperty(STAMP_ZIP, patchFile.getAbsolutePath());
+                stamp.setProperty(STAMP_ZIP_LENGTH, String.valueOf(patchFile.length()));
+                stamp.setProperty(STAMP_ZIP_MODIFIED, String.valueOf(patchFile.lastModified()));
+                libs = new NativeLibs(MODE_ZIP, abi, null, patchFile);
+                Log.d(TAG, "SO libraries are stored and page-aligned, loading directly from zip");
+            } else {
+                extractLibraries(patchFile, entries, new File(tempDir, abi));
+                StringBuilder names = new StringBuilder();
+                for (LibEntry entry : entries) {
+                    names.append(names.length() > 0 ? "," : "").append(entry.fileName());
+                    stamp.setProperty(STAMP_LIB_PREFIX + entry.fileName(), String.valueOf(entry.size));
+                }
+                stamp.setProperty(STAMP_MODE, String.valueOf(MODE_DIR));
+                stamp.setProperty(STAMP_LIBS, names.toString());
+                libs = new NativeLibs(MODE_DIR, abi, new File(cacheDir, abi), null);
+            }
+        }
         
-        // 获取当前设备的主 ABI
-        String primaryAbi = Build.SUPPORTED_ABIS[0];
-        Log.d(TAG, "Device primary ABI: " + primaryAbi);
+        try (FileOutputStream out = new FileOutputStream(new File(tempDir, STAMP_FILE))) {
+            stamp.store(out, null);
+            out.getFD().sync();
+        }
+        if (!tempDir.renameTo(cacheDir)) {
+            deleteDirectory(tempDir);
+            throw new IOException("Failed to commit SO cache: " + cacheDir.getName());
+        }
         
-        // 提取 SO 库
+        // 保留当前补丁和最近使用的另一个补丁的缓存（对应 A/B 两个槽位），
+        // 删除更早的补丁和旧版本的 hotupdate/lib/<abi>/ 布局
+        File[] siblings = libRoot.listFiles();
+        if (siblings != null) {
+            File previous = null;
+            for (File sibling : siblings) {
+                if (!sibling.equals(cacheDir) && new File(sibling, STAMP_FILE).isFile()
+                        && (previous == null || sibling.lastModified() > previous.lastModified())) {
+                    previous = sibling;
+                }
+            }
+            for (File sibling : siblings) {
+                if (!sibling.equals(cacheDir) && !sibling.equals(previous)) {
+                    deleteDirectory(sibling);
+                }
+            }
+        }
+        return libs;
+    }
+    
+    private static boolean canLoadFromZip(List<LibEntry> entries) {
+        // API 21-22 的 linker 不支持从 zip 内加载
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        for (LibEntry entry : entries) {
+            if (!entry.pageAligned) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 解压选中的 SO 库
+     */
+    private static void extractLibraries(File patchFile, List<LibEntry> entries, File abiDir) throws IOException {
+        if (!abiDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + abiDir);
+        }
+        byte[] buffer = new byte[64 * 1024];
         try (ZipFile zipFile = new ZipFile(patchFile)) {
-            java.util.Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                
-                // 只提取 lib/ 目录下的 .so 文件
-                if (name.startsWith(LIB_DIR_PREFIX) && name.endsWith(".so") && !entry.isDirectory()) {
-                    // 提取 ABI 和文件名
-                    // 例如: lib/arm64-v8a/libtest.so -> arm64-v8a/libtest.so
-                    String relativePath = name.substring(LIB_DIR_PREFIX.length());
-                    
-                    // 检查是否是支持的 ABI
-                    boolean isSupported = false;
-                    for (String abi : SUPPORTED_ABIS) {
-                        if (relativePath.startsWith(abi + "/")) {
-                            isSupported = true;
-                            break;
-                        }
-                    }
-                    
-                    if (!isSupported) {
-                        Log.d(TAG, "Skipping unsupported ABI: " + relativePath);
-                        continue;
-                    }
-                    
-                    // 创建目标文件
-                    File targetFile = new File(soRootDir, relativePath);
-                    File parentDir = targetFile.getParentFile();
-                    if (parentDir != null && !parentDir.exists()) {
-                        parentDir.mkdirs();
+            for (LibEntry entry : entries) {
+                ZipEntry zipEntry = zipFile.getEntry(entry.name);
+                if (zipEntry == null) {
+                    throw new IOException("SO entry disappeared: " + entry.name);
+                }
+                File targetFile = new File(abiDir, entry.fileName());
+                try (InputStream is = zipFile.getInputStream(zipEntry);
+                     FileOutputStream fos = new FileOutputStream(targetFile)) {
+                    int len;
+                    while ((len = is.read(buffer)) > 0) {
+                        fos.write(buffer, 0, len);
                     }
-                    
-                    // 提取文件
-                    try (InputStream is = zipFile.getInputStream(entry);
-                         FileOutputStream fos = new FileOutputStream(targetFile)) {
-                        byte[] buffer = new byte[8192];
-                        int len;
-                        while ((len = is.read(buffer)) > 0) {
-                            fos.write(buffer, 0, len);
-                        }
+                }
+                if (targetFile.length() != entry.size) {
+                    throw new IOException("SO size mismatch: " + entry.name);
+                }
+                
+                // 设置可执行权限
+                targetFile.setExecutable(true, false);
+                
+                Log.d(TAG, "Extracted SO library: " + entry.name + " -> " + targetFile.getAbsolutePath());
+            }
+        }
+    }
+    
+    /**
+     * 读取并校验缓存目录的 so.stamp
+     * 
+     * @return 校验通过的 SO 库信息，没有缓存或校验失败时返回 null
+     */
+    private static NativeLibs readStamp(File cacheDir, File patchFile) {
+        File stampFile = new File(cacheDir, STAMP_FILE);
+        if (!stampFile.isFile()) {
+            return null;
+        }
+        Properties stamp = new Properties();
+        try (InputStream in = new FileInputStream(stampFile)) {
+            stamp.load(in);
+            int mode = Integer.parseInt(stamp.getProperty(STAMP_MODE, "-1"));
+            String abi = stamp.getProperty(STAMP_ABI);
+            if (mode == MODE_NONE) {
+                return new NativeLibs(MODE_NONE, null, null, null);
+            }
+            if (abi == null) {
+                return null;
+            }
+            if (mode == MODE_ZIP) {
+                // zip 方式直接映射补丁文件，补丁必须是生成缓存时的那个文件
+                File zip = new File(stamp.getProperty(STAMP_ZIP, ""));
+                if (!zip.equals(patchFile.getAbsoluteFile())
+                        || zip.length() != Long.parseLong(stamp.getProperty(STAMP_ZIP_LENGTH, "-1"))
+                        || zip.lastModified() != Long.parseLong(stamp.getProperty(STAMP_ZIP_MODIFIED, "-1"))) {
+                    Log.d(TAG, "SO cache refers to a different patch file");
+                    return null;
+                }
+                return new NativeLibs(MODE_ZIP, abi, null, zip);
+            }
+            if (mode == MODE_DIR) {
+                File abiDir = new File(cacheDir, abi);
+                for (String name : stamp.getProperty(STAMP_LIBS, "").split(",")) {
+                    File lib = new File(abiDir, name);
+                    if (name.isEmpty() || lib.length()
+                            != Long.parseLong(stamp.getProperty(STAMP_LIB_PREFIX + name, "-1"))) {
+                        Log.w(TAG, "SO cache verification failed: " + name);
+                        return null;
                     }
-                    
-                    // 设置可执行权限
-                    targetFile.setExecutable(true, false);
-                    
-                    Log.d(TAG, "Extracted SO library: " + relativePath + " -> " + targetFile.getAbsolutePath());
                 }
+                return new NativeLibs(MODE_DIR, abi, abiDir, null);
             }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Failed to read SO cache stamp", e);
         }
-        
-        return soRootDir;
+        return null;
     }
     
     /**
@@ -203,13 +463,12 @@ public class SoPatcher {
      * 2. 获取 DexPathList
      * 3. 根据 Android 版本修改不同的字段
      */
-    private static void injectSoPath(Context context, File soRootDir) throws Exception {
+    private static void injectSoPath(Context context, NativeLibs libs) throws Exception {
         // 获取 PathClassLoader
         ClassLoader classLoader = context.getClassLoader();
         
         // 获取 DexPathList
         Field pathListField = findField(classLoader.getClass(), "pathList");
-        pathListField.setAccessible(true);
         Object dexPathList = pathListField.get(classLoader);
         
         if (dexPathList == null) {
@@ -222,10 +481,10 @@ public class SoPatcher {
         
         if (sdkVersion >= Build.VERSION_CODES.M) {
             // Android 6.0+ (API 23+): 修改 nativeLibraryPathElements
-            injectSoPathForM(dexPathList, soRootDir);
+            injectSoPathForM(dexPathList, libs);
         } else {
             // Android 5.0-5.1 (API 21-22): 修改 nativeLibraryDirectories
-            injectSoPathForLollipop(dexPathList, soRootDir);
+            injectSoPathForLollipop(dexPathList, libs.dir);
         }
         
         Log.d(TAG, "SO path injected successfully");
@@ -235,22 +494,15 @@ public class SoPatcher {
      * Android 5.0-5.1 (API 21-22) 的 SO 注入方案
      * 修改 DexPathList.nativeLibraryDirectories
      */
-    private static void injectSoPathForLollipop(Object dexPathList, File soRootDir) throws Exception {
+    private static void injectSoPathForLollipop(Object dexPathList, File abiDir) throws Exception {
         // 获取 nativeLibraryDirectories 字段
         Field nativeLibraryDirectoriesField = findField(dexPathList.getClass(), "nativeLibraryDirectories");
-        nativeLibraryDirectoriesField.setAccessible(true);
         
         File[] oldDirs = (File[]) nativeLibraryDirectoriesField.get(dexPathList);
         
-        // 获取所有 ABI 目录
         List<File> newDirs = new ArrayList<>();
-        for (String abi : SUPPORTED_ABIS) {
-            File abiDir = new File(soRootDir, abi);
-            if (abiDir.exists() && abiDir.isDirectory()) {
-                newDirs.add(abiDir);
-                Log.d(TAG, "Added SO directory: " + abiDir.getAbsolutePath());
-            }
-        }
+        newDirs.add(abiDir);
+        Log.d(TAG, "Added SO directory: " + abiDir.getAbsolutePath());
         
         // 合并新旧目录（补丁目录在前，优先加载）
         if (oldDirs != null) {
@@ -272,10 +524,9 @@ public class SoPatcher {
      * Android 6.0+ (API 23+) 的 SO 注入方案
      * 修改 DexPathList.nativeLibraryPathElements
      */
-    private static void injectSoPathForM(Object dexPathList, File soRootDir) throws Exception {
+    private static void injectSoPathForM(Object dexPathList, NativeLibs libs) throws Exception {
         // 获取 nativeLibraryPathElements 字段
         Field nativeLibraryPathElementsField = findField(dexPathList.getClass(), "nativeLibraryPathElements");
-        nativeLibraryPathElementsField.setAccessible(true);
         
         Object[] oldElements = (Object[]) nativeLibraryPathElementsField.get(dexPathList);
         
@@ -302,17 +553,16 @@ public class SoPatcher {
                     "Cannot find Element class");
         }
         
-        // 为每个 ABI 创建 Element
-        for (String abi : SUPPORTED_ABIS) {
-            File abiDir = new File(soRootDir, abi);
-            if (abiDir.exists() && abiDir.isDirectory()) {
-                Object element = createNativeLibraryElement(elementClass, abiDir);
-                if (element != null) {
-                    newElements.add(element);
-                    Log.d(TAG, "Created Element for: " + abiDir.getAbsolutePath());
-                }
-            }
+        // 为补丁 SO 创建 Element
+        Object patchElement = libs.mode == MODE_ZIP
+                ? createZipNativeLibraryElement(elementClass, libs.zip, LIB_DIR_PREFIX + libs.abi)
+                : createNativeLibraryElement(elementClass, libs.dir);
+        if (patchElement == null) {
+            throw new PatchSoException(UpdateErrorCode.ERROR_APPLY_FAILED,
+                    "Cannot create native library element for: " + libs.describe());
         }
+        newElements.add(patchElement);
+        Log.d(TAG, "Created Element for: " + libs.describe());
         
         // 合并新旧 Element（补丁 Element 在前，优先加载）
         if (oldElements != null) {
@@ -342,8 +592,7 @@ public class SoPatcher {
         try {
             // 尝试使用 File 参数的构造函数（Android 7.0+）
             try {
-                java.lang.reflect.Constructor<?> constructor = elementClass.getDeclaredConstructor(File.class);
-                constructor.setAccessible(true);
+                java.lang.reflect.Constructor<?> constructor = ReflectAccessors.constructor(elementClass, File.class);
                 return constructor.newInstance(dir);
             } catch (NoSuchMethodException e) {
                 // 继续尝试其他构造函数
@@ -351,9 +600,8 @@ public class SoPatcher {
             
             // 尝试使用多参数构造函数（Android 6.0-6.1）
             try {
-                java.lang.reflect.Constructor<?> constructor = elementClass.getDeclaredConstructor(
-                        File.class, boolean.class, File.class, Class.forName("dalvik.system.DexFile"));
-                constructor.setAccessible(true);
+                java.lang.reflect.Constructor<?> constructor = ReflectAccessors.constructor(elementClass,
+                        File.class, boolean.class, File.class, ReflectAccessors.type("dalvik.system.DexFile"));
                 return constructor.newInstance(dir, true, null, null);
             } catch (NoSuchMethodException e) {
                 // 继续尝试其他构造函数
@@ -369,18 +617,50 @@ public class SoPatcher {
     }
     
     /**
-     * 查找字段（包括父类）
+     * 创建指向 zip 内目录的 NativeLibraryElement（与 extractNativeLibs=false 的 APK 相同）
+     * 
+     * Element 构造函数签名：
+     * NativeLibraryElement(File zip, String zipDir)（Android 8.0+）
+     * 或
+     * Element(File dir, boolean isDirectory, File zip, DexFile dexFile)（Android 6.0-7.1，dir 为 zip 内目录）
      */
-    private static Field findField(Class<?> clazz, String fieldName) throws NoSuchFieldException {
-        Class<?> current = clazz;
-        while (current != null) {
+    private static Object createZipNativeLibraryElement(Class<?> elementClass, File zip, String zipDir) {
+        try {
+            try {
+                java.lang.reflect.Constructor<?> constructor = ReflectAccessors.constructor(elementClass,
+                        File.class, String.class);
+                return constructor.newInstance(zip, zipDir);
+            } catch (NoSuchMethodException e) {
+                // 继续尝试其他构造函数
+            }
+            
             try {
-                return current.getDeclaredField(fieldName);
-            } catch (NoSuchFieldException e) {
-                current = current.getSuperclass();
+                java.lang.reflect.Constructor<?> constructor = ReflectAccessors.constructor(elementClass,
+                        File.class, boolean.class, File.class, ReflectAccessors.type("dalvik.system.DexFile"));
+                return constructor.newInstance(new File(zipDir), false, zip, null);
+            } catch (NoSuchMethodException e) {
+                // 继续尝试其他构造函数
             }
+            
+            Log.w(TAG, "Cannot find suitable zip Element constructor");
+            return null;
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create zip Element", e);
+            return null;
+        }
+    }
+    
+    /**
+     * 查找字段（包括父类），从进程内的反射注册表获取，ROM 缺少该字段时报告一次
+     */
+    private static Field findField(Class<?> clazz, String fieldName) throws NoSuchFieldException {
+        try {
+            return ReflectAccessors.field(clazz, fieldName);
+        } catch (NoSuchFieldException e) {
+            ReflectAccessors.reportUnsupported(clazz.getSimpleName() + "." + fieldName, e);
+            throw e;
         }
-        throw new NoSuchFieldException("Field " + fieldName + " not found in " + clazz.getName());
     }
     
     /**
@@ -0,0 +1,626 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 补丁存储配额
+ *
+ * 统计热更新在磁盘上产生的全部文件，超过预算时按最近使用时间淘汰可以重新生成或不再需要的产物：
+ * <pre>
+ * files/update/patches/      下载的加密补丁
+ * files/update/applied/      A/B 槽位（补丁、覆盖/合并资源包、odex、oat）
+ * files/update/plain/        ZIP 密码保护补丁的明文副本
+ * files/update/temp/         临时解密文件
+ * files/update/backup/       旧版本的回滚备份
+ * files/update/odex/         injectPatchDex 的 dex 优化输出
+ * files/hotupdate/lib/       解压的 SO 库
+ * code_cache/patch_*.zip     Android 10+ 的只读补丁副本及其 oat 产物
+ * </pre>
+ *
+ * 统计单位是上面各目录的直接子项（文件或目录），大小和最近使用时间记在独立的 SharedPreferences 账本中。
+ * 各模块生成或复用产物时调用 {@link #recordUse(Context, File)} 更新账本；后台每轮只重新核对一个目录
+ * （轮流进行，只列出直接子项，不遍历整棵目录树），淘汰也限制每轮的数量，超出预算时再安排下一轮。
+ *
+ * 以下内容不会被淘汰：
+ * - 活动槽位中的全部文件，以及以活动补丁哈希命名的明文副本、SO 缓存和代码缓存副本
+ * - 非活动槽位中的补丁文件（回滚目标）
+ * - 当前应用和回滚目标对应的下载文件，以及最新下载的补丁（等待应用）
+ * - 本次进程启动后使用过的产物（可能正在被加载）
+ *
+ * 回滚目标的派生产物（资源包、odex、SO 缓存等）可以重新生成，只在淘汰完其它产物后仍超出预算时才淘汰。
+ */
+public final class StorageQuota {
+
+    private static final String TAG = "StorageQuota";
+
+    /** 默认预算 256 MB */
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    private static final String PREFS_NAME = "patch_storage_quota";
+    private static final String KEY_CURSOR = "__cursor";
+
+    /** 每轮最多淘汰的单位数 */
+    private static final int MAX_EVICTIONS_PER_PASS = 4;
+
+    private static final int ROOT_DOWNLOADS = 0;
+    private static final int ROOT_SLOT_A = 1;
+    private static final int ROOT_SLOT_B = 2;
+    private static final int ROOT_PLAIN = 3;
+    private static final int ROOT_TEMP = 4;
+    private static final int ROOT_BACKUP = 5;
+    private static final int ROOT_ODEX = 6;
+    private static final int ROOT_NATIVE = 7;
+    private static final int ROOT_CODE_CACHE = 8;
+
+    /** 各目录对应的产物类别，{@link #getUsageByClass()} 使用 */
+    private static final String[] ROOT_CLASSES = {
+            "downloads", "applied", "applied", "plain", "temp", "backup", "odex", "native", "code_cache"
+    };
+
+    /** 淘汰优先级：数值越小越先淘汰 */
+    private static final int TIER_STALE = 0;
+    private static final int TIER_ROLLBACK = 1;
+    private static final int TIER_PINNED = 2;
+
+    private static volatile StorageQuota instance;
+
+    private final Context context;
+    private final long sessionStart = System.currentTimeMillis();
+    private final Map<String, Long> pendingUses = new ConcurrentHashMap<>();
+    private final AtomicBoolean passScheduled = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "patch-storage-quota");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private volatile long budget = DEFAULT_BUDGET;
+    private volatile long usage = -1;
+    private volatile Map<String, Long> usageByClass = Collections.emptyMap();
+
+    // 以下字段只在配额线程中访问
+    private File[] roots;
+    private SharedPreferences ledgerPrefs;
+    private Map<String, Unit> ledger;
+    private int cursor;
+    private int reconciledInSession;
+    private PatchStorage patchStorage;
+    private boolean overBudgetLogged;
+
+    private StorageQuota(Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    /**
+     * 获取进程内的配额管理器
+     *
+     * 创建时不做任何磁盘操作，账本在第一轮后台核对时才加载。
+     */
+    public static StorageQuota getInstance(Context context) {
+        if (instance == null) {
+            synchronized (StorageQuota.class) {
+                if (instance == null) {
+                    instance = new StorageQuota(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 记录产物被生成或使用（更新大小和最近使用时间），在后台线程处理
+     *
+     * @param unit 产物单位：上面各目录的直接子项
+     */
+    static void recordUse(Context context, File unit) {
+        if (context != null && unit != null) {
+            getInstance(context).recordUse(unit);
+        }
+    }
+
+    /**
+     * 记录产物被生成或使用，在后台线程处理
+     */
+    public void recordUse(File unit) {
+        pendingUses.put(unit.getAbsolutePath(), System.currentTimeMillis());
+        schedulePass();
+    }
+
+    /**
+     * 设置存储预算
+     *
+     * @param bytes 字节数，不大于 0 时只统计不淘汰
+     */
+    public void setBudget(long bytes) {
+        this.budget = bytes;
+        schedulePass();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * 账本中记录的总占用（字节）
+     *
+     * 账本是增量核对的，可能略微滞后于磁盘；第一轮核对完成前返回 -1。
+     */
+    public long getUsage() {
+        return usage;
+    }
+
+    /**
+     * 按产物类别统计的占用（downloads、applied、plain、temp、backup、odex、native、code_cache）
+     */
+    public Map<String, Long> getUsageByClass() {
+        return usageByClass;
+    }
+
+    /**
+     * 安排一轮后台核对和淘汰（补丁切换、启动加载完成后调用）
+     */
+    public void trim() {
+        schedulePass();
+    }
+
+    private void schedulePass() {
+        if (passScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::runPass);
+            } catch (RuntimeException e) {
+                passScheduled.set(false);
+                Log.w(TAG, "Failed to schedule storage pass", e);
+            }
+        }
+    }
+
+    private void runPass() {
+        passScheduled.set(false);
+        boolean again;
+        try {
+            again = pass();
+        } catch (Exception e) {
+            Log.w(TAG, "Storage pass failed", e);
+            return;
+        }
+        if (again) {
+            schedulePass();
+        }
+    }
+
+    /**
+     * 一轮：合并使用记录，核对一个目录，超出预算时淘汰少量产物
+     *
+     * @return 是否需要继续下一轮
+     */
+    private boolean pass() {
+        if (ledger == null) {
+            loadLedger();
+        }
+
+        boolean changed = applyPendingUses();
+
+        // 轮流核对一个目录：发现账本中没有的产物，移除已被删除的记录
+        int root = cursor;
+        cursor = (cursor + 1) % roots.length;
+        changed |= reconcile(root);
+        reconciledInSession++;
+
+        long total = 0;
+        for (Unit unit : ledger.values()) {
+            total += unit.size;
+        }
+
+        boolean evictedAll = true;
+        long limit = budget;
+        if (limit > 0 && total > limit) {
+            int evicted = 0;
+            for (Unit unit : evictionOrder()) {
+                if (total <= limit || evicted >= MAX_EVICTIONS_PER_PASS) {
+                    break;
+                }
+                if (tryEvict(unit)) {
+                    ledger.remove(unit.path);
+                    total -= unit.size;
+                    evicted++;
+                    changed = true;
+                    Log.i(TAG, "Evicted " + ROOT_CLASSES[unit.root] + " " + new File(unit.path).getName()
+                            + " (" + unit.size + " bytes)");
+                }
+            }
+            evictedAll = total <= limit || evicted < MAX_EVICTIONS_PER_PASS;
+            if (total > limit && evictedAll && reconciledInSession >= roots.length && !overBudgetLogged) {
+                // 剩下的都是活动槽位和回滚目标需要的文件
+                Log.w(TAG, "Storage usage " + total + " exceeds budget " + limit + ", nothing left to evict");
+                overBudgetLogged = true;
+            }
+        }
+        if (total <= limit || limit <= 0) {
+            overBudgetLogged = false;
+        }
+
+        publishUsage();
+        if (changed) {
+            saveLedger();
+        }
+        // 进程启动后先把每个目录核对一遍；之后只在仍有可淘汰的产物时继续
+        return reconciledInSession < roots.length || !evictedAll;
+    }
+
+    private void loadLedger() {
+        File filesDir = context.getFilesDir();
+        File updateDir = new File(filesDir, "update");
+        roots = new File[] {
+                new File(updateDir, "patches"),
+                PatchSlots.getSlotDir(context, PatchSlots.SLOT_A),
+                PatchSlots.getSlotDir(context, PatchSlots.SLOT_B),
+                new File(updateDir, "plain"),
+                new File(updateDir, "temp"),
+                new File(updateDir, "backup"),
+                new File(updateDir, "odex"),
+                new File(filesDir, "hotupdate/lib"),
+                context.getCodeCacheDir()
+        };
+        ledgerPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ledger = new HashMap<>();
+        for (Map.Entry<String, ?> entry : ledgerPrefs.getAll().entrySet()) {
+            if (KEY_CURSOR.equals(entry.getKey())) {
+                continue;
+            }
+            Unit unit = Unit.parse(entry.getKey(), entry.getValue());
+            if (unit != null && unit.root < roots.length) {
+                ledger.put(unit.path, unit);
+            }
+        }
+        cursor = Math.max(0, ledgerPrefs.getInt(KEY_CURSOR, 0)) % roots.length;
+    }
+
+    private void saveLedger() {
+        SharedPreferences.Editor editor = ledgerPrefs.edit().clear();
+        for (Unit unit : ledger.values()) {
+            editor.putString(unit.path, unit.encode());
+        }
+        editor.putInt(KEY_CURSOR, cursor);
+        editor.apply();
+    }
+
+    private void publishUsage() {
+        long total = 0;
+        Map<String, Long> byClass = new LinkedHashMap<>();
+        for (String name : ROOT_CLASSES) {
+            byClass.put(name, 0L);
+        }
+        for (Unit unit : ledger.values()) {
+            total += unit.size;
+            String name = ROOT_CLASSES[unit.root];
+            byClass.put(name, byClass.get(name) + unit.size);
+        }
+        usage = reconciledInSession >= roots.length ? total : -1;
+        usageByClass = Collections.unmodifiableMap(byClass);
+    }
+
+    /**
+     * 把 {@link #recordUse(File)} 的记录写入账本（重新计算该单位的大小）
+     */
+    private boolean applyPendingUses() {
+        boolean changed = false;
+        for (String path : new ArrayList<>(pendingUses.keySet())) {
+            Long time = pendingUses.remove(path);
+            File file = new File(path);
+            int root = rootOf(file);
+            if (root < 0 || !isUnit(root, file)) {
+                continue;
+            }
+            if (!file.exists()) {
+                changed |= ledger.remove(path) != null;
+                continue;
+            }
+            Unit unit = ledger.get(path);
+            if (unit == null) {
+                unit = new Unit(path, root);
+                ledger.put(path, unit);
+            }
+            unit.size = sizeOf(root, file);
+            unit.lastUsed = Math.max(unit.lastUsed, time != null ? time : file.lastModified());
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * 核对一个目录的直接子项
+     */
+    private boolean reconcile(int root) {
+        boolean changed = false;
+        String prefix = roots[root].getAbsolutePath() + File.separator;
+        Map<String, File> present = new HashMap<>();
+        File[] files = roots[root].listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isUnit(root, file)) {
+                    present.put(file.getAbsolutePath(), file);
+                }
+            }
+        }
+
+        // 移除已被删除的记录（由各模块自己清理的产物）
+        List<String> vanished = new ArrayList<>();
+        for (Unit unit : ledger.values()) {
+            if (unit.root == root && unit.path.startsWith(prefix) && !present.containsKey(unit.path)) {
+                vanished.add(unit.path);
+            }
+        }
+        for (String path : vanished) {
+            ledger.remove(path);
+            changed = true;
+        }
+
+        // 新发现的产物计算一次大小；已记录的文件只更新长度，目录沿用记录（使用时会重新计算）
+        for (File file : present.values()) {
+            Unit unit = ledger.get(file.getAbsolutePath());
+            long modified = file.lastModified();
+            if (unit == null) {
+                unit = new Unit(file.getAbsolutePath(), root);
+                unit.size = sizeOf(root, file);
+                unit.lastUsed = modified;
+                ledger.put(unit.path, unit);
+                changed = true;
+            } else {
+                if (file.isFile() && root != ROOT_CODE_CACHE && unit.size != file.length()) {
+                    unit.size = file.length();
+                    changed = true;
+                }
+                if (modified > unit.lastUsed) {
+                    unit.lastUsed = modified;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 可淘汰的产物，先按优先级再按最近使用时间排序
+     */
+    private List<Unit> evictionOrder() {
+        Pins pins = new Pins(context.getSharedPreferences(PatchStateStore.PREFS_NAME, Context.MODE_PRIVATE));
+        String newestDownload = null;
+        long newestTime = Long.MIN_VALUE;
+        for (Unit unit : ledger.values()) {
+            if (unit.root == ROOT_DOWNLOADS && unit.lastUsed > newestTime) {
+                newestTime = unit.lastUsed;
+                newestDownload = unit.path;
+            }
+        }
+
+        List<Unit> candidates = new ArrayList<>();
+        for (Unit unit : ledger.values()) {
+            unit.tier = unit.path.equals(newestDownload) ? TIER_PINNED : tierOf(unit, pins);
+            if (unit.tier != TIER_PINNED) {
+                candidates.add(unit);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Unit>() {
+            @Override
+            public int compare(Unit a, Unit b) {
+                if (a.tier != b.tier) {
+                    return a.tier < b.tier ? -1 : 1;
+                }
+                return Long.compare(a.lastUsed, b.lastUsed);
+            }
+        });
+        return candidates;
+    }
+
+    private int tierOf(Unit unit, Pins pins) {
+        if (unit.lastUsed >= sessionStart) {
+            // 本次进程中使用过，可能正在被加载
+            return TIER_PINNED;
+        }
+        String name = new File(unit.path).getName();
+        switch (unit.root) {
+            case ROOT_SLOT_A:
+            case ROOT_SLOT_B: {
+                String slot = unit.root == ROOT_SLOT_A ? PatchSlots.SLOT_A : PatchSlots.SLOT_B;
+                if (slot.equals(pins.activeSlot)) {
+                    return TIER_PINNED;
+                }
+                if (pins.inactiveId == null) {
+                    // 没有回滚目标，槽位中是残留文件
+                    return TIER_STALE;
+                }
+                return PatchSlots.getPatchFile(new File(unit.path).getParentFile()).getName().equals(name)
+                        ? TIER_PINNED : TIER_ROLLBACK;
+            }
+            case ROOT_DOWNLOADS: {
+                String id = name.endsWith(".enc") ? name.substring(0, name.length() - 4) : name;
+                return id.equals(pins.activeId) || id.equals(pins.inactiveId) ? TIER_PINNED : TIER_STALE;
+            }
+            case ROOT_PLAIN:
+            case ROOT_NATIVE:
+            case ROOT_CODE_CACHE:
+                if (pins.activeKey != null && name.contains(pins.activeKey)) {
+                    return TIER_PINNED;
+                }
+                return pins.inactiveKey != null && name.contains(pins.inactiveKey) ? TIER_ROLLBACK : TIER_STALE;
+            case ROOT_ODEX:
+                return TIER_ROLLBACK;
+            default:
+                return TIER_STALE;
+        }
+    }
+
+    private boolean tryEvict(Unit unit) {
+        try {
+            return evict(unit);
+        } catch (Exception e) {
+            // 单个产物删除失败不影响本轮其它产物，下一轮重新尝试
+            Log.w(TAG, "Failed to evict " + unit.path, e);
+            return false;
+        }
+    }
+
+    private boolean evict(Unit unit) {
+        File file = new File(unit.path);
+        switch (unit.root) {
+            case ROOT_DOWNLOADS: {
+                // 通过 PatchStorage 删除，同时销毁密钥和下载记录
+                String name = file.getName();
+                String id = name.endsWith(".enc") ? name.substring(0, name.length() - 4) : name;
+                if (patchStorage == null) {
+                    patchStorage = new PatchStorage(context);
+                }
+                patchStorage.deletePatch(id);
+                return !file.exists();
+            }
+            case ROOT_CODE_CACHE:
+                DexPatcher.deleteCodeCacheCopy(context, file.getName());
+                return !file.exists();
+            default:
+                deleteRecursively(file);
+                return !file.exists();
+        }
+    }
+
+    private int rootOf(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return -1;
+        }
+        for (int i = 0; i < roots.length; i++) {
+            if (roots[i].equals(parent)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isUnit(int root, File file) {
+        String name = file.getName();
+        if (name.startsWith(".")) {
+            // .nomedia 等标记文件
+            return false;
+        }
+        if (root == ROOT_CODE_CACHE) {
+            return file.isFile() && DexPatcher.isCodeCacheCopy(name);
+        }
+        if (root == ROOT_SLOT_A || root == ROOT_SLOT_B) {
+            // 覆盖资源包的禁用标记只有几个字节，随槽位删除
+            return !name.endsWith(".disabled");
+        }
+        return true;
+    }
+
+    private long sizeOf(int root, File file) {
+        if (root == ROOT_CODE_CACHE) {
+            long size = file.length();
+            for (File artifact : DexPatcher.listCompiledArtifacts(roots[ROOT_CODE_CACHE], file.getName())) {
+                size += artifact.length();
+            }
+            return size;
+        }
+        return sizeRecursively(file);
+    }
+
+    private static long sizeRecursively(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeRecursively(child);
+            }
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 当前活动槽位和回滚目标（每次淘汰前从 patch_storage_prefs 读取）
+     */
+    private static final class Pins {
+        final String activeSlot;
+        final String activeId;
+        final String inactiveId;
+        /** 派生产物文件名中的补丁哈希前缀 */
+        final String activeKey;
+        final String inactiveKey;
+
+        Pins(SharedPreferences prefs) {
+            activeSlot = PatchSlots.getActiveSlot(prefs);
+            activeId = prefs.getString("applied_patch_id", null);
+            inactiveId = PatchSlots.getInactivePatchId(prefs);
+            activeKey = hashKey(prefs.getString("applied_patch_hash", null));
+            inactiveKey = hashKey(PatchSlots.getInactivePatchHash(prefs));
+        }
+
+        private static String hashKey(String hash) {
+            return hash != null && hash.length() >= 16 ? hash.substring(0, 16) : null;
+        }
+    }
+
+    /**
+     * 账本中的一个产物单位，保存为 "目录序号,大小,最近使用时间"
+     */
+    private static final class Unit {
+        final String path;
+        final int root;
+        long size;
+        long lastUsed;
+        int tier;
+
+        Unit(String path, int root) {
+            this.path = path;
+            this.root = root;
+        }
+
+        String encode() {
+            return root + "," + size + "," + lastUsed;
+        }
+
+        static Unit parse(String path, Object value) {
+            if (!(value instanceof String)) {
+                return null;
+            }
+            String[] parts = ((String) value).split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                Unit unit = new Unit(path, Integer.parseInt(parts[0]));
+                unit.size = Long.parseLong(parts[1]);
+                unit.lastUsed = Long.parseLong(parts[2]);
+                return unit;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
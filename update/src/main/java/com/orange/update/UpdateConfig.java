@@ -12,6 +12,8 @@ public class UpdateConfig {
     
     private static final int DEFAULT_CONNECT_TIMEOUT = 10000; // 10 seconds
     private static final int DEFAULT_READ_TIMEOUT = 30000;    // 30 seconds
+    private static final int DEFAULT_DOWNLOAD_CONNECTIONS = 4;
+    private static final int MAX_DOWNLOAD_CONNECTIONS = 8;
     
     private final String serverUrl;
     private final String appKey;
@@ -19,6 +21,9 @@ public class UpdateConfig {
     private final int connectTimeout;
     private final int readTimeout;
     private final boolean debugMode;
+    private final int downloadConnections;
+    private final boolean secureOverwriteDelete;
+    private final long storageQuota;
     
     private UpdateConfig(Builder builder) {
         this.serverUrl = builder.serverUrl;
@@ -27,6 +32,9 @@ public class UpdateConfig {
         this.connectTimeout = builder.connectTimeout;
         this.readTimeout = builder.readTimeout;
         this.debugMode = builder.debugMode;
+        this.downloadConnections = builder.downloadConnections;
+        this.secureOverwriteDelete = builder.secureOverwriteDelete;
+        this.storageQuota = builder.storageQuota;
     }
     
     public String getServerUrl() {
@@ -53,6 +61,18 @@ public class UpdateConfig {
         return debugMode;
     }
     
+    public int getDownloadConnections() {
+        return downloadConnections;
+    }
+    
+    public boolean isSecureOverwriteDelete() {
+        return secureOverwriteDelete;
+    }
+    
+    public long getStorageQuota() {
+        return storageQuota;
+    }
+    
     /**
      * Builder 类用于构建 UpdateConfig 实例
      */
@@ -63,6 +83,9 @@ public class UpdateConfig {
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
         private int readTimeout = DEFAULT_READ_TIMEOUT;
         private boolean debugMode = false;
+        private int downloadConnections = DEFAULT_DOWNLOAD_CONNECTIONS;
+        private boolean secureOverwriteDelete = false;
+        private long storageQuota = StorageQuota.DEFAULT_BUDGET;
         
         public Builder() {
         }
@@ -135,6 +158,40 @@ public class UpdateConfig {
             return this;
         }
         
+        /**
+         * 设置分块下载的并行连接数（仅在服务器发布了分块哈希清单且支持 Range 时使用）
+         * @param connections 连接数，1 到 8
+         * @return Builder 实例
+         */
+        public Builder downloadConnections(int connections) {
+            if (connections <= 0 || connections > MAX_DOWNLOAD_CONNECTIONS) {
+                throw new IllegalArgumentException("Download connections must be between 1 and "
+                        + MAX_DOWNLOAD_CONNECTIONS);
+            }
+            this.downloadConnections = connections;
+            return this;
+        }
+        
+        /**
+         * 设置删除补丁文件时是否多次覆写内容（默认关闭，加密文件删除时销毁其密钥即可）
+         * @param overwrite 是否覆写
+         * @return Builder 实例
+         */
+        public Builder secureOverwriteDelete(boolean overwrite) {
+            this.secureOverwriteDelete = overwrite;
+            return this;
+        }
+        
+        /**
+         * 设置补丁相关文件（下载、槽位、明文副本、SO 缓存、代码缓存副本等）的磁盘预算
+         * @param bytes 字节数，不大于 0 时只统计不淘汰（默认 256 MB）
+         * @return Builder 实例
+         */
+        public Builder storageQuota(long bytes) {
+            this.storageQuota = bytes;
+            return this;
+        }
+        
         /**
          * 构建 UpdateConfig 实例
          * @return UpdateConfig 实例
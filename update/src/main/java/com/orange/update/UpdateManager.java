@@ -56,6 +56,7 @@ public class UpdateManager {
     private final Context context;
     private final UpdateConfig config;
     private final VersionChecker versionChecker;
+    private final CheckResultCache checkResultCache;
     private final PatchManager patchManager;
     private final PatchApplier patchApplier;
     
@@ -84,7 +85,8 @@ public class UpdateManager {
     private UpdateManager(Context context, UpdateConfig config) {
         this.context = context.getApplicationContext();
         this.config = config;
-        this.versionChecker = new VersionChecker(config);
+        this.checkResultCache = new CheckResultCache(this.context);
+        this.versionChecker = new VersionChecker(config, new ServerApi(config, checkResultCache));
         this.patchManager = new PatchManager(this.context, config);
         this.patchApplier = new PatchApplier(this.context, patchManager.getStorage());
         this.mainHandler = new Handler(Looper.getMainLooper());
@@ -101,6 +103,7 @@ public class UpdateManager {
         this.context = context.getApplicationContext();
         this.config = config;
         this.versionChecker = versionChecker;
+        this.checkResultCache = null;
         this.patchManager = patchManager;
         this.patchApplier = patchApplier;
         this.mainHandler = new Handler(Looper.getMainLooper());
@@ -223,7 +226,7 @@ public class UpdateManager {
                 String currentPatchVersion = getCurrentPatchVersion();
                 
                 // 检查更新
-                PatchInfo patchInfo = versionChecker.checkUpdate(currentPatchVersion);
+                PatchInfo patchInfo = versionChecker.checkUpdate(currentPatchVersion, getCurrentPatchHash());
                 
                 boolean hasUpdate = patchInfo != null;
                 
@@ -251,7 +254,23 @@ public class UpdateManager {
      */
     public PatchInfo checkUpdateSync() throws ServerApi.UpdateException {
         String currentPatchVersion = getCurrentPatchVersion();
-        return versionChecker.checkUpdate(currentPatchVersion);
+        return versionChecker.checkUpdate(currentPatchVersion, getCurrentPatchHash());
+    }
+    
+    /**
+     * 清除检查结果缓存和失败退避状态，下次检查必定请求服务器（如用户手动检查更新时）
+     */
+    public void clearCheckCache() {
+        if (checkResultCache != null) {
+            checkResultCache.clear();
+        }
+    }
+    
+    /**
+     * 获取当前已应用补丁文件的 SHA-256（用于服务器选择差分）
+     */
+    private String getCurrentPatchHash() {
+        return getCurrentPatchVersion() != null ? patchManager.getStorage().getAppliedPatchHash() : null;
     }
     
     /**
@@ -107,4 +107,23 @@ public final class VersionUtils {
         
         return true;
     }
+    
+    /**
+     * 取得 APK 的 versionCode（API 28+ 为包含 versionCodeMajor 的 getLongVersionCode()）
+     * 
+     * 使用反射调用 getLongVersionCode()，避免 D8/R8 生成合成类导致的 NoSuchMethodError；
+     * 反射失败时回退到 versionCode 字段。
+     */
+    @SuppressWarnings("deprecation")
+    static long getVersionCode(android.content.pm.PackageInfo packageInfo) {
+        if (android.os.Build.VERSION.SDK_INT >= 28) { // API 28 = Android P
+            try {
+                java.lang.reflect.Method method = packageInfo.getClass().getMethod("getLongVersionCode");
+                return (Long) method.invoke(packageInfo);
+            } catch (Exception e) {
+                // 反射失败，使用旧方法
+            }
+        }
+        return packageInfo.versionCode;
+    }
 }
@@ -41,13 +41,12 @@ public class ZipPasswordManager {
      * 检查 ZIP 文件是否加密
      */
     public boolean isEncrypted(File zipFile) {
-        try {
-            ZipFile zip = new ZipFile(zipFile);
-            return zip.isEncrypted();
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to check if ZIP is encrypted", e);
+        PatchArchiveIndex index = PatchArchiveIndex.of(zipFile);
+        if (index == null) {
+            Log.w(TAG, "Failed to check if ZIP is encrypted: " + zipFile);
             return false;
         }
+        return index.isEncrypted();
     }
     
     /**
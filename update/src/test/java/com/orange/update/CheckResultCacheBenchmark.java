@@ -0,0 +1,120 @@
+package com.orange.update;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 检查更新缓存基准测试
+ *
+ * 本地桩服务器每个请求延迟 5ms，顺序检查 1000 次，比较不使用缓存、max-age=0 + ETag（每次条件请求，
+ * 返回 304）和 max-age=300（新鲜期内不请求）三种情况的耗时中位数和请求数。
+ *
+ * 默认跳过，运行：./gradlew :update:testDebugUnitTest -Pbenchmark --tests '*CheckResultCacheBenchmark'
+ */
+public class CheckResultCacheBenchmark {
+
+    private static final int CHECKS = 1000;
+    private static final long LATENCY_MS = 5;
+    private static final String NO_UPDATE = "{\"code\":0,\"data\":{\"hasUpdate\":false}}";
+
+    static {
+        // 桩服务器分开写响应头和响应体，不关闭 Nagle 时回环上会叠加约 40ms 的延迟确认
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String cacheControl;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/check-update", this::handleCheck);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void sequentialChecks() throws Exception {
+        run("no cache", null, false);
+        run("max-age=0 + ETag", "max-age=0", true);
+        run("max-age=300", "max-age=300", true);
+    }
+
+    private void run(String name, String cacheControl, boolean useCache) throws Exception {
+        this.cacheControl = cacheControl;
+        requests.set(0);
+        File dataDir = temp.newFolder();
+        ServerApi api = new ServerApi(new UpdateConfig.Builder()
+                .serverUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .appKey("test")
+                .appVersion("1.0.0")
+                .build(), useCache ? new CheckResultCache(new TestContext(dataDir)) : null);
+
+        long[] samples = new long[CHECKS];
+        for (int i = 0; i < CHECKS; i++) {
+            long start = System.nanoTime();
+            assertNull(api.checkUpdate("test", "1.0.0", null));
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        System.out.println(String.format("[CheckResultCacheBenchmark] %-18s p50=%.3fms p99=%.3fms requests=%d",
+                name, samples[CHECKS / 2] / 1e6, samples[CHECKS * 99 / 100] / 1e6, requests.get()));
+    }
+
+    private void handleCheck(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // 读完请求体
+            }
+        }
+        requests.incrementAndGet();
+        try {
+            Thread.sleep(LATENCY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (cacheControl != null) {
+            exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        byte[] body = NO_UPDATE.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.orange.update;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 检查更新结果缓存测试
+ *
+ * 缓存本身的新鲜期上限、退避计算，以及 ServerApi 对本地桩服务器的条件请求（304 复用）、
+ * 新鲜期内不发请求、Retry-After 优先于指数退避。
+ */
+public class CheckResultCacheTest {
+
+    private static final String NO_UPDATE = "{\"code\":0,\"data\":{\"hasUpdate\":false}}";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private HttpServer server;
+    private CheckResultCache cache;
+    private ServerApi api;
+
+    /** 下一个响应 */
+    private volatile int responseCode = 200;
+    private volatile String responseBody = NO_UPDATE;
+    private volatile String etag;
+    private volatile String cacheControl;
+    private volatile String retryAfter;
+    /** 每个请求的 If-None-Match（没有时为空字符串） */
+    private final List<String> ifNoneMatch = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/check-update", this::handleCheck);
+        server.start();
+        cache = new CheckResultCache(new TestContext(temp.getRoot()));
+        api = new ServerApi(new UpdateConfig.Builder()
+                .serverUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .appKey("test")
+                .appVersion("1.0.0")
+                .build(), cache);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void maxAgeIsCappedAtMaxTtl() {
+        cache.put("key", NO_UPDATE, null, 7L * 24 * 60 * 60 * 1000);
+
+        CheckResultCache.Entry entry = cache.get("key");
+        assertNotNull(entry);
+        assertEquals(CheckResultCache.MAX_TTL_MS, entry.expiresAt - entry.storedAt);
+        assertNull(cache.get("other-key"));
+    }
+
+    @Test
+    public void parsesCacheControl() {
+        assertEquals(300_000, CheckResultCache.parseMaxAge("public, max-age=300"));
+        assertEquals(0, CheckResultCache.parseMaxAge("no-cache, max-age=300"));
+        assertEquals(CheckResultCache.NO_STORE, CheckResultCache.parseMaxAge("no-store"));
+        assertEquals(0, CheckResultCache.parseMaxAge(null));
+        assertEquals(0, CheckResultCache.parseMaxAge("max-age=abc"));
+    }
+
+    @Test
+    public void freshResultIsServedWithoutRequest() throws Exception {
+        cacheControl = "max-age=300";
+
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+
+        assertEquals(1, ifNoneMatch.size());
+    }
+
+    @Test
+    public void notModifiedReusesCachedBody() throws Exception {
+        etag = "\"v1\"";
+        cacheControl = "max-age=0";
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+
+        // 304 没有响应体，返回结果只能来自缓存
+        responseCode = 304;
+        responseBody = "";
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+
+        assertEquals(3, ifNoneMatch.size());
+        assertEquals("", ifNoneMatch.get(0));
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+        assertEquals("\"v1\"", ifNoneMatch.get(2));
+    }
+
+    @Test
+    public void retryAfterTakesPrecedenceOverBackoff() throws Exception {
+        responseCode = 503;
+        retryAfter = "120";
+
+        try {
+            api.checkUpdate("test", "1.0.0", null);
+            fail("expected UpdateException");
+        } catch (ServerApi.UpdateException e) {
+            assertEquals(UpdateErrorCode.ERROR_SERVER_ERROR, e.getErrorCode());
+        }
+
+        long remaining = cache.getBackoffRemaining();
+        assertTrue("remaining " + remaining, remaining > 110_000 && remaining <= 120_000);
+    }
+
+    @Test
+    public void backoffIsJitteredWithoutRetryAfter() {
+        long first = cache.onFailure(-1);
+        assertTrue("first " + first, first >= CheckResultCache.BASE_BACKOFF_MS / 2
+                && first < CheckResultCache.BASE_BACKOFF_MS);
+        long second = cache.onFailure(-1);
+        assertTrue("second " + second, second >= CheckResultCache.BASE_BACKOFF_MS
+                && second < CheckResultCache.BASE_BACKOFF_MS * 2);
+        // Retry-After 同样受上限约束
+        assertEquals(CheckResultCache.MAX_BACKOFF_MS, cache.onFailure(CheckResultCache.MAX_BACKOFF_MS * 2));
+    }
+
+    @Test
+    public void backoffServesStaleResultWithoutRequest() throws Exception {
+        cacheControl = "max-age=0";
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+
+        responseCode = 500;
+        try {
+            api.checkUpdate("test", "1.0.0", null);
+            fail("expected UpdateException");
+        } catch (ServerApi.UpdateException e) {
+            assertEquals(UpdateErrorCode.ERROR_SERVER_ERROR, e.getErrorCode());
+        }
+
+        // 退避期内返回旧结果，不再请求服务器
+        assertNull(api.checkUpdate("test", "1.0.0", null));
+        assertEquals(2, ifNoneMatch.size());
+    }
+
+    private void handleCheck(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // 读完请求体
+            }
+        }
+        String header = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifNoneMatch.add(header != null ? header : "");
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        if (cacheControl != null) {
+            exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        }
+        if (retryAfter != null) {
+            exchange.getResponseHeaders().set("Retry-After", retryAfter);
+        }
+        byte[] body = responseBody.getBytes(StandardCharsets.UTF_8);
+        if (responseCode == 304 || body.length == 0) {
+            exchange.sendResponseHeaders(responseCode, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(responseCode, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.orange.update;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分块并行下载测试
+ *
+ * 使用本地 com.sun.net.httpserver 桩服务器发布补丁和分块哈希清单，覆盖并行 Range 下载、
+ * 损坏分块重新下载、断点续传时校验已有分块，以及服务器不支持 Range 时回退到单连接下载。
+ */
+public class ChunkedDownloaderTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int TOTAL_SIZE = CHUNK_SIZE * 10 + 1000;
+    private static final int CHUNK_COUNT = 11;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final byte[] content = new byte[TOTAL_SIZE];
+    private HttpServer server;
+    private ExecutorService executor;
+    private String patchUrl;
+
+    /** 服务器是否支持 Range（不支持时对所有请求返回 200 和完整内容） */
+    private volatile boolean rangeSupported = true;
+    /** 第一次下发时损坏的分块（-1 表示不损坏） */
+    private volatile int corruptChunkOnce = -1;
+    /** 并行请求的检测：前两个 Range 请求互相等待 */
+    private final CountDownLatch concurrentRanges = new CountDownLatch(2);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    /** 补丁文件的请求头 Range（没有时为空字符串），按到达顺序 */
+    private final List<String> rangeHeaders = Collections.synchronizedList(new ArrayList<String>());
+    /** 每个分块被下发的次数 */
+    private final int[] chunkServed = new int[CHUNK_COUNT];
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/patch.bin.chunks.json", this::handleManifest);
+        server.createContext("/patch.bin", this::handlePatch);
+        server.start();
+        patchUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/patch.bin";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void downloadsRangesInParallel() throws Exception {
+        File target = new File(temp.getRoot(), "patch.bin");
+        RecordingCallback callback = new RecordingCallback();
+
+        newDownloader(4).download(patchUrl, target, callback);
+
+        assertNull(callback.error, callback.error);
+        assertEquals(target, callback.success);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertTrue("expected concurrent range requests, max in flight " + maxInFlight.get(),
+                maxInFlight.get() >= 2);
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            assertEquals("chunk " + i, 1, chunkServed[i]);
+        }
+        assertEquals(TOTAL_SIZE, callback.lastProgress);
+    }
+
+    @Test
+    public void refetchesCorruptChunk() throws Exception {
+        corruptChunkOnce = 3;
+        File target = new File(temp.getRoot(), "patch.bin");
+        RecordingCallback callback = new RecordingCallback();
+
+        newDownloader(2).download(patchUrl, target, callback);
+
+        assertNull(callback.error, callback.error);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(2, chunkServed[3]);
+        // 只重新下载校验失败的分块
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            if (i != 3) {
+                assertTrue("chunk " + i + " served " + chunkServed[i], chunkServed[i] <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void resumeVerifiesExistingChunks() throws Exception {
+        // 已有前 5 个分块，其中分块 2 已损坏
+        File target = new File(temp.getRoot(), "patch.bin");
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.write(content, 0, CHUNK_SIZE * 5);
+            file.seek(CHUNK_SIZE * 2 + 10);
+            file.write(content[CHUNK_SIZE * 2 + 10] ^ 0xff);
+        }
+        RecordingCallback callback = new RecordingCallback();
+
+        newDownloader(2).download(patchUrl, target, callback);
+
+        assertNull(callback.error, callback.error);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(CHUNK_SIZE * 4, callback.firstProgress);
+        assertEquals(0, chunkServed[0]);
+        assertEquals(0, chunkServed[1]);
+        assertEquals(1, chunkServed[2]);
+        assertEquals(0, chunkServed[3]);
+        assertEquals(0, chunkServed[4]);
+        for (int i = 5; i < CHUNK_COUNT; i++) {
+            assertEquals("chunk " + i, 1, chunkServed[i]);
+        }
+    }
+
+    @Test
+    public void fallsBackToSingleStreamWithoutRangeSupport() throws Exception {
+        rangeSupported = false;
+        File target = new File(temp.getRoot(), "patch.bin");
+        RecordingCallback callback = new RecordingCallback();
+
+        newDownloader(4).download(patchUrl, target, callback);
+
+        assertNull(callback.error, callback.error);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // Range 探测返回 200 后只发起一个不带 Range 的完整请求
+        assertEquals(2, rangeHeaders.size());
+        assertEquals("bytes=0-0", rangeHeaders.get(0));
+        assertEquals("", rangeHeaders.get(1));
+    }
+
+    private ChunkedDownloader newDownloader(int connections) {
+        return new ChunkedDownloader(new UpdateConfig.Builder()
+                .serverUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .appKey("test")
+                .appVersion("1.0.0")
+                .downloadConnections(connections)
+                .build());
+    }
+
+    private void handleManifest(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"version\":1,\"algorithm\":\"SHA-256\",\"chunkSize\":").append(CHUNK_SIZE)
+                .append(",\"totalSize\":").append(TOTAL_SIZE).append(",\"chunks\":[");
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            int start = i * CHUNK_SIZE;
+            int end = Math.min(TOTAL_SIZE, start + CHUNK_SIZE);
+            json.append(i > 0 ? "," : "").append('"').append(sha256(start, end)).append('"');
+        }
+        json.append("]}");
+        respond(exchange, 200, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handlePatch(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        rangeHeaders.add(range != null ? range : "");
+        if (range == null || !rangeSupported) {
+            respond(exchange, 200, content);
+            return;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        int start = Integer.parseInt(bounds[0]);
+        int end = Integer.parseInt(bounds[1]) + 1;
+        byte[] body = new byte[end - start];
+        System.arraycopy(content, start, body, 0, body.length);
+
+        if (end - start > 1) {
+            // 分块请求（非 0-0 探测）
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            concurrentRanges.countDown();
+            try {
+                concurrentRanges.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (chunkServed) {
+                for (int chunk = start / CHUNK_SIZE; chunk * CHUNK_SIZE < end; chunk++) {
+                    chunkServed[chunk]++;
+                    if (chunk == corruptChunkOnce && chunkServed[chunk] == 1) {
+                        body[chunk * CHUNK_SIZE - start + 7] ^= 0xff;
+                    }
+                }
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Range",
+                "bytes " + start + "-" + (end - 1) + "/" + TOTAL_SIZE);
+        try {
+            respond(exchange, 206, body);
+        } finally {
+            if (end - start > 1) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String sha256(int start, int end) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, start, end - start);
+            return Md5Utils.toHex(digest.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 记录回调结果（下载在调用线程上同步完成）
+     */
+    private static final class RecordingCallback implements DownloadCallback {
+        volatile long firstProgress = -1;
+        volatile long lastProgress = -1;
+        volatile File success;
+        volatile String error;
+
+        @Override
+        public void onProgress(long current, long total) {
+            if (firstProgress < 0) {
+                firstProgress = current;
+            }
+            lastProgress = current;
+        }
+
+        @Override
+        public void onSuccess(File file) {
+            success = file;
+        }
+
+        @Override
+        public void onError(int errorCode, String message) {
+            error = errorCode + ": " + message;
+        }
+    }
+}
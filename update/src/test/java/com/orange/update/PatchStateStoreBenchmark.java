@@ -0,0 +1,171 @@
+package com.orange.update;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * 补丁启动状态读取基准测试
+ *
+ * 比较冷启动读取热字段的两种方式：解析整个 patch_storage_prefs XML（含 5 / 50 / 200 个补丁的
+ * patch_info_&lt;id&gt; JSON），与读取 patch_state.bin 快照。XML 用 JDK 的 SAX 解析器代替设备上的
+ * KXmlParser，按 SharedPreferencesImpl 的方式把所有条目读入 Map；两者都包含读文件的开销。
+ *
+ * 默认跳过，运行：./gradlew :update:testDebugUnitTest -Pbenchmark --tests '*PatchStateStoreBenchmark'
+ */
+public class PatchStateStoreBenchmark {
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 1000;
+    private static final long[] STAT = {1234, 1700000000000L, 0};
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void startupRead() throws Exception {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        Map<String, Object> hot = new HashMap<>();
+        hot.put("applied_patch_id", "patch_0");
+        hot.put("applied_patch_hash", "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        hot.put("apk_version_code", 100L);
+        hot.put("apk_version_name", "1.0.0");
+        hot.put("patch_had_signature", true);
+        hot.put("patch_verified_state", "1:1234:1700000000000:1700000000000:65536:"
+                + "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        hot.put("active_slot", 0);
+
+        File stateFile = new File(temp.getRoot(), "patch_state.bin");
+        assertTrue(PatchStateStore.write(stateFile, STAT, hot));
+
+        for (int patches : new int[]{5, 50, 200}) {
+            File prefsFile = new File(temp.getRoot(), "prefs_" + patches + ".xml");
+            Files.write(prefsFile.toPath(), prefsXml(hot, patches).getBytes(StandardCharsets.UTF_8));
+
+            long[] xml = new long[ITERATIONS];
+            long[] snapshot = new long[ITERATIONS];
+            for (int i = -WARMUP; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                Map<String, Object> all = parsePrefs(factory.newSAXParser(), prefsFile);
+                long mid = System.nanoTime();
+                Map<String, Object> values = PatchStateStore.read(stateFile, STAT);
+                long end = System.nanoTime();
+                assertEquals("patch_0", all.get("applied_patch_id"));
+                assertEquals("patch_0", values.get("applied_patch_id"));
+                if (i >= 0) {
+                    xml[i] = mid - start;
+                    snapshot[i] = end - mid;
+                }
+            }
+            Arrays.sort(xml);
+            Arrays.sort(snapshot);
+            System.out.println(String.format(
+                    "[PatchStateStoreBenchmark] %3d patches: prefs xml %6d bytes p50=%.1fus, snapshot %d bytes p50=%.1fus",
+                    patches, prefsFile.length(), xml[ITERATIONS / 2] / 1e3,
+                    stateFile.length(), snapshot[ITERATIONS / 2] / 1e3));
+        }
+    }
+
+    /**
+     * 生成 SharedPreferences 格式的 XML：热字段、补丁 ID 列表和每个补丁的 patch_info JSON
+     */
+    private static String prefsXml(Map<String, Object> hot, int patches) {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (Map.Entry<String, Object> entry : hot.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                xml.append("    <string name=\"").append(entry.getKey()).append("\">")
+                        .append(value).append("</string>\n");
+            } else {
+                String tag = value instanceof Long ? "long" : value instanceof Integer ? "int" : "boolean";
+                xml.append("    <").append(tag).append(" name=\"").append(entry.getKey())
+                        .append("\" value=\"").append(value).append("\" />\n");
+            }
+        }
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < patches; i++) {
+            ids.append(i > 0 ? "," : "").append("patch_").append(i);
+            xml.append("    <string name=\"patch_info_patch_").append(i).append("\">")
+                    .append("{&quot;patchId&quot;:&quot;patch_").append(i)
+                    .append("&quot;,&quot;patchVersion&quot;:&quot;1.0.").append(i)
+                    .append("&quot;,&quot;targetAppVersion&quot;:&quot;1.0.0")
+                    .append("&quot;,&quot;packageName&quot;:&quot;com.orange.demo")
+                    .append("&quot;,&quot;downloadUrl&quot;:&quot;https://patch.example.com/api/v1/patches/patch_")
+                    .append(i).append("/download&quot;,&quot;fileSize&quot;:").append(100000 + i)
+                    .append(",&quot;md5&quot;:&quot;d41d8cd98f00b204e9800998ecf8427e")
+                    .append("&quot;,&quot;createTime&quot;:1700000000000")
+                    .append(",&quot;description&quot;:&quot;fix crash in checkout flow&quot;}")
+                    .append("</string>\n");
+        }
+        xml.append("    <string name=\"downloaded_patch_ids\">").append(ids).append("</string>\n");
+        return xml.append("</map>\n").toString();
+    }
+
+    /**
+     * 按 XmlUtils.readMapXml 的方式把所有条目读入 Map
+     */
+    private static Map<String, Object> parsePrefs(SAXParser parser, File prefsFile) throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        parser.parse(prefsFile, new DefaultHandler() {
+            private String name;
+            private final StringBuilder text = new StringBuilder();
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                name = attributes.getValue("name");
+                text.setLength(0);
+                String value = attributes.getValue("value");
+                if (name == null || value == null) {
+                    return;
+                }
+                switch (qName) {
+                    case "long":
+                        map.put(name, Long.parseLong(value));
+                        break;
+                    case "int":
+                        map.put(name, Integer.parseInt(value));
+                        break;
+                    case "boolean":
+                        map.put(name, Boolean.parseBoolean(value));
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                text.append(ch, start, length);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                if ("string".equals(qName) && name != null) {
+                    map.put(name, text.toString());
+                }
+            }
+        });
+        return map;
+    }
+}
@@ -0,0 +1,211 @@
+package com.orange.update;
+
+import android.content.SharedPreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * 补丁启动状态快照测试
+ *
+ * 读写往返（含按前缀匹配、随键名保存的字段）、CRC 损坏、头部 stat 与 prefs 文件不匹配、
+ * 未知键序号（新版本追加的字段）被跳过，以及 open() 在快照有效时从快照读取热字段。
+ */
+public class PatchStateStoreTest {
+
+    private static final long[] STAT = {1234, 1700000000000L, 4096};
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        File stateFile = new File(temp.getRoot(), "update/patch_state.bin");
+        Map<String, Object> values = hotValues();
+
+        assertTrue(PatchStateStore.write(stateFile, STAT, values));
+
+        assertEquals(values, PatchStateStore.read(stateFile, STAT));
+        assertFalse(new File(stateFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void corruptedSnapshotIsRejected() throws IOException {
+        File stateFile = new File(temp.getRoot(), "patch_state.bin");
+        assertTrue(PatchStateStore.write(stateFile, STAT, hotValues()));
+        byte[] data = Files.readAllBytes(stateFile.toPath());
+
+        for (int i = 0; i < data.length; i++) {
+            byte[] corrupted = data.clone();
+            corrupted[i] ^= 0x01;
+            Files.write(stateFile.toPath(), corrupted);
+            assertNull("flipped byte " + i, PatchStateStore.read(stateFile, STAT));
+        }
+
+        Files.write(stateFile.toPath(), new byte[]{'H', 'U', 'S', 'T'});
+        assertNull(PatchStateStore.read(stateFile, STAT));
+        assertNull(PatchStateStore.read(new File(temp.getRoot(), "missing.bin"), STAT));
+    }
+
+    @Test
+    public void statMismatchIsRejected() throws IOException {
+        File stateFile = new File(temp.getRoot(), "patch_state.bin");
+        assertTrue(PatchStateStore.write(stateFile, STAT, hotValues()));
+
+        for (int i = 0; i < STAT.length; i++) {
+            long[] changed = STAT.clone();
+            changed[i]++;
+            assertNull("stat field " + i, PatchStateStore.read(stateFile, changed));
+        }
+        assertNotNull(PatchStateStore.read(stateFile, STAT));
+    }
+
+    @Test
+    public void unknownKeyIndexIsSkipped() throws IOException {
+        // 新版本追加的字段：旧版本按类型读取值后丢弃，不影响其它字段
+        int unknown = PatchStateStore.HOT_KEYS.size();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        writeHeader(out, 4);
+        out.writeByte(0);
+        out.writeByte(1);
+        out.writeUTF("patch_1");
+        out.writeByte(unknown);
+        out.writeByte(1);
+        out.writeUTF("future value");
+        out.writeByte(unknown + 1);
+        out.writeByte(2);
+        out.writeLong(42L);
+        out.writeByte(PatchStateStore.HOT_KEYS.indexOf("active_slot"));
+        out.writeByte(3);
+        out.writeInt(1);
+        File stateFile = writeWithCrc(buffer.toByteArray());
+
+        Map<String, Object> values = PatchStateStore.read(stateFile, STAT);
+
+        assertNotNull(values);
+        assertEquals(2, values.size());
+        assertEquals("patch_1", values.get("applied_patch_id"));
+        assertEquals(1, values.get("active_slot"));
+    }
+
+    @Test
+    public void unknownValueTypeIsRejected() throws IOException {
+        // 无法跳过未知类型的值，整个快照作废
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        writeHeader(out, 1);
+        out.writeByte(0);
+        out.writeByte(9);
+        out.writeLong(0);
+        File stateFile = writeWithCrc(buffer.toByteArray());
+
+        assertNull(PatchStateStore.read(stateFile, STAT));
+    }
+
+    @Test
+    public void unsupportedValueIsNotWritten() {
+        File stateFile = new File(temp.getRoot(), "patch_state.bin");
+        Map<String, Object> values = new HashMap<>();
+        values.put("applied_patch_id", 1.5f);
+
+        assertFalse(PatchStateStore.write(stateFile, STAT, values));
+        assertFalse(stateFile.exists());
+    }
+
+    @Test
+    public void nonHotKeyIsNotWritten() throws IOException {
+        File stateFile = new File(temp.getRoot(), "patch_state.bin");
+        Map<String, Object> values = hotValues();
+        values.put("patch_info_patch_1", "{}");
+
+        assertTrue(PatchStateStore.write(stateFile, STAT, values));
+
+        values.remove("patch_info_patch_1");
+        assertEquals(values, PatchStateStore.read(stateFile, STAT));
+    }
+
+    @Test
+    public void openServesHotKeysFromValidSnapshot() throws Exception {
+        TestContext context = new TestContext(temp.getRoot());
+        File prefsFile = new File(temp.getRoot(), "shared_prefs/" + PatchStateStore.PREFS_NAME + ".xml");
+        prefsFile.getParentFile().mkdirs();
+        Files.write(prefsFile.toPath(), "<map />".getBytes("UTF-8"));
+        SharedPreferences prefs = context.getSharedPreferences(PatchStateStore.PREFS_NAME, 0);
+        prefs.edit().putString("applied_patch_id", "patch_1").putLong("apk_version_code", 7L)
+                .putString("code_cache_copy_patch_1.zip", "record_1").commit();
+
+        // 没有快照：返回真实 prefs，后台生成快照
+        assertSame(prefs, PatchStateStore.open(context));
+        File stateFile = PatchStateStore.getStateFile(context);
+        for (int i = 0; i < 100 && !stateFile.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(stateFile.exists());
+
+        // prefs XML 未变化：热字段从快照读取（内存中的值在这里故意改掉，以区分数据来源）
+        prefs.edit().putString("applied_patch_id", "patch_2").putString("code_cache_copy_patch_1.zip", "record_2")
+                .commit();
+        SharedPreferences snapshot = PatchStateStore.open(context);
+        assertNotSame(prefs, snapshot);
+        assertEquals("patch_1", snapshot.getString("applied_patch_id", null));
+        assertEquals(7L, snapshot.getLong("apk_version_code", 0));
+        assertEquals("record_1", snapshot.getString("code_cache_copy_patch_1.zip", null));
+        assertFalse(snapshot.contains("code_cache_copy_patch_2.zip"));
+        assertFalse(snapshot.contains("active_slot"));
+
+        // edit() 之后全部读取真实 prefs
+        snapshot.edit().apply();
+        assertEquals("patch_2", snapshot.getString("applied_patch_id", null));
+
+        // prefs XML 被替换后快照失效
+        Files.write(prefsFile.toPath(), "<map></map>".getBytes("UTF-8"));
+        assertSame(prefs, PatchStateStore.open(context));
+    }
+
+    private static Map<String, Object> hotValues() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("applied_patch_id", "patch_20240101");
+        values.put("applied_patch_hash", "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        values.put("apk_version_code", 12345678901L);
+        values.put("apk_version_name", "1.2.3");
+        values.put("patch_had_signature", true);
+        values.put("is_zip_password_protected", false);
+        values.put("active_slot", 1);
+        values.put("code_cache_copy_patch_9f86d081.zip", "v1|1234|1700000000000");
+        return values;
+    }
+
+    private static void writeHeader(DataOutputStream out, int count) throws IOException {
+        out.write(new byte[]{'H', 'U', 'S', 'T'});
+        out.writeShort(2);
+        out.writeShort(count);
+        out.writeLong(STAT[0]);
+        out.writeLong(STAT[1]);
+        out.writeLong(STAT[2]);
+    }
+
+    private File writeWithCrc(byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+        File stateFile = new File(temp.getRoot(), "patch_state.bin");
+        Files.write(stateFile.toPath(), buffer.toByteArray());
+        return stateFile;
+    }
+}